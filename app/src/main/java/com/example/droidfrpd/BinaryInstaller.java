@@ -0,0 +1,217 @@
+package com.example.droidfrpd;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetManager;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 从 assets 中解压 frpc/frps 二进制。
+ *
+ * 按设备支持的 ABI 依次查找 assets/&lt;abi&gt;/&lt;name&gt;，找不到时使用 assets/&lt;name&gt;。
+ * assets/binaries.manifest 记录每个二进制的版本和 SHA-256（每行 "路径 版本 sha256"），
+ * 已解压文件的来源记录在旁边的 stamp 文件中，只有哈希变化时才重新解压。
+ * 没有清单条目时以 APK 的更新时间作为版本，应用更新后重新解压。
+ * 解压时先写入临时文件并校验，再重命名替换，中途失败不会留下损坏的二进制。
+ */
+final class BinaryInstaller {
+
+    private static final String TAG = "BinaryInstaller";
+
+    static final String MANIFEST = "binaries.manifest";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final Context context;
+    private final AssetManager assets;
+    private final String[] abis;
+    private Map<String, String[]> manifest;
+    private final Map<String, String[]> assetLists = new HashMap<>();
+
+    BinaryInstaller(Context context) {
+        this.context = context;
+        this.assets = context.getAssets();
+        this.abis = supportedAbis();
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String[] supportedAbis() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return Build.SUPPORTED_ABIS;
+        }
+        if (Build.CPU_ABI2 != null && !Build.CPU_ABI2.isEmpty() && !"unknown".equals(Build.CPU_ABI2)) {
+            return new String[]{Build.CPU_ABI, Build.CPU_ABI2};
+        }
+        return new String[]{Build.CPU_ABI};
+    }
+
+    /**
+     * 确保 target 是当前 APK 中对应二进制的最新版本，在后台线程调用。
+     * 返回 true 表示进行了解压；APK 中没有该二进制时抛出 FileNotFoundException。
+     */
+    boolean install(String name, File target) throws IOException {
+        String assetPath = selectAsset(name);
+        if (assetPath == null) {
+            throw new FileNotFoundException("No bundled " + name + " for ABIs " + Arrays.toString(abis));
+        }
+        String[] entry = manifest().get(assetPath);
+        String expectedHash = entry != null ? entry[1] : null;
+        String stamp = assetPath + " " + (expectedHash != null ? expectedHash : "apk-" + apkUpdateTime());
+
+        File stampFile = new File(target.getParentFile(), "." + target.getName() + ".stamp");
+        if (target.exists() && target.length() > 0 && stampFile.exists()) {
+            try {
+                if (stamp.equals(FrpConfigFiles.readText(stampFile).trim())) {
+                    return false;
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read " + stampFile.getName(), e);
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+        String hash;
+        try {
+            hash = copy(assetPath, temp);
+            if (expectedHash != null && !expectedHash.equalsIgnoreCase(hash)) {
+                throw new IOException("Checksum mismatch for " + assetPath + ": expected " + expectedHash
+                        + ", got " + hash);
+            }
+            if (!temp.setExecutable(true)) {
+                throw new IOException("Could not make " + temp.getName() + " executable");
+            }
+            // 同一目录内重命名是原子的；正在运行的旧进程不受影响
+            if (!temp.renameTo(target)) {
+                throw new IOException("Could not rename " + temp.getName() + " to " + target.getName());
+            }
+        } finally {
+            if (temp.exists()) {
+                temp.delete();
+            }
+        }
+        FrpConfigFiles.writeText(stampFile, stamp + "\n");
+        Log.i(TAG, "Extracted " + assetPath + " (" + (entry != null ? entry[0] : "unversioned") + ", sha256 "
+                + hash + ") in " + (System.currentTimeMillis() - start) + " ms");
+        return true;
+    }
+
+    // 按 ABI 优先级选择 assets 路径
+    private String selectAsset(String name) throws IOException {
+        for (String abi : abis) {
+            if (contains(abi, name)) {
+                return abi + "/" + name;
+            }
+        }
+        return contains("", name) ? name : null;
+    }
+
+    private boolean contains(String dir, String name) throws IOException {
+        String[] list = assetLists.get(dir);
+        if (list == null) {
+            list = assets.list(dir);
+            if (list == null) {
+                list = new String[0];
+            }
+            assetLists.put(dir, list);
+        }
+        for (String item : list) {
+            if (item.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 路径 -> {版本, sha256}
+    private Map<String, String[]> manifest() {
+        if (manifest != null) {
+            return manifest;
+        }
+        manifest = new HashMap<>();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(assets.open(MANIFEST),
+                    StandardCharsets.UTF_8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    String[] parts = line.split("\\s+");
+                    if (parts.length >= 3) {
+                        manifest.put(parts[0], new String[]{parts[1], parts[2]});
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (FileNotFoundException e) {
+            Log.i(TAG, "No " + MANIFEST + ", using APK update time as binary version");
+        } catch (IOException e) {
+            Log.w(TAG, "Error reading " + MANIFEST, e);
+        }
+        return manifest;
+    }
+
+    private long apkUpdateTime() {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
+    // 复制到 temp 并同步到磁盘，返回内容的 SHA-256
+    private String copy(String assetPath, File temp) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        InputStream in = assets.open(assetPath, AssetManager.ACCESS_STREAMING);
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                int length;
+                while ((length = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, length);
+                    out.write(buffer, 0, length);
+                }
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[i * 2] = digits[(bytes[i] >> 4) & 0xF];
+            out[i * 2 + 1] = digits[bytes[i] & 0xF];
+        }
+        return new String(out);
+    }
+}
@@ -4,8 +4,6 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -32,32 +30,26 @@ public class BootReceiver extends BroadcastReceiver {
             Log.d(TAG, "Loaded preferences - autoStart: " + autoStart + ", mode: " + mode);
             
             if (autoStart) {
-                Log.i(TAG, "Auto-start enabled, scheduling service start in 10 seconds for mode: " + mode);
-                
-                // 使用主线程Handler确保在主线程中执行
-                Handler handler = new Handler(Looper.getMainLooper());
-                handler.postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            Intent serviceIntent = new Intent(appContext, FRPService.class);
-                            serviceIntent.putExtra("mode", mode);
-                            
-                            // 在Android 8.0及以上版本中启动前台服务
-                            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
-                                Log.d(TAG, "Starting foreground service for Android O+");
-                                appContext.startForegroundService(serviceIntent);
-                            } else {
-                                Log.d(TAG, "Starting service for Android < O");
-                                appContext.startService(serviceIntent);
-                            }
-                            
-                            Log.i(TAG, "FRP service auto-started in " + mode + " mode");
-                        } catch (Exception e) {
-                            Log.e(TAG, "Failed to start FRP service", e);
-                        }
+                // 立即启动服务，由服务等待网络就绪后再启动 frp，不再固定延迟
+                Log.i(TAG, "Auto-start enabled, starting service for mode: " + mode);
+                try {
+                    Intent serviceIntent = new Intent(appContext, FRPService.class);
+                    serviceIntent.putExtra("mode", mode);
+                    serviceIntent.putExtra(FRPService.EXTRA_BOOT, true);
+                    
+                    // 在Android 8.0及以上版本中启动前台服务
+                    if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
+                        Log.d(TAG, "Starting foreground service for Android O+");
+                        appContext.startForegroundService(serviceIntent);
+                    } else {
+                        Log.d(TAG, "Starting service for Android < O");
+                        appContext.startService(serviceIntent);
                     }
-                }, 10000); // 延迟10秒启动
+                    
+                    Log.i(TAG, "FRP service auto-started in " + mode + " mode");
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to start FRP service", e);
+                }
             } else {
                 Log.d(TAG, "Auto-start disabled, not starting service");
             }
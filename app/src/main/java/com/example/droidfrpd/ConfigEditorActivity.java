@@ -1,24 +1,71 @@
 package com.example.droidfrpd;
 
 import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.ComponentName;
+import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.support.v4.content.ContextCompat;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.View;
 import android.widget.EditText;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ConfigEditorActivity extends Activity {
     
+    private static final String TAG = "ConfigEditorActivity";
+    
+    // 停止输入这么久后才重新校验
+    private static final long VALIDATE_DELAY_MS = 300;
+    
     private EditText configEditText;
+    private TextView configStatusText;
     private String configFileName;
     private File configFile;
+    private boolean serverConfig;
+    private FRPService frpService;
+    private boolean isServiceBound = false;
+    
+    private final Handler handler = new Handler();
+    // 文件读写和校验在同一个后台线程上按顺序执行，大配置也不会卡住 UI
+    private ExecutorService backgroundExecutor;
+    private TomlHighlighter highlighter;
+    // 文件载入完成前不允许编辑和保存，避免用空内容覆盖配置
+    private boolean loaded = false;
+    // 每次修改递增，丢弃过期的校验结果
+    private int validationGeneration = 0;
+    private FrpConfigValidator.Problem firstProblem;
+    
+    private ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            frpService = ((FRPService.LocalBinder) service).getService();
+            isServiceBound = true;
+        }
+        
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            isServiceBound = false;
+            frpService = null;
+        }
+    };
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -26,6 +73,15 @@ public class ConfigEditorActivity extends Activity {
         setContentView(R.layout.activity_config_editor);
         
         configEditText = findViewById(R.id.config_edit_text);
+        configStatusText = findViewById(R.id.config_status_text);
+        configStatusText.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                jumpToProblem(firstProblem);
+            }
+        });
+        backgroundExecutor = Executors.newSingleThreadExecutor();
+        highlighter = new TomlHighlighter(this, handler);
         
         Intent intent = getIntent();
         configFileName = intent.getStringExtra("config_file");
@@ -44,34 +100,315 @@ public class ConfigEditorActivity extends Activity {
         }
         
         configFile = new File(getFilesDir(), configFileName);
+        serverConfig = FrpInstance.FRPS.equals(FrpInstance.binaryNameFor(instanceName()));
         loadConfigFile();
     }
     
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        handler.removeCallbacks(validateRunnable);
+        highlighter.cancel();
+        // 不中断已排队的保存
+        backgroundExecutor.shutdown();
+    }
+    
+    private String instanceName() {
+        return configFileName.substring(0, configFileName.length() - ".toml".length());
+    }
+    
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // 只连接已在运行的服务，不因编辑配置而启动服务
+        bindService(new Intent(this, FRPService.class), serviceConnection, 0);
+    }
+    
+    @Override
+    protected void onStop() {
+        super.onStop();
+        unbindService(serviceConnection);
+        isServiceBound = false;
+        frpService = null;
+    }
+    
+    // 在后台线程读取，完成后再显示并开始着色
     private void loadConfigFile() {
-        try {
-            if (configFile.exists()) {
-                FileInputStream fis = new FileInputStream(configFile);
-                byte[] data = new byte[(int) configFile.length()];
-                fis.read(data);
-                fis.close();
-                String configContent = new String(data);
-                configEditText.setText(configContent);
+        configEditText.setEnabled(false);
+        configStatusText.setText("Loading " + configFileName + "...");
+        backgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String content = "";
+                IOException error = null;
+                try {
+                    if (configFile.exists()) {
+                        content = FrpConfigFiles.readText(configFile);
+                    }
+                } catch (IOException e) {
+                    error = e;
+                }
+                final String loadedContent = content;
+                final IOException loadError = error;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onConfigLoaded(loadedContent, loadError);
+                    }
+                });
             }
-        } catch (IOException e) {
-            Toast.makeText(this, "Error reading config file: " + e.getMessage(), Toast.LENGTH_LONG).show();
+        });
+    }
+    
+    private void onConfigLoaded(String content, IOException error) {
+        if (isFinishing()) {
+            return;
+        }
+        if (error != null) {
+            configStatusText.setText("Error reading config file: " + error.getMessage());
+            Toast.makeText(this, "Error reading config file: " + error.getMessage(), Toast.LENGTH_LONG).show();
+            return;
+        }
+        configEditText.setText(content);
+        configEditText.setEnabled(true);
+        loaded = true;
+        highlighter.highlightAll(configEditText.getText());
+        configEditText.addTextChangedListener(highlighter);
+        configEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+            
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+            
+            @Override
+            public void afterTextChanged(Editable s) {
+                scheduleValidation();
+            }
+        });
+        scheduleValidation();
+    }
+    
+    private void scheduleValidation() {
+        validationGeneration++;
+        handler.removeCallbacks(validateRunnable);
+        handler.postDelayed(validateRunnable, VALIDATE_DELAY_MS);
+    }
+    
+    private final Runnable validateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            final String content = configEditText.getText().toString();
+            final int generation = validationGeneration;
+            backgroundExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final FrpConfigValidator.Result result = FrpConfigValidator.validate(content, serverConfig);
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation == validationGeneration && !isFinishing()) {
+                                showValidation(result);
+                            }
+                        }
+                    });
+                }
+            });
+        }
+    };
+    
+    private void showValidation(FrpConfigValidator.Result result) {
+        firstProblem = result.first();
+        if (firstProblem == null) {
+            configStatusText.setText("No problems found");
+            configStatusText.setTextColor(ContextCompat.getColor(this, R.color.log_debug));
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        if (result.hasErrors()) {
+            text.append(result.getErrorCount()).append(result.getErrorCount() == 1 ? " error" : " errors");
+        }
+        if (result.getWarningCount() > 0) {
+            text.append(text.length() > 0 ? ", " : "").append(result.getWarningCount())
+                    .append(result.getWarningCount() == 1 ? " warning" : " warnings");
+        }
+        text.append('\n').append(firstProblem);
+        configStatusText.setText(text);
+        configStatusText.setTextColor(ContextCompat.getColor(this,
+                result.hasErrors() ? R.color.log_error : R.color.log_warn));
+    }
+    
+    // 把光标移到问题所在的行列
+    private void jumpToProblem(FrpConfigValidator.Problem problem) {
+        if (problem == null || problem.line <= 0) {
+            return;
+        }
+        Editable text = configEditText.getText();
+        int offset = 0;
+        for (int line = 1; line < problem.line && offset >= 0; line++) {
+            offset = indexOf(text, '\n', offset);
+            if (offset >= 0) {
+                offset++;
+            }
+        }
+        if (offset < 0) {
+            return;
         }
+        int lineEnd = indexOf(text, '\n', offset);
+        int position = offset + problem.column - 1;
+        position = Math.min(position, lineEnd >= 0 ? lineEnd : text.length());
+        configEditText.requestFocus();
+        configEditText.setSelection(position);
+    }
+    
+    private static int indexOf(CharSequence text, char c, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
     }
     
     private void saveConfigFile() {
+        if (!loaded) {
+            return;
+        }
+        final String content = configEditText.getText().toString();
+        backgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final FrpConfigValidator.Result result = FrpConfigValidator.validate(content, serverConfig);
+                if (!result.hasErrors()) {
+                    writeConfigFile(content);
+                }
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isFinishing()) {
+                            showValidation(result);
+                        }
+                        if (result.hasErrors()) {
+                            confirmSaveWithErrors(content, result);
+                        }
+                    }
+                });
+            }
+        });
+    }
+    
+    // frp 无法使用有错误的配置，保存前确认
+    private void confirmSaveWithErrors(final String content, FrpConfigValidator.Result result) {
+        if (isFinishing()) {
+            return;
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Configuration Has Errors");
+        builder.setMessage(result.describe(10) + "\n\nFRP will not start with this configuration.");
+        builder.setPositiveButton("Save Anyway", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                backgroundExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        writeConfigFile(content);
+                    }
+                });
+            }
+        });
+        builder.setNegativeButton("Cancel", null);
+        builder.show();
+    }
+    
+    // 在后台线程上执行，结果回到主线程提示
+    private void writeConfigFile(String configContent) {
+        IOException error = null;
         try {
-            FileOutputStream fos = new FileOutputStream(configFile);
-            String configContent = configEditText.getText().toString();
-            fos.write(configContent.getBytes());
-            fos.close();
-            Toast.makeText(this, "Configuration saved", Toast.LENGTH_SHORT).show();
+            FrpConfigFiles.writeText(configFile, configContent);
         } catch (IOException e) {
-            Toast.makeText(this, "Error saving config file: " + e.getMessage(), Toast.LENGTH_LONG).show();
+            error = e;
         }
+        if (error == null) {
+            recordHistory(getFilesDir(), instanceName(), configContent);
+        }
+        final IOException saveError = error;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                onConfigSaved(saveError);
+            }
+        });
+    }
+    
+    // 保存的每个版本都进入配置历史；历史写入失败不影响保存
+    static void recordHistory(File filesDir, String instanceName, String content) {
+        try {
+            new ConfigHistory(filesDir, instanceName).record(content);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not record config history for " + instanceName, e);
+        }
+    }
+    
+    private void onConfigSaved(IOException error) {
+        // 活动可能已关闭，用应用的 Context 提示
+        if (error != null) {
+            Toast.makeText(getApplicationContext(), "Error saving config file: " + error.getMessage(), Toast.LENGTH_LONG).show();
+            return;
+        }
+        Toast.makeText(getApplicationContext(), "Configuration saved", Toast.LENGTH_SHORT).show();
+        if (isServiceBound && frpService != null) {
+            // 只修改代理时热重载，否则重启对应实例
+            frpService.applyConfigChange(instanceName());
+        }
+    }
+    
+    // 列出所有表头，选择后跳到对应位置
+    private void showSections() {
+        if (!loaded) {
+            return;
+        }
+        final List<String> labels = new ArrayList<>();
+        final List<Integer> offsets = new ArrayList<>();
+        Editable text = configEditText.getText();
+        int lineStart = 0;
+        int lastArrayLabel = -1;
+        while (lineStart <= text.length()) {
+            int lineEnd = indexOf(text, '\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = text.length();
+            }
+            String line = text.subSequence(lineStart, lineEnd).toString();
+            String table = FrpConfigFiles.tableName(line);
+            if (table != null) {
+                boolean array = line.trim().startsWith("[[");
+                labels.add(array ? "[[" + table + "]]" : "[" + table + "]");
+                offsets.add(lineStart);
+                lastArrayLabel = array ? labels.size() - 1 : -1;
+            } else if (lastArrayLabel >= 0 && "name".equals(FrpConfigFiles.keyOf(line))) {
+                // [[proxies]] 等数组表用其中的 name 区分
+                String name = line.substring(line.indexOf('=') + 1).trim();
+                labels.set(lastArrayLabel, labels.get(lastArrayLabel) + " " + name.replace("\"", ""));
+                lastArrayLabel = -1;
+            }
+            lineStart = lineEnd + 1;
+        }
+        if (labels.isEmpty()) {
+            Toast.makeText(this, "No sections in " + configFileName, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Jump to Section");
+        builder.setItems(labels.toArray(new String[labels.size()]), new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                int offset = Math.min(offsets.get(which), configEditText.length());
+                configEditText.requestFocus();
+                configEditText.setSelection(offset);
+            }
+        });
+        builder.show();
     }
     
     @Override
@@ -84,6 +421,9 @@ public class ConfigEditorActivity extends Activity {
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
+            case R.id.action_sections:
+                showSections();
+                return true;
             case R.id.action_save:
                 saveConfigFile();
                 return true;
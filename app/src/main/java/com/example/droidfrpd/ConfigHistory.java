@@ -0,0 +1,252 @@
+package com.example.droidfrpd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 一个实例的配置历史，保存在 files/config-history/实例名/ 下。
+ *
+ * 每个版本按内容的 SHA-256 存为 gzip 文件，相同内容只存一份；index 按时间顺序记录
+ * 每次被接受的版本，超过条数或总大小时删除最旧的记录。ready 记录最近一次达到就绪状态的
+ * 版本，清理时始终保留，用于一键回滚。所有文件都原子写入。
+ */
+final class ConfigHistory {
+
+    static final int MAX_ENTRIES = 50;
+    static final long MAX_BYTES = 512 * 1024;
+
+    private static final String INDEX = "index";
+    private static final String READY = "ready";
+    private static final String BLOB_SUFFIX = ".gz";
+
+    // 同一目录可能同时被编辑器、导入和服务写入
+    private static final Object LOCK = new Object();
+
+    static final class Entry {
+        final long timestamp;
+        final String hash;
+        final int size;
+
+        Entry(long timestamp, String hash, int size) {
+            this.timestamp = timestamp;
+            this.hash = hash;
+            this.size = size;
+        }
+    }
+
+    private final File dir;
+
+    ConfigHistory(File filesDir, String instanceName) {
+        this.dir = new File(new File(filesDir, "config-history"), instanceName);
+    }
+
+    /**
+     * 记录一个被接受的版本，与最新记录相同时不重复记录。返回内容的哈希。
+     */
+    String record(String content) throws IOException {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        String hash = hash(data);
+        synchronized (LOCK) {
+            List<Entry> entries = readIndex();
+            if (!entries.isEmpty() && entries.get(entries.size() - 1).hash.equals(hash)) {
+                return hash;
+            }
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create " + dir.getAbsolutePath());
+            }
+            File blob = blobFile(hash);
+            if (!blob.exists()) {
+                FrpConfigFiles.writeBytes(blob, gzip(data));
+            }
+            entries.add(new Entry(System.currentTimeMillis(), hash, data.length));
+            prune(entries, readyHash());
+            writeIndex(entries);
+            deleteUnreferenced(entries);
+        }
+        return hash;
+    }
+
+    // 实例达到就绪状态时调用，把这一版本标记为可回滚的版本
+    void markReady(String content) throws IOException {
+        String hash = record(content);
+        synchronized (LOCK) {
+            if (!hash.equals(readyHash())) {
+                FrpConfigFiles.writeText(new File(dir, READY), hash + "\n");
+            }
+        }
+    }
+
+    // 最近一次就绪的版本，没有时返回 null
+    String readReady() throws IOException {
+        synchronized (LOCK) {
+            String hash = readyHash();
+            return hash != null ? read(hash) : null;
+        }
+    }
+
+    String read(String hash) throws IOException {
+        InputStream in = new GZIPInputStream(new FileInputStream(blobFile(hash)));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                out.write(buffer, 0, length);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 把最近一次就绪的版本写回配置文件。没有就绪记录时返回 null，否则返回写入的内容。
+     */
+    String rollbackToReady(File configFile) throws IOException {
+        String content = readReady();
+        if (content == null) {
+            return null;
+        }
+        FrpConfigFiles.writeText(configFile, content);
+        record(content);
+        return content;
+    }
+
+    private String readyHash() {
+        File file = new File(dir, READY);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            String hash = FrpConfigFiles.readText(file).trim();
+            return blobFile(hash).exists() ? hash : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // 删除最旧的记录，直到条数和去重后的总大小都在限制内；最新记录和就绪版本不删除
+    private void prune(List<Entry> entries, String readyHash) {
+        while (entries.size() > 1) {
+            if (entries.size() <= MAX_ENTRIES && storedBytes(entries, readyHash) <= MAX_BYTES) {
+                return;
+            }
+            int oldest = -1;
+            for (int i = 0; i < entries.size() - 1; i++) {
+                if (!entries.get(i).hash.equals(readyHash)) {
+                    oldest = i;
+                    break;
+                }
+            }
+            if (oldest < 0) {
+                return;
+            }
+            entries.remove(oldest);
+        }
+    }
+
+    private long storedBytes(List<Entry> entries, String readyHash) {
+        Set<String> hashes = referencedHashes(entries, readyHash);
+        long total = 0;
+        for (String hash : hashes) {
+            total += blobFile(hash).length();
+        }
+        return total;
+    }
+
+    private void deleteUnreferenced(List<Entry> entries) {
+        Set<String> referenced = referencedHashes(entries, readyHash());
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(BLOB_SUFFIX)
+                    && !referenced.contains(name.substring(0, name.length() - BLOB_SUFFIX.length()))) {
+                file.delete();
+            } else if (name.endsWith(".tmp")) {
+                // 中断的写入留下的临时文件
+                file.delete();
+            }
+        }
+    }
+
+    private static Set<String> referencedHashes(List<Entry> entries, String readyHash) {
+        Set<String> hashes = new HashSet<>();
+        for (Entry entry : entries) {
+            hashes.add(entry.hash);
+        }
+        if (readyHash != null) {
+            hashes.add(readyHash);
+        }
+        return hashes;
+    }
+
+    // index 每行为 "时间戳 哈希 大小"，无法解析的行和缺少内容的记录被忽略
+    private List<Entry> readIndex() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        File file = new File(dir, INDEX);
+        if (!file.exists()) {
+            return entries;
+        }
+        for (String line : FrpConfigFiles.readText(file).split("\n")) {
+            String[] parts = line.trim().split(" ");
+            if (parts.length != 3) {
+                continue;
+            }
+            try {
+                Entry entry = new Entry(Long.parseLong(parts[0]), parts[1], Integer.parseInt(parts[2]));
+                if (blobFile(entry.hash).exists()) {
+                    entries.add(entry);
+                }
+            } catch (NumberFormatException e) {
+                // 跳过损坏的行
+            }
+        }
+        return entries;
+    }
+
+    private void writeIndex(List<Entry> entries) throws IOException {
+        StringBuilder sb = new StringBuilder(entries.size() * 84);
+        for (Entry entry : entries) {
+            sb.append(entry.timestamp).append(' ').append(entry.hash).append(' ').append(entry.size).append('\n');
+        }
+        FrpConfigFiles.writeText(new File(dir, INDEX), sb.toString());
+    }
+
+    private File blobFile(String hash) {
+        return new File(dir, hash + BLOB_SUFFIX);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 3 + 64);
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        try {
+            gzip.write(data);
+        } finally {
+            gzip.close();
+        }
+        return out.toByteArray();
+    }
+
+    static String hash(byte[] data) {
+        try {
+            return BinaryInstaller.toHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.droidfrpd;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 把新日志和实例状态变化推送给界面。
+ *
+ * 写入方（日志收集线程、主线程）只设置一个待分发标记，第一次设置时向主线程投递一次分发，
+ * 之后的写入合并到同一次分发中，每帧（FRAME_MS）至多分发一次。界面处理一次分发耗时较长时，
+ * 下一次分发相应推迟；积压超过 MAX_LINES_PER_DISPATCH 行时只分发最新的部分，跳过的行数
+ * 记录在 {@link LogRingBuffer.Batch#dropped}。没有订阅者时写入方只读取一个 volatile 字段。
+ *
+ * 订阅、取消订阅和回调都在主线程上进行。
+ */
+final class EventDispatcher {
+
+    static final long FRAME_MS = 16;
+    // 界面持续繁忙时分发间隔的上限
+    private static final long MAX_INTERVAL_MS = 500;
+    static final int MAX_LINES_PER_DISPATCH = 1024;
+
+    private static final int PENDING_LOGS = 1;
+    private static final int PENDING_STATE = 2;
+
+    interface LogListener {
+        // batch 为上次分发之后的新日志，只在本次调用期间有效
+        void onLogs(LogRingBuffer.Batch batch);
+    }
+
+    interface StateListener {
+        // 实例启动、停止、就绪、退出或重启
+        void onStateChanged();
+    }
+
+    private static final class LogSubscription {
+        final LogListener listener;
+        long cursor;
+        // 第一次分发不限行数，订阅者一次拿到全部保留的日志
+        boolean caughtUp;
+
+        LogSubscription(LogListener listener, long cursor) {
+            this.listener = listener;
+            this.cursor = cursor;
+        }
+    }
+
+    private final LogRingBuffer buffer;
+    private final Handler handler;
+    private final List<LogSubscription> logSubscriptions = new ArrayList<>();
+    private final List<StateListener> stateListeners = new ArrayList<>();
+    private final LogRingBuffer.Batch batch = new LogRingBuffer.Batch();
+    private volatile boolean hasLogListeners;
+    private volatile boolean hasStateListeners;
+    private final AtomicInteger pending = new AtomicInteger();
+    // 下一次分发的最早时间，uptimeMillis
+    private volatile long nextDispatchAt;
+
+    EventDispatcher(LogRingBuffer buffer, Handler handler) {
+        this.buffer = buffer;
+        this.handler = handler;
+    }
+
+    /**
+     * 订阅 cursor 之后的日志，cursor 为 0 时从保留的最早日志开始。
+     * 订阅者可以用 batch.firstSequence + batch.count 记下读到的位置，重新订阅时从那里继续。
+     */
+    void addLogListener(LogListener listener, long cursor) {
+        logSubscriptions.add(new LogSubscription(listener, cursor));
+        hasLogListeners = true;
+        signal(PENDING_LOGS);
+    }
+
+    void removeLogListener(LogListener listener) {
+        for (int i = logSubscriptions.size() - 1; i >= 0; i--) {
+            if (logSubscriptions.get(i).listener == listener) {
+                logSubscriptions.remove(i);
+            }
+        }
+        hasLogListeners = !logSubscriptions.isEmpty();
+    }
+
+    void addStateListener(StateListener listener) {
+        stateListeners.add(listener);
+        hasStateListeners = true;
+    }
+
+    void removeStateListener(StateListener listener) {
+        stateListeners.remove(listener);
+        hasStateListeners = !stateListeners.isEmpty();
+    }
+
+    // 可在任意线程调用
+    void logsAppended() {
+        if (hasLogListeners) {
+            signal(PENDING_LOGS);
+        }
+    }
+
+    // 可在任意线程调用
+    void stateChanged() {
+        if (hasStateListeners) {
+            signal(PENDING_STATE);
+        }
+    }
+
+    void shutdown() {
+        handler.removeCallbacks(dispatch);
+        logSubscriptions.clear();
+        stateListeners.clear();
+        hasLogListeners = false;
+        hasStateListeners = false;
+        pending.set(0);
+    }
+
+    private void signal(int flag) {
+        while (true) {
+            int current = pending.get();
+            if ((current & flag) != 0) {
+                return;
+            }
+            if (pending.compareAndSet(current, current | flag)) {
+                if (current == 0) {
+                    // 已有待执行的分发时不再投递
+                    handler.postAtTime(dispatch, Math.max(SystemClock.uptimeMillis(), nextDispatchAt));
+                }
+                return;
+            }
+        }
+    }
+
+    private final Runnable dispatch = new Runnable() {
+        @Override
+        public void run() {
+            long start = SystemClock.uptimeMillis();
+            nextDispatchAt = start + FRAME_MS;
+            int flags = pending.getAndSet(0);
+            if ((flags & PENDING_LOGS) != 0) {
+                deliverLogs();
+            }
+            if ((flags & PENDING_STATE) != 0) {
+                for (StateListener listener : new ArrayList<>(stateListeners)) {
+                    listener.onStateChanged();
+                }
+            }
+            long took = SystemClock.uptimeMillis() - start;
+            nextDispatchAt = start + Math.min(MAX_INTERVAL_MS, Math.max(FRAME_MS, took * 2));
+        }
+    };
+
+    private void deliverLogs() {
+        // 回调中可能取消订阅
+        for (LogSubscription subscription : new ArrayList<>(logSubscriptions)) {
+            if (!logSubscriptions.contains(subscription)) {
+                continue;
+            }
+            long skipped = 0;
+            long end = buffer.getWriteSequence();
+            if (subscription.caughtUp && end - subscription.cursor > MAX_LINES_PER_DISPATCH) {
+                // 界面跟不上，只保留最新的部分
+                long from = end - MAX_LINES_PER_DISPATCH;
+                skipped = from - subscription.cursor;
+                subscription.cursor = from;
+            }
+            subscription.cursor = buffer.readSince(subscription.cursor, batch);
+            subscription.caughtUp = true;
+            batch.dropped += skipped;
+            if (batch.count > 0 || batch.dropped > 0) {
+                subscription.listener.onLogs(batch);
+            }
+            batch.clear();
+        }
+    }
+}
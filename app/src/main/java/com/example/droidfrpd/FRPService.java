@@ -5,38 +5,105 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.Service;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.util.Log;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public class FRPService extends Service {
     
     private static final String TAG = "FRPService";
-    private static final String FRPC = "frpc";
-    private static final String FRPS = "frps";
+    private static final String FRPC = FrpInstance.FRPC;
+    private static final String FRPS = FrpInstance.FRPS;
     private static final int NOTIFICATION_ID = 1;
     private static final String CHANNEL_ID = "FRPServiceChannel";
+    // 两次刷新通知之间的最短间隔；运行时间由通知自己的计时器显示，不需要逐秒刷新
+    private static final long NOTIFICATION_MIN_INTERVAL_MS = 1000;
+    private static final String PREFS_NAME = "FRPPrefs";
+    private static final String PREF_LOG_STORE_MAX_BYTES = "log_store_max_bytes";
+    private static final String PREF_LAST_CRASH_TIME = "last_crash_time";
+    private static final String PREF_LOG_LEVEL = "log_level";
+    static final String PREF_INSTANCES = "instances";
+    static final String PREF_BOOT_NETWORK_TIMEOUT_MS = "boot_network_timeout_ms";
+    static final String PREF_BOOT_NETWORK_WAIT_MS = "boot_network_wait_ms";
+    static final String PREF_BOOT_TO_TUNNEL_MS = "boot_to_tunnel_ms";
+    // 停止实例时等待 frp 正常退出的时间，超时后强制结束
+    static final String PREF_STOP_TIMEOUT_MS = "stop_timeout_ms";
+    // 日志搜索索引保留的行数
+    static final String PREF_LOG_INDEX_LINES = "log_index_lines";
+    // 指标导出端点 "地址:端口"，为空时不启用
+    static final String PREF_METRICS_ENDPOINT = "metrics_endpoint";
+    // 是否允许其他设备通过指标端点下载日志（/logs.gz），默认只对本机开放
+    static final String PREF_METRICS_REMOTE_LOGS = "metrics_remote_logs";
+    // BootReceiver 启动服务时设置，启动实例前先等待网络就绪
+    static final String EXTRA_BOOT = "boot";
+    // 检查候选服务器是否需要切换的间隔，以及判断所需的最少测量次数
+    private static final long SERVER_CHECK_INTERVAL_MS = 5 * 60 * 1000;
+    private static final int SERVER_CHECK_MIN_SAMPLES = 5;
+    private static final int SERVER_CHECK_MIN_FAILURES = 3;
     
-    private Process frpProcess;
     private String currentMode = FRPC; // 默认为客户端模式
-    private LogCollector logCollector;
-    private LogCollector errorLogCollector;
-    private ConcurrentLinkedQueue<String> logQueue = new ConcurrentLinkedQueue<>();
+    // 按名称管理的 frp 实例，只在主线程上访问
+    private final Map<String, FrpInstance> instances = new LinkedHashMap<>();
+    // 解压、进程启动和停止、配置和日志文件读写都在这里执行，不占用主线程；实例并行启动，
+    // 同一实例的任务由 FrpInstance 按顺序执行
+    private final ExecutorService serviceExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+        
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "frp-service-" + count.incrementAndGet());
+        }
+    });
+    private final LogRingBuffer logBuffer = new LogRingBuffer(LogRingBuffer.DEFAULT_CAPACITY);
+    // 日志界面搜索用的索引，覆盖最近 PREF_LOG_INDEX_LINES 行，在 onCreate 中创建
+    private LogIndex logIndex;
+    // 在 serviceExecutor 上打开，之前的日志只保存在内存中
+    private volatile LogSegmentStore logStore;
+    private final Object logWriteLock = new Object();
+    private final ProxyStatusPoller statusPoller = new ProxyStatusPoller();
+    private final LatencyProber latencyProber = new LatencyProber();
+    private final ServerSelector serverSelector = new ServerSelector();
+    private MetricsExporter metricsExporter;
+    // 供指标导出线程读取的实例快照，实例集合变化时在主线程上替换
+    private volatile FrpInstance[] instanceSnapshot = new FrpInstance[0];
+    private final AtomicLongArray logLineCounts = new AtomicLongArray(LogLevel.NAMES.length);
+    // 二进制解压和默认配置创建完成
+    private final CountDownLatch setupDone = new CountDownLatch(1);
+    // 低于该级别的 frp 日志在解码前直接丢弃
+    private volatile int minLogLevel = LogLevel.INFO;
     private final IBinder binder = new LocalBinder();
     private Handler handler = new Handler(Looper.getMainLooper());
-    private Runnable keepAliveRunnable;
+    // 向绑定的界面推送日志和状态变化
+    private final EventDispatcher events = new EventDispatcher(logBuffer, handler);
+    // 开机启动后还没有记录隧道建立时间
+    private boolean bootTimingPending = false;
+    private boolean destroyed = false;
+    private boolean notificationPending = false;
+    private long lastNotificationAt = 0;
+    // 上次发出的通知内容，内容不变时不再调用 notify
+    private String lastNotificationKey;
     
     public class LocalBinder extends Binder {
         FRPService getService() {
@@ -47,14 +114,46 @@ public class FRPService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
+        Trace.beginSection("frpd:onCreate");
+        long start = SystemClock.elapsedRealtime();
         Log.d(TAG, "FRPService onCreate");
         createNotificationChannel();
-        setupKeepAlive();
-        setupFRPClient();
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        minLogLevel = LogLevel.fromName(prefs.getString(PREF_LOG_LEVEL, "info"));
+        logIndex = new LogIndex(Math.max(LogIndex.MIN_CAPACITY, Math.min(LogIndex.MAX_CAPACITY,
+                prefs.getInt(PREF_LOG_INDEX_LINES, LogIndex.DEFAULT_CAPACITY))));
+        statusPoller.start();
+        latencyProber.start();
+        handler.postDelayed(serverCheck, SERVER_CHECK_INTERVAL_MS);
+        applyMetricsSettings();
+        // 先打开日志存储，安装过程的日志也会写入磁盘
+        serviceExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Trace.beginSection("frpd:setup");
+                try {
+                    openLogStore();
+                    setupFRPClient();
+                } finally {
+                    Trace.endSection();
+                }
+            }
+        });
+        Log.d(TAG, "onCreate took " + (SystemClock.elapsedRealtime() - start) + " ms on the main thread");
+        Trace.endSection();
     }
     
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        Trace.beginSection("frpd:onStartCommand");
+        try {
+            return handleStartCommand(intent);
+        } finally {
+            Trace.endSection();
+        }
+    }
+    
+    private int handleStartCommand(Intent intent) {
         Log.d(TAG, "FRPService onStartCommand");
         if (intent != null) {
             currentMode = intent.getStringExtra("mode");
@@ -67,7 +166,11 @@ public class FRPService extends Service {
         // 启动前台服务以提高持久性
         startForeground(NOTIFICATION_ID, createNotification());
         
-        startFRPClient();
+        if (intent != null && intent.getBooleanExtra(EXTRA_BOOT, false)) {
+            startInstancesWhenNetworkReady();
+        } else {
+            startInstances();
+        }
         return START_STICKY; // Restart service if killed
     }
     
@@ -75,9 +178,30 @@ public class FRPService extends Service {
     public void onDestroy() {
         super.onDestroy();
         Log.d(TAG, "FRPService onDestroy");
-        stopKeepAlive();
+        destroyed = true;
         stopForeground(true);
-        stopFRPClient();
+        stopInstances();
+        statusPoller.stop();
+        latencyProber.stop();
+        handler.removeCallbacks(serverCheck);
+        handler.removeCallbacks(notificationUpdate);
+        events.shutdown();
+        if (metricsExporter != null) {
+            metricsExporter.stop();
+            metricsExporter = null;
+        }
+        // 排在已提交的任务之后关闭，shutdown() 之前提交的任务仍会执行
+        final LogSegmentStore store = logStore;
+        logStore = null;
+        if (store != null) {
+            serviceExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    store.close();
+                }
+            });
+        }
+        serviceExecutor.shutdown();
     }
     
     @Override
@@ -97,6 +221,30 @@ public class FRPService extends Service {
         }
     }
     
+    // 打开磁盘日志存储，并检查上次运行是否异常退出
+    private void openLogStore() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        long maxBytes = prefs.getLong(PREF_LOG_STORE_MAX_BYTES, LogSegmentStore.DEFAULT_MAX_BYTES);
+        LogSegmentStore store = new LogSegmentStore(new File(getFilesDir(), "logs"), maxBytes);
+        try {
+            store.open();
+            logStore = store;
+            long crashTime = store.getUncleanShutdownTimestamp();
+            if (crashTime > 0) {
+                recordCrashTime(crashTime);
+                addLog("Warning: previous session ended unexpectedly at " + crashTime);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error opening log store", e);
+        }
+    }
+    
+    private void recordCrashTime(long timestamp) {
+        getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit()
+                .putLong(PREF_LAST_CRASH_TIME, timestamp)
+                .apply();
+    }
+    
     private Notification createNotification() {
         Notification.Builder builder;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -106,74 +254,367 @@ public class FRPService extends Service {
         }
         
         builder.setContentTitle("FRP Service")
-               .setContentText("FRP " + currentMode + " is running")
+               .setContentText(notificationSummary())
                .setSmallIcon(R.drawable.ic_notification)
                .setOngoing(true); // 持续通知
         
+        // 多个实例时展开显示每个实例的状态
+        if (instances.size() > 1) {
+            Notification.InboxStyle style = new Notification.InboxStyle();
+            for (FrpInstance instance : instances.values()) {
+                style.addLine(instance.getName() + ": " + instance.getStatusText());
+            }
+            builder.setStyle(style);
+        }
+        
+        // 计时器由系统界面自己走动：运行中显示运行时间，等待重启时倒数（Android 7.0 起）
+        long now = System.currentTimeMillis();
+        long uptime = 0;
+        long restartDelay = -1;
+        for (FrpInstance instance : instances.values()) {
+            uptime = Math.max(uptime, instance.getUptimeMillis());
+            FrpInstance.State state = instance.getState();
+            if (state == FrpInstance.State.BACKOFF || state == FrpInstance.State.CRASH_LOOP) {
+                long delay = instance.getRestartDelayMillis();
+                restartDelay = restartDelay < 0 ? delay : Math.min(restartDelay, delay);
+            }
+        }
+        if (uptime > 0) {
+            builder.setWhen(now - uptime).setUsesChronometer(true).setShowWhen(true);
+        } else if (restartDelay >= 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            builder.setWhen(now + restartDelay).setUsesChronometer(true).setChronometerCountDown(true)
+                    .setShowWhen(true);
+        } else {
+            builder.setShowWhen(false);
+        }
+        
         return builder.build();
     }
     
-    // 设置保活机制
-    private void setupKeepAlive() {
-        keepAliveRunnable = new Runnable() {
+    private String notificationSummary() {
+        if (instances.size() == 1) {
+            FrpInstance instance = instances.values().iterator().next();
+            if (instance.getState() == FrpInstance.State.READY) {
+                return "FRP " + instance.getName() + " is running";
+            }
+            return "FRP " + instance.getName() + ": " + instance.getStatusText();
+        }
+        int ready = 0;
+        for (FrpInstance instance : instances.values()) {
+            if (instance.isReady()) {
+                ready++;
+            }
+        }
+        return ready + "/" + instances.size() + " FRP instances ready";
+    }
+    
+    // 通知内容的摘要：状态和进入状态的时间不变时通知不需要刷新
+    private String notificationKey() {
+        StringBuilder key = new StringBuilder(notificationSummary());
+        for (FrpInstance instance : instances.values()) {
+            key.append('|').append(instance.getName()).append(' ').append(instance.getState())
+                    .append(' ').append(instance.getStateSince()).append(' ').append(instance.getStatusText());
+        }
+        return key.toString();
+    }
+    
+    // 实例列表：偏好设置中以逗号分隔的实例名称，为空时只运行当前模式
+    private List<String> loadInstanceNames() {
+        String value = getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getString(PREF_INSTANCES, "");
+        List<String> names = parseInstanceNames(value);
+        if (names.isEmpty()) {
+            names.add(currentMode);
+        }
+        return names;
+    }
+    
+    static List<String> parseInstanceNames(String value) {
+        List<String> names = new ArrayList<>();
+        for (String part : value.split(",")) {
+            String name = part.trim();
+            if (name.matches("[A-Za-z0-9_.-]+") && !names.contains(name)) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+    
+    // 启动所有配置的实例；已在运行的实例保持不变，已移除的实例被停止
+    private void startInstances() {
+        List<String> names = loadInstanceNames();
+        Iterator<Map.Entry<String, FrpInstance>> it = instances.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, FrpInstance> entry = it.next();
+            if (!names.contains(entry.getKey())) {
+                entry.getValue().stop();
+                it.remove();
+            }
+        }
+        for (String name : names) {
+            FrpInstance instance = instances.get(name);
+            if (instance == null) {
+                instance = new FrpInstance(name, getFilesDir(), instanceHost, handler, serviceExecutor);
+                instances.put(name, instance);
+            }
+            instance.start();
+        }
+        instanceSnapshot = instances.values().toArray(new FrpInstance[instances.size()]);
+        updateNotification();
+        events.stateChanged();
+    }
+    
+    // 开机启动：等待已验证的网络并能解析所有服务器地址后再启动实例，超时后照常启动
+    private void startInstancesWhenNetworkReady() {
+        bootTimingPending = true;
+        final List<String> names = loadInstanceNames();
+        final long timeout = getSharedPreferences(PREFS_NAME, MODE_PRIVATE)
+                .getLong(PREF_BOOT_NETWORK_TIMEOUT_MS, NetworkReadiness.DEFAULT_TIMEOUT_MS);
+        addLog("Waiting for network before starting " + names);
+        serviceExecutor.execute(new Runnable() {
             @Override
             public void run() {
-                // 定期检查FRP进程状态
-                if (frpProcess != null) {
-                    try {
-                        // 检查进程是否仍在运行
-                        int exitCode = frpProcess.exitValue();
-                        Log.w(TAG, "FRP process exited with code: " + exitCode);
-                        addLog("Warning: FRP process exited with code: " + exitCode);
-                        // 重新启动进程
-                        startFRPClient();
-                    } catch (IllegalThreadStateException e) {
-                        // 进程仍在运行
-                        Log.d(TAG, "FRP process is still running");
+                long start = SystemClock.elapsedRealtime();
+                boolean ready;
+                try {
+                    instanceHost.awaitSetup();
+                    ready = new NetworkReadiness(FRPService.this).await(serverHosts(names), timeout);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long waited = SystemClock.elapsedRealtime() - start;
+                getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit()
+                        .putLong(PREF_BOOT_NETWORK_WAIT_MS, waited)
+                        .apply();
+                addLog(ready ? "Network ready after " + waited + " ms"
+                        : "Warning: network not ready after " + waited + " ms, starting anyway");
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!destroyed) {
+                            startInstances();
+                        }
                     }
-                } else {
-                    // 如果进程为null，尝试重新启动
-                    startFRPClient();
+                });
+            }
+        });
+    }
+    
+    // 各 frpc 实例配置中的服务器地址
+    private List<String> serverHosts(List<String> names) {
+        List<String> hosts = new ArrayList<>();
+        for (String name : names) {
+            File configFile = new File(getFilesDir(), name + ".toml");
+            if (FRPS.equals(FrpInstance.binaryNameFor(name)) || !configFile.exists()) {
+                continue;
+            }
+            try {
+                String host = FrpConfigFiles.serverAddress(FrpConfigFiles.readText(configFile));
+                if (host != null && !host.isEmpty() && !hosts.contains(host)) {
+                    hosts.add(host);
                 }
-                
-                // 每30秒检查一次
-                handler.postDelayed(this, 30000);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read " + configFile.getName(), e);
             }
-        };
-        
-        // 启动保活检查
-        handler.postDelayed(keepAliveRunnable, 30000);
+        }
+        return hosts;
     }
     
-    private void stopKeepAlive() {
-        if (keepAliveRunnable != null) {
-            handler.removeCallbacks(keepAliveRunnable);
+    // 轮询所有正在运行且配置了管理接口的实例，测量正在运行的 frpc 实例的服务器和本地服务延迟
+    private void updateStatusTargets() {
+        List<ProxyStatusPoller.Target> targets = new ArrayList<>();
+        List<LatencyProber.Target> latencyTargets = new ArrayList<>();
+        for (FrpInstance instance : instances.values()) {
+            String config = instance.getLaunchedConfig();
+            if (!instance.isRunning() || config == null) {
+                continue;
+            }
+            FrpAdminClient client = FrpAdminClient.fromConfig(config);
+            if (client != null) {
+                targets.add(new ProxyStatusPoller.Target(instance.getName(), client,
+                        FRPS.equals(instance.getBinaryName())));
+            }
+            if (!FRPS.equals(instance.getBinaryName())) {
+                latencyTargets.addAll(LatencyProber.targetsFor(instance.getName(), config));
+            }
         }
+        statusPoller.setTargets(targets);
+        latencyProber.setTargets(latencyTargets);
     }
     
+    // 定期检查使用候选服务器的实例：当前服务器明显变慢或连不上，且有更快的候选时重启到该候选。
+    // 主线程 Handler 按 uptime 计时，设备休眠时不会被唤醒
+    private final Runnable serverCheck = new Runnable() {
+        @Override
+        public void run() {
+            handler.postDelayed(this, SERVER_CHECK_INTERVAL_MS);
+            for (final FrpInstance instance : instances.values()) {
+                final ServerSelector.Candidate current = instance.getLaunchedServer();
+                String source = instance.getLaunchedSource();
+                if (current == null || source == null || !instance.isRunning()) {
+                    continue;
+                }
+                final List<ServerSelector.Candidate> candidates = ServerSelector.candidates(source);
+                LatencyHistogram.Snapshot latency = latencyProber.getSnapshot(instance.getName(), LatencyProber.SERVER);
+                final long median;
+                if (latency != null && latency.count >= SERVER_CHECK_MIN_SAMPLES) {
+                    median = latency.p50;
+                } else if (latency != null && latency.count == 0 && latency.failures >= SERVER_CHECK_MIN_FAILURES) {
+                    median = -1;
+                } else {
+                    continue;
+                }
+                serviceExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final ServerSelector.Candidate better = serverSelector.findBetter(instance.getName(),
+                                candidates, median);
+                        if (better == null) {
+                            return;
+                        }
+                        addLog(instance.getName() + ": server " + current + " degraded ("
+                                + (median < 0 ? "unreachable" : "p50 " + LatencyHistogram.Snapshot.format(median) + " ms")
+                                + "), switching to " + better);
+                        handler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (instances.get(instance.getName()) == instance && instance.isRunning()) {
+                                    instance.restart();
+                                }
+                            }
+                        });
+                    }
+                });
+            }
+        }
+    };
+    
+    private void stopInstances() {
+        Log.d(TAG, "Stopping FRP instances");
+        for (FrpInstance instance : instances.values()) {
+            instance.stop();
+        }
+        instances.clear();
+        instanceSnapshot = new FrpInstance[0];
+        events.stateChanged();
+    }
+    
+    private final FrpInstance.Host instanceHost = new FrpInstance.Host() {
+        @Override
+        public void onInstanceMessage(FrpInstance instance, String message) {
+            Log.d(TAG, instance.getName() + ": " + message);
+            appendLog(System.currentTimeMillis(), LogLevel.detect(message), LogSegmentStore.STREAM_SERVICE,
+                    instance.getName(), null, message);
+        }
+        
+        @Override
+        public void onInstanceLogEvent(FrpInstance instance, FrpLogEvent event) {
+            String text = event.textString();
+            Log.println(toLogPriority(event.level), TAG, text);
+            appendLog(event.timestamp, event.level, event.stream, instance.getName(), event.getProxy(), text);
+        }
+        
+        @Override
+        public ServerSelector getServerSelector() {
+            return serverSelector;
+        }
+        
+        @Override
+        public int getMinLogLevel() {
+            return minLogLevel;
+        }
+        
+        @Override
+        public boolean isSetupDone() {
+            return setupDone.getCount() == 0;
+        }
+        
+        @Override
+        public long getStopTimeoutMillis() {
+            return getSharedPreferences(PREFS_NAME, MODE_PRIVATE)
+                    .getLong(PREF_STOP_TIMEOUT_MS, FrpInstance.DEFAULT_STOP_TIMEOUT_MS);
+        }
+        
+        @Override
+        public boolean awaitSetup() {
+            try {
+                setupDone.await();
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        
+        @Override
+        public void onInstanceExit(FrpInstance instance, int exitCode, long uptimeMillis) {
+            Log.w(TAG, instance.getName() + " exited with code: " + exitCode + " after " + uptimeMillis + " ms");
+            onInstanceMessage(instance, "Warning: FRP process exited with code: " + exitCode);
+            recordCrashTime(System.currentTimeMillis());
+            events.stateChanged();
+        }
+        
+        @Override
+        public void onInstanceStartFailed(FrpInstance instance, String cause) {
+            Log.w(TAG, instance.getName() + " failed to start: " + cause);
+            // 启动失败不是崩溃，不记录崩溃时间
+            onInstanceMessage(instance, "Error: failed to start: " + cause);
+            events.stateChanged();
+        }
+        
+        @Override
+        public void onInstanceStateChanged(FrpInstance instance) {
+            updateNotification();
+            updateStatusTargets();
+            events.stateChanged();
+        }
+        
+        @Override
+        public void onInstanceReady(final FrpInstance instance) {
+            events.stateChanged();
+            // 记下可用的配置，之后可以一键回滚到这一版本
+            final String config = instance.getLaunchedSource();
+            if (config != null) {
+                serviceExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            new ConfigHistory(getFilesDir(), instance.getName()).markReady(config);
+                        } catch (IOException e) {
+                            Log.w(TAG, "Could not record ready config for " + instance.getName(), e);
+                        }
+                    }
+                });
+            }
+            if (bootTimingPending) {
+                // elapsedRealtime 从开机开始计时
+                bootTimingPending = false;
+                long sinceBoot = SystemClock.elapsedRealtime();
+                getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit()
+                        .putLong(PREF_BOOT_TO_TUNNEL_MS, sinceBoot)
+                        .apply();
+                onInstanceMessage(instance, "Tunnel up " + sinceBoot + " ms after boot");
+            }
+        }
+    };
+    
+    // 解压二进制并创建默认配置，在 serviceExecutor 上执行；实例启动前等待其完成
     private void setupFRPClient() {
+        Log.d(TAG, "Setting up FRP client");
+        BinaryInstaller installer = new BinaryInstaller(this);
         try {
-            Log.d(TAG, "Setting up FRP client");
-            // Copy FRP binaries from assets to app's private directory
-            File frpcBinary = new File(getFilesDir(), FRPC);
-            File frpsBinary = new File(getFilesDir(), FRPS);
-            
-            if (!frpcBinary.exists()) {
-                Log.d(TAG, "Copying frpc binary");
-                copyFRPBinaryFromAssets(FRPC, frpcBinary);
-            }
-            
-            if (!frpsBinary.exists()) {
-                Log.d(TAG, "Copying frps binary");
-                copyFRPBinaryFromAssets(FRPS, frpsBinary);
+            for (String name : new String[]{FRPC, FRPS}) {
+                try {
+                    if (installer.install(name, new File(getFilesDir(), name))) {
+                        addLog("Installed bundled " + name + " binary");
+                    }
+                } catch (FileNotFoundException e) {
+                    Log.w(TAG, e.getMessage());
+                } catch (IOException e) {
+                    Log.e(TAG, "Error installing " + name, e);
+                    addLog("Error: failed to install " + name + ": " + e.getMessage());
+                }
             }
             
-            // Make the binaries executable
-            Log.d(TAG, "Making binaries executable");
-            boolean frpcExec = frpcBinary.setExecutable(true);
-            boolean frpsExec = frpsBinary.setExecutable(true);
-            Log.d(TAG, "frpc executable: " + frpcExec + ", frps executable: " + frpsExec);
-            
             // Create default config files if not exists
             File frpcConfigFile = new File(getFilesDir(), "frpc.toml");
             File frpsConfigFile = new File(getFilesDir(), "frps.toml");
@@ -190,25 +631,11 @@ public class FRPService extends Service {
         } catch (Exception e) {
             Log.e(TAG, "Error setting up FRP client", e);
             addLog("Error: " + e.getMessage());
+        } finally {
+            setupDone.countDown();
         }
     }
     
-    private void copyFRPBinaryFromAssets(String assetName, File targetFile) throws IOException {
-        Log.d(TAG, "Copying " + assetName + " to " + targetFile.getAbsolutePath());
-        InputStream inputStream = getAssets().open(assetName);
-        OutputStream outputStream = new FileOutputStream(targetFile);
-        
-        byte[] buffer = new byte[1024];
-        int length;
-        while ((length = inputStream.read(buffer)) > 0) {
-            outputStream.write(buffer, 0, length);
-        }
-        
-        inputStream.close();
-        outputStream.close();
-        Log.d(TAG, "Copy completed for " + assetName);
-    }
-    
     private void createDefaultFRPCConfig(File configFile) throws IOException {
         String defaultConfig = "# frpc.toml\n" +
                 "[common]\n" +
@@ -222,9 +649,7 @@ public class FRPService extends Service {
                 "local_port = 22\n" +
                 "remote_port = 6000\n";
         
-        FileOutputStream fos = new FileOutputStream(configFile);
-        fos.write(defaultConfig.getBytes());
-        fos.close();
+        FrpConfigFiles.writeText(configFile, defaultConfig);
         Log.d(TAG, "Created default frpc config at " + configFile.getAbsolutePath());
     }
     
@@ -234,172 +659,423 @@ public class FRPService extends Service {
                 "bind_port = 7000\n" +
                 "token = \"your-token\"\n";
         
-        FileOutputStream fos = new FileOutputStream(configFile);
-        fos.write(defaultConfig.getBytes());
-        fos.close();
+        FrpConfigFiles.writeText(configFile, defaultConfig);
         Log.d(TAG, "Created default frps config at " + configFile.getAbsolutePath());
     }
     
-    private void startFRPClient() {
-        try {
-            Log.d(TAG, "Starting FRP client, mode: " + currentMode);
-            File frpBinary = new File(getFilesDir(), currentMode);
-            String configFileName = currentMode + ".toml";
-            File configFile = new File(getFilesDir(), configFileName);
-            
-            // Check if binary exists
-            if (!frpBinary.exists()) {
-                Log.e(TAG, "FRP binary does not exist: " + frpBinary.getAbsolutePath());
-                addLog("Error: FRP binary does not exist: " + frpBinary.getAbsolutePath());
+    // 合并短时间内的多次状态变化，至多每 NOTIFICATION_MIN_INTERVAL_MS 刷新一次通知；在主线程上调用
+    private void updateNotification() {
+        if (notificationPending || destroyed) {
+            return;
+        }
+        notificationPending = true;
+        long at = Math.max(SystemClock.uptimeMillis(), lastNotificationAt + NOTIFICATION_MIN_INTERVAL_MS);
+        handler.postAtTime(notificationUpdate, at);
+    }
+    
+    private final Runnable notificationUpdate = new Runnable() {
+        @Override
+        public void run() {
+            notificationPending = false;
+            if (destroyed) {
                 return;
             }
-            
-            // Check if config file exists
-            if (!configFile.exists()) {
-                Log.e(TAG, "Config file does not exist: " + configFile.getAbsolutePath());
-                addLog("Error: Config file does not exist: " + configFile.getAbsolutePath());
+            String key = notificationKey();
+            if (key.equals(lastNotificationKey)) {
                 return;
             }
-            
-            // Check if binary is executable
-            if (!frpBinary.canExecute()) {
-                Log.e(TAG, "FRP binary is not executable: " + frpBinary.getAbsolutePath());
-                addLog("Error: FRP binary is not executable: " + frpBinary.getAbsolutePath());
-                return;
-            }
-            
-            Log.d(TAG, "Binary path: " + frpBinary.getAbsolutePath());
-            Log.d(TAG, "Config path: " + configFile.getAbsolutePath());
-            
-            // 构建命令（移除--log-level参数，因为当前版本不支持）
-            String[] command = new String[]{
-                frpBinary.getAbsolutePath(),
-                "-c",
-                configFile.getAbsolutePath()
-            };
-            
-            // 兼容Android 4.4.2的String.join替代方法
-            StringBuilder commandStr = new StringBuilder();
-            for (int i = 0; i < command.length; i++) {
-                if (i > 0) commandStr.append(" ");
-                commandStr.append(command[i]);
+            lastNotificationKey = key;
+            lastNotificationAt = SystemClock.uptimeMillis();
+            NotificationManager notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+            notificationManager.notify(NOTIFICATION_ID, createNotification());
+        }
+    };
+    
+    public String getCurrentMode() {
+        return currentMode;
+    }
+    
+    // 任一实例正在运行
+    public boolean isRunning() {
+        for (FrpInstance instance : instances.values()) {
+            if (instance.isRunning()) {
+                return true;
             }
-            
-            Log.d(TAG, "Executing command: " + commandStr.toString());
-            addLog("Starting " + currentMode + " with command: " + commandStr.toString());
-            
-            frpProcess = Runtime.getRuntime().exec(command);
-            
-            // 启动日志收集器
-            logCollector = new LogCollector(frpProcess.getInputStream(), "OUT");
-            logCollector.start();
-            
-            // 启动错误日志收集器
-            errorLogCollector = new LogCollector(frpProcess.getErrorStream(), "ERR");
-            errorLogCollector.start();
-            
-            // 检查进程是否正常启动
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        Thread.sleep(2000); // 等待2秒
-                        if (frpProcess != null) {
-                            int exitValue = -1;
-                            try {
-                                exitValue = frpProcess.exitValue();
-                                Log.e(TAG, currentMode + " exited immediately with code: " + exitValue);
-                                addLog("Error: " + currentMode + " exited immediately with code: " + exitValue);
-                            } catch (IllegalThreadStateException e) {
-                                // 进程仍在运行
-                                Log.d(TAG, currentMode + " is still running");
-                                addLog(currentMode.toUpperCase() + " started successfully");
-                                // 更新通知显示运行状态
-                                updateNotification();
-                            }
-                        }
-                    } catch (InterruptedException e) {
-                        Log.e(TAG, "Thread interrupted", e);
-                    }
-                }
-            }).start();
-            
-            Log.i(TAG, currentMode + " started process");
-        } catch (Exception e) {
-            Log.e(TAG, "Error starting " + currentMode, e);
-            addLog("Error starting " + currentMode + ": " + e.getMessage());
         }
+        return false;
     }
     
-    private void updateNotification() {
-        Notification notification = createNotification();
-        NotificationManager notificationManager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-        notificationManager.notify(NOTIFICATION_ID, notification);
+    // 在主线程上调用
+    List<FrpInstance> getInstances() {
+        return new ArrayList<>(instances.values());
     }
     
-    private void stopFRPClient() {
-        Log.d(TAG, "Stopping FRP client");
-        if (logCollector != null) {
-            logCollector.interrupt();
-            logCollector = null;
-        }
-        
-        if (errorLogCollector != null) {
-            errorLogCollector.interrupt();
-            errorLogCollector = null;
-        }
-        
-        if (frpProcess != null) {
-            frpProcess.destroy();
-            frpProcess = null;
-            Log.i(TAG, currentMode + " stopped");
-            addLog(currentMode.toUpperCase() + " stopped");
+    // 各代理的最新状态和历史数据
+    List<ProxyStats> getProxyStats() {
+        return statusPoller.getStats();
+    }
+    
+    // 实例状态接口最近一次的错误
+    String getStatusError(String instance) {
+        return statusPoller.getError(instance);
+    }
+    
+    /**
+     * 最近 5 到 10 分钟的 TCP 连接延迟：proxy 为 null 时是实例到 frp 服务器，否则是代理到本地服务。
+     * 没有测量这个目标时返回 null。
+     */
+    LatencyHistogram.Snapshot getLatency(String instance, String proxy) {
+        return latencyProber.getSnapshot(instance, proxy != null ? proxy : LatencyProber.SERVER);
+    }
+    
+    // 状态界面可见期间每秒轮询一次、更频繁地测量延迟，在主线程上调用
+    void addStatusWatcher() {
+        statusPoller.addWatcher();
+        latencyProber.addWatcher();
+    }
+    
+    void removeStatusWatcher() {
+        statusPoller.removeWatcher();
+        latencyProber.removeWatcher();
+    }
+    
+    /**
+     * 订阅新日志，在主线程上调用。cursor 为上次读到的位置（batch.firstSequence + batch.count），
+     * 0 表示从保留的最早日志开始。回调在主线程上，每帧至多一次。
+     */
+    void addLogListener(EventDispatcher.LogListener listener, long cursor) {
+        events.addLogListener(listener, cursor);
+    }
+    
+    void removeLogListener(EventDispatcher.LogListener listener) {
+        events.removeLogListener(listener);
+    }
+    
+    // 订阅实例状态变化，在主线程上调用
+    void addStateListener(EventDispatcher.StateListener listener) {
+        events.addStateListener(listener);
+    }
+    
+    void removeStateListener(EventDispatcher.StateListener listener) {
+        events.removeStateListener(listener);
+    }
+    
+    // 读取游标之后的日志，读取不会消费数据，返回新的游标
+    public long readLogsSince(long cursor, LogRingBuffer.Batch batch) {
+        return logBuffer.readSince(cursor, batch);
+    }
+    
+    // 从磁盘日志中读取时间范围内的日志
+    public int queryStoredLogs(long from, long to, int maxRecords, LogRingBuffer.Batch batch) {
+        LogSegmentStore store = logStore;
+        if (store == null) {
+            batch.clear();
+            return 0;
         }
+        return store.query(from, to, maxRecords, batch);
     }
     
-    public String getCurrentMode() {
-        return currentMode;
+    /**
+     * 以 gzip 文本导出磁盘上的日志和之后的新日志，在后台线程调用，完成后不关闭 out，返回导出的行数。
+     */
+    public long exportLogs(OutputStream out, LogExporter.Progress progress) throws IOException {
+        return new LogExporter(logStore, logBuffer).export(out, progress);
     }
     
-    public boolean isRunning() {
-        return frpProcess != null && frpProcess.isAlive();
+    // 指标端点上的日志下载地址，没有启用时返回 null
+    public String getLogsEndpoint() {
+        MetricsExporter exporter = metricsExporter;
+        return exporter != null ? exporter.getLogsEndpoint() : null;
     }
     
-    public ConcurrentLinkedQueue<String> getLogQueue() {
-        return logQueue;
+    // 在索引中搜索最近的日志，返回匹配的总行数；可在任意线程调用
+    public int searchLogs(LogIndex.Query query, int maxResults, LogRingBuffer.Batch batch) {
+        return logIndex.query(query, maxResults, batch);
     }
     
-    private void addLog(String message) {
-        logQueue.offer("[" + System.currentTimeMillis() + "] " + message);
-        // 限制队列大小，避免占用过多内存
-        if (logQueue.size() > 1000) {
-            logQueue.poll();
+    // 索引的行序号，变化时说明有新日志
+    public int getLogIndexSequence() {
+        return logIndex.getSequence();
+    }
+    
+    // 最近日志中出现过的代理名
+    public List<String> getLogProxies() {
+        return logIndex.getProxies();
+    }
+    
+    public String getLogLevel() {
+        return LogLevel.NAMES[minLogLevel];
+    }
+    
+    // 立即生效；frp 本身在下次启动或重载时使用新的级别
+    public void setLogLevel(final String level) {
+        minLogLevel = LogLevel.fromName(level);
+        getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit()
+                .putString(PREF_LOG_LEVEL, LogLevel.NAMES[minLogLevel])
+                .apply();
+        addLog("Log level set to " + LogLevel.NAMES[minLogLevel]);
+    }
+    
+    /**
+     * 配置文件被修改后调用（主线程）。只有代理变化时通过管理 API 热重载，
+     * 公共部分变化或热重载失败时重启实例。实例未运行时新配置在下次启动时生效。
+     */
+    public void applyConfigChange(final String name) {
+        final FrpInstance instance = instances.get(name);
+        if (instance != null && !instance.isActive() && instance.hasConfigError()) {
+            // 因配置错误停止的实例在配置修复后重新启动，启动前会再次校验
+            instance.start();
+            return;
         }
+        if (instance == null || !instance.isRunning()) {
+            return;
+        }
+        // 校验、生成运行配置、比较和重载都排在实例的串行队列上，不与启动同时写入运行配置文件，
+        // 比较的也是排在前面的启动完成后的配置
+        instance.runSerially(new Runnable() {
+            @Override
+            public void run() {
+                if (!instance.isRunning()) {
+                    return;
+                }
+                String launched = instance.getLaunchedConfig();
+                String updated;
+                try {
+                    updated = FrpConfigFiles.readText(instance.getConfigFile());
+                } catch (IOException e) {
+                    addLog("Error reading " + instance.getConfigFile().getName() + ": " + e.getMessage());
+                    return;
+                }
+                // 有错误的配置不能重载或重启，保留正在运行的进程
+                FrpConfigValidator.Result validation = FrpConfigValidator.validate(updated,
+                        FrpInstance.FRPS.equals(instance.getBinaryName()));
+                if (validation.hasErrors()) {
+                    addLog("Error: " + instance.getConfigFile().getName() + " is invalid, keeping the running "
+                            + name + ":\n" + validation.describe(5));
+                    return;
+                }
+                // 与启动时一样生成实际运行的配置（模板编译、服务器、日志级别）后再比较
+                FrpInstance.RunConfig run;
+                try {
+                    run = instance.prepareRunConfig(updated, true);
+                } catch (IOException e) {
+                    addLog("Error compiling " + instance.getConfigFile().getName() + ": " + e.getMessage());
+                    return;
+                }
+                // 改用了另一个文件（例如改成模板）时运行中的 frpc 读不到，只能重启
+                FrpConfigDiff.Change change = launched != null && run.file.equals(instance.getLaunchedFile())
+                        ? FrpConfigDiff.classify(launched, run.content) : FrpConfigDiff.Change.FULL;
+                if (change == FrpConfigDiff.Change.NONE) {
+                    addLog(name + ": configuration unchanged");
+                    return;
+                }
+                if (change == FrpConfigDiff.Change.PROXIES_ONLY) {
+                    FrpAdminClient client = FrpAdminClient.fromConfig(run.content);
+                    if (client != null) {
+                        try {
+                            client.reload();
+                            instance.setLaunchedConfig(updated, run);
+                            addLog(name + ": proxies reloaded without restart");
+                            handler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    updateStatusTargets();
+                                }
+                            });
+                            return;
+                        } catch (IOException e) {
+                            addLog("Warning: " + name + " reload failed, restarting: " + e.getMessage());
+                        }
+                    } else {
+                        addLog(name + ": admin API not configured, restarting to apply proxies");
+                    }
+                } else {
+                    addLog(name + ": server settings changed, restarting");
+                }
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (instances.get(name) == instance) {
+                            instance.restart();
+                        }
+                    }
+                });
+            }
+        });
     }
     
-    // 日志收集线程
-    private class LogCollector extends Thread {
-        private InputStream inputStream;
-        private String tag;
-        
-        public LogCollector(InputStream inputStream, String tag) {
-            this.inputStream = inputStream;
-            this.tag = tag;
+    // 按偏好设置启动、重启或关闭指标导出端点，在主线程上调用
+    public void applyMetricsSettings() {
+        if (metricsExporter != null) {
+            metricsExporter.stop();
+            metricsExporter = null;
         }
-        
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        String endpoint = prefs.getString(PREF_METRICS_ENDPOINT, "").trim();
+        if (endpoint.isEmpty()) {
+            return;
+        }
+        String address = MetricsExporter.DEFAULT_ADDRESS;
+        int port = MetricsExporter.DEFAULT_PORT;
+        int colon = endpoint.lastIndexOf(':');
+        try {
+            if (colon >= 0) {
+                port = Integer.parseInt(endpoint.substring(colon + 1).trim());
+                if (colon > 0) {
+                    address = endpoint.substring(0, colon).trim();
+                }
+            } else {
+                address = endpoint;
+            }
+        } catch (NumberFormatException e) {
+            addLog("Error: invalid metrics endpoint " + endpoint);
+            return;
+        }
+        metricsExporter = new MetricsExporter(address, port,
+                prefs.getBoolean(PREF_METRICS_REMOTE_LOGS, false), metricsSource);
+        metricsExporter.start();
+        addLog("Metrics available at " + metricsExporter.getEndpoint());
+        String logsEndpoint = metricsExporter.getLogsEndpoint();
+        if (logsEndpoint != null) {
+            addLog("Logs available at " + logsEndpoint);
+        }
+    }
+    
+    // 在导出线程上写入指标，只读取 volatile 快照和线程安全的计数器
+    private final MetricsExporter.Source metricsSource = new MetricsExporter.Source() {
         @Override
-        public void run() {
-            try {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-                String line;
-                while ((line = reader.readLine()) != null && !isInterrupted()) {
-                    String logMsg = "[" + tag + "] " + line;
-                    Log.d(TAG, logMsg);
-                    addLog(logMsg);
+        public void writeMetrics(MetricsWriter w) {
+            FrpInstance[] snapshot = instanceSnapshot;
+            
+            w.family("frp_instance_up", "gauge", "Whether the frp process is running");
+            for (FrpInstance instance : snapshot) {
+                w.sample("frp_instance_up").label("instance", instance.getName()).value(instance.isRunning() ? 1 : 0);
+            }
+            w.family("frp_instance_ready", "gauge", "Whether frp logged in and started all proxies");
+            for (FrpInstance instance : snapshot) {
+                w.sample("frp_instance_ready").label("instance", instance.getName()).value(instance.isReady() ? 1 : 0);
+            }
+            w.family("frp_instance_uptime_seconds", "gauge", "Time since the frp process was started");
+            for (FrpInstance instance : snapshot) {
+                w.sample("frp_instance_uptime_seconds").label("instance", instance.getName())
+                        .millisAsSeconds(instance.getUptimeMillis());
+            }
+            w.family("frp_instance_restarts", "counter", "Automatic restarts after the frp process exited");
+            for (FrpInstance instance : snapshot) {
+                w.counter("frp_instance_restarts").label("instance", instance.getName()).value(instance.getRestartCount());
+            }
+            w.family("frp_instance_crash_loop", "gauge", "Whether restarts are paused after repeated crashes");
+            for (FrpInstance instance : snapshot) {
+                w.sample("frp_instance_crash_loop").label("instance", instance.getName())
+                        .value(instance.getState() == FrpInstance.State.CRASH_LOOP ? 1 : 0);
+            }
+            
+            w.family("frp_instance_login_seconds", "gauge", "Time from process start to server login");
+            for (FrpInstance instance : snapshot) {
+                ReadinessTracker tracker = instance.getReadiness();
+                if (tracker != null && tracker.getLoginMillis() >= 0) {
+                    w.sample("frp_instance_login_seconds").label("instance", instance.getName())
+                            .millisAsSeconds(tracker.getLoginMillis());
+                }
+            }
+            w.family("frp_instance_time_to_ready_seconds", "gauge", "Time from process start to ready");
+            for (FrpInstance instance : snapshot) {
+                ReadinessTracker tracker = instance.getReadiness();
+                if (tracker != null && tracker.getReadyMillis() >= 0) {
+                    w.sample("frp_instance_time_to_ready_seconds").label("instance", instance.getName())
+                            .millisAsSeconds(tracker.getReadyMillis());
+                }
+            }
+            w.family("frp_proxy_time_to_ready_seconds", "gauge", "Time from process start to proxy started");
+            for (FrpInstance instance : snapshot) {
+                ReadinessTracker tracker = instance.getReadiness();
+                if (tracker == null) {
+                    continue;
+                }
+                int count = tracker.getReadyProxyCount();
+                for (int i = 0; i < count; i++) {
+                    w.sample("frp_proxy_time_to_ready_seconds").label("instance", instance.getName())
+                            .label("proxy", tracker.getReadyProxyName(i))
+                            .millisAsSeconds(tracker.getReadyProxyMillis(i));
+                }
+            }
+            
+            w.family("frp_log_lines", "counter", "Log lines recorded by level");
+            for (int level = 0; level < LogLevel.NAMES.length; level++) {
+                w.counter("frp_log_lines").label("level", LogLevel.NAMES[level]).value(logLineCounts.get(level));
+            }
+            
+            ProxyStats[] proxies = statusPoller.getStatsSnapshot();
+            w.family("frp_proxy_up", "gauge", "Whether the proxy is running according to the admin API");
+            for (ProxyStats proxy : proxies) {
+                w.sample("frp_proxy_up").label("instance", proxy.instance).label("proxy", proxy.name)
+                        .label("type", proxy.type).value(proxy.up ? 1 : 0);
+            }
+            w.family("frp_proxy_traffic_in_bytes", "gauge", "Bytes received by the proxy today (frps only)");
+            for (ProxyStats proxy : proxies) {
+                if (proxy.hasTraffic()) {
+                    w.sample("frp_proxy_traffic_in_bytes").label("instance", proxy.instance)
+                            .label("proxy", proxy.name).value(proxy.trafficIn);
+                }
+            }
+            w.family("frp_proxy_traffic_out_bytes", "gauge", "Bytes sent by the proxy today (frps only)");
+            for (ProxyStats proxy : proxies) {
+                if (proxy.hasTraffic()) {
+                    w.sample("frp_proxy_traffic_out_bytes").label("instance", proxy.instance)
+                            .label("proxy", proxy.name).value(proxy.trafficOut);
                 }
-            } catch (IOException e) {
-                Log.e(TAG, "Error reading " + tag + " log", e);
             }
+            w.family("frp_proxy_connections", "gauge", "Current connections of the proxy (frps only)");
+            for (ProxyStats proxy : proxies) {
+                if (proxy.connections >= 0) {
+                    w.sample("frp_proxy_connections").label("instance", proxy.instance)
+                            .label("proxy", proxy.name).value(proxy.connections);
+                }
+            }
+        }
+        
+        @Override
+        public void writeLogs(OutputStream out) throws IOException {
+            exportLogs(out, null);
+        }
+    };
+    
+    public long getLastCrashTime() {
+        return getSharedPreferences(PREFS_NAME, MODE_PRIVATE).getLong(PREF_LAST_CRASH_TIME, 0);
+    }
+    
+    private void addLog(String message) {
+        appendLog(System.currentTimeMillis(), LogLevel.detect(message), LogSegmentStore.STREAM_SERVICE,
+                null, null, message);
+    }
+    
+    private void appendLog(long timestamp, int level, int stream, String source, String proxy, String message) {
+        logLineCounts.incrementAndGet(level);
+        // 环形缓冲区和磁盘按相同的顺序写入，导出时才能按序号判断哪些日志已在磁盘上
+        synchronized (logWriteLock) {
+            // 环形缓冲区容量固定，最旧的日志会被自动覆盖
+            long sequence = logBuffer.append(timestamp, level, stream, source, proxy, message);
+            LogSegmentStore store = logStore;
+            if (store != null) {
+                store.append(sequence, timestamp, level, stream, source, message);
+            }
+        }
+        logIndex.add(timestamp, level, stream, source, proxy, message);
+        events.logsAppended();
+    }
+    
+    private static int toLogPriority(int level) {
+        switch (level) {
+            case LogLevel.TRACE:
+                return Log.VERBOSE;
+            case LogLevel.DEBUG:
+                return Log.DEBUG;
+            case LogLevel.WARN:
+                return Log.WARN;
+            case LogLevel.ERROR:
+                return Log.ERROR;
+            default:
+                return Log.INFO;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,129 @@
+package com.example.droidfrpd;
+
+import android.util.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * frpc 管理 API 和 frps dashboard API 客户端。
+ *
+ * 通过 GET /api/reload 让 frpc 重新读取配置文件中的代理，不断开与服务器的连接；
+ * 通过 get() 读取状态接口。每次请求都完整读取响应体后关闭流而不断开连接，
+ * 让 HttpURLConnection 复用同一个 keep-alive 连接。
+ * 地址通过构造函数传入，可以指向本地的测试 HTTP 服务。
+ */
+final class FrpAdminClient {
+
+    static final int TIMEOUT_MS = 5000;
+
+    private final String baseUrl;
+    private final String authorization;
+
+    FrpAdminClient(String baseUrl, String user, String password) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        if (user != null && !user.isEmpty()) {
+            String credentials = user + ":" + (password != null ? password : "");
+            authorization = "Basic " + Base64.encodeToString(
+                    credentials.getBytes(StandardCharsets.UTF_8), Base64.NO_WRAP);
+        } else {
+            authorization = null;
+        }
+    }
+
+    /**
+     * 根据配置中的管理接口设置创建客户端：
+     * 新格式使用 webServer.addr/port/user/password，旧格式 frpc 使用 [common] 中的
+     * admin_addr/admin_port/admin_user/admin_pwd，旧格式 frps 使用 dashboard_addr/dashboard_port/dashboard_user/dashboard_pwd。
+     * 没有配置管理接口端口时返回 null。
+     */
+    static FrpAdminClient fromConfig(String content) {
+        String addr;
+        String port;
+        String user;
+        String password;
+        if (FrpConfigFiles.findValue(content, "common", "admin_port") != null) {
+            addr = FrpConfigFiles.findValue(content, "common", "admin_addr");
+            port = FrpConfigFiles.findValue(content, "common", "admin_port");
+            user = FrpConfigFiles.findValue(content, "common", "admin_user");
+            password = FrpConfigFiles.findValue(content, "common", "admin_pwd");
+        } else if (FrpConfigFiles.findValue(content, "common", "dashboard_port") != null) {
+            addr = FrpConfigFiles.findValue(content, "common", "dashboard_addr");
+            port = FrpConfigFiles.findValue(content, "common", "dashboard_port");
+            user = FrpConfigFiles.findValue(content, "common", "dashboard_user");
+            password = FrpConfigFiles.findValue(content, "common", "dashboard_pwd");
+        } else {
+            addr = webServerValue(content, "addr");
+            port = webServerValue(content, "port");
+            user = webServerValue(content, "user");
+            password = webServerValue(content, "password");
+        }
+        if (port == null || port.isEmpty()) {
+            return null;
+        }
+        if (addr == null || addr.isEmpty() || "0.0.0.0".equals(addr)) {
+            addr = "127.0.0.1";
+        }
+        return new FrpAdminClient("http://" + addr + ":" + port, user, password);
+    }
+
+    // webServer.xxx = ... 或 [webServer] 表中的 xxx = ...
+    private static String webServerValue(String content, String key) {
+        String value = FrpConfigFiles.findValue(content, null, "webServer." + key);
+        return value != null ? value : FrpConfigFiles.findValue(content, "webServer", key);
+    }
+
+    /**
+     * 请求 frpc 重新加载配置，失败时抛出 IOException。
+     */
+    void reload() throws IOException {
+        get("/api/reload");
+    }
+
+    /**
+     * GET 请求，返回响应体；非 2xx 响应抛出 IOException。
+     */
+    String get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            connection.setUseCaches(false);
+            if (authorization != null) {
+                connection.setRequestProperty("Authorization", authorization);
+            }
+            int code = connection.getResponseCode();
+            if (code < 200 || code >= 300) {
+                String body = readBody(connection.getErrorStream());
+                throw new IOException("GET " + path + " failed with HTTP " + code
+                        + (body.isEmpty() ? "" : ": " + body));
+            }
+            return readBody(connection.getInputStream());
+        } catch (IOException e) {
+            // 出错的连接不再复用
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        if (in == null) {
+            return "";
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                out.write(buffer, 0, length);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8).trim();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.droidfrpd;
+
+/**
+ * 比较两份 frp 配置，判断修改能否通过管理 API 热重载生效。
+ *
+ * 代理部分包括新格式的 [[proxies]]、[[visitors]] 及其子表，以及旧格式中 [common] 以外的段；
+ * 其余内容（服务器地址、认证、日志、管理接口等）属于公共部分，修改后必须重启进程。
+ * 比较时忽略注释、空行和行首尾空白。
+ */
+final class FrpConfigDiff {
+
+    enum Change {
+        // 没有实质修改
+        NONE,
+        // 只修改了代理，可以热重载
+        PROXIES_ONLY,
+        // 修改了公共部分，需要重启
+        FULL
+    }
+
+    private FrpConfigDiff() {
+    }
+
+    static Change classify(String oldConfig, String newConfig) {
+        String[] oldParts = split(oldConfig);
+        String[] newParts = split(newConfig);
+        if (!oldParts[0].equals(newParts[0])) {
+            return Change.FULL;
+        }
+        if (!oldParts[1].equals(newParts[1])) {
+            return Change.PROXIES_ONLY;
+        }
+        return Change.NONE;
+    }
+
+    // 返回 {公共部分, 代理部分} 的规范化文本
+    private static String[] split(String config) {
+        StringBuilder common = new StringBuilder();
+        StringBuilder proxies = new StringBuilder();
+        boolean legacy = false;
+        String[] lines = config.split("\n");
+        for (String line : lines) {
+            if ("common".equals(FrpConfigFiles.tableName(line))) {
+                legacy = true;
+                break;
+            }
+        }
+
+        boolean inProxy = false;
+        for (String line : lines) {
+            String trimmed = stripComment(line).trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            String table = FrpConfigFiles.tableName(trimmed);
+            if (table != null) {
+                inProxy = isProxyTable(table, trimmed.startsWith("[["), legacy);
+            }
+            (inProxy ? proxies : common).append(trimmed).append('\n');
+        }
+        return new String[]{common.toString(), proxies.toString()};
+    }
+
+    private static boolean isProxyTable(String table, boolean arrayTable, boolean legacy) {
+        if (legacy) {
+            return !"common".equals(table);
+        }
+        if (arrayTable) {
+            return "proxies".equals(table) || "visitors".equals(table);
+        }
+        return table.startsWith("proxies.") || table.startsWith("visitors.");
+    }
+
+    // 去掉不在字符串内的 # 注释
+    private static String stripComment(String line) {
+        boolean inString = false;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (inString) {
+                if (c == '\\' && quote == '"') {
+                    i++;
+                } else if (c == quote) {
+                    inString = false;
+                }
+            } else if (c == '"' || c == '\'') {
+                inString = true;
+                quote = c;
+            } else if (c == '#') {
+                return line.substring(0, i);
+            }
+        }
+        return line;
+    }
+}
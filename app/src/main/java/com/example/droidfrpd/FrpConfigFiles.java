@@ -0,0 +1,417 @@
+package com.example.droidfrpd;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * frpc/frps 配置文件的读写和简单的按行修改。
+ */
+final class FrpConfigFiles {
+
+    private FrpConfigFiles() {
+    }
+
+    static String readText(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(file.length(), 16));
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                out.write(buffer, 0, length);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    static void writeText(File file, String content) throws IOException {
+        writeBytes(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 原子写入：先写同目录下的临时文件并同步到磁盘，再重命名覆盖原文件。
+     * 写入过程中断电时原文件保持完整，不会留下截断的配置。
+     */
+    static void writeBytes(File file, byte[] data) throws IOException {
+        // 临时文件名带线程 id，同一文件的并发写入互不干扰
+        File temp = new File(file.getParentFile(), file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(data);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * 设置配置内容中的日志级别：
+     * 旧格式（[common] 段）使用 log_level，新格式使用顶层的 log.level 或 [log] 表中的 level。
+     */
+    static String withLogLevel(String content, String level) {
+        String[] lines = content.split("\n", -1);
+        String value = "\"" + level + "\"";
+        boolean legacy = false;
+        for (String line : lines) {
+            if ("common".equals(tableName(line))) {
+                legacy = true;
+                break;
+            }
+        }
+
+        String table = null;
+        int insertAt = -1;
+        int logTableLine = -1;
+        // 顶层最后一个键值（包括跨多行的数组）的结束行
+        int lastTopLevelLine = -1;
+        // 多行数组中未闭合的括号数，其中的行不是表头也不是键
+        int depth = 0;
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            if (depth > 0) {
+                depth += bracketDepth(line);
+                if (table == null) {
+                    lastTopLevelLine = i;
+                }
+                continue;
+            }
+            String header = tableName(line);
+            if (header != null) {
+                if (insertAt < 0 && !legacy && table == null) {
+                    insertAt = lastTopLevelLine + 1;
+                }
+                table = header;
+                if ("log".equals(table) && logTableLine < 0) {
+                    logTableLine = i;
+                }
+                if (legacy && "common".equals(table)) {
+                    insertAt = i + 1;
+                }
+                continue;
+            }
+            String key = keyOf(line);
+            if (key == null) {
+                continue;
+            }
+            if (!legacy) {
+                depth = Math.max(0, bracketDepth(line.substring(line.indexOf('=') + 1)));
+            }
+            if (table == null) {
+                lastTopLevelLine = i;
+            }
+            boolean match;
+            if (legacy) {
+                match = "common".equals(table) && "log_level".equals(key);
+            } else {
+                match = (table == null && "log.level".equals(key)) || ("log".equals(table) && "level".equals(key));
+            }
+            if (match) {
+                lines[i] = line.substring(0, line.indexOf('=') + 1) + " " + value;
+                return join(lines);
+            }
+        }
+
+        String newLine = legacy ? "log_level = " + value : "log.level = " + value;
+        if (!legacy && logTableLine >= 0) {
+            // 已有 [log] 表时写在表内，避免重复定义
+            newLine = "level = " + value;
+            insertAt = logTableLine + 1;
+        } else if (insertAt < 0) {
+            insertAt = legacy ? 0 : lastTopLevelLine + 1;
+        }
+        StringBuilder sb = new StringBuilder(content.length() + newLine.length() + 1);
+        for (int i = 0; i < lines.length; i++) {
+            if (i == insertAt) {
+                sb.append(newLine).append('\n');
+            }
+            sb.append(lines[i]);
+            if (i < lines.length - 1) {
+                sb.append('\n');
+            }
+        }
+        if (insertAt >= lines.length) {
+            sb.append('\n').append(newLine).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 把选中的服务器写入配置内容并去掉候选列表，得到交给 frpc 的配置：
+     * 旧格式修改 [common] 中的 server_addr、server_port 并去掉 server_addrs，
+     * 新格式修改顶层的 serverAddr、serverPort 并去掉 serverAddrs（可以跨多行）。
+     */
+    static String withServer(String content, String host, int port) {
+        boolean legacy = isLegacy(content);
+        String addrKey = legacy ? "server_addr" : "serverAddr";
+        String portKey = legacy ? "server_port" : "serverPort";
+        String listKey = legacy ? "server_addrs" : "serverAddrs";
+        String addrLine = addrKey + " = " + (legacy ? host : "\"" + host + "\"");
+        String portLine = portKey + " = " + port;
+
+        String[] lines = content.split("\n", -1);
+        List<String> result = new ArrayList<>(lines.length + 2);
+        String table = null;
+        int insertAt = legacy ? -1 : 0;
+        boolean addrDone = false;
+        boolean portDone = false;
+        // 正在跳过的多行数组中未闭合的括号数
+        int listDepth = 0;
+        for (String line : lines) {
+            if (listDepth > 0) {
+                listDepth += bracketDepth(line);
+                continue;
+            }
+            String header = tableName(line);
+            if (header != null) {
+                table = header;
+                if (legacy && "common".equals(header)) {
+                    insertAt = result.size() + 1;
+                }
+                result.add(line);
+                continue;
+            }
+            boolean inScope = legacy ? "common".equals(table) : table == null;
+            String key = inScope ? keyOf(line) : null;
+            if (listKey.equals(key)) {
+                listDepth = legacy ? 0 : Math.max(0, bracketDepth(line.substring(line.indexOf('=') + 1)));
+                continue;
+            }
+            if (addrKey.equals(key)) {
+                result.add(addrLine);
+                addrDone = true;
+                continue;
+            }
+            if (portKey.equals(key)) {
+                result.add(portLine);
+                portDone = true;
+                continue;
+            }
+            if (!legacy && table == null && key != null) {
+                insertAt = result.size() + 1;
+            }
+            result.add(line);
+        }
+        if (insertAt < 0) {
+            insertAt = 0;
+        }
+        if (!portDone) {
+            result.add(insertAt, portLine);
+        }
+        if (!addrDone) {
+            result.add(insertAt, addrLine);
+        }
+        return join(result.toArray(new String[result.size()]));
+    }
+
+    // 一行中字符串和注释以外的 [ 与 ] 的数量差
+    private static int bracketDepth(String line) {
+        int depth = 0;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == '\\' && quote == '"') {
+                    i++;
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '#') {
+                break;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * 查找表中键的值（去掉引号和行尾注释），table 为 null 表示顶层。找不到时返回 null。
+     */
+    static String findValue(String content, String table, String key) {
+        String current = null;
+        for (String line : content.split("\n")) {
+            String header = tableName(line);
+            if (header != null) {
+                current = header;
+                continue;
+            }
+            if (!key.equals(keyOf(line))) {
+                continue;
+            }
+            if (table == null ? current != null : !table.equals(current)) {
+                continue;
+            }
+            return valueOf(line);
+        }
+        return null;
+    }
+
+    // key = value 行中去掉引号和行尾注释的值
+    static String valueOf(String line) {
+        String value = line.substring(line.indexOf('=') + 1).trim();
+        if (value.startsWith("\"") || value.startsWith("'")) {
+            int close = value.indexOf(value.charAt(0), 1);
+            return close > 0 ? value.substring(1, close) : value.substring(1);
+        }
+        int comment = value.indexOf('#');
+        return (comment >= 0 ? value.substring(0, comment) : value).trim();
+    }
+
+    // 旧格式（ini 风格）配置包含 [common] 段
+    static boolean isLegacy(String content) {
+        for (String line : content.split("\n")) {
+            if ("common".equals(tableName(line))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // frpc 配置中的服务器地址（旧格式 server_addr 或新格式 serverAddr），未设置时返回 null
+    static String serverAddress(String content) {
+        String addr = findValue(content, "common", "server_addr");
+        return addr != null ? addr : findValue(content, null, "serverAddr");
+    }
+
+    /**
+     * frpc 运行时的代理名称：新格式为 [[proxies]] 中的 name，
+     * 旧格式为 [common] 以外、role 不是 visitor 的段名，其中 [range:前缀] 段按 local_port 中的端口数
+     * 展开为 前缀_0、前缀_1 ……（与 frpc 相同）。名称中含有 Go 模板（{{ }}）时无法得知，不包括在内。
+     */
+    static List<String> proxyNames(String content) {
+        List<String> names = new ArrayList<>();
+        boolean legacy = isLegacy(content);
+        String table = null;
+        boolean inProxy = false;
+        boolean visitor = false;
+        String localPort = null;
+        for (String line : content.split("\n")) {
+            String header = tableName(line);
+            if (header != null) {
+                if (legacy) {
+                    addLegacyProxy(names, table, visitor, localPort);
+                }
+                table = header;
+                inProxy = line.trim().startsWith("[[") && "proxies".equals(header);
+                visitor = false;
+                localPort = null;
+                continue;
+            }
+            String key = keyOf(line);
+            if (legacy) {
+                if ("role".equals(key) && line.contains("visitor")) {
+                    visitor = true;
+                } else if ("local_port".equals(key)) {
+                    localPort = valueOf(line);
+                }
+            } else if (inProxy && "name".equals(key)) {
+                String name = valueOf(line);
+                if (!name.contains("{{")) {
+                    names.add(name);
+                }
+            }
+        }
+        if (legacy) {
+            addLegacyProxy(names, table, visitor, localPort);
+        }
+        return names;
+    }
+
+    private static void addLegacyProxy(List<String> names, String section, boolean visitor, String localPort) {
+        if (section == null || "common".equals(section) || visitor || section.contains("{{")) {
+            return;
+        }
+        if (!section.startsWith("range:")) {
+            names.add(section);
+            return;
+        }
+        String prefix = section.substring("range:".length()).trim();
+        int count = localPort != null ? countPorts(localPort) : -1;
+        for (int i = 0; i < count; i++) {
+            names.add(prefix + "_" + i);
+        }
+    }
+
+    // "6000-6005,6010" 形式的端口列表中的端口数，格式错误时返回 -1
+    private static int countPorts(String ports) {
+        int count = 0;
+        for (String part : ports.split(",")) {
+            part = part.trim();
+            if (part.isEmpty()) {
+                continue;
+            }
+            int dash = part.indexOf('-');
+            try {
+                if (dash < 0) {
+                    Integer.parseInt(part);
+                    count++;
+                } else {
+                    int from = Integer.parseInt(part.substring(0, dash).trim());
+                    int to = Integer.parseInt(part.substring(dash + 1).trim());
+                    if (to < from) {
+                        return -1;
+                    }
+                    count += to - from + 1;
+                }
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return count;
+    }
+
+    // 返回 [name] 或 [[name]] 形式的表名，不是表头时返回 null
+    static String tableName(String line) {
+        String trimmed = line.trim();
+        if (!trimmed.startsWith("[")) {
+            return null;
+        }
+        int close = trimmed.indexOf(']');
+        if (close < 0) {
+            return null;
+        }
+        String name = trimmed.startsWith("[[") ? trimmed.substring(2, close) : trimmed.substring(1, close);
+        return name.trim();
+    }
+
+    // 返回 key = value 行中的键，注释和空行返回 null
+    static String keyOf(String line) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#") || trimmed.startsWith("[")) {
+            return null;
+        }
+        int eq = trimmed.indexOf('=');
+        if (eq <= 0) {
+            return null;
+        }
+        return trimmed.substring(0, eq).trim();
+    }
+
+    private static String join(String[] lines) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines.length; i++) {
+            if (i > 0) {
+                sb.append('\n');
+            }
+            sb.append(lines[i]);
+        }
+        return sb.toString();
+    }
+}
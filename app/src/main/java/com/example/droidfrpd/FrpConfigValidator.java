@@ -0,0 +1,714 @@
+package com.example.droidfrpd;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 按 frpc/frps 的配置结构校验配置内容：未知键、值类型、端口范围、重复的代理名和远程端口。
+ *
+ * 新格式使用 TomlParser 流式解析；包含 [common] 段的旧格式按 frp 的 ini 规则逐行检查。
+ * 错误会让 frp 启动失败，警告（如未知键）只提示。
+ */
+final class FrpConfigValidator {
+
+    // 类型代码：s 字符串，i 整数，b 布尔，a 数组，n 数字，
+    // p 端口 1-65535，P 端口 0-65535（0 表示随机或关闭），v visitor 端口 -1-65535
+    private static final String[] CLIENT_KEYS = {
+            "serverAddr:s", "serverAddrs:a", "serverPort:p", "natHoleStunServer:s", "dnsServer:s", "loginFailExit:b",
+            "user:s", "start:a", "udpPacketSize:i", "includes:a",
+            "log.to:s", "log.level:s", "log.maxDays:i", "log.disablePrintColor:b",
+            "auth.method:s", "auth.token:s", "auth.additionalScopes:a",
+            "webServer.addr:s", "webServer.port:P", "webServer.user:s", "webServer.password:s",
+            "webServer.assetsDir:s", "webServer.pprofEnable:b",
+            "transport.protocol:s", "transport.dialServerTimeout:i", "transport.dialServerKeepalive:i",
+            "transport.connectServerLocalIP:s", "transport.proxyURL:s", "transport.poolCount:i",
+            "transport.tcpMux:b", "transport.tcpMuxKeepaliveInterval:i", "transport.heartbeatInterval:i",
+            "transport.heartbeatTimeout:i",
+            "proxies[].name:s", "proxies[].type:s", "proxies[].localIP:s", "proxies[].localPort:p",
+            "proxies[].remotePort:P", "proxies[].customDomains:a", "proxies[].subdomain:s",
+            "proxies[].locations:a", "proxies[].httpUser:s", "proxies[].httpPassword:s",
+            "proxies[].hostHeaderRewrite:s", "proxies[].routeByHTTPUser:s", "proxies[].secretKey:s",
+            "proxies[].allowUsers:a", "proxies[].multiplexer:s", "proxies[].enabled:b",
+            "proxies[].transport.useEncryption:b", "proxies[].transport.useCompression:b",
+            "proxies[].transport.bandwidthLimit:s", "proxies[].transport.bandwidthLimitMode:s",
+            "proxies[].transport.proxyProtocolVersion:s",
+            "proxies[].loadBalancer.group:s", "proxies[].loadBalancer.groupKey:s",
+            "proxies[].healthCheck.type:s", "proxies[].healthCheck.timeoutSeconds:i",
+            "proxies[].healthCheck.maxFailed:i", "proxies[].healthCheck.intervalSeconds:i",
+            "proxies[].healthCheck.path:s", "proxies[].healthCheck.httpHeaders:a",
+            "visitors[].name:s", "visitors[].type:s", "visitors[].serverUser:s", "visitors[].serverName:s",
+            "visitors[].secretKey:s", "visitors[].bindAddr:s", "visitors[].bindPort:v",
+            "visitors[].keepTunnelOpen:b", "visitors[].maxRetriesAnHour:i", "visitors[].minRetryInterval:i",
+            "visitors[].fallbackTo:s", "visitors[].fallbackTimeoutMs:i", "visitors[].protocol:s",
+            "visitors[].enabled:b", "visitors[].transport.useEncryption:b", "visitors[].transport.useCompression:b",
+    };
+
+    // 这些前缀下的键由插件或用户自定义，不检查
+    private static final String[] CLIENT_OPEN_PREFIXES = {
+            "metadatas.", "featureGates.", "virtualNet.", "auth.oidc.", "auth.tokenSource.", "webServer.tls.",
+            "transport.quic.", "transport.tls.", "proxies[].metadatas.", "proxies[].annotations.",
+            "proxies[].plugin.", "proxies[].requestHeaders.", "proxies[].responseHeaders.",
+            "proxies[].natTraversal.", "visitors[].plugin.", "visitors[].natTraversal.",
+    };
+
+    private static final String[] SERVER_KEYS = {
+            "bindAddr:s", "bindPort:p", "kcpBindPort:P", "quicBindPort:P", "proxyBindAddr:s",
+            "vhostHTTPPort:P", "vhostHTTPSPort:P", "vhostHTTPTimeout:i", "tcpmuxHTTPConnectPort:P",
+            "tcpmuxPassthrough:b", "subDomainHost:s", "custom404Page:s", "enablePrometheus:b",
+            "detailedErrorsToClient:b", "maxPortsPerClient:i", "userConnTimeout:i", "udpPacketSize:i",
+            "natholeAnalysisDataReserveHours:i", "allowPorts:a",
+            "log.to:s", "log.level:s", "log.maxDays:i", "log.disablePrintColor:b",
+            "auth.method:s", "auth.token:s", "auth.additionalScopes:a",
+            "webServer.addr:s", "webServer.port:P", "webServer.user:s", "webServer.password:s",
+            "webServer.assetsDir:s", "webServer.pprofEnable:b",
+            "transport.tcpMuxKeepaliveInterval:i", "transport.tcpKeepalive:i", "transport.maxPoolCount:i",
+            "transport.heartbeatTimeout:i", "transport.tcpMux:b",
+    };
+
+    private static final String[] SERVER_OPEN_PREFIXES = {
+            "auth.oidc.", "webServer.tls.", "transport.quic.", "transport.tls.", "sshTunnelGateway.",
+            "httpPlugins[].",
+    };
+
+    private static final String[] PROXY_TYPES = {"tcp", "udp", "http", "https", "tcpmux", "stcp", "xtcp", "sudp"};
+    private static final String[] VISITOR_TYPES = {"stcp", "xtcp", "sudp"};
+
+    // 旧格式 [common] 段的键
+    private static final String[] LEGACY_CLIENT_COMMON = {
+            "server_addr", "server_addrs", "server_port", "dial_server_timeout", "dial_server_keepalive", "http_proxy",
+            "log_file", "log_level", "log_max_days", "log_way", "disable_log_color", "token",
+            "authentication_method", "admin_addr", "admin_port", "admin_user", "admin_pwd", "assets_dir",
+            "pool_count", "tcp_mux", "tcp_mux_keepalive_interval", "user", "login_fail_exit", "protocol",
+            "connect_server_local_ip", "tls_enable", "tls_cert_file", "tls_key_file", "tls_trusted_ca_file",
+            "tls_server_name", "disable_custom_tls_first_byte", "dns_server", "start", "heartbeat_interval",
+            "heartbeat_timeout", "udp_packet_size", "includes", "pprof_enable", "nat_hole_stun_server",
+    };
+
+    private static final String[] LEGACY_SERVER_COMMON = {
+            "bind_addr", "bind_port", "kcp_bind_port", "quic_bind_port", "proxy_bind_addr", "vhost_http_port",
+            "vhost_https_port", "vhost_http_timeout", "tcpmux_httpconnect_port", "tcpmux_passthrough",
+            "dashboard_addr", "dashboard_port", "dashboard_user", "dashboard_pwd", "enable_prometheus",
+            "assets_dir", "log_file", "log_level", "log_max_days", "log_way", "disable_log_color", "token",
+            "authentication_method", "allow_ports", "max_pool_count", "max_ports_per_client", "tls_only",
+            "subdomain_host", "tcp_mux", "tcp_mux_keepalive_interval", "tcp_keepalive", "custom_404_page",
+            "heartbeat_timeout", "user_conn_timeout", "udp_packet_size", "nat_hole_analysis_data_reserve_hours",
+            "detailed_errors_to_client", "pprof_enable",
+    };
+
+    private static final String[] LEGACY_PROXY_KEYS = {
+            "type", "local_ip", "local_port", "remote_port", "custom_domains", "subdomain", "locations",
+            "http_user", "http_pwd", "host_header_rewrite", "route_by_http_user", "use_encryption",
+            "use_compression", "bandwidth_limit", "bandwidth_limit_mode", "proxy_protocol_version", "group",
+            "group_key", "role", "sk", "server_name", "server_user", "bind_addr", "bind_port", "allow_users",
+            "multiplexer", "keep_tunnel_open", "max_retries_an_hour", "min_retry_interval", "fallback_to",
+            "fallback_timeout_ms", "protocol", "plugin",
+    };
+
+    private static final String[] LEGACY_OPEN_PREFIXES = {
+            "meta_", "oidc_", "authenticate_", "quic_", "tls_", "dashboard_tls_", "plugin_", "header_",
+            "health_check_", "nat_traversal_",
+    };
+
+    // 旧格式中需要检查类型的键
+    private static final String[] LEGACY_TYPED_KEYS = {
+            "server_port:p", "admin_port:P", "bind_port:v", "dashboard_port:P", "kcp_bind_port:P",
+            "quic_bind_port:P", "vhost_http_port:P", "vhost_https_port:P", "tcpmux_httpconnect_port:P",
+            "local_port:p", "remote_port:P", "pool_count:i", "log_max_days:i", "heartbeat_interval:i",
+            "heartbeat_timeout:i", "tcp_mux:b", "login_fail_exit:b", "tls_enable:b", "use_encryption:b",
+            "use_compression:b", "enable_prometheus:b",
+    };
+
+    private static final Map<String, Character> CLIENT_SCHEMA = schema(CLIENT_KEYS);
+    private static final Map<String, Character> SERVER_SCHEMA = schema(SERVER_KEYS);
+    private static final Map<String, Character> LEGACY_TYPES = schema(LEGACY_TYPED_KEYS);
+    private static final Set<String> LEGACY_CLIENT_COMMON_SET = set(LEGACY_CLIENT_COMMON);
+    private static final Set<String> LEGACY_SERVER_COMMON_SET = set(LEGACY_SERVER_COMMON);
+    private static final Set<String> LEGACY_PROXY_SET = set(LEGACY_PROXY_KEYS);
+    // 去掉下划线、忽略大小写后的键名 -> 正确的键名，用于提示 server_addr 之类的旧写法
+    private static final Map<String, String> CLIENT_SUGGESTIONS = suggestions(CLIENT_SCHEMA);
+    private static final Map<String, String> SERVER_SUGGESTIONS = suggestions(SERVER_SCHEMA);
+
+    // 消息中引用的行号，例如 "already used on line 12"
+    private static final Pattern LINE_REFERENCE = Pattern.compile("on line (\\d+)");
+
+    private FrpConfigValidator() {
+    }
+
+    static final class Problem {
+        final boolean error;
+        final int line;
+        final int column;
+        final String message;
+
+        Problem(boolean error, int line, int column, String message) {
+            this.error = error;
+            this.line = line;
+            this.column = column;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return (line > 0 ? "Line " + line + ":" + column + ": " : "") + (error ? "" : "Warning: ") + message;
+        }
+    }
+
+    static final class Result {
+        private final List<Problem> problems = new ArrayList<>();
+        private int errorCount = 0;
+
+        private void add(boolean error, int line, int column, String message) {
+            problems.add(new Problem(error, line, column, message));
+            if (error) {
+                errorCount++;
+            }
+        }
+
+        boolean hasErrors() {
+            return errorCount > 0;
+        }
+
+        int getErrorCount() {
+            return errorCount;
+        }
+
+        int getWarningCount() {
+            return problems.size() - errorCount;
+        }
+
+        // 按行号排序的全部问题
+        List<Problem> getProblems() {
+            return problems;
+        }
+
+        // 第一个错误，没有错误时返回第一个警告
+        Problem first() {
+            for (Problem problem : problems) {
+                if (problem.error) {
+                    return problem;
+                }
+            }
+            return problems.isEmpty() ? null : problems.get(0);
+        }
+
+        // 最多 max 条问题，错误在前，每条一行
+        String describe(int max) {
+            StringBuilder sb = new StringBuilder();
+            int shown = 0;
+            for (int pass = 0; pass < 2; pass++) {
+                for (Problem problem : problems) {
+                    if (problem.error != (pass == 0)) {
+                        continue;
+                    }
+                    if (shown == max) {
+                        sb.append("... and ").append(problems.size() - max).append(" more");
+                        return sb.toString();
+                    }
+                    if (shown > 0) {
+                        sb.append('\n');
+                    }
+                    sb.append(problem);
+                    shown++;
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * 校验配置内容。server 为 true 时按 frps 的结构检查，否则按 frpc。
+     */
+    static Result validate(String content, boolean server) {
+        Result result = new Result();
+        if (content.contains("{{")) {
+            // Go 模板在 frp 启动时才渲染，渲染前的内容不一定是合法的 TOML
+            result.add(false, 0, 0, "Config uses templates and was not validated");
+            return result;
+        }
+        if (FrpConfigFiles.isLegacy(content)) {
+            validateLegacy(content, server, result);
+        } else if (!server && FrpTemplateCompiler.isTemplate(content)) {
+            validateTemplate(content, result);
+        } else {
+            TomlValidator validator = new TomlValidator(server, result);
+            TomlParser.parse(content, validator);
+            validator.finish();
+        }
+        Collections.sort(result.problems, new Comparator<Problem>() {
+            @Override
+            public int compare(Problem a, Problem b) {
+                return a.line != b.line ? a.line - b.line : a.column - b.column;
+            }
+        });
+        return result;
+    }
+
+    // 代理模板：检查编译错误，再检查编译结果，问题按行号映射回模板
+    private static void validateTemplate(String content, Result result) {
+        FrpTemplateCompiler.Result compiled = FrpTemplateCompiler.compile(content);
+        if (compiled.output == null) {
+            for (Problem problem : compiled.errors) {
+                result.add(problem.error, problem.line, problem.column, problem.message);
+            }
+            return;
+        }
+        Result output = new Result();
+        TomlValidator validator = new TomlValidator(false, output);
+        TomlParser.parse(compiled.output, validator);
+        validator.finish();
+        for (Problem problem : output.problems) {
+            Matcher matcher = LINE_REFERENCE.matcher(problem.message);
+            StringBuffer message = new StringBuffer();
+            while (matcher.find()) {
+                matcher.appendReplacement(message,
+                        "on line " + compiled.templateLine(Integer.parseInt(matcher.group(1))));
+            }
+            matcher.appendTail(message);
+            result.add(problem.error, compiled.templateLine(problem.line), 1, message.toString());
+        }
+    }
+
+    // 新格式：在解析回调中逐个检查键
+    private static final class TomlValidator implements TomlParser.Handler {
+        private final boolean server;
+        private final Result result;
+        private final Map<String, Character> schema;
+        private final String[] openPrefixes;
+
+        // 当前所在的数组表（proxies、visitors 等），不在数组表中时为 null
+        private String arrayTable;
+        // 未知的数组表中的键不再逐个提示
+        private boolean unknownArrayTable;
+        private ProxyEntry entry;
+        private final Map<String, Integer> proxyNames = new HashMap<>();
+        private final Map<String, Integer> visitorNames = new HashMap<>();
+        // "tcp:6000" -> 第一次出现的行号
+        private final Map<String, Integer> remotePorts = new HashMap<>();
+
+        TomlValidator(boolean server, Result result) {
+            this.server = server;
+            this.result = result;
+            this.schema = server ? SERVER_SCHEMA : CLIENT_SCHEMA;
+            this.openPrefixes = server ? SERVER_OPEN_PREFIXES : CLIENT_OPEN_PREFIXES;
+        }
+
+        @Override
+        public void onTable(String path, boolean arrayTable, int line, int column) {
+            if (arrayTable) {
+                finishEntry();
+                this.arrayTable = path;
+                unknownArrayTable = false;
+                if (!server && ("proxies".equals(path) || "visitors".equals(path))) {
+                    entry = new ProxyEntry("visitors".equals(path), line, column);
+                } else if (!isKnownPrefix(path + "[].")) {
+                    unknownArrayTable = true;
+                    result.add(false, line, column, "Unknown table [[" + path + "]]");
+                }
+            } else if (this.arrayTable != null && !path.startsWith(this.arrayTable + ".")) {
+                finishEntry();
+                this.arrayTable = null;
+                unknownArrayTable = false;
+            }
+        }
+
+        @Override
+        public void onValue(String key, int type, Object value, int line, int column) {
+            String schemaKey = key;
+            if (arrayTable != null && key.startsWith(arrayTable + ".")) {
+                if (unknownArrayTable) {
+                    return;
+                }
+                schemaKey = arrayTable + "[]" + key.substring(arrayTable.length());
+            }
+            if (!server && ("proxies".equals(key) || "visitors".equals(key)) && type == TomlParser.TYPE_ARRAY) {
+                // proxies = [{ name = "a", ... }] 形式
+                onInlineEntries(key, (List<?>) value, line, column);
+                return;
+            }
+            checkKey(schemaKey, type, value, line, column);
+        }
+
+        @Override
+        public void onError(int line, int column, String message) {
+            result.add(true, line, column, message);
+        }
+
+        private void onInlineEntries(String table, List<?> entries, int line, int column) {
+            finishEntry();
+            for (Object element : entries) {
+                if (!(element instanceof Map)) {
+                    result.add(true, line, column, "'" + table + "' must be an array of tables");
+                    continue;
+                }
+                entry = new ProxyEntry("visitors".equals(table), line, column);
+                for (Map.Entry<?, ?> field : ((Map<?, ?>) element).entrySet()) {
+                    Object fieldValue = field.getValue();
+                    checkKey(table + "[]." + field.getKey(), TomlParser.typeOf(fieldValue), fieldValue, line, column);
+                }
+                finishEntry();
+            }
+        }
+
+        private void checkKey(String key, int type, Object value, int line, int column) {
+            Character expected = schema.get(key);
+            if (expected == null) {
+                if (!isKnownPrefix(key)) {
+                    String suggestion = (server ? SERVER_SUGGESTIONS : CLIENT_SUGGESTIONS).get(normalize(key));
+                    result.add(false, line, column, "Unknown key '" + displayKey(key) + "'"
+                            + (suggestion != null ? ", did you mean '" + displayKey(suggestion) + "'?" : ""));
+                }
+                return;
+            }
+            if (!checkType(expected, type, value, displayKey(key), line, column, result)) {
+                return;
+            }
+            if (entry != null && key.startsWith(entry.prefix)) {
+                entry.onValue(key.substring(entry.prefix.length()), value, line, column);
+            }
+        }
+
+        private boolean isKnownPrefix(String key) {
+            for (String prefix : openPrefixes) {
+                if (key.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void finishEntry() {
+            if (entry == null) {
+                return;
+            }
+            ProxyEntry finished = entry;
+            entry = null;
+            String kind = finished.visitor ? "Visitor" : "Proxy";
+            if (finished.name == null) {
+                result.add(true, finished.line, finished.column, kind + " is missing 'name'");
+            } else {
+                Map<String, Integer> names = finished.visitor ? visitorNames : proxyNames;
+                Integer previous = names.put(finished.name, finished.nameLine);
+                if (previous != null) {
+                    result.add(true, finished.nameLine, finished.nameColumn, kind + " name '" + finished.name
+                            + "' is already used on line " + previous);
+                }
+            }
+            if (finished.type == null) {
+                result.add(true, finished.line, finished.column, kind + " "
+                        + (finished.name != null ? "'" + finished.name + "' " : "") + "is missing 'type'");
+                return;
+            }
+            String[] types = finished.visitor ? VISITOR_TYPES : PROXY_TYPES;
+            boolean known = false;
+            for (String candidate : types) {
+                known |= candidate.equals(finished.type);
+            }
+            if (!known) {
+                result.add(true, finished.typeLine, finished.typeColumn, "Unknown " + kind.toLowerCase(Locale.US)
+                        + " type '" + finished.type + "'");
+                return;
+            }
+            if (finished.visitor) {
+                return;
+            }
+            if (("http".equals(finished.type) || "https".equals(finished.type)) && !finished.hasDomain) {
+                result.add(true, finished.line, finished.column, "Proxy '" + finished.name
+                        + "' needs customDomains or subdomain");
+            }
+            if (finished.remotePort > 0 && ("tcp".equals(finished.type) || "udp".equals(finished.type))) {
+                checkRemotePort(finished.type + ":" + finished.remotePort, finished.remotePort,
+                        finished.remotePortLine, finished.remotePortColumn);
+            }
+        }
+
+        private void checkRemotePort(String key, long port, int line, int column) {
+            Integer previous = remotePorts.put(key, line);
+            if (previous != null) {
+                result.add(true, line, column, "remotePort " + port + " is already used on line " + previous);
+            }
+        }
+
+        void finish() {
+            finishEntry();
+        }
+    }
+
+    // [[proxies]] 或 [[visitors]] 中的一项
+    private static final class ProxyEntry {
+        final boolean visitor;
+        final String prefix;
+        final int line;
+        final int column;
+        String name;
+        int nameLine;
+        int nameColumn;
+        String type;
+        int typeLine;
+        int typeColumn;
+        long remotePort = -1;
+        int remotePortLine;
+        int remotePortColumn;
+        boolean hasDomain;
+
+        ProxyEntry(boolean visitor, int line, int column) {
+            this.visitor = visitor;
+            this.prefix = visitor ? "visitors[]." : "proxies[].";
+            this.line = line;
+            this.column = column;
+        }
+
+        void onValue(String key, Object value, int line, int column) {
+            switch (key) {
+                case "name":
+                    name = (String) value;
+                    nameLine = line;
+                    nameColumn = column;
+                    break;
+                case "type":
+                    type = (String) value;
+                    typeLine = line;
+                    typeColumn = column;
+                    break;
+                case "remotePort":
+                    remotePort = (Long) value;
+                    remotePortLine = line;
+                    remotePortColumn = column;
+                    break;
+                case "customDomains":
+                    hasDomain |= !((List<?>) value).isEmpty();
+                    break;
+                case "subdomain":
+                    hasDomain |= !((String) value).isEmpty();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static boolean checkType(char expected, int type, Object value, String key, int line, int column,
+                                     Result result) {
+        int wanted;
+        switch (expected) {
+            case 's':
+                wanted = TomlParser.TYPE_STRING;
+                break;
+            case 'b':
+                wanted = TomlParser.TYPE_BOOLEAN;
+                break;
+            case 'a':
+                wanted = TomlParser.TYPE_ARRAY;
+                break;
+            case 'n':
+                if (type == TomlParser.TYPE_FLOAT) {
+                    return true;
+                }
+                wanted = TomlParser.TYPE_INTEGER;
+                break;
+            default:
+                wanted = TomlParser.TYPE_INTEGER;
+                break;
+        }
+        if (type != wanted) {
+            result.add(true, line, column, "'" + key + "' must be " + article(TomlParser.TYPE_NAMES[wanted])
+                    + ", not " + article(TomlParser.TYPE_NAMES[type]));
+            return false;
+        }
+        return wanted != TomlParser.TYPE_INTEGER || checkPort(expected, (Long) value, key, line, column, result);
+    }
+
+    private static boolean checkPort(char expected, long port, String key, int line, int column, Result result) {
+        long min;
+        switch (expected) {
+            case 'p':
+                min = 1;
+                break;
+            case 'P':
+                min = 0;
+                break;
+            case 'v':
+                min = -1;
+                break;
+            default:
+                return true;
+        }
+        if (port < min || port > 65535) {
+            result.add(true, line, column, "'" + key + "' = " + port + " is out of range (" + min + "-65535)");
+            return false;
+        }
+        return true;
+    }
+
+    private static String article(String typeName) {
+        return ("integer".equals(typeName) || "array".equals(typeName) ? "an " : "a ") + typeName;
+    }
+
+    // proxies[].localPort -> localPort
+    private static String displayKey(String key) {
+        int index = key.indexOf("[].");
+        return index >= 0 ? key.substring(index + 3) : key;
+    }
+
+    /**
+     * 旧格式：ini 风格的段和 key = value 行，值可以带引号。
+     */
+    private static void validateLegacy(String content, boolean server, Result result) {
+        Set<String> common = server ? LEGACY_SERVER_COMMON_SET : LEGACY_CLIENT_COMMON_SET;
+        Map<String, Integer> sections = new HashMap<>();
+        Map<String, Integer> remotePorts = new HashMap<>();
+        Set<String> sectionKeys = new HashSet<>();
+        String section = null;
+        boolean rangeSection = false;
+        String sectionType = null;
+        long sectionRemotePort = 0;
+        int remotePortLine = 0;
+        int remotePortColumn = 0;
+        String[] lines = content.split("\n", -1);
+        for (int i = 0; i <= lines.length; i++) {
+            String line = i < lines.length ? lines[i] : "[]";
+            int lineNumber = i + 1;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#") || trimmed.startsWith(";")) {
+                continue;
+            }
+            int indent = line.indexOf(trimmed.charAt(0));
+            if (trimmed.startsWith("[")) {
+                // 上一段结束时检查远程端口
+                if (section != null && sectionRemotePort > 0 && sectionType != null) {
+                    Integer previous = remotePorts.put(sectionType + ":" + sectionRemotePort, remotePortLine);
+                    if (previous != null) {
+                        result.add(true, remotePortLine, remotePortColumn, "remote_port " + sectionRemotePort
+                                + " is already used on line " + previous);
+                    }
+                }
+                if (i == lines.length) {
+                    break;
+                }
+                int close = trimmed.indexOf(']');
+                if (close < 0) {
+                    result.add(true, lineNumber, indent + 1, "Expected ']'");
+                    section = null;
+                    continue;
+                }
+                section = trimmed.substring(1, close).trim();
+                rangeSection = section.startsWith("range:");
+                sectionType = "common".equals(section) ? null : "tcp";
+                sectionRemotePort = 0;
+                sectionKeys.clear();
+                Integer previous = sections.put(section, lineNumber);
+                if (previous != null) {
+                    result.add(true, lineNumber, indent + 1, "Duplicate section [" + section
+                            + "], first defined on line " + previous);
+                }
+                continue;
+            }
+            int eq = trimmed.indexOf('=');
+            if (eq <= 0) {
+                result.add(true, lineNumber, indent + 1, "Expected 'key = value'");
+                continue;
+            }
+            String key = trimmed.substring(0, eq).trim();
+            String value = legacyValue(trimmed.substring(eq + 1));
+            int valueColumn = line.indexOf('=') + 2;
+            if (section == null) {
+                result.add(true, lineNumber, indent + 1, "'" + key + "' is outside of any section");
+                continue;
+            }
+            if (!sectionKeys.add(key)) {
+                result.add(false, lineNumber, indent + 1, "Duplicate key '" + key + "' in [" + section
+                        + "], the last value is used");
+            }
+            boolean isCommon = "common".equals(section);
+            if (server && !isCommon) {
+                // frps 的其他段是插件配置
+                continue;
+            }
+            if (!hasPrefix(key, LEGACY_OPEN_PREFIXES) && !(isCommon ? common : LEGACY_PROXY_SET).contains(key)) {
+                result.add(false, lineNumber, indent + 1, "Unknown key '" + key + "' in [" + section + "]");
+                continue;
+            }
+            if ("type".equals(key)) {
+                sectionType = value;
+            }
+            Character expected = LEGACY_TYPES.get(key);
+            if (expected == null || (rangeSection && key.endsWith("_port"))) {
+                // range: 段的端口是 6000-6006,7000 形式的范围
+                continue;
+            }
+            if (expected == 'b') {
+                if (!"true".equals(value) && !"false".equals(value)) {
+                    result.add(true, lineNumber, valueColumn, "'" + key + "' must be true or false");
+                }
+                continue;
+            }
+            long number;
+            try {
+                number = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                result.add(true, lineNumber, valueColumn, "'" + key + "' must be an integer, got '" + value + "'");
+                continue;
+            }
+            if (checkPort(expected, number, key, lineNumber, valueColumn, result) && "remote_port".equals(key)) {
+                sectionRemotePort = number;
+                remotePortLine = lineNumber;
+                remotePortColumn = indent + 1;
+            }
+        }
+    }
+
+    // 去掉引号和行尾注释
+    private static String legacyValue(String raw) {
+        String value = raw.trim();
+        if (value.length() >= 2 && (value.charAt(0) == '"' || value.charAt(0) == '\'')) {
+            int close = value.indexOf(value.charAt(0), 1);
+            return close > 0 ? value.substring(1, close) : value.substring(1);
+        }
+        int comment = value.indexOf(" #");
+        return (comment >= 0 ? value.substring(0, comment) : value).trim();
+    }
+
+    private static boolean hasPrefix(String key, String[] prefixes) {
+        for (String prefix : prefixes) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Map<String, Character> schema(String[] entries) {
+        Map<String, Character> schema = new HashMap<>();
+        for (String entry : entries) {
+            int colon = entry.lastIndexOf(':');
+            schema.put(entry.substring(0, colon), entry.charAt(colon + 1));
+        }
+        return schema;
+    }
+
+    private static Set<String> set(String[] values) {
+        Set<String> set = new HashSet<>();
+        Collections.addAll(set, values);
+        return set;
+    }
+
+    private static Map<String, String> suggestions(Map<String, Character> schema) {
+        Map<String, String> suggestions = new HashMap<>();
+        for (String key : schema.keySet()) {
+            suggestions.put(normalize(key), key);
+        }
+        return suggestions;
+    }
+
+    private static String normalize(String key) {
+        return key.replace("_", "").toLowerCase(Locale.US);
+    }
+}
@@ -0,0 +1,725 @@
+package com.example.droidfrpd;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * 一个命名的 frpc/frps 实例：独立的二进制、配置文件、日志流和监督状态。
+ *
+ * 生命周期是一个显式的状态机（见 {@link State}），状态只在 handler 线程上通过 setState() 修改，
+ * 每次变化通知 Host。只有 STOPPED、BACKOFF 和 CRASH_LOOP 可以开始启动，启动中或运行中
+ * 再次调用 start() 会被忽略，因此同一实例不会同时存在两个进程。
+ * 进程的启动（exec）和销毁在实例自己的串行队列上执行，不占用主线程；启动期间的 stop()
+ * 使启动在下一个检查点放弃，已经启动的进程由排在后面的销毁任务结束。多个实例可以并行启动。
+ */
+class FrpInstance {
+
+    private static final String TAG = "FrpInstance";
+
+    static final String FRPC = "frpc";
+    static final String FRPS = "frps";
+
+    // 日志级别高于 info 时，进程存活这么久即视为就绪
+    private static final long UNVERIFIED_READY_DELAY_MS = 2000;
+    // 停止时等待 frp 收到 SIGTERM 后自行退出的默认时间，超时后强制结束
+    static final long DEFAULT_STOP_TIMEOUT_MS = 3000;
+    // 强制结束后等待进程退出、日志收集线程结束的时间
+    private static final long KILL_WAIT_MS = 1000;
+    private static final int SIGTERM = 15;
+
+    enum State {
+        STOPPED,
+        // 等待二进制解压完成
+        EXTRACTING,
+        // 校验配置、选择服务器并启动进程
+        STARTING,
+        // 进程已启动，等待登录和代理就绪
+        CONNECTING,
+        READY,
+        // 进程退出，等待退避后重启
+        BACKOFF,
+        CRASH_LOOP
+    }
+
+    interface Host {
+        // 实例自身产生的状态消息
+        void onInstanceMessage(FrpInstance instance, String message);
+
+        // frp 输出的一行日志，在日志收集线程上调用
+        void onInstanceLogEvent(FrpInstance instance, FrpLogEvent event);
+
+        int getMinLogLevel();
+
+        // 在 executor 线程上阻塞，直到二进制解压完成；被中断时返回 false
+        boolean awaitSetup();
+
+        // 二进制解压已完成
+        boolean isSetupDone();
+
+        // 停止时等待进程正常退出的时间，在 executor 线程上调用
+        long getStopTimeoutMillis();
+
+        void onInstanceExit(FrpInstance instance, int exitCode, long uptimeMillis);
+
+        // 进程未能启动（二进制或配置缺失、exec 失败等），cause 为原因，已安排好重试
+        void onInstanceStartFailed(FrpInstance instance, String cause);
+
+        void onInstanceStateChanged(FrpInstance instance);
+
+        // 隧道已建立
+        void onInstanceReady(FrpInstance instance);
+
+        // 在多个候选服务器中选择，测量结果在实例之间共享
+        ServerSelector getServerSelector();
+    }
+
+    // 实际交给 frp 的配置内容和文件
+    static final class RunConfig {
+        final String content;
+        final File file;
+        // 从候选中选出的服务器，没有候选时为 null
+        final ServerSelector.Candidate server;
+
+        RunConfig(String content, File file, ServerSelector.Candidate server) {
+            this.content = content;
+            this.file = file;
+            this.server = server;
+        }
+    }
+
+    private final String name;
+    private final String binaryName;
+    private final File binary;
+    private final File configFile;
+    // 配置是代理模板时，编译结果写在这里并交给 frp
+    private final File compiledFile;
+    // 配置有候选服务器时，写入选中服务器后的配置写在这里并交给 frp
+    private final File effectiveFile;
+    private final Host host;
+    private final Handler handler;
+    private final Executor executor;
+    private final ProcessSupervisor supervisor;
+
+    private Process process;
+    private LogCollector logCollector;
+    private LogCollector errorLogCollector;
+    // 只在 handler 线程上写入，其他线程（指标导出）只读取
+    private volatile State state = State.STOPPED;
+    // 进入当前状态的时间，elapsedRealtime
+    private volatile long stateSince = SystemClock.elapsedRealtime();
+    // 当前进程启动时读取的配置内容，用于判断修改能否热重载
+    private volatile String launchedConfig;
+    // 对应的配置文件内容，代理模板时是模板本身
+    private volatile String launchedSource;
+    // 当前进程使用的配置文件，热重载时 frp 重新读取这个文件
+    private volatile File launchedFile;
+    private volatile ServerSelector.Candidate launchedServer;
+    private volatile List<String> launchedProxies;
+    // 当前进程的就绪状态，由日志收集线程更新
+    private volatile ReadinessTracker readiness;
+    // 最近一次启动因配置错误被拒绝时的第一个错误
+    private volatile FrpConfigValidator.Problem configError;
+    // 最近一次启动失败的原因，由 launch 在 executor 线程上设置
+    private volatile String startFailure;
+    // 每次 stop() 递增，用于识别已被取消的启动；启动线程在检查点读取
+    private volatile int generation = 0;
+
+    FrpInstance(String name, File filesDir, Host host, Handler handler, Executor executor) {
+        this.name = name;
+        this.binaryName = binaryNameFor(name);
+        this.binary = new File(filesDir, binaryName);
+        this.configFile = new File(filesDir, name + ".toml");
+        this.compiledFile = new File(new File(filesDir, "compiled"), name + ".toml");
+        this.effectiveFile = new File(new File(filesDir, "effective"), name + ".toml");
+        this.host = host;
+        this.handler = handler;
+        this.executor = new SerialExecutor(executor);
+        this.supervisor = new ProcessSupervisor(handler, new ProcessSupervisor.Listener() {
+            @Override
+            public void onProcessExit(int exitCode, long uptimeMillis) {
+                // 输出流由日志收集线程读到结尾后关闭，这里只关闭输入流
+                if (process != null) {
+                    closeQuietly(process.getOutputStream());
+                }
+                process = null;
+                logCollector = null;
+                errorLogCollector = null;
+                readiness = null;
+                FrpInstance.this.handler.removeCallbacks(readinessTimeout);
+                FrpInstance.this.host.onInstanceExit(FrpInstance.this, exitCode, uptimeMillis);
+                setState(supervisor.getState() == ProcessSupervisor.State.CRASH_LOOP ? State.CRASH_LOOP : State.BACKOFF);
+            }
+
+            @Override
+            public void onStartFailed() {
+                String cause = startFailure;
+                FrpInstance.this.host.onInstanceStartFailed(FrpInstance.this,
+                        cause != null ? cause : "unknown error");
+                setState(supervisor.getState() == ProcessSupervisor.State.CRASH_LOOP ? State.CRASH_LOOP : State.BACKOFF);
+            }
+
+            @Override
+            public void onRestartDue() {
+                FrpInstance.this.host.onInstanceMessage(FrpInstance.this, "Restarting " + FrpInstance.this.name);
+                start();
+            }
+        });
+    }
+
+    // 实例名以 frps 开头时运行服务端，否则运行客户端，例如 frpc、frpc-backup、frps
+    static String binaryNameFor(String name) {
+        return name.startsWith(FRPS) ? FRPS : FRPC;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getBinaryName() {
+        return binaryName;
+    }
+
+    File getConfigFile() {
+        return configFile;
+    }
+
+    /**
+     * 把配置内容转换为实际交给 frp 的内容，写入 effective/ 下的文件，用户的配置文件保持不变：
+     * 代理模板先编译（模板不变时使用缓存，结果在 compiled/ 下）；有候选服务器时选出最快的一个；
+     * 最后写入当前的日志级别，让 frp 本身不再输出低级别日志。
+     * keepServer 为 true 时（热重载）继续使用当前的服务器，只要它仍在候选中。
+     * 模板有错误时抛出 IOException。在实例的串行队列上调用（见 {@link #runSerially}），
+     * 不会与启动时写入同一个文件并发；选择服务器时可能阻塞几秒。
+     */
+    RunConfig prepareRunConfig(String config, boolean keepServer) throws IOException {
+        String content = config;
+        ServerSelector.Candidate server = null;
+        if (!FRPS.equals(binaryName)) {
+            if (FrpTemplateCompiler.isTemplate(config)) {
+                FrpTemplateCompiler.Result compiled = FrpTemplateCompiler.compileCached(config, compiledFile);
+                if (compiled.output == null) {
+                    throw new IOException("Template has errors: " + compiled.errors.get(0));
+                }
+                if (!compiled.cached) {
+                    host.onInstanceMessage(this, "Compiled " + configFile.getName() + " into "
+                            + compiled.proxyCount + " proxies");
+                }
+                content = compiled.output;
+            }
+            List<ServerSelector.Candidate> candidates = ServerSelector.candidates(content);
+            if (!candidates.isEmpty()) {
+                ServerSelector.Candidate current = launchedServer;
+                for (ServerSelector.Candidate candidate : candidates) {
+                    if (keepServer && current != null && candidate.address().equals(current.address())) {
+                        server = candidate;
+                    }
+                }
+                if (server == null) {
+                    server = host.getServerSelector().select(name, candidates);
+                }
+                content = FrpConfigFiles.withServer(content, server.host, server.port);
+            }
+        }
+        content = FrpConfigFiles.withLogLevel(content, LogLevel.NAMES[host.getMinLogLevel()]);
+        if (!effectiveFile.exists() || !content.equals(FrpConfigFiles.readText(effectiveFile))) {
+            File dir = effectiveFile.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create " + dir.getAbsolutePath());
+            }
+            FrpConfigFiles.writeText(effectiveFile, content);
+        }
+        return new RunConfig(content, effectiveFile, server);
+    }
+
+    boolean isRunning() {
+        return supervisor.isProcessAlive();
+    }
+
+    boolean isActive() {
+        return state != State.STOPPED;
+    }
+
+    State getState() {
+        return state;
+    }
+
+    long getStateSince() {
+        return stateSince;
+    }
+
+    // BACKOFF 和 CRASH_LOOP 状态下距离下次重启的时间
+    long getRestartDelayMillis() {
+        return supervisor.getRestartDelayMillis();
+    }
+
+    String getStatusText() {
+        switch (state) {
+            case STOPPED:
+                FrpConfigValidator.Problem error = configError;
+                return error != null ? "Invalid config at line " + error.line + ":" + error.column : "Stopped";
+            case EXTRACTING:
+                return "Installing binary";
+            case STARTING:
+                return "Starting";
+            case CONNECTING:
+                ReadinessTracker tracker = readiness;
+                return tracker != null ? tracker.getStatusText() : "Connecting";
+            case READY:
+                return "Running";
+            default:
+                return supervisor.getStatusText();
+        }
+    }
+
+    // 在 handler 线程上调用
+    private void setState(State next) {
+        if (state == next) {
+            return;
+        }
+        Log.d(TAG, name + ": " + state + " -> " + next);
+        state = next;
+        stateSince = SystemClock.elapsedRealtime();
+        host.onInstanceStateChanged(this);
+    }
+
+    // 当前进程的就绪状态，进程未运行时为 null
+    ReadinessTracker getReadiness() {
+        return readiness;
+    }
+
+    boolean isReady() {
+        return state == State.READY;
+    }
+
+    // 上次启动因配置错误被拒绝，且之后没有再启动
+    boolean hasConfigError() {
+        return configError != null;
+    }
+
+    int getRestartCount() {
+        return supervisor.getRestartCount();
+    }
+
+    long getUptimeMillis() {
+        return supervisor.getUptimeMillis();
+    }
+
+    String getLaunchedConfig() {
+        return launchedConfig;
+    }
+
+    String getLaunchedSource() {
+        return launchedSource;
+    }
+
+    File getLaunchedFile() {
+        return launchedFile;
+    }
+
+    // 从候选中选出的当前服务器，没有候选时为 null
+    ServerSelector.Candidate getLaunchedServer() {
+        return launchedServer;
+    }
+
+    // 热重载成功后，运行中的进程已使用新配置
+    void setLaunchedConfig(String source, RunConfig run) {
+        launchedSource = source;
+        launchedConfig = run.content;
+        launchedServer = run.server;
+    }
+
+    // 在 handler 线程上调用；已在运行或正在启动时忽略
+    void start() {
+        if (state != State.STOPPED && state != State.BACKOFF && state != State.CRASH_LOOP) {
+            return;
+        }
+        configError = null;
+        startFailure = null;
+        final int launchGeneration = generation;
+        setState(host.isSetupDone() ? State.STARTING : State.EXTRACTING);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Process started = launch(launchGeneration);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onLaunched(started, launchGeneration);
+                    }
+                });
+            }
+        });
+    }
+
+    // 在 executor 线程上执行，失败或已被停止时返回 null
+    private Process launch(final int launchGeneration) {
+        Trace.beginSection("frpd:launch");
+        try {
+            if (!host.awaitSetup()) {
+                return failed("setup did not finish");
+            }
+            if (launchGeneration != generation) {
+                return null;
+            }
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (launchGeneration == generation && state == State.EXTRACTING) {
+                        setState(State.STARTING);
+                    }
+                }
+            });
+            Log.d(TAG, "Starting instance " + name + " (" + binaryName + ")");
+            if (!binary.exists()) {
+                return failed("FRP binary does not exist: " + binary.getAbsolutePath());
+            }
+            if (!configFile.exists()) {
+                return failed("Config file does not exist: " + configFile.getAbsolutePath());
+            }
+            if (!binary.canExecute()) {
+                return failed("FRP binary is not executable: " + binary.getAbsolutePath());
+            }
+
+            String source = FrpConfigFiles.readText(configFile);
+            FrpConfigValidator.Result validation = FrpConfigValidator.validate(source, FRPS.equals(binaryName));
+            if (validation.hasErrors()) {
+                configError = validation.first();
+                host.onInstanceMessage(this, "Error: " + configFile.getName() + " is invalid, not starting "
+                        + name + ":\n" + validation.describe(5));
+                return null;
+            }
+            if (validation.getWarningCount() > 0) {
+                host.onInstanceMessage(this, configFile.getName() + ": " + validation.describe(3));
+            }
+            RunConfig run = prepareRunConfig(source, false);
+            if (launchGeneration != generation) {
+                // 选择服务器期间实例已被停止
+                return null;
+            }
+            if (run.server != null) {
+                host.onInstanceMessage(this, "Using server " + run.server);
+            }
+            launchedSource = source;
+            launchedConfig = run.content;
+            launchedFile = run.file;
+            launchedServer = run.server;
+            // 就绪判断按实际运行的配置：模板展开后的代理、旧格式 range 段展开后的代理
+            launchedProxies = FrpConfigFiles.proxyNames(launchedConfig);
+
+            String[] command = new String[]{
+                binary.getAbsolutePath(),
+                "-c",
+                run.file.getAbsolutePath()
+            };
+            host.onInstanceMessage(this, "Starting " + name + " with command: "
+                    + command[0] + " " + command[1] + " " + command[2]);
+            return Runtime.getRuntime().exec(command);
+        } catch (Exception e) {
+            Log.e(TAG, "Error starting " + name, e);
+            return failed(e.getMessage() != null ? e.getMessage() : e.toString());
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    // 记下启动失败的原因，由 onStartFailed 报告
+    private Process failed(String cause) {
+        startFailure = cause;
+        return null;
+    }
+
+    private void onLaunched(Process started, int launchGeneration) {
+        if (launchGeneration != generation || (state != State.STARTING && state != State.EXTRACTING)) {
+            // 启动过程中实例已被停止
+            if (started != null) {
+                shutdownLater(started, null, null);
+            }
+            return;
+        }
+        if (started == null && configError != null) {
+            // 配置有错误时重启也不会成功，停止而不是进入重启循环
+            supervisor.stop();
+            setState(State.STOPPED);
+            return;
+        }
+        if (started == null) {
+            // 由 onProcessExit 进入 BACKOFF 或 CRASH_LOOP
+            supervisor.onStartFailed();
+            return;
+        }
+
+        process = started;
+        supervisor.onStarted(started);
+        readiness = new ReadinessTracker(launchedProxies, SystemClock.elapsedRealtime(), FRPS.equals(binaryName));
+
+        logCollector = new LogCollector(started.getInputStream(), "OUT", LogSegmentStore.STREAM_OUT, readiness);
+        logCollector.start();
+        errorLogCollector = new LogCollector(started.getErrorStream(), "ERR", LogSegmentStore.STREAM_ERR,
+                readiness);
+        errorLogCollector.start();
+
+        scheduleReadinessTimeout(readiness);
+        Log.i(TAG, name + " started process");
+        setState(State.CONNECTING);
+    }
+
+    private void scheduleReadinessTimeout(final ReadinessTracker tracker) {
+        handler.removeCallbacks(readinessTimeout);
+        if (host.getMinLogLevel() > LogLevel.INFO) {
+            // frp 不输出 info 日志，无法判断登录状态，沿用存活检查
+            handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (readiness == tracker && supervisor.isProcessAlive() && tracker.assumeReady()) {
+                        onReadinessChanged(tracker);
+                    }
+                }
+            }, UNVERIFIED_READY_DELAY_MS);
+            return;
+        }
+        handler.postDelayed(readinessTimeout, ReadinessTracker.DEFAULT_TIMEOUT_MS);
+    }
+
+    private final Runnable readinessTimeout = new Runnable() {
+        @Override
+        public void run() {
+            ReadinessTracker tracker = readiness;
+            if (tracker != null && supervisor.isProcessAlive() && tracker.onTimeout()) {
+                host.onInstanceMessage(FrpInstance.this, "Warning: " + name + " not ready after "
+                        + (ReadinessTracker.DEFAULT_TIMEOUT_MS / 1000) + "s: " + tracker.getStatusText()
+                        + (tracker.getPendingProxies().isEmpty() ? "" : ", waiting for " + tracker.getPendingProxies()));
+                host.onInstanceStateChanged(FrpInstance.this);
+            }
+        }
+    };
+
+    // 在 handler 线程上处理就绪状态变化
+    private void onReadinessChanged(ReadinessTracker tracker) {
+        if (tracker != readiness || state != State.CONNECTING && state != State.READY) {
+            return;
+        }
+        if (tracker.isReady() && state == State.CONNECTING) {
+            handler.removeCallbacks(readinessTimeout);
+            StringBuilder message = new StringBuilder(name.toUpperCase()).append(" ready in ")
+                    .append(tracker.getReadyMillis()).append(" ms");
+            if (tracker.getLoginMillis() >= 0) {
+                message.append(" (login ").append(tracker.getLoginMillis()).append(" ms");
+                for (Map.Entry<String, Long> entry : tracker.getProxyReadyMillis().entrySet()) {
+                    message.append(", ").append(entry.getKey()).append(' ').append(entry.getValue()).append(" ms");
+                }
+                message.append(')');
+            }
+            host.onInstanceMessage(this, message.toString());
+            setState(State.READY);
+            host.onInstanceReady(this);
+            return;
+        }
+        // 状态不变，但就绪进度（已启动的代理）有变化
+        host.onInstanceStateChanged(this);
+    }
+
+    /**
+     * 停止实例，在 handler 线程上调用，状态立即变为 STOPPED。进程的结束在后台按顺序进行：
+     * 先发送 SIGTERM 让 frp 正常退出（释放管理端口和远程端口），超时后强制结束，再关闭输出流
+     * 并等待日志收集线程结束。返回的 Future 在这些都完成后给出退出码，没有进程时为 -1；
+     * 之后提交的启动总是在它完成后才执行。
+     */
+    Future<Integer> stop() {
+        generation++;
+        readiness = null;
+        handler.removeCallbacks(readinessTimeout);
+        supervisor.stop();
+        Future<Integer> result = shutdownLater(process, logCollector, errorLogCollector);
+        process = null;
+        logCollector = null;
+        errorLogCollector = null;
+        setState(State.STOPPED);
+        return result;
+    }
+
+    // 在实例的串行队列上执行任务，与启动、停止和其他排队的任务依次进行
+    void runSerially(Runnable task) {
+        executor.execute(task);
+    }
+
+    // 在串行队列上结束进程和日志收集线程，排在正在进行的启动之后
+    private Future<Integer> shutdownLater(final Process stopping, final LogCollector out, final LogCollector err) {
+        FutureTask<Integer> task = new FutureTask<>(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                Trace.beginSection("frpd:stop");
+                try {
+                    return shutdown(stopping, out, err);
+                } finally {
+                    Trace.endSection();
+                }
+            }
+        });
+        executor.execute(task);
+        return task;
+    }
+
+    private int shutdown(Process stopping, LogCollector out, LogCollector err) {
+        if (out != null) {
+            out.closing = true;
+        }
+        if (err != null) {
+            err.closing = true;
+        }
+        int exitCode = -1;
+        try {
+            if (stopping != null) {
+                long start = SystemClock.elapsedRealtime();
+                long timeout = host.getStopTimeoutMillis();
+                int pid = pidOf(stopping);
+                boolean graceful = false;
+                if (pid > 0 && timeout > 0) {
+                    android.os.Process.sendSignal(pid, SIGTERM);
+                    graceful = awaitExit(stopping, timeout);
+                }
+                boolean exited = graceful;
+                if (!graceful) {
+                    // 超时未退出时强制结束。API 24 起 destroy() 发送的是 SIGTERM，
+                    // 所以有 pid 时直接发送 SIGKILL，取不到 pid 时才退回 destroy()
+                    if (pid > 0) {
+                        android.os.Process.sendSignal(pid, android.os.Process.SIGNAL_KILL);
+                    } else {
+                        stopping.destroy();
+                    }
+                    exited = awaitExit(stopping, KILL_WAIT_MS);
+                }
+                if (exited) {
+                    exitCode = stopping.exitValue();
+                }
+                long took = SystemClock.elapsedRealtime() - start;
+                Log.i(TAG, name + " stopped in " + took + " ms" + (graceful ? "" : " (killed)"));
+                host.onInstanceMessage(this, name.toUpperCase() + (graceful ? " stopped" : " killed")
+                        + " after " + took + " ms");
+                // 关闭输出流，即使有子进程仍持有管道，阻塞在读取上的收集线程也会结束
+                closeQuietly(stopping.getInputStream());
+                closeQuietly(stopping.getErrorStream());
+                closeQuietly(stopping.getOutputStream());
+            }
+            join(out);
+            join(err);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return exitCode;
+    }
+
+    // Android 的 ProcessManager$ProcessImpl 和 JDK 的 UNIXProcess 都把 pid 保存在私有字段中，取不到时返回 -1
+    private static int pidOf(Process process) {
+        try {
+            Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return field.getInt(process);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Log.d(TAG, "No pid for " + process.getClass().getName() + ": " + e);
+            return -1;
+        }
+    }
+
+    // Process.waitFor(long, TimeUnit) 需要 API 26，这里轮询 exitValue()
+    private static boolean awaitExit(Process process, long timeoutMs) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+        while (true) {
+            try {
+                process.exitValue();
+                return true;
+            } catch (IllegalThreadStateException e) {
+                // 仍在运行
+            }
+            long remaining = deadline - SystemClock.elapsedRealtime();
+            if (remaining <= 0) {
+                return false;
+            }
+            Thread.sleep(Math.min(remaining, 20));
+        }
+    }
+
+    private static void join(LogCollector collector) throws InterruptedException {
+        if (collector != null) {
+            collector.interrupt();
+            collector.join(KILL_WAIT_MS);
+            if (collector.isAlive()) {
+                Log.w(TAG, collector.getName() + " did not finish");
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // 完整重启：断开所有连接并重新登录
+    void restart() {
+        stop();
+        start();
+    }
+
+    // 日志收集线程
+    private class LogCollector extends Thread {
+        private final InputStream inputStream;
+        private final String tag;
+        private final int stream;
+        // 所属进程的就绪状态，不读取 readiness 字段，它可能已属于下一个进程
+        private final ReadinessTracker tracker;
+        // 停止时关闭输出流导致的读取错误不再记录
+        volatile boolean closing;
+
+        LogCollector(InputStream inputStream, String tag, int stream, ReadinessTracker tracker) {
+            super("frp-log-" + name + "-" + tag);
+            this.inputStream = inputStream;
+            this.tag = tag;
+            this.stream = stream;
+            this.tracker = tracker;
+        }
+
+        @Override
+        public void run() {
+            try {
+                // 直接解析字节流，事件对象在整个收集过程中复用
+                FrpLogParser parser = new FrpLogParser(inputStream, stream);
+                FrpLogEvent event = new FrpLogEvent();
+                while (parser.next(event) && !isInterrupted()) {
+                    if (tracker.onLogEvent(event)) {
+                        handler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                onReadinessChanged(tracker);
+                            }
+                        });
+                    }
+                    // 级别过滤在生成任何字符串之前完成
+                    if (event.level >= host.getMinLogLevel()) {
+                        host.onInstanceLogEvent(FrpInstance.this, event);
+                    }
+                }
+            } catch (IOException e) {
+                if (!closing) {
+                    Log.e(TAG, "Error reading " + name + " " + tag + " log", e);
+                }
+            } finally {
+                closeQuietly(inputStream);
+            }
+        }
+    }
+}
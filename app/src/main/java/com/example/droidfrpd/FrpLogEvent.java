@@ -0,0 +1,75 @@
+package com.example.droidfrpd;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 一行 frp 日志的结构化视图，由 {@link FrpLogParser} 反复填充复用。
+ *
+ * 各字段以偏移量的形式指向解析器内部的字节缓冲区，只在下一次调用 next() 之前有效；
+ * 需要长期保存时调用 lineString() 等方法生成字符串。
+ */
+public class FrpLogEvent {
+
+    // 读到该行的时间（System.currentTimeMillis）
+    public long timestamp;
+    // 是否从日志行中解析出了 frp 自带的时间戳和级别
+    public boolean structured;
+    public int level;
+    public int stream;
+
+    byte[] buffer;
+    // 整行文本，包括 frp 自带的时间戳
+    int textStart;
+    int textEnd;
+    int sourceStart;
+    int sourceEnd;
+    int messageStart;
+    // 代理名称，例如 [ssh]
+    String proxy;
+
+    public String getProxy() {
+        return proxy;
+    }
+
+    public String textString() {
+        return new String(buffer, textStart, textEnd - textStart, StandardCharsets.UTF_8);
+    }
+
+    public String sourceString() {
+        if (sourceEnd <= sourceStart) {
+            return null;
+        }
+        return new String(buffer, sourceStart, sourceEnd - sourceStart, StandardCharsets.UTF_8);
+    }
+
+    public String messageString() {
+        return new String(buffer, messageStart, textEnd - messageStart, StandardCharsets.UTF_8);
+    }
+
+    // 在消息部分查找 ASCII 子串，不分配对象
+    public boolean messageContains(byte[] needle) {
+        int last = textEnd - needle.length;
+        outer:
+        for (int i = messageStart; i <= last; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (buffer[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public boolean messageStartsWith(byte[] prefix) {
+        if (textEnd - messageStart < prefix.length) {
+            return false;
+        }
+        for (int j = 0; j < prefix.length; j++) {
+            if (buffer[messageStart + j] != prefix[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,292 @@
+package com.example.droidfrpd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 直接在进程输出的字节流上逐行解析 frp 日志。
+ *
+ * frp 日志格式：
+ * <pre>
+ * 2025-01-01 12:00:00.000 [I] [client/control.go:168] [4e0a3b9a2f1c8d7e] [ssh] start proxy success
+ * </pre>
+ * 解析出级别、源文件和代理名称，填充到复用的 {@link FrpLogEvent} 中，
+ * 解析过程不生成中间字符串；代理名称通过小型缓存复用同一个 String 实例。
+ * 记录的时间戳使用读到该行的时间：frp 在 Android 上按 UTC 输出时间，且与服务自身的日志
+ * 必须按同一时钟排序（存储的时间索引和导出去重都依赖这一点），frp 自带的时间保留在文本中。
+ * 输出中的 ANSI 颜色控制序列会被就地去除。
+ */
+public class FrpLogParser {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int PROXY_CACHE_SIZE = 128;
+    private static final int PROXY_PROBES = 4;
+
+    private final InputStream in;
+    private final int stream;
+    private final byte[] buf = new byte[BUFFER_SIZE];
+    private int start = 0;
+    private int limit = 0;
+    private int scanFrom = 0;
+    private boolean eof = false;
+    // 超长行被截断后，丢弃剩余部分直到换行
+    private boolean skipToNewline = false;
+
+    private final byte[][] proxyKeys = new byte[PROXY_CACHE_SIZE][];
+    private final String[] proxyNames = new String[PROXY_CACHE_SIZE];
+
+    public FrpLogParser(InputStream in, int stream) {
+        this.in = in;
+        this.stream = stream;
+    }
+
+    /**
+     * 读取并解析下一行，流结束时返回 false。
+     * event 中的偏移量只在下一次调用之前有效。
+     */
+    public boolean next(FrpLogEvent event) throws IOException {
+        while (true) {
+            int newline = -1;
+            for (int i = scanFrom; i < limit; i++) {
+                if (buf[i] == '\n') {
+                    newline = i;
+                    break;
+                }
+            }
+            if (newline >= 0) {
+                int lineStart = start;
+                start = newline + 1;
+                scanFrom = start;
+                if (skipToNewline) {
+                    skipToNewline = false;
+                    continue;
+                }
+                parseLine(lineStart, newline, event);
+                return true;
+            }
+            scanFrom = limit;
+
+            if (eof) {
+                if (start < limit && !skipToNewline) {
+                    int lineStart = start;
+                    start = limit;
+                    parseLine(lineStart, limit, event);
+                    return true;
+                }
+                return false;
+            }
+
+            if (start > 0) {
+                System.arraycopy(buf, start, buf, 0, limit - start);
+                limit -= start;
+                scanFrom -= start;
+                start = 0;
+            }
+            if (limit == buf.length) {
+                // 行长度超过缓冲区，截断输出
+                start = limit;
+                scanFrom = limit;
+                boolean skipped = skipToNewline;
+                skipToNewline = true;
+                if (!skipped) {
+                    parseLine(0, limit, event);
+                    return true;
+                }
+                start = 0;
+                limit = 0;
+                scanFrom = 0;
+                continue;
+            }
+            int n = in.read(buf, limit, buf.length - limit);
+            if (n < 0) {
+                eof = true;
+            } else {
+                limit += n;
+            }
+        }
+    }
+
+    private void parseLine(int s, int e, FrpLogEvent event) {
+        if (e > s && buf[e - 1] == '\r') {
+            e--;
+        }
+        e = stripAnsi(s, e);
+
+        event.buffer = buf;
+        event.stream = stream;
+        event.timestamp = System.currentTimeMillis();
+        event.proxy = null;
+        event.sourceStart = 0;
+        event.sourceEnd = 0;
+        event.textStart = s;
+        event.textEnd = e;
+
+        int p = skipTimestamp(s, e);
+        if (p < 0 || p + 3 > e || buf[p] != '[' || buf[p + 2] != ']') {
+            event.structured = false;
+            // 非结构化的错误输出通常是 panic 或启动失败信息
+            event.level = stream == LogSegmentStore.STREAM_ERR ? LogLevel.ERROR : LogLevel.INFO;
+            event.messageStart = s;
+            return;
+        }
+
+        event.structured = true;
+        event.level = LogLevel.fromLetter(buf[p + 1]);
+        p = skipSpaces(p + 3, e);
+
+        // 源文件，例如 [client/control.go:168]
+        int close = bracketEnd(p, e);
+        if (close > 0) {
+            event.sourceStart = p + 1;
+            event.sourceEnd = close;
+            p = skipSpaces(close + 1, e);
+        }
+
+        // 可选的 [runID] 和 [代理名称]
+        for (int k = 0; k < 2; k++) {
+            close = bracketEnd(p, e);
+            if (close < 0) {
+                break;
+            }
+            boolean runId = k == 0 && isRunId(p + 1, close);
+            if (!runId) {
+                event.proxy = internProxy(p + 1, close);
+            }
+            p = skipSpaces(close + 1, e);
+            if (!runId) {
+                break;
+            }
+        }
+        event.messageStart = p;
+    }
+
+    // 跳过 "2006-01-02 15:04:05.000" 或 "2006/01/02 15:04:05"，返回时间戳之后的位置，不是时间戳时返回 -1
+    private int skipTimestamp(int s, int e) {
+        if (e - s < 19) {
+            return -1;
+        }
+        if (digits(s, 4) < 0 || digits(s + 5, 2) < 1 || digits(s + 8, 2) < 1 || digits(s + 11, 2) < 0
+                || digits(s + 14, 2) < 0 || digits(s + 17, 2) < 0
+                || buf[s + 10] != ' ' || buf[s + 13] != ':' || buf[s + 16] != ':') {
+            return -1;
+        }
+        int p = s + 19;
+        if (p + 4 <= e && buf[p] == '.' && digits(p + 1, 3) >= 0) {
+            p += 4;
+        }
+        return skipSpaces(p, e);
+    }
+
+    private int digits(int p, int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            int d = buf[p + i] - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    private int skipSpaces(int p, int e) {
+        while (p < e && buf[p] == ' ') {
+            p++;
+        }
+        return p;
+    }
+
+    // p 处为 '[' 时返回对应 ']' 的位置，否则返回 -1
+    private int bracketEnd(int p, int e) {
+        if (p >= e || buf[p] != '[') {
+            return -1;
+        }
+        for (int i = p + 1; i < e; i++) {
+            if (buf[i] == ']') {
+                return i;
+            }
+            if (buf[i] == ' ' || buf[i] == '[') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isRunId(int s, int e) {
+        if (e - s != 16) {
+            return false;
+        }
+        for (int i = s; i < e; i++) {
+            byte b = buf[i];
+            if (!((b >= '0' && b <= '9') || (b >= 'a' && b <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String internProxy(int s, int e) {
+        int hash = 0x811C9DC5;
+        for (int i = s; i < e; i++) {
+            hash = (hash ^ buf[i]) * 0x01000193;
+        }
+        // 线性探测少量槽位，避免少数常用名称互相冲突导致反复分配
+        int first = hash & (PROXY_CACHE_SIZE - 1);
+        int free = -1;
+        for (int probe = 0; probe < PROXY_PROBES; probe++) {
+            int slot = (first + probe) & (PROXY_CACHE_SIZE - 1);
+            byte[] key = proxyKeys[slot];
+            if (key == null) {
+                if (free < 0) {
+                    free = slot;
+                }
+                continue;
+            }
+            if (key.length == e - s && regionEquals(key, s)) {
+                return proxyNames[slot];
+            }
+        }
+        int slot = free >= 0 ? free : first;
+        byte[] key = new byte[e - s];
+        System.arraycopy(buf, s, key, 0, key.length);
+        proxyKeys[slot] = key;
+        proxyNames[slot] = new String(key, StandardCharsets.UTF_8);
+        return proxyNames[slot];
+    }
+
+    private boolean regionEquals(byte[] key, int s) {
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != buf[s + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 就地删除 ESC [ ... 终止符 形式的颜色控制序列，返回新的行尾
+    private int stripAnsi(int s, int e) {
+        int i = s;
+        while (i < e && buf[i] != 0x1B) {
+            i++;
+        }
+        if (i == e) {
+            return e;
+        }
+        int w = i;
+        while (i < e) {
+            byte b = buf[i];
+            if (b == 0x1B && i + 1 < e && buf[i + 1] == '[') {
+                i += 2;
+                while (i < e && (buf[i] < 0x40 || buf[i] > 0x7E)) {
+                    i++;
+                }
+                i++;
+            } else {
+                buf[w++] = b;
+                i++;
+            }
+        }
+        return w;
+    }
+}
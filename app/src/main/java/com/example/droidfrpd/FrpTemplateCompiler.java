@@ -0,0 +1,612 @@
+package com.example.droidfrpd;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * frpc 配置模板编译器。
+ *
+ * 模板是带有 [defaults] 或 [[templates]] 的新格式 frpc 配置：[defaults] 中的键是所有代理的默认值；
+ * 每个 [[templates]] 按 hosts 列表和 ports 端口范围（如 "8000-8099,8200"）展开成多个代理，
+ * 字符串中的 {host}、{port}、{index} 占位符被替换，{port+10000} 之类可以加减常数，
+ * 整个值只有一个数字占位符时输出整数。其余内容原样保留。
+ *
+ * 输出去掉完全相同的代理和与 frp 默认值相同的键；编译结果按模板内容的哈希缓存，
+ * 模板不变时不重新编译，输出文件也不会改变。
+ */
+final class FrpTemplateCompiler {
+
+    // 单个模板最多展开的代理数，防止写错范围时生成巨大的配置
+    static final int MAX_PROXIES = 10000;
+
+    // 编译规则变化时修改，使旧的缓存失效
+    private static final String VERSION = "1";
+    private static final String HEADER_PREFIX = "# Compiled from template ";
+
+    // 与 frp 默认值相同时省略的代理键
+    private static final Map<String, Object> FRP_DEFAULTS = new HashMap<>();
+
+    static {
+        FRP_DEFAULTS.put("localIP", "127.0.0.1");
+        FRP_DEFAULTS.put("enabled", Boolean.TRUE);
+        FRP_DEFAULTS.put("transport.useEncryption", Boolean.FALSE);
+        FRP_DEFAULTS.put("transport.useCompression", Boolean.FALSE);
+    }
+
+    private FrpTemplateCompiler() {
+    }
+
+    static final class Result {
+        // 编译后的配置，有错误时为 null
+        final String output;
+        // 输出的第 i 行（从 0 开始）对应的模板行号，命中缓存时为 null
+        final int[] lineMap;
+        final List<FrpConfigValidator.Problem> errors;
+        final boolean cached;
+        final int proxyCount;
+
+        Result(String output, int[] lineMap, List<FrpConfigValidator.Problem> errors, boolean cached, int proxyCount) {
+            this.output = output;
+            this.lineMap = lineMap;
+            this.errors = errors;
+            this.cached = cached;
+            this.proxyCount = proxyCount;
+        }
+
+        // 输出行号（从 1 开始）对应的模板行号
+        int templateLine(int outputLine) {
+            if (lineMap == null || outputLine < 1 || outputLine > lineMap.length) {
+                return 0;
+            }
+            return lineMap[outputLine - 1];
+        }
+    }
+
+    // 配置中有 [defaults] 表或 [[templates]] 数组表时视为模板
+    static boolean isTemplate(String content) {
+        if (content.indexOf("templates") < 0 && content.indexOf("defaults") < 0) {
+            return false;
+        }
+        for (String line : content.split("\n")) {
+            String table = FrpConfigFiles.tableName(line);
+            if ("defaults".equals(table) || ("templates".equals(table) && line.trim().startsWith("[["))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 编译模板到 compiled 文件。已有的编译结果头部记录的哈希与模板一致时直接返回，不重新编译。
+     */
+    static Result compileCached(String template, File compiled) throws IOException {
+        String hash = hash(template);
+        if (compiled.exists()) {
+            String existing = FrpConfigFiles.readText(compiled);
+            if (existing.startsWith(header(hash))) {
+                return new Result(existing, null, new ArrayList<FrpConfigValidator.Problem>(), true,
+                        FrpConfigFiles.proxyNames(existing).size());
+            }
+        }
+        Result result = compile(template, hash);
+        if (result.output != null) {
+            File dir = compiled.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create " + dir.getAbsolutePath());
+            }
+            FrpConfigFiles.writeText(compiled, result.output);
+        }
+        return result;
+    }
+
+    static Result compile(String template) {
+        return compile(template, hash(template));
+    }
+
+    private static String hash(String template) {
+        return ConfigHistory.hash((VERSION + "\n" + template).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String header(String hash) {
+        return HEADER_PREFIX + hash + ", do not edit\n";
+    }
+
+    // 一个键值及其所在的模板行
+    private static final class Item {
+        final String key;
+        final int type;
+        final Object value;
+        final int line;
+
+        Item(String key, int type, Object value, int line) {
+            this.key = key;
+            this.type = type;
+            this.value = value;
+            this.line = line;
+        }
+    }
+
+    // 一个数组表元素，例如 [[proxies]] 或 [[templates]]
+    private static final class Block {
+        final String table;
+        final int line;
+        final List<Item> items = new ArrayList<>();
+
+        Block(String table, int line) {
+            this.table = table;
+            this.line = line;
+        }
+
+        Item get(String key) {
+            for (Item item : items) {
+                if (item.key.equals(key)) {
+                    return item;
+                }
+            }
+            return null;
+        }
+    }
+
+    // 收集模板结构：顶层键、[defaults] 和各数组表元素
+    private static final class Collector implements TomlParser.Handler {
+        final List<Item> topLevel = new ArrayList<>();
+        final Block defaults = new Block("defaults", 0);
+        final List<Block> blocks = new ArrayList<>();
+        final List<FrpConfigValidator.Problem> errors = new ArrayList<>();
+        private Block current;
+
+        @Override
+        public void onTable(String path, boolean arrayTable, int line, int column) {
+            if (arrayTable) {
+                current = new Block(path, line);
+                blocks.add(current);
+            } else if ("defaults".equals(path) || path.startsWith("defaults.")) {
+                current = defaults;
+            } else if (current != null && current != defaults && path.startsWith(current.table + ".")) {
+                // 数组元素的子表，例如 [proxies.plugin]
+                return;
+            } else {
+                current = null;
+            }
+        }
+
+        @Override
+        public void onValue(String key, int type, Object value, int line, int column) {
+            Block block = current;
+            if (block == null && key.startsWith("defaults.")) {
+                block = defaults;
+            }
+            if (block != null && key.startsWith(block.table + ".")) {
+                block.items.add(new Item(key.substring(block.table.length() + 1), type, value, line));
+            } else {
+                topLevel.add(new Item(key, type, value, line));
+            }
+        }
+
+        @Override
+        public void onError(int line, int column, String message) {
+            errors.add(new FrpConfigValidator.Problem(true, line, column, message));
+        }
+    }
+
+    // 展开后的代理
+    private static final class Proxy {
+        final int line;
+        final List<Item> items = new ArrayList<>();
+        String name;
+        String text;
+
+        Proxy(int line) {
+            this.line = line;
+        }
+    }
+
+    private static Result compile(String template, String hash) {
+        Collector collector = new Collector();
+        TomlParser.parse(template, collector);
+        List<FrpConfigValidator.Problem> errors = collector.errors;
+        if (!errors.isEmpty()) {
+            return new Result(null, null, errors, false, 0);
+        }
+
+        Output out = new Output();
+        out.line(header(hash).trim(), 0);
+        for (Item item : collector.topLevel) {
+            out.item(item);
+        }
+
+        Map<String, Proxy> byName = new HashMap<>();
+        Map<String, Proxy> byText = new HashMap<>();
+        int proxyCount = 0;
+        for (Block block : collector.blocks) {
+            List<Proxy> proxies = new ArrayList<>();
+            if ("templates".equals(block.table)) {
+                expand(block, collector.defaults, proxies, errors);
+            } else if ("proxies".equals(block.table)) {
+                Proxy proxy = new Proxy(block.line);
+                proxy.items.addAll(block.items);
+                proxies.add(finish(proxy, collector.defaults));
+            } else {
+                out.line("", block.line);
+                out.line("[[" + block.table + "]]", block.line);
+                for (Item item : block.items) {
+                    out.item(item);
+                }
+                continue;
+            }
+            for (Proxy proxy : proxies) {
+                // 完全相同的代理只输出一次，同名但内容不同的代理是错误
+                if (byText.containsKey(proxy.text)) {
+                    continue;
+                }
+                if (proxy.name != null) {
+                    Proxy previous = byName.get(proxy.name);
+                    if (previous != null) {
+                        errors.add(new FrpConfigValidator.Problem(true, proxy.line, 1, "Proxy name '" + proxy.name
+                                + "' is generated twice with different settings (also from line " + previous.line + ")"));
+                        continue;
+                    }
+                    byName.put(proxy.name, proxy);
+                }
+                byText.put(proxy.text, proxy);
+                out.line("", proxy.line);
+                out.line("[[proxies]]", proxy.line);
+                for (Item item : proxy.items) {
+                    out.item(item);
+                }
+                proxyCount++;
+            }
+        }
+        if (!errors.isEmpty()) {
+            return new Result(null, null, errors, false, 0);
+        }
+        return new Result(out.text.toString(), out.lineMap(), errors, false, proxyCount);
+    }
+
+    // 按 hosts 和 ports 展开一个 [[templates]]
+    private static void expand(Block block, Block defaults, List<Proxy> proxies,
+                               List<FrpConfigValidator.Problem> errors) {
+        List<String> hosts = null;
+        List<Long> ports = null;
+        Item hostsItem = block.get("hosts");
+        if (hostsItem != null) {
+            hosts = new ArrayList<>();
+            if (hostsItem.type != TomlParser.TYPE_ARRAY) {
+                errors.add(new FrpConfigValidator.Problem(true, hostsItem.line, 1, "'hosts' must be an array of strings"));
+                return;
+            }
+            for (Object host : (List<?>) hostsItem.value) {
+                if (!(host instanceof String)) {
+                    errors.add(new FrpConfigValidator.Problem(true, hostsItem.line, 1, "'hosts' must be an array of strings"));
+                    return;
+                }
+                hosts.add((String) host);
+            }
+        }
+        Item portsItem = block.get("ports");
+        if (portsItem != null) {
+            ports = new ArrayList<>();
+            String error = parsePorts(portsItem.value, ports);
+            if (error != null) {
+                errors.add(new FrpConfigValidator.Problem(true, portsItem.line, 1, error));
+                return;
+            }
+        }
+        int total = (hosts != null ? hosts.size() : 1) * (ports != null ? ports.size() : 1);
+        if (total > MAX_PROXIES) {
+            errors.add(new FrpConfigValidator.Problem(true, block.line, 1, "Template expands to " + total
+                    + " proxies, the limit is " + MAX_PROXIES));
+            return;
+        }
+
+        int index = 0;
+        for (int h = 0; h < (hosts != null ? hosts.size() : 1); h++) {
+            for (int p = 0; p < (ports != null ? ports.size() : 1); p++) {
+                String host = hosts != null ? hosts.get(h) : null;
+                Long port = ports != null ? ports.get(p) : null;
+                Proxy proxy = new Proxy(block.line);
+                for (Item item : block.items) {
+                    if (item == hostsItem || item == portsItem) {
+                        continue;
+                    }
+                    Item expanded = substitute(item, host, port, index, errors);
+                    if (expanded == null) {
+                        return;
+                    }
+                    proxy.items.add(expanded);
+                }
+                proxies.add(finish(proxy, defaults));
+                index++;
+            }
+        }
+    }
+
+    // 补上默认值，去掉与 frp 默认值相同的键，并生成用于去重的文本
+    private static Proxy finish(Proxy proxy, Block defaults) {
+        for (Item item : defaults.items) {
+            boolean present = false;
+            for (Item own : proxy.items) {
+                present |= own.key.equals(item.key);
+            }
+            if (!present) {
+                proxy.items.add(item);
+            }
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = proxy.items.size() - 1; i >= 0; i--) {
+            Item item = proxy.items.get(i);
+            Object frpDefault = FRP_DEFAULTS.get(item.key);
+            if (frpDefault != null && frpDefault.equals(item.value)) {
+                proxy.items.remove(i);
+            }
+        }
+        for (Item item : proxy.items) {
+            if ("name".equals(item.key) && item.value instanceof String) {
+                proxy.name = (String) item.value;
+            }
+            text.append(item.key).append('=');
+            appendValue(text, item.type, item.value);
+            text.append('\n');
+        }
+        proxy.text = text.toString();
+        return proxy;
+    }
+
+    // "8000-8099,8200"、整数或整数数组；出错时返回错误信息
+    private static String parsePorts(Object value, List<Long> ports) {
+        if (value instanceof Long) {
+            ports.add((Long) value);
+        } else if (value instanceof List) {
+            for (Object element : (List<?>) value) {
+                if (!(element instanceof Long)) {
+                    return "'ports' must be a range string, an integer or an array of integers";
+                }
+                ports.add((Long) element);
+            }
+        } else if (value instanceof String) {
+            for (String part : ((String) value).split(",")) {
+                part = part.trim();
+                if (part.isEmpty()) {
+                    continue;
+                }
+                int dash = part.indexOf('-');
+                try {
+                    long from = Long.parseLong((dash < 0 ? part : part.substring(0, dash)).trim());
+                    long to = dash < 0 ? from : Long.parseLong(part.substring(dash + 1).trim());
+                    if (to < from) {
+                        return "Invalid port range '" + part + "'";
+                    }
+                    if (to - from >= MAX_PROXIES) {
+                        return "Port range '" + part + "' is larger than " + MAX_PROXIES;
+                    }
+                    for (long port = from; port <= to; port++) {
+                        ports.add(port);
+                    }
+                } catch (NumberFormatException e) {
+                    return "Invalid port range '" + part + "'";
+                }
+            }
+        } else {
+            return "'ports' must be a range string, an integer or an array of integers";
+        }
+        for (Long port : ports) {
+            if (port < 1 || port > 65535) {
+                return "Port " + port + " in 'ports' is out of range (1-65535)";
+            }
+        }
+        return null;
+    }
+
+    // 替换占位符，出错时记录错误并返回 null
+    private static Item substitute(Item item, String host, Long port, int index,
+                                   List<FrpConfigValidator.Problem> errors) {
+        if (item.value instanceof String && ((String) item.value).indexOf('{') >= 0) {
+            String text = (String) item.value;
+            StringBuilder sb = new StringBuilder(text.length() + 16);
+            int pos = 0;
+            Long number = null;
+            int placeholders = 0;
+            while (pos < text.length()) {
+                int open = text.indexOf('{', pos);
+                if (open < 0) {
+                    sb.append(text, pos, text.length());
+                    break;
+                }
+                int close = text.indexOf('}', open);
+                if (close < 0) {
+                    errors.add(new FrpConfigValidator.Problem(true, item.line, 1, "Unclosed placeholder in '" + item.key + "'"));
+                    return null;
+                }
+                sb.append(text, pos, open);
+                String expression = text.substring(open + 1, close).trim();
+                Object value = evaluate(expression, host, port, index);
+                if (value == null) {
+                    errors.add(new FrpConfigValidator.Problem(true, item.line, 1, "Cannot resolve {" + expression
+                            + "} in '" + item.key + "'" + (host == null && expression.startsWith("host") ? ", no 'hosts' set"
+                            : port == null && expression.startsWith("port") ? ", no 'ports' set" : "")));
+                    return null;
+                }
+                sb.append(value);
+                number = value instanceof Long ? (Long) value : null;
+                placeholders++;
+                pos = close + 1;
+            }
+            if (placeholders == 1 && number != null && text.trim().startsWith("{") && text.trim().endsWith("}")) {
+                // "{port}" 输出为整数
+                return new Item(item.key, TomlParser.TYPE_INTEGER, number, item.line);
+            }
+            return new Item(item.key, TomlParser.TYPE_STRING, sb.toString(), item.line);
+        }
+        if (item.value instanceof List) {
+            List<Object> values = new ArrayList<>();
+            for (Object element : (List<?>) item.value) {
+                if (element instanceof String) {
+                    Item expanded = substitute(new Item(item.key, TomlParser.TYPE_STRING, element, item.line),
+                            host, port, index, errors);
+                    if (expanded == null) {
+                        return null;
+                    }
+                    values.add(expanded.value);
+                } else {
+                    values.add(element);
+                }
+            }
+            return new Item(item.key, item.type, values, item.line);
+        }
+        return item;
+    }
+
+    // host、port、index，数字可以带 +N 或 -N；无法求值时返回 null
+    private static Object evaluate(String expression, String host, Long port, int index) {
+        int sign = Math.max(expression.indexOf('+'), expression.indexOf('-'));
+        String name = (sign > 0 ? expression.substring(0, sign) : expression).trim();
+        long offset = 0;
+        if (sign > 0) {
+            try {
+                offset = Long.parseLong(expression.substring(sign + 1).trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (expression.charAt(sign) == '-') {
+                offset = -offset;
+            }
+        }
+        switch (name) {
+            case "host":
+                return sign > 0 ? null : host;
+            case "port":
+                return port != null ? (Object) (port + offset) : null;
+            case "index":
+                return (long) index + offset;
+            default:
+                return null;
+        }
+    }
+
+    // 编译输出及其行号映射
+    private static final class Output {
+        final StringBuilder text = new StringBuilder();
+        private int[] lines = new int[256];
+        private int count = 0;
+
+        void line(String line, int templateLine) {
+            text.append(line).append('\n');
+            if (count == lines.length) {
+                int[] grown = new int[count * 2];
+                System.arraycopy(lines, 0, grown, 0, count);
+                lines = grown;
+            }
+            lines[count++] = templateLine;
+        }
+
+        void item(Item item) {
+            StringBuilder sb = new StringBuilder(item.key.length() + 16);
+            appendKey(sb, item.key);
+            sb.append(" = ");
+            appendValue(sb, item.type, item.value);
+            line(sb.toString(), item.line);
+        }
+
+        int[] lineMap() {
+            int[] map = new int[count];
+            System.arraycopy(lines, 0, map, 0, count);
+            return map;
+        }
+    }
+
+    // 点分隔的键，非裸键的部分加引号
+    private static void appendKey(StringBuilder sb, String key) {
+        String[] parts = key.split("\\.", -1);
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                sb.append('.');
+            }
+            String part = parts[i];
+            boolean bare = !part.isEmpty();
+            for (int j = 0; j < part.length() && bare; j++) {
+                char c = part.charAt(j);
+                bare = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-';
+            }
+            if (bare) {
+                sb.append(part);
+            } else {
+                appendString(sb, part);
+            }
+        }
+    }
+
+    private static void appendValue(StringBuilder sb, int type, Object value) {
+        if (type == TomlParser.TYPE_DATETIME) {
+            sb.append(value);
+        } else {
+            appendValue(sb, value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void appendValue(StringBuilder sb, Object value) {
+        if (value instanceof String) {
+            appendString(sb, (String) value);
+        } else if (value instanceof Double) {
+            double d = (Double) value;
+            sb.append(Double.isNaN(d) ? "nan" : Double.isInfinite(d) ? (d > 0 ? "inf" : "-inf") : Double.toString(d));
+        } else if (value instanceof List) {
+            sb.append('[');
+            List<Object> list = (List<Object>) value;
+            for (int i = 0; i < list.size(); i++) {
+                sb.append(i > 0 ? ", " : "");
+                appendValue(sb, list.get(i));
+            }
+            sb.append(']');
+        } else if (value instanceof Map) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
+                sb.append(first ? " " : ", ");
+                appendKey(sb, entry.getKey());
+                sb.append(" = ");
+                appendValue(sb, entry.getValue());
+                first = false;
+            }
+            sb.append(first ? "}" : " }");
+        } else {
+            sb.append(value);
+        }
+    }
+
+    private static void appendString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x7f) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.droidfrpd;
+
+import java.util.Arrays;
+
+/**
+ * 固定内存的延迟直方图。
+ *
+ * 以微秒计，每个 2 的幂区间分为 SUB_BUCKETS 个桶，百分位的相对误差不超过约 20%，
+ * 最大记录 2^MAX_EXPONENT 微秒（约 16 秒）。数据分为当前和上一个两个时间窗口，
+ * 每 WINDOW_MS 轮换一次，百分位只反映最近一到两个窗口内的测量。
+ * 由测量线程写入，其他线程读取快照，方法都加锁。
+ */
+final class LatencyHistogram {
+
+    static final long WINDOW_MS = 5 * 60 * 1000;
+
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 24;
+    static final int BUCKETS = MAX_EXPONENT * SUB_BUCKETS;
+
+    // 不可变的统计快照，时间单位为微秒，没有数据时百分位为 -1
+    static final class Snapshot {
+        final long count;
+        final long failures;
+        final long lastMicros;
+        final long p50;
+        final long p95;
+        final long p99;
+        final String lastError;
+
+        Snapshot(long count, long failures, long lastMicros, long p50, long p95, long p99, String lastError) {
+            this.count = count;
+            this.failures = failures;
+            this.lastMicros = lastMicros;
+            this.p50 = p50;
+            this.p95 = p95;
+            this.p99 = p99;
+            this.lastError = lastError;
+        }
+
+        boolean hasData() {
+            return count > 0;
+        }
+
+        // 例如 "p50 12 p95 30 p99 45 ms"，全部失败时为 "unreachable"，还没有测量时为 "-"
+        String describe() {
+            if (count == 0) {
+                return failures > 0 ? "unreachable" : "-";
+            }
+            return "p50 " + format(p50) + "  p95 " + format(p95) + "  p99 " + format(p99) + " ms";
+        }
+
+        static String format(long micros) {
+            if (micros < 10000) {
+                return String.format("%.1f", micros / 1000.0);
+            }
+            return Long.toString(micros / 1000);
+        }
+    }
+
+    private final int[] current = new int[BUCKETS];
+    private final int[] previous = new int[BUCKETS];
+    private long currentCount;
+    private long previousCount;
+    private long currentFailures;
+    private long previousFailures;
+    private long windowStart = -1;
+    private long lastMicros = -1;
+    private String lastError;
+
+    // now 为 SystemClock.uptimeMillis()
+    synchronized void record(long micros, long now) {
+        rotate(now);
+        current[bucketOf(micros)]++;
+        currentCount++;
+        lastMicros = micros;
+        lastError = null;
+    }
+
+    synchronized void recordFailure(String error, long now) {
+        rotate(now);
+        currentFailures++;
+        lastError = error;
+    }
+
+    synchronized Snapshot snapshot(long now) {
+        rotate(now);
+        long count = currentCount + previousCount;
+        return new Snapshot(count, currentFailures + previousFailures, lastMicros,
+                percentile(count, 0.50), percentile(count, 0.95), percentile(count, 0.99), lastError);
+    }
+
+    private void rotate(long now) {
+        if (windowStart < 0) {
+            windowStart = now;
+            return;
+        }
+        if (now - windowStart < WINDOW_MS) {
+            return;
+        }
+        if (now - windowStart < 2 * WINDOW_MS) {
+            System.arraycopy(current, 0, previous, 0, BUCKETS);
+            previousCount = currentCount;
+            previousFailures = currentFailures;
+        } else {
+            // 超过两个窗口没有数据，旧数据全部失效
+            Arrays.fill(previous, 0);
+            previousCount = 0;
+            previousFailures = 0;
+        }
+        Arrays.fill(current, 0);
+        currentCount = 0;
+        currentFailures = 0;
+        windowStart = now;
+    }
+
+    // 第 q 分位所在桶的上界
+    private long percentile(long count, double q) {
+        if (count == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(q * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += current[i] + previous[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(micros, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        // 最高位之后的 SUB_BITS 位决定子桶
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 1;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        return (1L << exponent) + ((long) (sub + 1) << (exponent - SUB_BITS));
+    }
+}
@@ -0,0 +1,375 @@
+package com.example.droidfrpd;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 在后台线程上定期测量 TCP 连接耗时：每个 frpc 实例到 frp 服务器，以及每个代理到本地服务
+ * （localIP:localPort）。结果写入每个目标的 {@link LatencyHistogram}，用于区分慢在隧道还是本地服务。
+ *
+ * 限速：地址相同的目标只测一次，每轮最多测 MAX_PROBES_PER_ROUND 个地址，服务器每轮都测，
+ * 本地服务轮流留到后面的轮次；
+ * 有界面在查看时每 WATCH_INTERVAL_MS 一轮，否则 IDLE_INTERVAL_MS 一轮。
+ * 定时基于 uptimeMillis 的 Handler，设备休眠时不计时，也不会唤醒设备。
+ */
+class LatencyProber {
+
+    static final long WATCH_INTERVAL_MS = 10 * 1000;
+    static final long IDLE_INTERVAL_MS = 60 * 1000;
+    static final int CONNECT_TIMEOUT_MS = 3000;
+    static final int MAX_PROBES_PER_ROUND = 16;
+    static final long MIN_ROUND_SPACING_MS = 5 * 1000;
+
+    // 服务器目标的代理名
+    static final String SERVER = "";
+
+    static final class Target {
+        final String instance;
+        // 代理名，服务器为 SERVER
+        final String proxy;
+        final String host;
+        final int port;
+
+        Target(String instance, String proxy, String host, int port) {
+            this.instance = instance;
+            this.proxy = proxy;
+            this.host = host;
+            this.port = port;
+        }
+
+        String address() {
+            return host + ":" + port;
+        }
+    }
+
+    private HandlerThread thread;
+    private Handler handler;
+    private volatile List<Target> targets = Collections.emptyList();
+    private volatile int watchers = 0;
+    private boolean scheduled = false;
+    // 下一轮从第几个地址开始
+    private int cursor = 0;
+    private long lastRoundAt = -MIN_ROUND_SPACING_MS;
+
+    // 键为 "实例/代理"，目标变化时保留地址没有变化的目标的数据
+    private final Map<String, LatencyHistogram> histograms = new HashMap<>();
+    private final Map<String, String> addresses = new HashMap<>();
+
+    private final Runnable probeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            scheduled = false;
+            probeRound();
+        }
+    };
+
+    void start() {
+        thread = new HandlerThread("frp-latency", android.os.Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    void stop() {
+        if (thread != null) {
+            thread.quit();
+            thread = null;
+            handler = null;
+        }
+    }
+
+    // 实例启动、停止或重新加载后由服务更新
+    void setTargets(List<Target> newTargets) {
+        synchronized (histograms) {
+            Map<String, LatencyHistogram> kept = new HashMap<>();
+            Map<String, String> keptAddresses = new HashMap<>();
+            for (Target target : newTargets) {
+                String key = key(target.instance, target.proxy);
+                LatencyHistogram histogram = histograms.get(key);
+                if (histogram == null || !target.address().equals(addresses.get(key))) {
+                    // 例如切换到另一台服务器后，旧的数据不再适用
+                    histogram = new LatencyHistogram();
+                }
+                kept.put(key, histogram);
+                keptAddresses.put(key, target.address());
+            }
+            histograms.clear();
+            histograms.putAll(kept);
+            addresses.clear();
+            addresses.putAll(keptAddresses);
+        }
+        targets = newTargets;
+        probeSoon();
+    }
+
+    // 状态界面可见时调用，测量加快
+    void addWatcher() {
+        watchers++;
+        probeSoon();
+    }
+
+    void removeWatcher() {
+        if (watchers > 0) {
+            watchers--;
+        }
+    }
+
+    /**
+     * 目标的统计快照，proxy 为 SERVER 时是到服务器的延迟；没有这个目标时返回 null。
+     */
+    LatencyHistogram.Snapshot getSnapshot(String instance, String proxy) {
+        LatencyHistogram histogram;
+        synchronized (histograms) {
+            histogram = histograms.get(key(instance, proxy));
+        }
+        return histogram != null ? histogram.snapshot(SystemClock.uptimeMillis()) : null;
+    }
+
+    private static String key(String instance, String proxy) {
+        return instance + "/" + proxy;
+    }
+
+    private void probeSoon() {
+        final Handler h = handler;
+        if (h == null) {
+            return;
+        }
+        h.post(new Runnable() {
+            @Override
+            public void run() {
+                // 两轮之间至少间隔 MIN_ROUND_SPACING_MS，频繁的目标变化不会造成连续测量
+                h.removeCallbacks(probeRunnable);
+                scheduled = true;
+                h.postDelayed(probeRunnable,
+                        Math.max(0, lastRoundAt + MIN_ROUND_SPACING_MS - SystemClock.uptimeMillis()));
+            }
+        });
+    }
+
+    private void probeRound() {
+        List<Target> current = targets;
+        Handler h = handler;
+        if (current.isEmpty() || h == null) {
+            return;
+        }
+        lastRoundAt = SystemClock.uptimeMillis();
+        // 地址相同的目标（例如多个代理指向同一个本地服务）只测一次
+        Map<String, List<Target>> byAddress = new LinkedHashMap<>();
+        for (Target target : current) {
+            List<Target> group = byAddress.get(target.address());
+            if (group == null) {
+                group = new ArrayList<>();
+                byAddress.put(target.address(), group);
+            }
+            group.add(target);
+        }
+        // 服务器每轮都测，本地服务轮流测
+        List<List<Target>> servers = new ArrayList<>();
+        List<List<Target>> backends = new ArrayList<>();
+        for (List<Target> group : byAddress.values()) {
+            (SERVER.equals(group.get(0).proxy) ? servers : backends).add(group);
+        }
+        for (int i = 0; i < servers.size() && targets == current; i++) {
+            probe(servers.get(i));
+        }
+        int probes = Math.min(backends.size(), Math.max(0, MAX_PROBES_PER_ROUND - servers.size()));
+        for (int i = 0; i < probes && targets == current; i++) {
+            probe(backends.get((cursor + i) % backends.size()));
+        }
+        cursor = backends.isEmpty() ? 0 : (cursor + probes) % backends.size();
+
+        if (!scheduled) {
+            scheduled = true;
+            h.postDelayed(probeRunnable, watchers > 0 ? WATCH_INTERVAL_MS : IDLE_INTERVAL_MS);
+        }
+    }
+
+    // 测量一个地址，结果记入地址相同的所有目标
+    private void probe(List<Target> group) {
+        Target first = group.get(0);
+        long micros;
+        String error = null;
+        try {
+            micros = connectMicros(first.host, first.port, CONNECT_TIMEOUT_MS);
+        } catch (IOException e) {
+            micros = -1;
+            error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        }
+        long now = SystemClock.uptimeMillis();
+        for (Target target : group) {
+            LatencyHistogram histogram;
+            synchronized (histograms) {
+                histogram = histograms.get(key(target.instance, target.proxy));
+            }
+            if (histogram == null) {
+                continue;
+            }
+            if (micros >= 0) {
+                histogram.record(micros, now);
+            } else {
+                histogram.recordFailure(error, now);
+            }
+        }
+    }
+
+    /**
+     * 建立一次 TCP 连接并立即关闭，返回连接耗时（微秒，不含域名解析）。
+     */
+    static long connectMicros(String host, int port, int timeoutMs) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved()) {
+            throw new IOException("Cannot resolve " + host);
+        }
+        Socket socket = new Socket();
+        try {
+            long start = System.nanoTime();
+            socket.connect(address, timeoutMs);
+            return (System.nanoTime() - start) / 1000;
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+
+    /**
+     * 从 frpc 配置中取出测量目标：服务器（仅 TCP 类传输协议）和各代理的本地服务。
+     * UDP 类代理、使用插件的代理、访问者和端口范围不测量。
+     */
+    static List<Target> targetsFor(String instance, String config) {
+        List<Target> result = new ArrayList<>();
+        if (FrpConfigFiles.isLegacy(config)) {
+            legacyTargets(instance, config, result);
+        } else {
+            TargetCollector collector = new TargetCollector(instance, result);
+            TomlParser.parse(config, collector);
+            collector.finishProxy();
+            collector.addServer();
+        }
+        return result;
+    }
+
+    private static void legacyTargets(String instance, String config, List<Target> result) {
+        String section = null;
+        Map<String, String> values = new HashMap<>();
+        for (String line : (config + "\n[]").split("\n")) {
+            String header = FrpConfigFiles.tableName(line);
+            if (header != null) {
+                if ("common".equals(section)) {
+                    String protocol = values.get("protocol");
+                    addTarget(instance, SERVER, values.get("server_addr"),
+                            values.containsKey("server_port") ? values.get("server_port") : "7000",
+                            protocol == null || isTcpProtocol(protocol), result);
+                } else if (section != null && !values.containsKey("role") && !values.containsKey("plugin")) {
+                    addTarget(instance, section, values.containsKey("local_ip") ? values.get("local_ip") : "127.0.0.1",
+                            values.get("local_port"), isTcpProxy(values.containsKey("type") ? values.get("type") : "tcp"),
+                            result);
+                }
+                section = header;
+                values.clear();
+                continue;
+            }
+            String key = FrpConfigFiles.keyOf(line);
+            if (key != null && section != null) {
+                values.put(key, FrpConfigFiles.valueOf(line));
+            }
+        }
+    }
+
+    // 新格式配置的解析回调，收集顶层的服务器设置和每个 [[proxies]]
+    private static final class TargetCollector implements TomlParser.Handler {
+        private final String instance;
+        private final List<Target> result;
+        private String serverAddr;
+        private String serverPort = "7000";
+        private String protocol;
+        private boolean inProxy = false;
+        private final Map<String, Object> proxy = new HashMap<>();
+
+        TargetCollector(String instance, List<Target> result) {
+            this.instance = instance;
+            this.result = result;
+        }
+
+        @Override
+        public void onTable(String path, boolean arrayTable, int line, int column) {
+            if (arrayTable || !path.startsWith("proxies.")) {
+                finishProxy();
+                inProxy = arrayTable && "proxies".equals(path);
+            }
+        }
+
+        @Override
+        public void onValue(String key, int type, Object value, int line, int column) {
+            if (inProxy && key.startsWith("proxies.")) {
+                proxy.put(key.substring("proxies.".length()), value);
+            } else if ("serverAddr".equals(key)) {
+                serverAddr = String.valueOf(value);
+            } else if ("serverPort".equals(key)) {
+                serverPort = String.valueOf(value);
+            } else if ("transport.protocol".equals(key)) {
+                protocol = String.valueOf(value);
+            }
+        }
+
+        @Override
+        public void onError(int line, int column, String message) {
+        }
+
+        void finishProxy() {
+            if (inProxy && proxy.get("name") != null && !proxy.containsKey("plugin.type")) {
+                Object localIP = proxy.get("localIP");
+                Object localPort = proxy.get("localPort");
+                addTarget(instance, String.valueOf(proxy.get("name")),
+                        localIP != null ? String.valueOf(localIP) : "127.0.0.1",
+                        localPort != null ? String.valueOf(localPort) : null,
+                        isTcpProxy(proxy.containsKey("type") ? String.valueOf(proxy.get("type")) : null), result);
+            }
+            proxy.clear();
+            inProxy = false;
+        }
+
+        void addServer() {
+            // 服务器放在最前面
+            List<Target> server = new ArrayList<>();
+            addTarget(instance, SERVER, serverAddr, serverPort, protocol == null || isTcpProtocol(protocol), server);
+            result.addAll(0, server);
+        }
+    }
+
+    private static void addTarget(String instance, String proxy, String host, String port, boolean tcp,
+                                  List<Target> result) {
+        if (!tcp || host == null || host.isEmpty() || port == null) {
+            return;
+        }
+        try {
+            int value = Integer.parseInt(port.trim());
+            if (value > 0 && value <= 65535) {
+                result.add(new Target(instance, proxy, "0.0.0.0".equals(host) ? "127.0.0.1" : host, value));
+            }
+        } catch (NumberFormatException e) {
+            // 端口范围等无法测量
+        }
+    }
+
+    private static boolean isTcpProtocol(String protocol) {
+        return "tcp".equals(protocol) || "websocket".equals(protocol) || "wss".equals(protocol);
+    }
+
+    // 没有 type 的代理不测量；UDP 类代理的本地服务无法用 TCP 连接测量
+    private static boolean isTcpProxy(String type) {
+        return type != null && !"udp".equals(type) && !"sudp".equals(type);
+    }
+}
@@ -1,39 +1,125 @@
 package com.example.droidfrpd;
 
 import android.app.Activity;
+import android.content.ActivityNotFoundException;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.SharedPreferences;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.Process;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
+import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.ListView;
+import android.widget.ProgressBar;
 import android.widget.Spinner;
+import android.widget.TextView;
+import android.widget.Toast;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class LogActivity extends Activity {
     
     private ListView logListView;
     private Button clearLogButton;
     private Spinner logLevelSpinner;
-    private ArrayAdapter<String> logAdapter;
-    private List<String> logList = new ArrayList<>();
+    private LogListAdapter logAdapter;
+    // 用户向上翻看历史日志时暂停自动滚动
+    private boolean followTail = true;
     private FRPService frpService;
     private boolean bound = false;
     private Handler handler = new Handler();
-    private Runnable logUpdater;
     private SharedPreferences prefs;
+    // 已显示到的日志位置，重新订阅时从这里继续
+    private long logCursor = 0;
+    private boolean started = false;
+    private boolean listening = false;
+    
+    // 输入停顿这段时间后才搜索
+    private static final long SEARCH_DELAY_MS = 150;
+    private static final String[] STREAM_FILTERS = {"All streams", "Service", "OUT", "ERR"};
+    private static final int[] STREAM_VALUES = {LogIndex.ANY_STREAM, LogSegmentStore.STREAM_SERVICE,
+            LogSegmentStore.STREAM_OUT, LogSegmentStore.STREAM_ERR};
+    
+    private EditText searchText;
+    private Spinner levelFilter;
+    private Spinner proxyFilter;
+    private Spinner streamFilter;
+    private TextView searchStatus;
+    private ProgressBar exportProgress;
+    private static final int REQUEST_EXPORT_LOGS = 1;
+    private boolean exporting = false;
+    private ArrayAdapter<String> proxyAdapter;
+    private final List<String> proxyNames = new ArrayList<>();
+    // 搜索在单独的线程上执行，结果回到主线程显示
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor();
+    // 当前生效的过滤条件，null 表示显示实时日志
+    private LogIndex.Query activeQuery;
+    // 每次发起搜索加一，过时的结果直接丢弃
+    private int searchGeneration = 0;
+    private boolean searchRunning = false;
+    // 上次搜索时索引的行序号
+    private int searchedSequence = -1;
+    private final Runnable searchTask = new Runnable() {
+        @Override
+        public void run() {
+            startSearch();
+        }
+    };
+    // 代理列表和过滤结果最多每秒刷新一次
+    private static final long FILTER_REFRESH_MS = 1000;
+    private boolean filterRefreshPending = false;
+    private final Runnable filterRefresh = new Runnable() {
+        @Override
+        public void run() {
+            filterRefreshPending = false;
+            if (!bound || frpService == null) {
+                return;
+            }
+            refreshProxyFilter();
+            // 过滤期间有新日志时重新搜索
+            if (activeQuery != null && !searchRunning && frpService.getLogIndexSequence() != searchedSequence) {
+                startSearch();
+            }
+        }
+    };
+    
+    // 服务每帧至多推送一次新日志
+    private final EventDispatcher.LogListener logListener = new EventDispatcher.LogListener() {
+        @Override
+        public void onLogs(LogRingBuffer.Batch batch) {
+            logCursor = batch.firstSequence + batch.count;
+            if (!filterRefreshPending) {
+                filterRefreshPending = true;
+                handler.postDelayed(filterRefresh, FILTER_REFRESH_MS);
+            }
+            if (activeQuery == null) {
+                showLiveLogs(batch);
+            }
+        }
+    };
     
     private ServiceConnection serviceConnection = new ServiceConnection() {
         @Override
@@ -41,12 +127,15 @@ public class LogActivity extends Activity {
             FRPService.LocalBinder binder = (FRPService.LocalBinder) service;
             frpService = binder.getService();
             bound = true;
-            updateLogs();
+            saveLogLevel();
+            refreshProxyFilter();
+            startListening();
         }
         
         @Override
         public void onServiceDisconnected(ComponentName arg0) {
             bound = false;
+            listening = false;
         }
     };
     
@@ -65,7 +154,7 @@ public class LogActivity extends Activity {
         bindService(intent, serviceConnection, Context.BIND_AUTO_CREATE);
         
         // 设置日志级别选择器
-        String[] logLevels = {"trace", "debug", "info", "warn", "error"};
+        String[] logLevels = LogLevel.NAMES;
         ArrayAdapter<String> levelAdapter = new ArrayAdapter<>(this, 
                 android.R.layout.simple_spinner_item, logLevels);
         levelAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
@@ -79,24 +168,60 @@ public class LogActivity extends Activity {
                 break;
             }
         }
-        
-        // 定期更新日志
-        logUpdater = new Runnable() {
-            @Override
-            public void run() {
-                updateLogs();
-                handler.postDelayed(this, 1000); // 每秒更新一次
-            }
-        };
-        handler.post(logUpdater);
+    }
+    
+    @Override
+    protected void onStart() {
+        super.onStart();
+        started = true;
+        startListening();
+    }
+    
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // 不可见时不接收日志，回来后从 logCursor 继续
+        started = false;
+        stopListening();
+    }
+    
+    private void startListening() {
+        if (started && bound && frpService != null && !listening) {
+            frpService.addLogListener(logListener, logCursor);
+            listening = true;
+        }
+    }
+    
+    private void stopListening() {
+        if (listening && frpService != null) {
+            frpService.removeLogListener(logListener);
+        }
+        listening = false;
     }
     
     private void initViews() {
         logListView = findViewById(R.id.log_listview);
         clearLogButton = findViewById(R.id.clear_log_button);
         logLevelSpinner = findViewById(R.id.log_level_spinner);
+        searchText = findViewById(R.id.log_search_text);
+        levelFilter = findViewById(R.id.log_filter_level);
+        proxyFilter = findViewById(R.id.log_filter_proxy);
+        streamFilter = findViewById(R.id.log_filter_stream);
+        searchStatus = findViewById(R.id.log_search_status);
+        exportProgress = findViewById(R.id.log_export_progress);
+        
+        String[] levels = new String[LogLevel.NAMES.length + 1];
+        levels[0] = "All levels";
+        for (int i = 0; i < LogLevel.NAMES.length; i++) {
+            levels[i + 1] = LogLevel.NAMES[i] + "+";
+        }
+        levelFilter.setAdapter(spinnerAdapter(Arrays.asList(levels)));
+        streamFilter.setAdapter(spinnerAdapter(Arrays.asList(STREAM_FILTERS)));
+        proxyNames.add("All proxies");
+        proxyAdapter = spinnerAdapter(proxyNames);
+        proxyFilter.setAdapter(proxyAdapter);
         
-        logAdapter = new ArrayAdapter<>(this, android.R.layout.simple_list_item_1, logList);
+        logAdapter = new LogListAdapter(this, LogListAdapter.DEFAULT_CAPACITY);
         logListView.setAdapter(logAdapter);
     }
     
@@ -107,36 +232,256 @@ public class LogActivity extends Activity {
                 clearLogs();
             }
         });
-    }
-    
-    private void updateLogs() {
-        if (bound && frpService != null) {
-            ConcurrentLinkedQueue<String> logQueue = frpService.getLogQueue();
-            boolean updated = false;
+        
+        logLevelSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                // 选择即生效，无需重启
+                saveLogLevel();
+            }
+            
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+        
+        searchText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+            
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
             
-            while (!logQueue.isEmpty()) {
-                String logEntry = logQueue.poll();
-                logList.add(logEntry);
-                updated = true;
+            @Override
+            public void afterTextChanged(Editable s) {
+                scheduleSearch(SEARCH_DELAY_MS);
+            }
+        });
+        
+        AdapterView.OnItemSelectedListener filterListener = new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                scheduleSearch(0);
             }
             
-            // 限制日志条目数量
-            while (logList.size() > 500) {
-                logList.remove(0);
-                updated = true;
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        };
+        levelFilter.setOnItemSelectedListener(filterListener);
+        proxyFilter.setOnItemSelectedListener(filterListener);
+        streamFilter.setOnItemSelectedListener(filterListener);
+        
+        logListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
             }
             
-            if (updated) {
-                logAdapter.notifyDataSetChanged();
-                // 自动滚动到底部
-                logListView.setSelection(logAdapter.getCount() - 1);
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                // 最后一行可见时恢复自动滚动
+                followTail = totalItemCount == 0 || firstVisibleItem + visibleItemCount >= totalItemCount;
+            }
+        });
+    }
+    
+    private void showLiveLogs(LogRingBuffer.Batch batch) {
+        // 界面落后或缓冲区被覆盖时只显示跳过的行数
+        if (batch.dropped > 0) {
+            logAdapter.append(System.currentTimeMillis(),
+                    "... " + batch.dropped + " log lines skipped ...", LogLevel.WARN);
+        }
+        for (int i = 0; i < batch.count; i++) {
+            logAdapter.append(batch.timestamps[i], displayText(batch, i), batch.levels[i]);
+        }
+        // ListView 只重新绑定可见行
+        logAdapter.notifyDataSetChanged();
+        if (followTail) {
+            logListView.setSelection(logAdapter.getCount() - 1);
+        }
+    }
+    
+    private ArrayAdapter<String> spinnerAdapter(List<String> items) {
+        ArrayAdapter<String> adapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, items);
+        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        return adapter;
+    }
+    
+    // 代理列表变化时更新过滤选项，保持当前选择
+    private void refreshProxyFilter() {
+        List<String> proxies = frpService.getLogProxies();
+        if (proxies.equals(proxyNames.subList(1, proxyNames.size()))) {
+            return;
+        }
+        String selected = proxyFilter.getSelectedItemPosition() > 0 ? (String) proxyFilter.getSelectedItem() : null;
+        proxyNames.subList(1, proxyNames.size()).clear();
+        proxyNames.addAll(proxies);
+        if (selected != null && !proxies.contains(selected)) {
+            // 代理已不在最近的日志中，仍保留为选项
+            proxyNames.add(selected);
+        }
+        proxyAdapter.notifyDataSetChanged();
+        proxyFilter.setSelection(selected != null ? proxyNames.indexOf(selected) : 0);
+    }
+    
+    private LogIndex.Query currentQuery() {
+        int level = levelFilter.getSelectedItemPosition() - 1;
+        int stream = STREAM_VALUES[Math.max(0, streamFilter.getSelectedItemPosition())];
+        String proxy = proxyFilter.getSelectedItemPosition() > 0 ? (String) proxyFilter.getSelectedItem() : null;
+        return new LogIndex.Query(searchText.getText().toString(), Math.max(level, LogLevel.TRACE), stream, proxy);
+    }
+    
+    private void scheduleSearch(long delay) {
+        handler.removeCallbacks(searchTask);
+        handler.postDelayed(searchTask, delay);
+    }
+    
+    // 条件为空时回到实时日志，否则在后台搜索索引并替换列表内容
+    private void startSearch() {
+        handler.removeCallbacks(searchTask);
+        if (!bound || frpService == null) {
+            return;
+        }
+        final LogIndex.Query query = currentQuery();
+        final int generation = ++searchGeneration;
+        if (query.isEmpty()) {
+            if (activeQuery != null) {
+                activeQuery = null;
+                searchRunning = false;
+                searchStatus.setVisibility(View.GONE);
+                // 重新订阅，从环形缓冲区读取全部保留的日志
+                logAdapter.clear();
+                logCursor = 0;
+                followTail = true;
+                stopListening();
+                startListening();
             }
+            return;
         }
+        activeQuery = query;
+        searchRunning = true;
+        final FRPService service = frpService;
+        searchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final LogRingBuffer.Batch results = new LogRingBuffer.Batch();
+                final int sequence = service.getLogIndexSequence();
+                long start = System.nanoTime();
+                final int matches = service.searchLogs(query, LogListAdapter.DEFAULT_CAPACITY, results);
+                final long micros = (System.nanoTime() - start) / 1000;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != searchGeneration || isFinishing()) {
+                            return;
+                        }
+                        searchRunning = false;
+                        searchedSequence = sequence;
+                        showSearchResults(results, matches, micros);
+                    }
+                });
+            }
+        });
     }
     
-    private void clearLogs() {
-        logList.clear();
+    private void showSearchResults(LogRingBuffer.Batch results, int matches, long micros) {
+        logAdapter.clear();
+        for (int i = 0; i < results.count; i++) {
+            logAdapter.append(results.timestamps[i], displayText(results, i), results.levels[i]);
+        }
         logAdapter.notifyDataSetChanged();
+        String status = matches + " matches in " + String.format("%.1f", micros / 1000.0) + " ms";
+        if (matches > results.count) {
+            status += ", showing the last " + results.count;
+        }
+        searchStatus.setText(status);
+        searchStatus.setVisibility(View.VISIBLE);
+        if (followTail) {
+            logListView.setSelection(logAdapter.getCount() - 1);
+        }
+    }
+    
+    // frp 输出的行加上实例名称，标准错误输出再加上 [ERR] 以便区分
+    private static String displayText(LogRingBuffer.Batch batch, int i) {
+        String text = batch.messages[i];
+        if (batch.streams[i] == LogSegmentStore.STREAM_ERR) {
+            text = "[ERR] " + text;
+        }
+        if (batch.sources[i] != null) {
+            text = batch.sources[i] + " " + text;
+        }
+        return text;
+    }
+    
+    private void loadAroundLastCrash() {
+        if (!bound || frpService == null) {
+            return;
+        }
+        long crashTime = frpService.getLastCrashTime();
+        if (crashTime <= 0) {
+            Toast.makeText(this, "No crash recorded", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        // 崩溃前5分钟到崩溃后1分钟
+        loadStoredLogs(crashTime - 5 * 60 * 1000L, crashTime + 60 * 1000L);
+    }
+    
+    // 在后台线程读取磁盘日志，完成后替换当前列表内容
+    private void loadStoredLogs(final long from, final long to) {
+        if (!bound || frpService == null) {
+            return;
+        }
+        final FRPService service = frpService;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final LogRingBuffer.Batch history = new LogRingBuffer.Batch();
+                service.queryStoredLogs(from, to, LogListAdapter.DEFAULT_CAPACITY, history);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        showStoredLogs(history);
+                    }
+                });
+            }
+        }).start();
+    }
+    
+    private void showStoredLogs(LogRingBuffer.Batch history) {
+        // 历史日志不经过过滤，清空过滤条件回到日志列表
+        clearFilters();
+        logAdapter.clear();
+        for (int i = 0; i < history.count; i++) {
+            logAdapter.append(history.timestamps[i], displayText(history, i), history.levels[i]);
+        }
+        logAdapter.append(System.currentTimeMillis(),
+                "--- " + history.count + " stored lines, live logs follow ---", LogLevel.INFO);
+        logAdapter.notifyDataSetChanged();
+        // 停在历史日志开头，直到用户滚动到底部
+        followTail = false;
+        logListView.setSelection(0);
+    }
+    
+    private void clearLogs() {
+        logAdapter.clear();
+        followTail = true;
+    }
+    
+    private void clearFilters() {
+        if (activeQuery == null) {
+            return;
+        }
+        activeQuery = null;
+        searchGeneration++;
+        searchRunning = false;
+        searchStatus.setVisibility(View.GONE);
+        searchText.setText("");
+        levelFilter.setSelection(0);
+        proxyFilter.setSelection(0);
+        streamFilter.setSelection(0);
+        handler.removeCallbacks(searchTask);
     }
     
     @Override
@@ -146,9 +491,9 @@ public class LogActivity extends Activity {
             unbindService(serviceConnection);
             bound = false;
         }
-        if (handler != null && logUpdater != null) {
-            handler.removeCallbacks(logUpdater);
-        }
+        handler.removeCallbacks(filterRefresh);
+        handler.removeCallbacks(searchTask);
+        searchExecutor.shutdownNow();
     }
     
     @Override
@@ -164,6 +509,16 @@ public class LogActivity extends Activity {
             case R.id.action_save_log_level:
                 saveLogLevel();
                 return true;
+            case R.id.action_last_10_minutes:
+                long now = System.currentTimeMillis();
+                loadStoredLogs(now - 10 * 60 * 1000L, now);
+                return true;
+            case R.id.action_around_crash:
+                loadAroundLastCrash();
+                return true;
+            case R.id.action_export_logs:
+                chooseExportLocation();
+                return true;
             case R.id.action_close:
                 finish();
                 return true;
@@ -172,10 +527,109 @@ public class LogActivity extends Activity {
         }
     }
     
+    // 通过存储访问框架选择保存位置，没有文件选择器的设备（部分电视）提示使用 HTTP 下载
+    private void chooseExportLocation() {
+        if (exporting) {
+            Toast.makeText(this, "Export already running", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("application/gzip");
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        intent.putExtra(Intent.EXTRA_TITLE, "frpd-logs-" + stamp + ".log.gz");
+        try {
+            startActivityForResult(intent, REQUEST_EXPORT_LOGS);
+        } catch (ActivityNotFoundException e) {
+            String endpoint = bound && frpService != null ? frpService.getLogsEndpoint() : null;
+            Toast.makeText(this, endpoint != null
+                    ? "No file picker available, download " + endpoint + " instead"
+                    : "No file picker available, enable the metrics exporter and its network log download to download logs over HTTP",
+                    Toast.LENGTH_LONG).show();
+        }
+    }
+    
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == REQUEST_EXPORT_LOGS && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            exportLogs(data.getData());
+        }
+    }
+    
+    // 在后台线程流式写入压缩日志，进度显示在列表上方
+    private void exportLogs(final Uri uri) {
+        if (!bound || frpService == null) {
+            return;
+        }
+        final FRPService service = frpService;
+        exporting = true;
+        exportProgress.setProgress(0);
+        exportProgress.setVisibility(View.VISIBLE);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                String result;
+                OutputStream out = null;
+                try {
+                    out = getContentResolver().openOutputStream(uri);
+                    if (out == null) {
+                        throw new IOException("Cannot open " + uri);
+                    }
+                    long lines = service.exportLogs(out, new LogExporter.Progress() {
+                        @Override
+                        public void onProgress(long done, long total) {
+                            final int percent = total > 0 ? (int) (done * 100 / total) : 100;
+                            runOnUiThread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    exportProgress.setProgress(percent);
+                                }
+                            });
+                        }
+                    });
+                    // 关闭时才写出最后的数据，失败要报告
+                    out.close();
+                    out = null;
+                    result = "Exported " + lines + " log lines";
+                } catch (IOException | SecurityException e) {
+                    result = "Export failed: " + e.getMessage();
+                } finally {
+                    if (out != null) {
+                        try {
+                            out.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+                final String message = result;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        exporting = false;
+                        exportProgress.setVisibility(View.GONE);
+                        Toast.makeText(LogActivity.this, message, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }, "frp-log-export").start();
+    }
+    
     private void saveLogLevel() {
         String selectedLevel = (String) logLevelSpinner.getSelectedItem();
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putString("log_level", selectedLevel);
-        editor.apply();
+        if (selectedLevel == null) {
+            return;
+        }
+        if (bound && frpService != null) {
+            // 服务会保存设置并立即应用到日志收集
+            if (!selectedLevel.equals(frpService.getLogLevel())) {
+                frpService.setLogLevel(selectedLevel);
+            }
+        } else {
+            SharedPreferences.Editor editor = prefs.edit();
+            editor.putString("log_level", selectedLevel);
+            editor.apply();
+        }
     }
 }
\ No newline at end of file
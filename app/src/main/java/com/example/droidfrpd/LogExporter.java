@@ -0,0 +1,153 @@
+package com.example.droidfrpd;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 把磁盘上的日志分段和环形缓冲区中更新的日志以文本行写成 gzip 流。
+ *
+ * 分段中的记录直接以 UTF-8 原文写入压缩流，不解码为字符串，内存占用与日志总量无关。
+ * 只在取分段快照时短暂持有存储的锁，导出期间日志收集不受影响；导出开始后写入的日志
+ * 由环形缓冲区补上，按环形缓冲区序号跳过快照中已有的记录，不依赖墙上时钟。每行格式为 "2026-01-02 15:04:05.123 [I] [ERR] frpc 文本"。
+ */
+final class LogExporter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] LEVEL_MARKS = ascii("TDIWE");
+    private static final byte[] ERR_MARK = ascii("[ERR] ");
+
+    interface Progress {
+        // 在导出线程上调用，total 为估计的总字节数
+        void onProgress(long done, long total);
+    }
+
+    private final LogSegmentStore store;
+    private final LogRingBuffer buffer;
+    // 时间戳前缀 "yyyy-MM-dd HH:mm:ss.SSS [L] "
+    private final byte[] prefix = new byte[28];
+    private final Calendar calendar = Calendar.getInstance();
+    private long lines;
+
+    LogExporter(LogSegmentStore store, LogRingBuffer buffer) {
+        this.store = store;
+        this.buffer = buffer;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 导出全部日志到 out，完成后结束 gzip 流但不关闭 out，返回导出的行数。
+     * store 为 null（磁盘日志不可用）时只导出环形缓冲区。
+     */
+    long export(OutputStream out, final Progress progress) throws IOException {
+        lines = 0;
+        GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE);
+        // 每行多次小块写入，先合并再交给压缩器
+        final OutputStream sink = new BufferedOutputStream(gzip, BUFFER_SIZE);
+
+        LogSegmentStore.Snapshot snapshot = store != null ? store.snapshot() : null;
+        List<ByteBuffer> segments = snapshot != null ? snapshot.segments : null;
+        long total = 0;
+        if (segments != null) {
+            for (ByteBuffer segment : segments) {
+                total += LogSegmentStore.recordBytes(segment);
+            }
+        }
+        final long totalBytes = total;
+        final long[] done = new long[1];
+        long firstStored = snapshot != null ? snapshot.firstSequence : -1;
+        long lastStored = snapshot != null ? snapshot.lastSequence : -1;
+        LogRingBuffer.Batch batch = new LogRingBuffer.Batch();
+        if (firstStored > 0) {
+            // 存储打开之前的日志只在环形缓冲区中，按时间顺序写在分段前面
+            buffer.readSince(0, batch);
+            writeBatch(sink, batch, firstStored);
+        }
+        if (segments != null) {
+            for (ByteBuffer segment : segments) {
+                LogSegmentStore.forEach(segment, new LogSegmentStore.RecordVisitor() {
+                    @Override
+                    public void visit(long timestamp, int level, int stream, byte[] text, int length)
+                            throws IOException {
+                        writeLine(sink, timestamp, level, stream, text, length);
+                        long before = done[0];
+                        done[0] += length + LogSegmentStore.RECORD_HEADER_SIZE;
+                        // 大约每 64KB 报告一次进度
+                        if (progress != null && (before >>> 16) != (done[0] >>> 16)) {
+                            progress.onProgress(done[0], totalBytes);
+                        }
+                    }
+                });
+            }
+        }
+
+        // 快照中最后一条记录之后写入的日志，或者没有写入磁盘时环形缓冲区中的全部日志
+        buffer.readSince(lastStored >= 0 ? lastStored + 1 : 0, batch);
+        writeBatch(sink, batch, Long.MAX_VALUE);
+        batch.clear();
+
+        sink.flush();
+        gzip.finish();
+        out.flush();
+        if (progress != null) {
+            progress.onProgress(totalBytes, totalBytes);
+        }
+        return lines;
+    }
+
+    // 写入 batch 中序号小于 end 的日志
+    private void writeBatch(OutputStream sink, LogRingBuffer.Batch batch, long end) throws IOException {
+        for (int i = 0; i < batch.count && batch.firstSequence + i < end; i++) {
+            String text = batch.sources[i] != null ? batch.sources[i] + " " + batch.messages[i] : batch.messages[i];
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            writeLine(sink, batch.timestamps[i], batch.levels[i], batch.streams[i], bytes, bytes.length);
+        }
+    }
+
+    private void writeLine(OutputStream sink, long timestamp, int level, int stream, byte[] text, int length)
+            throws IOException {
+        calendar.setTimeInMillis(timestamp);
+        int n = 0;
+        n = digits(calendar.get(Calendar.YEAR), 4, n);
+        prefix[n++] = '-';
+        n = digits(calendar.get(Calendar.MONTH) + 1, 2, n);
+        prefix[n++] = '-';
+        n = digits(calendar.get(Calendar.DAY_OF_MONTH), 2, n);
+        prefix[n++] = ' ';
+        n = digits(calendar.get(Calendar.HOUR_OF_DAY), 2, n);
+        prefix[n++] = ':';
+        n = digits(calendar.get(Calendar.MINUTE), 2, n);
+        prefix[n++] = ':';
+        n = digits(calendar.get(Calendar.SECOND), 2, n);
+        prefix[n++] = '.';
+        n = digits(calendar.get(Calendar.MILLISECOND), 3, n);
+        prefix[n++] = ' ';
+        prefix[n++] = '[';
+        prefix[n++] = LEVEL_MARKS[Math.max(0, Math.min(level, LEVEL_MARKS.length - 1))];
+        prefix[n++] = ']';
+        prefix[n++] = ' ';
+        sink.write(prefix, 0, n);
+        if (stream == LogSegmentStore.STREAM_ERR) {
+            sink.write(ERR_MARK);
+        }
+        sink.write(text, 0, length);
+        sink.write('\n');
+        lines++;
+    }
+
+    private int digits(int value, int width, int offset) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            prefix[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return offset + width;
+    }
+}
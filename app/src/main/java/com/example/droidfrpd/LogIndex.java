@@ -0,0 +1,606 @@
+package com.example.droidfrpd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 最近 capacity 行日志的内存索引，供日志界面搜索和过滤。
+ *
+ * 日志行按序号存入环形数组；级别、输出流和代理名各有一个倒排表，文本按小写词元（字母、数字、下划线）
+ * 建立倒排表。add 逐字符切分词元，按哈希和字符在词元表中查找，只有第一次出现的词元才分配字符串；
+ * 词元同时放在 TreeMap 中以支持前缀查找。倒排表按序号递增只追加，被覆盖的行在查询时跳过，
+ * 失效条目多于有效条目时整体整理一次，摊销后每行的索引开销是常数。
+ *
+ * 查询把各条件的倒排表合并为窗口上的位图再求交集，只对候选行核对原文，不需要逐行扫描全部日志。
+ * add 和查询共用一把锁，但查询只在锁内复制倒排表，计算都在锁外完成。
+ */
+final class LogIndex {
+
+    static final int DEFAULT_CAPACITY = 16384;
+    static final int MIN_CAPACITY = 1024;
+    static final int MAX_CAPACITY = 262144;
+    // 每行最多索引的词元数，超长的行只索引前面的部分
+    private static final int MAX_TOKENS_PER_LINE = 64;
+    private static final int MAX_TOKEN_LENGTH = 48;
+
+    static final int ANY_STREAM = -1;
+
+    // 查询条件，字段为 null 或 ANY 时不限制
+    static final class Query {
+        final String text;
+        final int minLevel;
+        final int stream;
+        final String proxy;
+
+        Query(String text, int minLevel, int stream, String proxy) {
+            this.text = text != null ? text.trim() : "";
+            this.minLevel = minLevel;
+            this.stream = stream;
+            this.proxy = proxy;
+        }
+
+        boolean isEmpty() {
+            return text.isEmpty() && minLevel <= LogLevel.TRACE && stream == ANY_STREAM && proxy == null;
+        }
+    }
+
+    // 只追加的 int 数组，start 之前的条目已失效
+    private static class Postings {
+        int[] ids = new int[4];
+        int start;
+        int size;
+
+        // 同一行重复添加时返回 false
+        boolean add(int id) {
+            if (size > start && ids[size - 1] == id) {
+                return false;
+            }
+            if (size == ids.length) {
+                if (start > size / 2) {
+                    // 前半部分已失效，移动代替扩容
+                    System.arraycopy(ids, start, ids, 0, size - start);
+                    size -= start;
+                    start = 0;
+                } else {
+                    ids = Arrays.copyOf(ids, size * 2);
+                }
+            }
+            ids[size++] = id;
+            return true;
+        }
+
+        // 跳过小于 oldest 的条目，返回剩余的条目数
+        int trim(int oldest) {
+            int low = start;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ids[mid] < oldest) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            start = low;
+            return size - start;
+        }
+    }
+
+    // 词元表中的条目，hash 与 text.hashCode() 相同
+    private static final class Token extends Postings {
+        final String text;
+        final int hash;
+        Token nextInBucket;
+
+        Token(String text, int hash) {
+            this.text = text;
+            this.hash = hash;
+        }
+    }
+
+    // 逐字符切分小写词元，复用字符缓冲区，不为词元分配字符串
+    private static final class Tokenizer {
+        final char[] chars = new char[MAX_TOKEN_LENGTH];
+        int length;
+        int hash;
+        private String text;
+        private int position;
+
+        void reset(String text) {
+            this.text = text;
+            position = 0;
+        }
+
+        // 把下一个词元转为小写写入 chars，超出 MAX_TOKEN_LENGTH 的部分截断；没有更多词元时返回 false
+        boolean next() {
+            int end = text.length();
+            int i = position;
+            while (i < end && !isTokenChar(text.charAt(i))) {
+                i++;
+            }
+            length = 0;
+            hash = 0;
+            while (i < end) {
+                char c = text.charAt(i);
+                if (!isTokenChar(c)) {
+                    break;
+                }
+                if (length < MAX_TOKEN_LENGTH) {
+                    c = Character.toLowerCase(c);
+                    chars[length++] = c;
+                    hash = 31 * hash + c;
+                }
+                i++;
+            }
+            position = i;
+            return length > 0;
+        }
+
+        boolean matches(String token) {
+            if (token.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (token.charAt(i) != chars[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String token() {
+            return new String(chars, 0, length);
+        }
+    }
+
+    private final int capacity;
+    // 序号接近 int 上限时重建索引
+    private final int maxSequence;
+    private final long[] timestamps;
+    private final String[] messages;
+    private final byte[] levels;
+    private final byte[] streams;
+    private final String[] proxies;
+    private final String[] sources;
+    private final byte[] postingCounts;
+
+    private final Postings[] levelPostings = new Postings[LogLevel.NAMES.length];
+    private final Postings[] streamPostings = new Postings[3];
+    private final Map<String, Postings> proxyPostings = new TreeMap<>();
+    private final TreeMap<String, Token> tokenPostings = new TreeMap<>();
+    // 按哈希查找词元的拉链表，大小为 2 的幂
+    private Token[] tokenTable = new Token[1024];
+
+    // 下一行的序号，窗口为 [next - size, next)
+    private int next = 0;
+    private int size = 0;
+    // 所有倒排表的总条目数和窗口内的有效条目数
+    private long totalPostings = 0;
+    private long livePostings = 0;
+    // 每次重新编号加一，查询据此判断锁外拿到的序号是否仍然有效
+    private int renumbered = 0;
+
+    // add 复用的切分器
+    private final Tokenizer lineTokenizer = new Tokenizer();
+
+    LogIndex(int capacity) {
+        this.capacity = capacity;
+        maxSequence = Integer.MAX_VALUE - capacity * 4;
+        timestamps = new long[capacity];
+        messages = new String[capacity];
+        levels = new byte[capacity];
+        streams = new byte[capacity];
+        proxies = new String[capacity];
+        sources = new String[capacity];
+        postingCounts = new byte[capacity];
+        resetPostings();
+    }
+
+    private void resetPostings() {
+        for (int i = 0; i < levelPostings.length; i++) {
+            levelPostings[i] = new Postings();
+        }
+        for (int i = 0; i < streamPostings.length; i++) {
+            streamPostings[i] = new Postings();
+        }
+        proxyPostings.clear();
+        tokenPostings.clear();
+        Arrays.fill(tokenTable, null);
+        totalPostings = 0;
+        livePostings = 0;
+    }
+
+    // 已索引的总行数，用于判断是否有新日志
+    synchronized int getSequence() {
+        return next;
+    }
+
+    // 出现过的代理名，按名称排序
+    synchronized List<String> getProxies() {
+        List<String> result = new ArrayList<>();
+        int oldest = next - size;
+        for (Map.Entry<String, Postings> entry : proxyPostings.entrySet()) {
+            if (entry.getValue().trim(oldest) > 0) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    synchronized void add(long timestamp, int level, int stream, String source, String proxy, String message) {
+        if (message.length() > LogRingBuffer.MAX_LINE_LENGTH) {
+            message = message.substring(0, LogRingBuffer.MAX_LINE_LENGTH);
+        }
+        if (next >= maxSequence) {
+            renumber();
+        }
+        int id = next;
+        int slot = id % capacity;
+        if (size == capacity) {
+            livePostings -= postingCounts[slot] & 0xff;
+        } else {
+            size++;
+        }
+        timestamps[slot] = timestamp;
+        messages[slot] = message;
+        levels[slot] = (byte) level;
+        streams[slot] = (byte) stream;
+        proxies[slot] = proxy;
+        sources[slot] = source;
+        next++;
+
+        levelPostings[Math.max(0, Math.min(level, levelPostings.length - 1))].add(id);
+        if (stream >= 0 && stream < streamPostings.length) {
+            streamPostings[stream].add(id);
+        }
+        if (proxy != null) {
+            postingsFor(proxyPostings, proxy).add(id);
+        }
+        int count = 0;
+        lineTokenizer.reset(message);
+        while (count < MAX_TOKENS_PER_LINE && lineTokenizer.next()) {
+            if (tokenFor(lineTokenizer).add(id)) {
+                count++;
+            }
+        }
+        int postings = count + 1 + (stream >= 0 && stream < streamPostings.length ? 1 : 0) + (proxy != null ? 1 : 0);
+        postingCounts[slot] = (byte) postings;
+        totalPostings += postings;
+        livePostings += postings;
+        if (totalPostings > 2 * livePostings + capacity) {
+            compact();
+        }
+    }
+
+    private static Postings postingsFor(Map<String, Postings> map, String key) {
+        Postings postings = map.get(key);
+        if (postings == null) {
+            postings = new Postings();
+            map.put(key, postings);
+        }
+        return postings;
+    }
+
+    private Token tokenFor(Tokenizer tokenizer) {
+        int hash = tokenizer.hash;
+        for (Token token = tokenTable[hash & (tokenTable.length - 1)]; token != null; token = token.nextInBucket) {
+            if (token.hash == hash && tokenizer.matches(token.text)) {
+                return token;
+            }
+        }
+        Token token = new Token(tokenizer.token(), hash);
+        tokenPostings.put(token.text, token);
+        if (tokenPostings.size() > tokenTable.length / 4 * 3) {
+            rebuildTokenTable();
+        } else {
+            insert(tokenTable, token);
+        }
+        return token;
+    }
+
+    private static void insert(Token[] table, Token token) {
+        int bucket = token.hash & (table.length - 1);
+        token.nextInBucket = table[bucket];
+        table[bucket] = token;
+    }
+
+    // 按 tokenPostings 中的词元重建哈希表，词元数变化较大时调整大小
+    private void rebuildTokenTable() {
+        int length = 1024;
+        while (length / 4 * 3 < tokenPostings.size() * 2) {
+            length *= 2;
+        }
+        if (length != tokenTable.length) {
+            tokenTable = new Token[length];
+        } else {
+            Arrays.fill(tokenTable, null);
+        }
+        for (Token token : tokenPostings.values()) {
+            insert(tokenTable, token);
+        }
+    }
+
+    // 去掉所有倒排表中的失效条目和不再出现的词元、代理
+    private void compact() {
+        int oldest = next - size;
+        long total = 0;
+        for (Postings postings : levelPostings) {
+            total += compact(postings, oldest);
+        }
+        for (Postings postings : streamPostings) {
+            total += compact(postings, oldest);
+        }
+        Iterator<Postings> proxies = proxyPostings.values().iterator();
+        while (proxies.hasNext()) {
+            int live = compact(proxies.next(), oldest);
+            if (live == 0) {
+                proxies.remove();
+            }
+            total += live;
+        }
+        int tokenCount = tokenPostings.size();
+        Iterator<Token> tokens = tokenPostings.values().iterator();
+        while (tokens.hasNext()) {
+            int live = compact(tokens.next(), oldest);
+            if (live == 0) {
+                tokens.remove();
+            }
+            total += live;
+        }
+        if (tokenPostings.size() != tokenCount) {
+            rebuildTokenTable();
+        }
+        totalPostings = total;
+    }
+
+    private static int compact(Postings postings, int oldest) {
+        int live = postings.trim(oldest);
+        if (postings.start > 0) {
+            System.arraycopy(postings.ids, postings.start, postings.ids, 0, live);
+            postings.size = live;
+            postings.start = 0;
+        }
+        if (postings.ids.length > 16 && live < postings.ids.length / 4) {
+            postings.ids = Arrays.copyOf(postings.ids, Math.max(4, live * 2));
+        }
+        return live;
+    }
+
+    // 序号接近上限时从 0 重新编号并重建全部倒排表
+    private void renumber() {
+        int oldest = next - size;
+        int count = size;
+        long[] oldTimestamps = new long[count];
+        String[] oldMessages = new String[count];
+        byte[] oldLevels = new byte[count];
+        byte[] oldStreams = new byte[count];
+        String[] oldProxies = new String[count];
+        String[] oldSources = new String[count];
+        for (int i = 0; i < count; i++) {
+            int slot = (oldest + i) % capacity;
+            oldTimestamps[i] = timestamps[slot];
+            oldMessages[i] = messages[slot];
+            oldLevels[i] = levels[slot];
+            oldStreams[i] = streams[slot];
+            oldProxies[i] = proxies[slot];
+            oldSources[i] = sources[slot];
+        }
+        Arrays.fill(messages, null);
+        Arrays.fill(proxies, null);
+        Arrays.fill(sources, null);
+        next = 0;
+        size = 0;
+        renumbered++;
+        resetPostings();
+        for (int i = 0; i < count; i++) {
+            add(oldTimestamps[i], oldLevels[i], oldStreams[i], oldSources[i], oldProxies[i], oldMessages[i]);
+        }
+    }
+
+    /**
+     * 查询最近的至多 maxResults 行匹配的日志，按时间顺序写入 batch，返回窗口内匹配的总行数。
+     *
+     * 文本按空白分为多个词，每个词都必须出现在行中（不区分大小写），例如 "192.168.1" 或 "login failed"。
+     * 词从词元的开头开始匹配，词的最后一个词元按前缀匹配，便于边输入边搜索。
+     *
+     * 持有锁时只复制倒排表和候选行的引用，位图合并和原文核对都在锁外进行，不会长时间阻塞采集线程的 add。
+     * 查询期间被覆盖的行不出现在结果中。
+     */
+    int query(Query query, int maxResults, LogRingBuffer.Batch batch) {
+        batch.clear();
+        String[] terms = query.text.isEmpty() ? new String[0]
+                : query.text.toLowerCase(Locale.US).split("\\s+");
+        // 词的最后一个词元可能还没输入完，按前缀匹配；其余词元必须完整
+        List<String> exactTokens = new ArrayList<>();
+        List<String> prefixTokens = new ArrayList<>();
+        Tokenizer tokenizer = new Tokenizer();
+        for (String term : terms) {
+            String last = null;
+            tokenizer.reset(term);
+            while (tokenizer.next()) {
+                if (last != null) {
+                    exactTokens.add(last);
+                }
+                last = tokenizer.token();
+            }
+            if (last != null) {
+                prefixTokens.add(last);
+            }
+        }
+
+        // 每个条件在窗口内的序号，条件之间求交集，条件内部的多个倒排表求并集
+        List<int[]> conditions = new ArrayList<>();
+        int oldest;
+        int window;
+        int generation;
+        synchronized (this) {
+            oldest = next - size;
+            window = size;
+            generation = renumbered;
+            if (window == 0) {
+                return 0;
+            }
+            if (query.minLevel > LogLevel.TRACE) {
+                conditions.add(snapshot(Arrays.asList(levelPostings)
+                        .subList(Math.min(query.minLevel, levelPostings.length), levelPostings.length), oldest));
+            }
+            if (query.stream != ANY_STREAM) {
+                conditions.add(query.stream >= 0 && query.stream < streamPostings.length
+                        ? snapshot(streamPostings[query.stream], oldest) : new int[0]);
+            }
+            if (query.proxy != null) {
+                conditions.add(snapshot(proxyPostings.get(query.proxy), oldest));
+            }
+            for (String token : exactTokens) {
+                conditions.add(snapshot(tokenPostings.get(token), oldest));
+            }
+            for (String token : prefixTokens) {
+                conditions.add(snapshot(tokenPostings.subMap(token, token + Character.MAX_VALUE).values(), oldest));
+            }
+        }
+
+        // 位图的第 i 位对应序号 oldest + i；null 表示没有条件
+        long[] bits = null;
+        for (int[] ids : conditions) {
+            long[] conditionBits = new long[(window + 63) >>> 6];
+            for (int id : ids) {
+                int bit = id - oldest;
+                conditionBits[bit >>> 6] |= 1L << (bit & 63);
+            }
+            bits = and(bits, conditionBits);
+        }
+        // 候选行的序号，最新的在前
+        int candidates = 0;
+        int[] ids = new int[bits == null ? window : cardinality(bits)];
+        for (int i = window - 1; i >= 0; i--) {
+            if (bits == null || (bits[i >>> 6] & (1L << (i & 63))) != 0) {
+                ids[candidates++] = oldest + i;
+            }
+        }
+
+        int matches = candidates;
+        if (terms.length > 0) {
+            String[] candidateMessages = new String[candidates];
+            synchronized (this) {
+                if (renumbered != generation) {
+                    return query(query, maxResults, batch);
+                }
+                copyMessages(ids, candidates, candidateMessages);
+            }
+            matches = 0;
+            for (int k = 0; k < candidates; k++) {
+                String message = candidateMessages[k];
+                if (message != null && containsAll(message, terms)) {
+                    ids[matches++] = ids[k];
+                }
+            }
+        }
+
+        int n = Math.min(matches, maxResults);
+        batch.ensureCapacity(n);
+        synchronized (this) {
+            if (renumbered != generation) {
+                return query(query, maxResults, batch);
+            }
+            int first = next - size;
+            int count = 0;
+            for (int k = n - 1; k >= 0; k--) {
+                int id = ids[k];
+                if (id < first) {
+                    // 查询期间已被覆盖
+                    continue;
+                }
+                int slot = id % capacity;
+                batch.timestamps[count] = timestamps[slot];
+                batch.messages[count] = messages[slot];
+                batch.levels[count] = levels[slot];
+                batch.streams[count] = streams[slot];
+                batch.proxies[count] = proxies[slot];
+                batch.sources[count] = sources[slot];
+                count++;
+            }
+            batch.count = count;
+        }
+        return matches;
+    }
+
+    // 复制倒排表在窗口内的条目
+    private static int[] snapshot(Postings postings, int oldest) {
+        if (postings == null) {
+            return new int[0];
+        }
+        int live = postings.trim(oldest);
+        return Arrays.copyOfRange(postings.ids, postings.start, postings.start + live);
+    }
+
+    // 复制多个倒排表在窗口内的条目，结果可能无序、有重复
+    private static int[] snapshot(Collection<? extends Postings> postings, int oldest) {
+        int total = 0;
+        for (Postings p : postings) {
+            total += p.trim(oldest);
+        }
+        int[] ids = new int[total];
+        int offset = 0;
+        for (Postings p : postings) {
+            int live = p.size - p.start;
+            System.arraycopy(p.ids, p.start, ids, offset, live);
+            offset += live;
+        }
+        return ids;
+    }
+
+    // 复制仍在窗口内的行的原文，已被覆盖的行为 null
+    private void copyMessages(int[] ids, int count, String[] out) {
+        int first = next - size;
+        for (int k = 0; k < count; k++) {
+            out[k] = ids[k] >= first ? messages[ids[k] % capacity] : null;
+        }
+    }
+
+    private static int cardinality(long[] bits) {
+        int count = 0;
+        for (long word : bits) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    private static long[] and(long[] a, long[] b) {
+        if (a == null) {
+            return b;
+        }
+        for (int i = 0; i < a.length; i++) {
+            a[i] &= b[i];
+        }
+        return a;
+    }
+
+    // terms 已转为小写，逐个位置比较，不为整行分配小写副本
+    private static boolean containsAll(String message, String[] terms) {
+        for (String term : terms) {
+            if (!containsIgnoreCase(message, term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsIgnoreCase(String message, String term) {
+        for (int i = 0, last = message.length() - term.length(); i <= last; i++) {
+            if (message.regionMatches(true, i, term, 0, term.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isTokenChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.droidfrpd;
+
+/**
+ * frp 日志级别，数值越大越严重。
+ */
+final class LogLevel {
+
+    static final int TRACE = 0;
+    static final int DEBUG = 1;
+    static final int INFO = 2;
+    static final int WARN = 3;
+    static final int ERROR = 4;
+
+    static final String[] NAMES = {"trace", "debug", "info", "warn", "error"};
+
+    private LogLevel() {
+    }
+
+    static int fromName(String name) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return INFO;
+    }
+
+    // frp 使用单字母级别标记，例如 [I]、[W]
+    static int fromLetter(int c) {
+        switch (c) {
+            case 'T':
+                return TRACE;
+            case 'D':
+                return DEBUG;
+            case 'W':
+                return WARN;
+            case 'E':
+                return ERROR;
+            default:
+                return INFO;
+        }
+    }
+
+    // 从一行文本中识别级别：优先查找 frp 的 [X] 标记，其次是服务自身的 Error/Warning 前缀
+    static int detect(String message) {
+        int limit = Math.min(message.length() - 2, 64);
+        for (int i = 0; i < limit; i++) {
+            if (message.charAt(i) == '[' && message.charAt(i + 2) == ']') {
+                char c = message.charAt(i + 1);
+                if (c == 'T' || c == 'D' || c == 'I' || c == 'W' || c == 'E') {
+                    return fromLetter(c);
+                }
+            }
+        }
+        if (message.startsWith("Error")) {
+            return ERROR;
+        }
+        if (message.startsWith("Warning")) {
+            return WARN;
+        }
+        return INFO;
+    }
+}
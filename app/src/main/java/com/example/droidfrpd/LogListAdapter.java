@@ -0,0 +1,117 @@
+package com.example.droidfrpd;
+
+import android.content.Context;
+import android.support.v4.content.ContextCompat;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * 日志列表适配器。
+ *
+ * 行数据保存在固定容量的环形数组中，超出容量时覆盖最旧的行（O(1)），
+ * 每行的显示文本和颜色在追加时一次性生成，绑定视图时只做赋值，行视图通过 ViewHolder 复用。
+ */
+public class LogListAdapter extends BaseAdapter {
+
+    public static final int DEFAULT_CAPACITY = 16384;
+
+    private final LayoutInflater inflater;
+    private final int[] levelColors;
+    private final int capacity;
+    private final CharSequence[] texts;
+    private final byte[] levels;
+    private final long[] ids;
+    private int head = 0;
+    private int size = 0;
+    private long nextId = 0;
+
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+    private final Date date = new Date();
+
+    public LogListAdapter(Context context, int capacity) {
+        this.inflater = LayoutInflater.from(context);
+        this.capacity = capacity;
+        this.texts = new CharSequence[capacity];
+        this.levels = new byte[capacity];
+        this.ids = new long[capacity];
+
+        levelColors = new int[]{
+                ContextCompat.getColor(context, R.color.log_trace),
+                ContextCompat.getColor(context, R.color.log_debug),
+                ContextCompat.getColor(context, R.color.log_info),
+                ContextCompat.getColor(context, R.color.log_warn),
+                ContextCompat.getColor(context, R.color.log_error)
+        };
+    }
+
+    // 追加一行，不触发刷新；调用方批量追加后再调用 notifyDataSetChanged()
+    public void append(long timestamp, String message, int level) {
+        date.setTime(timestamp);
+        String text = timeFormat.format(date) + "  " + message;
+        int index;
+        if (size < capacity) {
+            index = (head + size) % capacity;
+            size++;
+        } else {
+            index = head;
+            head = (head + 1) % capacity;
+        }
+        texts[index] = text;
+        levels[index] = (byte) level;
+        ids[index] = nextId++;
+    }
+
+    public void clear() {
+        for (int i = 0; i < capacity; i++) {
+            texts[i] = null;
+        }
+        head = 0;
+        size = 0;
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return size;
+    }
+
+    @Override
+    public CharSequence getItem(int position) {
+        return texts[(head + position) % capacity];
+    }
+
+    public int getLevel(int position) {
+        return levels[(head + position) % capacity];
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return ids[(head + position) % capacity];
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView textView;
+        if (convertView == null) {
+            textView = (TextView) inflater.inflate(R.layout.item_log_line, parent, false);
+        } else {
+            textView = (TextView) convertView;
+        }
+        int index = (head + position) % capacity;
+        textView.setText(texts[index]);
+        textView.setTextColor(levelColors[levels[index]]);
+        return textView;
+    }
+}
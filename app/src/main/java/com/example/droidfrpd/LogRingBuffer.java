@@ -0,0 +1,165 @@
+package com.example.droidfrpd;
+
+/**
+ * 预分配的固定容量日志环形缓冲区。
+ *
+ * 写入方被串行化（append 加锁），读取方复制时不加锁：每个读取者自己保存序号游标，
+ * 通过 {@link #readSince(long, Batch)} 批量读取游标之后的所有日志，读取不会消费数据，
+ * 因此多个读取者（日志界面、通知、导出等）互不影响。
+ */
+public class LogRingBuffer {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+    // 单行最大长度，超出部分截断，保证缓冲区内存上限固定
+    public static final int MAX_LINE_LENGTH = 1024;
+
+    private final int capacity;
+    private final int mask;
+    private final long[] timestamps;
+    private final String[] messages;
+    private final byte[] levels;
+    private final byte[] streams;
+    private final String[] proxies;
+    // 日志来源的实例名称，服务自身的消息为 null
+    private final String[] sources;
+
+    // 下一个要写入的序号；小于该值的条目均已发布
+    private volatile long writeSequence;
+
+    public LogRingBuffer(int requestedCapacity) {
+        int size = 1;
+        while (size < requestedCapacity) {
+            size <<= 1;
+        }
+        capacity = size;
+        mask = size - 1;
+        timestamps = new long[size];
+        messages = new String[size];
+        levels = new byte[size];
+        streams = new byte[size];
+        proxies = new String[size];
+        sources = new String[size];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getWriteSequence() {
+        return writeSequence;
+    }
+
+    public long getOldestSequence() {
+        return Math.max(0, writeSequence - capacity);
+    }
+
+    public synchronized long append(long timestamp, int level, int stream, String source, String proxy,
+                                    String message) {
+        if (message.length() > MAX_LINE_LENGTH) {
+            message = message.substring(0, MAX_LINE_LENGTH);
+        }
+        long seq = writeSequence;
+        int index = (int) (seq & mask);
+        timestamps[index] = timestamp;
+        messages[index] = message;
+        levels[index] = (byte) level;
+        streams[index] = (byte) stream;
+        proxies[index] = proxy;
+        sources[index] = source;
+        // volatile 写入发布该条目
+        writeSequence = seq + 1;
+        return seq;
+    }
+
+    /**
+     * 读取序号 cursor 之后的所有日志到 batch 中，返回新的游标。cursor 为 0 时从保留的最早日志开始。
+     * 如果读取者落后超过缓冲区容量，被覆盖的条目数记录在 {@link Batch#dropped}。
+     */
+    public long readSince(long cursor, Batch batch) {
+        batch.clear();
+        long end = writeSequence;
+        if (cursor > end) {
+            // 游标来自旧的缓冲区实例，从头开始读取
+            cursor = 0;
+        }
+        long start = Math.max(cursor, end - capacity);
+        int n = (int) (end - start);
+        batch.ensureCapacity(n);
+        for (int k = 0; k < n; k++) {
+            int index = (int) ((start + k) & mask);
+            batch.timestamps[k] = timestamps[index];
+            batch.messages[k] = messages[index];
+            batch.levels[k] = levels[index];
+            batch.streams[k] = streams[index];
+            batch.proxies[k] = proxies[index];
+            batch.sources[k] = sources[index];
+        }
+
+        // 复制期间写入方可能已经覆盖了最旧的条目，丢弃这些可能不完整的数据。
+        // 复制之后在写入锁内读取序号：复制时读到的数据若来自某次写入，该次写入必定已在锁内完成并推进了序号
+        long firstIntact = Math.max(start, publishedSequence() - capacity);
+        int skip = (int) Math.min(n, firstIntact - start);
+        if (skip > 0) {
+            System.arraycopy(batch.timestamps, skip, batch.timestamps, 0, n - skip);
+            System.arraycopy(batch.messages, skip, batch.messages, 0, n - skip);
+            System.arraycopy(batch.levels, skip, batch.levels, 0, n - skip);
+            System.arraycopy(batch.streams, skip, batch.streams, 0, n - skip);
+            System.arraycopy(batch.proxies, skip, batch.proxies, 0, n - skip);
+            System.arraycopy(batch.sources, skip, batch.sources, 0, n - skip);
+            for (int k = n - skip; k < n; k++) {
+                batch.messages[k] = null;
+                batch.proxies[k] = null;
+                batch.sources[k] = null;
+            }
+        }
+        batch.count = n - skip;
+        batch.firstSequence = start + skip;
+        batch.dropped = cursor == 0 ? 0 : batch.firstSequence - cursor;
+        return end;
+    }
+
+    // 与 append 互斥，保证之前的读取不会读到这次返回之后才开始的写入
+    private synchronized long publishedSequence() {
+        return writeSequence;
+    }
+
+    /**
+     * 可复用的批量读取结果，读取者应长期持有一个实例以避免重复分配。
+     */
+    public static class Batch {
+        public long firstSequence;
+        public int count;
+        public long dropped;
+        public long[] timestamps = new long[64];
+        public String[] messages = new String[64];
+        public byte[] levels = new byte[64];
+        public byte[] streams = new byte[64];
+        public String[] proxies = new String[64];
+        public String[] sources = new String[64];
+
+        void ensureCapacity(int n) {
+            if (timestamps.length < n) {
+                int size = timestamps.length;
+                while (size < n) {
+                    size <<= 1;
+                }
+                timestamps = new long[size];
+                messages = new String[size];
+                levels = new byte[size];
+                streams = new byte[size];
+                proxies = new String[size];
+                sources = new String[size];
+            }
+        }
+
+        public void clear() {
+            for (int i = 0; i < count; i++) {
+                messages[i] = null;
+                proxies[i] = null;
+                sources[i] = null;
+            }
+            count = 0;
+            dropped = 0;
+        }
+    }
+}
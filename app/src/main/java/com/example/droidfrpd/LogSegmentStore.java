@@ -0,0 +1,483 @@
+package com.example.droidfrpd;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 基于内存映射文件的持久化日志存储。
+ *
+ * 日志追加到固定大小的分段文件中，写入只操作 MappedByteBuffer，不产生逐行的系统调用；
+ * 分段写满后轮换到新文件，总大小超过上限时删除最旧的分段。
+ * 每个分段尾部保存稀疏时间索引，按时间范围查询时先二分索引再顺序扫描，不需要从头读取。
+ * 墙上时钟回拨时换到新分段，保证每个分段内的时间戳不递减，索引和首尾时间只在分段内使用。
+ *
+ * 分段布局：
+ * <pre>
+ * [header 40B][records ...                 ][index: INDEX_SLOTS x (long 时间戳, int 偏移)]
+ * record = int 长度 | long 时间戳 | byte 级别 | byte 来源 | UTF-8 文本
+ * </pre>
+ */
+public class LogSegmentStore {
+
+    private static final String TAG = "LogSegmentStore";
+    private static final String SUFFIX = ".seg";
+
+    public static final int SEGMENT_SIZE = 1024 * 1024;
+    public static final long DEFAULT_MAX_BYTES = 8L * SEGMENT_SIZE;
+
+    private static final int MAGIC = 0x4652504C; // "FRPL"
+    private static final int VERSION = 1;
+
+    // header 字段偏移
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_WRITE_POS = 8;
+    private static final int H_INDEX_COUNT = 12;
+    private static final int H_FIRST_TS = 16;
+    private static final int H_LAST_TS = 24;
+    private static final int H_CLEAN = 32;
+    private static final int HEADER_SIZE = 40;
+
+    // 每写入 INDEX_INTERVAL 字节记录一个索引项
+    private static final int INDEX_INTERVAL = 4096;
+    private static final int INDEX_ENTRY_SIZE = 12;
+    private static final int INDEX_SLOTS = SEGMENT_SIZE / INDEX_INTERVAL;
+    private static final int INDEX_START = SEGMENT_SIZE - INDEX_SLOTS * INDEX_ENTRY_SIZE;
+
+    static final int RECORD_HEADER_SIZE = 4 + 8 + 1 + 1;
+
+    public static final int STREAM_SERVICE = 0;
+    public static final int STREAM_OUT = 1;
+    public static final int STREAM_ERR = 2;
+
+    /**
+     * 逐条接收日志记录，text 为 UTF-8 原文（包含来源前缀），只在本次调用期间有效。
+     */
+    public interface RecordVisitor {
+        void visit(long timestamp, int level, int stream, byte[] text, int length) throws IOException;
+    }
+
+    /**
+     * snapshot() 的结果。firstSequence 到 lastSequence 是本次打开后写入的记录在环形缓冲区中的序号，
+     * 没有写入时都为 -1。
+     */
+    public static final class Snapshot {
+        public final List<ByteBuffer> segments;
+        public final long firstSequence;
+        public final long lastSequence;
+
+        Snapshot(List<ByteBuffer> segments, long firstSequence, long lastSequence) {
+            this.segments = segments;
+            this.firstSequence = firstSequence;
+            this.lastSequence = lastSequence;
+        }
+    }
+
+    private final File directory;
+    private final long maxBytes;
+
+    private long activeNumber = -1;
+    private FileChannel activeChannel;
+    private MappedByteBuffer active;
+    private int lastIndexedPos;
+    // 上次运行未正常关闭时最后一条日志的时间，0 表示正常关闭
+    private long uncleanShutdownTimestamp = 0;
+    // 本次打开后写入的第一条和最后一条记录的序号
+    private long firstSequence = -1;
+    private long lastSequence = -1;
+
+    public LogSegmentStore(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = Math.max(maxBytes, 2L * SEGMENT_SIZE);
+    }
+
+    public synchronized void open() throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create log directory: " + directory);
+        }
+        long[] numbers = listSegments();
+        if (numbers.length > 0) {
+            long last = numbers[numbers.length - 1];
+            mapSegment(last, false);
+            if (active.getInt(H_MAGIC) == MAGIC && active.getInt(H_VERSION) == VERSION) {
+                if (active.get(H_CLEAN) == 0) {
+                    uncleanShutdownTimestamp = active.getLong(H_LAST_TS);
+                }
+                lastIndexedPos = lastIndexedPosition(active);
+                active.put(H_CLEAN, (byte) 0);
+                return;
+            }
+            Log.w(TAG, "Discarding corrupt log segment " + last);
+            closeActive();
+            new File(directory, segmentName(last)).delete();
+            mapSegment(last, true);
+        } else {
+            mapSegment(0, true);
+        }
+    }
+
+    public synchronized void close() {
+        if (active != null) {
+            active.put(H_CLEAN, (byte) 1);
+            active.force();
+            closeActive();
+        }
+    }
+
+    public synchronized long getUncleanShutdownTimestamp() {
+        return uncleanShutdownTimestamp;
+    }
+
+    /**
+     * 追加一条日志。prefix（例如实例名称）不为 null 时写在文本前面并以空格分隔，不需要先拼接字符串。
+     * sequence 为同一条日志在环形缓冲区中的序号，调用方需按序号递增的顺序追加。
+     */
+    public synchronized void append(long sequence, long timestamp, int level, int stream, String prefix,
+                                    String message) {
+        if (active == null) {
+            return;
+        }
+        int prefixLength = prefix != null ? utf8Length(prefix) + 1 : 0;
+        int length = prefixLength + utf8Length(message);
+        int maxPayload = INDEX_START - HEADER_SIZE - RECORD_HEADER_SIZE;
+        if (length > maxPayload) {
+            return;
+        }
+        int pos = active.getInt(H_WRITE_POS);
+        // 时钟回拨时也换到新分段，分段内的时间戳保持不递减
+        boolean clockStepped = pos > HEADER_SIZE && timestamp < active.getLong(H_LAST_TS);
+        if (clockStepped || pos + RECORD_HEADER_SIZE + length > INDEX_START) {
+            try {
+                rotate();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to rotate log segment", e);
+                closeActive();
+                return;
+            }
+            pos = HEADER_SIZE;
+        }
+
+        active.putInt(pos, RECORD_HEADER_SIZE + length);
+        active.putLong(pos + 4, timestamp);
+        active.put(pos + 12, (byte) level);
+        active.put(pos + 13, (byte) stream);
+        int textPos = pos + RECORD_HEADER_SIZE;
+        if (prefix != null) {
+            writeUtf8(active, textPos, prefix);
+            active.put(textPos + prefixLength - 1, (byte) ' ');
+        }
+        writeUtf8(active, textPos + prefixLength, message);
+
+        if (pos == HEADER_SIZE || pos - lastIndexedPos >= INDEX_INTERVAL) {
+            int count = active.getInt(H_INDEX_COUNT);
+            if (count < INDEX_SLOTS) {
+                int slot = INDEX_START + count * INDEX_ENTRY_SIZE;
+                active.putLong(slot, timestamp);
+                active.putInt(slot + 8, pos);
+                active.putInt(H_INDEX_COUNT, count + 1);
+                lastIndexedPos = pos;
+            }
+        }
+        if (pos == HEADER_SIZE) {
+            active.putLong(H_FIRST_TS, timestamp);
+        }
+        active.putLong(H_LAST_TS, timestamp);
+        // 最后更新写入位置，进程被杀时已提交的记录保持完整
+        active.putInt(H_WRITE_POS, pos + RECORD_HEADER_SIZE + length);
+        if (firstSequence < 0) {
+            firstSequence = sequence;
+        }
+        lastSequence = sequence;
+    }
+
+    /**
+     * 读取时间范围 [from, to] 内的日志，最多 batch 容量上限 maxRecords 条，按写入顺序返回读取的条数。
+     * 时钟回拨后的分段可能比之前的分段时间更早，因此逐个检查分段的时间范围，不在第一个超出范围的分段处停止。
+     */
+    public synchronized int query(long from, long to, int maxRecords, LogRingBuffer.Batch batch) {
+        batch.clear();
+        batch.ensureCapacity(maxRecords);
+        long[] numbers = listSegments();
+        for (int i = 0; i < numbers.length && batch.count < maxRecords; i++) {
+            ByteBuffer segment;
+            try {
+                segment = numbers[i] == activeNumber ? active.duplicate() : mapReadOnly(numbers[i]);
+            } catch (IOException e) {
+                Log.w(TAG, "Skipping unreadable log segment " + numbers[i], e);
+                continue;
+            }
+            if (segment == null || segment.getInt(H_MAGIC) != MAGIC) {
+                continue;
+            }
+            if (segment.getLong(H_LAST_TS) < from || segment.getLong(H_FIRST_TS) > to) {
+                continue;
+            }
+            scanSegment(segment, from, to, maxRecords, batch);
+        }
+        return batch.count;
+    }
+
+    /**
+     * 当前所有分段的只读视图，按写入顺序，每个视图的 limit 为取快照时已提交的写入位置。
+     * 只在列出分段时持有锁；记录只追加不修改，之后遍历视图不影响日志写入。
+     */
+    public synchronized Snapshot snapshot() {
+        List<ByteBuffer> result = new ArrayList<>();
+        for (long number : listSegments()) {
+            ByteBuffer segment;
+            try {
+                segment = number == activeNumber ? active.asReadOnlyBuffer() : mapReadOnly(number);
+            } catch (IOException e) {
+                Log.w(TAG, "Skipping unreadable log segment " + number, e);
+                continue;
+            }
+            if (segment == null || segment.getInt(H_MAGIC) != MAGIC) {
+                continue;
+            }
+            int end = segment.getInt(H_WRITE_POS);
+            if (end < HEADER_SIZE || end > INDEX_START) {
+                continue;
+            }
+            segment.limit(end);
+            result.add(segment);
+        }
+        return new Snapshot(result, firstSequence, lastSequence);
+    }
+
+    // snapshot() 返回的分段中记录的总字节数
+    static int recordBytes(ByteBuffer segment) {
+        return segment.limit() - HEADER_SIZE;
+    }
+
+    /**
+     * 按顺序遍历 snapshot() 返回的分段中的记录，文本不解码为字符串。
+     */
+    static void forEach(ByteBuffer segment, RecordVisitor visitor) throws IOException {
+        int end = segment.limit();
+        int pos = HEADER_SIZE;
+        byte[] scratch = new byte[1024];
+        while (pos + RECORD_HEADER_SIZE <= end) {
+            int length = segment.getInt(pos);
+            if (length < RECORD_HEADER_SIZE || pos + length > end) {
+                break;
+            }
+            int textLength = length - RECORD_HEADER_SIZE;
+            if (scratch.length < textLength) {
+                scratch = new byte[textLength];
+            }
+            segment.position(pos + RECORD_HEADER_SIZE);
+            segment.get(scratch, 0, textLength);
+            visitor.visit(segment.getLong(pos + 4), segment.get(pos + 12), segment.get(pos + 13), scratch, textLength);
+            pos += length;
+        }
+    }
+
+    // 分段内的时间戳不递减，超过查询结束时间后停止
+    private void scanSegment(ByteBuffer segment, long from, long to, int maxRecords,
+                                LogRingBuffer.Batch batch) {
+        int end = segment.getInt(H_WRITE_POS);
+        int pos = seek(segment, from);
+        byte[] scratch = new byte[256];
+        while (pos + RECORD_HEADER_SIZE <= end && batch.count < maxRecords) {
+            int length = segment.getInt(pos);
+            if (length < RECORD_HEADER_SIZE || pos + length > end) {
+                break;
+            }
+            long timestamp = segment.getLong(pos + 4);
+            if (timestamp > to) {
+                return;
+            }
+            if (timestamp >= from) {
+                int textLength = length - RECORD_HEADER_SIZE;
+                if (scratch.length < textLength) {
+                    scratch = new byte[textLength];
+                }
+                segment.position(pos + RECORD_HEADER_SIZE);
+                segment.get(scratch, 0, textLength);
+                batch.timestamps[batch.count] = timestamp;
+                batch.levels[batch.count] = segment.get(pos + 12);
+                batch.streams[batch.count] = segment.get(pos + 13);
+                batch.proxies[batch.count] = null;
+                batch.sources[batch.count] = null;
+                batch.messages[batch.count] = decodeUtf8(scratch, textLength);
+                batch.count++;
+            }
+            pos += length;
+        }
+    }
+
+    // 二分查找分段内的稀疏索引，返回不晚于 from 的最后一个索引点
+    private int seek(ByteBuffer segment, long from) {
+        int count = segment.getInt(H_INDEX_COUNT);
+        int lo = 0;
+        int hi = count - 1;
+        int found = HEADER_SIZE;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int slot = INDEX_START + mid * INDEX_ENTRY_SIZE;
+            if (segment.getLong(slot) <= from) {
+                found = segment.getInt(slot + 8);
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private void rotate() throws IOException {
+        active.put(H_CLEAN, (byte) 1);
+        long next = activeNumber + 1;
+        closeActive();
+        mapSegment(next, true);
+        evictOldSegments();
+    }
+
+    private void evictOldSegments() {
+        long[] numbers = listSegments();
+        long total = (long) numbers.length * SEGMENT_SIZE;
+        for (int i = 0; i < numbers.length - 1 && total > maxBytes; i++) {
+            File file = new File(directory, segmentName(numbers[i]));
+            if (file.delete()) {
+                Log.d(TAG, "Evicted log segment " + file.getName());
+                total -= SEGMENT_SIZE;
+            }
+        }
+    }
+
+    private void mapSegment(long number, boolean create) throws IOException {
+        File file = new File(directory, segmentName(number));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(SEGMENT_SIZE);
+        activeChannel = raf.getChannel();
+        active = activeChannel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        activeNumber = number;
+        if (create) {
+            active.putInt(H_MAGIC, MAGIC);
+            active.putInt(H_VERSION, VERSION);
+            active.putInt(H_WRITE_POS, HEADER_SIZE);
+            active.putInt(H_INDEX_COUNT, 0);
+            active.putLong(H_FIRST_TS, 0);
+            active.putLong(H_LAST_TS, 0);
+            active.put(H_CLEAN, (byte) 0);
+            lastIndexedPos = HEADER_SIZE;
+        }
+    }
+
+    private ByteBuffer mapReadOnly(long number) throws IOException {
+        File file = new File(directory, segmentName(number));
+        if (file.length() < SEGMENT_SIZE) {
+            return null;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, SEGMENT_SIZE);
+        } finally {
+            // 映射在关闭通道后仍然有效
+            raf.close();
+        }
+    }
+
+    private void closeActive() {
+        if (activeChannel != null) {
+            try {
+                activeChannel.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing log segment", e);
+            }
+        }
+        activeChannel = null;
+        active = null;
+        activeNumber = -1;
+    }
+
+    private static int lastIndexedPosition(ByteBuffer segment) {
+        int count = segment.getInt(H_INDEX_COUNT);
+        if (count == 0) {
+            return HEADER_SIZE;
+        }
+        return segment.getInt(INDEX_START + (count - 1) * INDEX_ENTRY_SIZE + 8);
+    }
+
+    private long[] listSegments() {
+        String[] names = directory.list();
+        if (names == null) {
+            return new long[0];
+        }
+        long[] numbers = new long[names.length];
+        int n = 0;
+        for (String name : names) {
+            if (name.endsWith(SUFFIX)) {
+                try {
+                    numbers[n++] = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                } catch (NumberFormatException ignored) {
+                    // 忽略无关文件
+                }
+            }
+        }
+        numbers = Arrays.copyOf(numbers, n);
+        Arrays.sort(numbers);
+        return numbers;
+    }
+
+    private static String segmentName(long number) {
+        return String.format("%010d", number) + SUFFIX;
+    }
+
+    private static int utf8Length(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    // 直接编码到映射缓冲区，避免 getBytes() 产生的临时数组
+    private static void writeUtf8(ByteBuffer buffer, int pos, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer.put(pos++, (byte) c);
+            } else if (c < 0x800) {
+                buffer.put(pos++, (byte) (0xC0 | (c >> 6)));
+                buffer.put(pos++, (byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put(pos++, (byte) (0xF0 | (cp >> 18)));
+                buffer.put(pos++, (byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buffer.put(pos++, (byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buffer.put(pos++, (byte) (0x80 | (cp & 0x3F)));
+            } else {
+                buffer.put(pos++, (byte) (0xE0 | (c >> 12)));
+                buffer.put(pos++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put(pos++, (byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    private static String decodeUtf8(byte[] bytes, int length) {
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
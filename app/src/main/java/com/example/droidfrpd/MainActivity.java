@@ -13,18 +13,21 @@ import android.os.IBinder;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.EditText;
+import android.widget.LinearLayout;
 import android.widget.RadioButton;
 import android.widget.TextView;
 import android.widget.Toast;
 import android.widget.CompoundButton;
 import android.widget.ToggleButton;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 public class MainActivity extends Activity {
     
@@ -35,7 +38,11 @@ public class MainActivity extends Activity {
     private Button stopButton;
     private Button importConfigButton;
     private Button editConfigButton;
+    private Button rollbackConfigButton;
     private Button viewLogsButton;
+    private Button manageInstancesButton;
+    private Button proxyStatusButton;
+    private Button metricsButton;
     private RadioButton clientModeRadio;
     private RadioButton serverModeRadio;
     private ToggleButton autoStartToggle;
@@ -48,6 +55,8 @@ public class MainActivity extends Activity {
     private static final String PREF_MODE = "mode";
     
     private String currentMode = "frpc"; // 默认为客户端模式
+    // 导入配置的目标实例
+    private String importTarget;
     
     // 服务连接用于检查服务状态
     private ServiceConnection serviceConnection = new ServiceConnection() {
@@ -57,6 +66,7 @@ public class MainActivity extends Activity {
             FRPService.LocalBinder binder = (FRPService.LocalBinder) service;
             frpService = binder.getService();
             isServiceBound = true;
+            frpService.addStateListener(stateListener);
             updateServiceStatus();
         }
 
@@ -68,6 +78,14 @@ public class MainActivity extends Activity {
         }
     };
     
+    // 实例启动、停止、就绪或崩溃时由服务推送，不需要轮询
+    private final EventDispatcher.StateListener stateListener = new EventDispatcher.StateListener() {
+        @Override
+        public void onStateChanged() {
+            updateServiceStatus();
+        }
+    };
+    
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -94,6 +112,9 @@ public class MainActivity extends Activity {
         Log.d(TAG, "onStop");
         // 解绑服务
         if (isServiceBound) {
+            if (frpService != null) {
+                frpService.removeStateListener(stateListener);
+            }
             unbindService(serviceConnection);
             isServiceBound = false;
         }
@@ -105,7 +126,11 @@ public class MainActivity extends Activity {
         stopButton = findViewById(R.id.stop_button);
         importConfigButton = findViewById(R.id.import_config_button);
         editConfigButton = findViewById(R.id.edit_config_button);
+        rollbackConfigButton = findViewById(R.id.rollback_config_button);
         viewLogsButton = findViewById(R.id.view_logs_button);
+        manageInstancesButton = findViewById(R.id.manage_instances_button);
+        proxyStatusButton = findViewById(R.id.proxy_status_button);
+        metricsButton = findViewById(R.id.metrics_button);
         clientModeRadio = findViewById(R.id.client_mode_radio);
         serverModeRadio = findViewById(R.id.server_mode_radio);
         autoStartToggle = findViewById(R.id.auto_start_toggle);
@@ -146,6 +171,14 @@ public class MainActivity extends Activity {
             }
         });
         
+        rollbackConfigButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                Log.d(TAG, "Rollback config button clicked");
+                rollbackConfigFile();
+            }
+        });
+        
         viewLogsButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
@@ -154,6 +187,30 @@ public class MainActivity extends Activity {
             }
         });
         
+        manageInstancesButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                Log.d(TAG, "Manage instances button clicked");
+                manageInstances();
+            }
+        });
+        
+        proxyStatusButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                Log.d(TAG, "Proxy status button clicked");
+                startActivity(new Intent(MainActivity.this, ProxyStatusActivity.class));
+            }
+        });
+        
+        metricsButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                Log.d(TAG, "Metrics button clicked");
+                configureMetrics();
+            }
+        });
+        
         clientModeRadio.setOnCheckedChangeListener(new RadioButton.OnCheckedChangeListener() {
             @Override
             public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
@@ -196,10 +253,21 @@ public class MainActivity extends Activity {
         Log.d(TAG, "updateServiceStatus");
         if (isServiceBound && frpService != null) {
             // 检查服务中的FRP进程是否正在运行
-            if (frpService.isRunning()) {
-                statusText.setText(frpService.getCurrentMode().toUpperCase() + " Service Running");
-            } else {
+            List<FrpInstance> instances = frpService.getInstances();
+            if (instances.isEmpty()) {
                 statusText.setText(currentMode.toUpperCase() + " Service Stopped");
+            } else if (instances.size() == 1 && instances.get(0).isRunning()) {
+                statusText.setText(instances.get(0).getName().toUpperCase() + " Service Running");
+            } else {
+                // 每个实例一行，包括退避重启和崩溃循环状态
+                StringBuilder sb = new StringBuilder();
+                for (FrpInstance instance : instances) {
+                    if (sb.length() > 0) {
+                        sb.append('\n');
+                    }
+                    sb.append(instance.getName().toUpperCase()).append(": ").append(instance.getStatusText());
+                }
+                statusText.setText(sb.toString());
             }
         } else {
             statusText.setText(currentMode.toUpperCase() + " Service Stopped");
@@ -225,21 +293,50 @@ public class MainActivity extends Activity {
     
     private void importConfigFile() {
         Log.d(TAG, "importConfigFile, mode: " + currentMode);
-        String configFileName = currentMode + ".toml";
-        
-        // 创建文件选择意图
-        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
-        intent.setType("*/*");
-        intent.addCategory(Intent.CATEGORY_OPENABLE);
-        
-        try {
-            startActivityForResult(
-                Intent.createChooser(intent, "Select Configuration File"),
-                PICK_CONFIG_FILE_REQUEST
-            );
-        } catch (android.content.ActivityNotFoundException ex) {
-            Toast.makeText(this, "Please install a file manager", Toast.LENGTH_SHORT).show();
+        chooseInstance("Import Configuration For", new InstanceAction() {
+            @Override
+            public void run(String instanceName) {
+                importTarget = instanceName;
+                
+                // 创建文件选择意图
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("*/*");
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                
+                try {
+                    startActivityForResult(
+                        Intent.createChooser(intent, "Select Configuration File"),
+                        PICK_CONFIG_FILE_REQUEST
+                    );
+                } catch (android.content.ActivityNotFoundException ex) {
+                    Toast.makeText(MainActivity.this, "Please install a file manager", Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+    }
+    
+    private interface InstanceAction {
+        void run(String instanceName);
+    }
+    
+    // 配置了多个实例时先选择要操作的实例
+    private void chooseInstance(String title, final InstanceAction action) {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        List<String> names = FRPService.parseInstanceNames(prefs.getString(FRPService.PREF_INSTANCES, ""));
+        if (names.size() <= 1) {
+            action.run(names.isEmpty() ? currentMode : names.get(0));
+            return;
         }
+        final String[] items = names.toArray(new String[names.size()]);
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(title);
+        builder.setItems(items, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                action.run(items[which]);
+            }
+        });
+        builder.show();
     }
     
     @Override
@@ -256,56 +353,239 @@ public class MainActivity extends Activity {
         }
     }
     
-    private void importConfigurationFile(Uri uri) {
-        try {
-            // 获取目标文件路径
-            String configFileName = currentMode + ".toml";
-            final File configFile = new File(getFilesDir(), configFileName);
-            final Uri finalUri = uri;
-            
-            // 显示确认对话框
-            AlertDialog.Builder builder = new AlertDialog.Builder(this);
-            builder.setTitle("Confirm Import");
-            builder.setMessage("Are you sure you want to import this configuration file? This will overwrite your current " + configFileName + " file.");
-            builder.setPositiveButton("Import", new DialogInterface.OnClickListener() {
-                @Override
-                public void onClick(DialogInterface dialog, int which) {
-                    try {
-                        // 复制文件
-                        InputStream inputStream = getContentResolver().openInputStream(finalUri);
-                        OutputStream outputStream = new FileOutputStream(configFile);
-                        
-                        byte[] buffer = new byte[1024];
-                        int length;
-                        while ((length = inputStream.read(buffer)) > 0) {
-                            outputStream.write(buffer, 0, length);
+    // 读取和校验在后台线程上进行，确认后写入同样在后台线程上进行
+    private void importConfigurationFile(final Uri uri) {
+        // 获取目标文件路径
+        final String instanceName = importTarget != null ? importTarget : currentMode;
+        final String configFileName = instanceName + ".toml";
+        final File configFile = new File(getFilesDir(), configFileName);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // 先读入内容并校验，确认后再覆盖
+                    final String content = readUri(uri);
+                    final FrpConfigValidator.Result validation = FrpConfigValidator.validate(content,
+                            FrpInstance.FRPS.equals(FrpInstance.binaryNameFor(instanceName)));
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!isFinishing()) {
+                                confirmImport(instanceName, configFile, content, validation);
+                            }
                         }
-                        
-                        inputStream.close();
-                        outputStream.close();
-                        
-                        Toast.makeText(MainActivity.this, "Configuration imported successfully", Toast.LENGTH_SHORT).show();
-                        Log.d(TAG, "Configuration imported successfully to " + configFile.getAbsolutePath());
-                    } catch (IOException e) {
-                        Log.e(TAG, "Error importing configuration file", e);
-                        Toast.makeText(MainActivity.this, "Error importing configuration: " + e.getMessage(), Toast.LENGTH_LONG).show();
-                    }
+                    });
+                } catch (final Exception e) {
+                    Log.e(TAG, "Error importing configuration file", e);
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Toast.makeText(MainActivity.this, "Error importing configuration: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                        }
+                    });
                 }
-            });
-            builder.setNegativeButton("Cancel", null);
-            builder.show();
-        } catch (Exception e) {
-            Log.e(TAG, "Error importing configuration file", e);
-            Toast.makeText(this, "Error importing configuration: " + e.getMessage(), Toast.LENGTH_LONG).show();
+            }
+        }).start();
+    }
+    
+    private void confirmImport(final String instanceName, final File configFile, final String content,
+                               FrpConfigValidator.Result validation) {
+        String message = "Are you sure you want to import this configuration file? This will overwrite your current " + configFile.getName() + " file.";
+        if (validation.hasErrors()) {
+            message = "This configuration has errors and FRP will not start with it:\n\n"
+                    + validation.describe(5) + "\n\n" + message;
+        } else if (validation.getWarningCount() > 0) {
+            message = validation.describe(5) + "\n\n" + message;
+        }
+        
+        // 显示确认对话框
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(validation.hasErrors() ? "Import Invalid Configuration?" : "Confirm Import");
+        builder.setMessage(message);
+        builder.setPositiveButton(validation.hasErrors() ? "Import Anyway" : "Import", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        String error = null;
+                        try {
+                            FrpConfigFiles.writeText(configFile, content);
+                            ConfigEditorActivity.recordHistory(getFilesDir(), instanceName, content);
+                            Log.d(TAG, "Configuration imported successfully to " + configFile.getAbsolutePath());
+                        } catch (IOException e) {
+                            Log.e(TAG, "Error importing configuration file", e);
+                            error = e.getMessage();
+                        }
+                        final String failure = error;
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (failure != null) {
+                                    Toast.makeText(MainActivity.this, "Error importing configuration: " + failure, Toast.LENGTH_LONG).show();
+                                    return;
+                                }
+                                Toast.makeText(MainActivity.this, "Configuration imported successfully", Toast.LENGTH_SHORT).show();
+                                if (isServiceBound && frpService != null) {
+                                    frpService.applyConfigChange(instanceName);
+                                }
+                            }
+                        });
+                    }
+                }).start();
+            }
+        });
+        builder.setNegativeButton("Cancel", null);
+        builder.show();
+    }
+    
+    private String readUri(Uri uri) throws IOException {
+        InputStream inputStream = getContentResolver().openInputStream(uri);
+        if (inputStream == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = inputStream.read(buffer)) > 0) {
+                out.write(buffer, 0, length);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            inputStream.close();
         }
     }
     
     private void editConfigFile() {
         Log.d(TAG, "editConfigFile, mode: " + currentMode);
-        String configFileName = currentMode + ".toml";
-        Intent intent = new Intent(this, ConfigEditorActivity.class);
-        intent.putExtra("config_file", configFileName);
-        startActivity(intent);
+        chooseInstance("Edit Configuration For", new InstanceAction() {
+            @Override
+            public void run(String instanceName) {
+                Intent intent = new Intent(MainActivity.this, ConfigEditorActivity.class);
+                intent.putExtra("config_file", instanceName + ".toml");
+                startActivity(intent);
+            }
+        });
+    }
+    
+    // 恢复最近一次达到就绪状态的配置并立即应用
+    private void rollbackConfigFile() {
+        chooseInstance("Restore Configuration For", new InstanceAction() {
+            @Override
+            public void run(final String instanceName) {
+                final File configFile = new File(getFilesDir(), instanceName + ".toml");
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        String message;
+                        boolean restored = false;
+                        try {
+                            ConfigHistory history = new ConfigHistory(getFilesDir(), instanceName);
+                            String ready = history.readReady();
+                            if (ready == null) {
+                                message = "No working configuration recorded for " + instanceName + " yet";
+                            } else if (configFile.exists() && ready.equals(FrpConfigFiles.readText(configFile))) {
+                                message = instanceName + ".toml is already the last working configuration";
+                            } else {
+                                history.rollbackToReady(configFile);
+                                restored = true;
+                                message = "Restored last working " + instanceName + ".toml";
+                            }
+                        } catch (IOException e) {
+                            Log.e(TAG, "Error restoring configuration", e);
+                            message = "Error restoring configuration: " + e.getMessage();
+                        }
+                        final String result = message;
+                        final boolean apply = restored;
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Toast.makeText(MainActivity.this, result, Toast.LENGTH_LONG).show();
+                                if (apply && isServiceBound && frpService != null) {
+                                    frpService.applyConfigChange(instanceName);
+                                }
+                            }
+                        });
+                    }
+                }).start();
+            }
+        });
+    }
+    
+    // 编辑同时运行的实例列表，例如 "frpc, frpc-backup, frps"，每个实例使用 <名称>.toml 作为配置
+    private void manageInstances() {
+        final SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        final EditText input = new EditText(this);
+        input.setSingleLine(true);
+        input.setHint(currentMode);
+        input.setText(prefs.getString(FRPService.PREF_INSTANCES, ""));
+        
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("FRP Instances");
+        builder.setMessage("Comma-separated instance names. Names starting with \"frps\" run the server, "
+                + "others run the client. Each instance uses <name>.toml. Leave empty to run only the selected mode.");
+        builder.setView(input);
+        builder.setPositiveButton("Save", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                List<String> names = FRPService.parseInstanceNames(input.getText().toString());
+                StringBuilder value = new StringBuilder();
+                for (String name : names) {
+                    if (value.length() > 0) {
+                        value.append(',');
+                    }
+                    value.append(name);
+                }
+                prefs.edit().putString(FRPService.PREF_INSTANCES, value.toString()).apply();
+                Log.d(TAG, "Instances saved: " + value);
+                Toast.makeText(MainActivity.this, "Instances saved, press Start to apply",
+                        Toast.LENGTH_SHORT).show();
+            }
+        });
+        builder.setNegativeButton("Cancel", null);
+        builder.show();
+    }
+    
+    private void configureMetrics() {
+        final SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        final EditText input = new EditText(this);
+        input.setSingleLine(true);
+        input.setHint(MetricsExporter.DEFAULT_ADDRESS + ":" + MetricsExporter.DEFAULT_PORT);
+        input.setText(prefs.getString(FRPService.PREF_METRICS_ENDPOINT, ""));
+        final CheckBox remoteLogs = new CheckBox(this);
+        remoteLogs.setText("Allow downloading logs (/logs.gz) from other devices");
+        remoteLogs.setChecked(prefs.getBoolean(FRPService.PREF_METRICS_REMOTE_LOGS, false));
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        layout.addView(input);
+        layout.addView(remoteLogs);
+        
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Metrics Exporter");
+        builder.setMessage("Address and port for the Prometheus /metrics endpoint, e.g. 0.0.0.0:"
+                + MetricsExporter.DEFAULT_PORT + " to allow scraping from the network. Leave empty to disable.\n\n"
+                + "The same port serves the full log export at /logs.gz without authentication. "
+                + "It only answers this device unless allowed below.");
+        builder.setView(layout);
+        builder.setPositiveButton("Save", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                String endpoint = input.getText().toString().trim();
+                prefs.edit()
+                        .putString(FRPService.PREF_METRICS_ENDPOINT, endpoint)
+                        .putBoolean(FRPService.PREF_METRICS_REMOTE_LOGS, remoteLogs.isChecked())
+                        .apply();
+                Log.d(TAG, "Metrics endpoint saved: " + endpoint);
+                if (isServiceBound && frpService != null) {
+                    frpService.applyMetricsSettings();
+                }
+                Toast.makeText(MainActivity.this, endpoint.isEmpty() ? "Metrics exporter disabled"
+                        : "Metrics exporter saved", Toast.LENGTH_SHORT).show();
+            }
+        });
+        builder.setNegativeButton("Cancel", null);
+        builder.show();
     }
     
     private void viewLogs() {
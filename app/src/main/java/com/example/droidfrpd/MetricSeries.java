@@ -0,0 +1,164 @@
+package com.example.droidfrpd;
+
+import java.util.Arrays;
+
+/**
+ * 紧凑的内存时间序列，多个通道共用时间轴。
+ *
+ * 两级精度：最近 FINE_SLOTS 秒每秒一个点，最近 COARSE_SLOTS 个 COARSE_SECONDS 秒的区间每区间一个点
+ * （取区间内最后一个值，适合累计计数器，也可用于连接数等瞬时值）。两级都是定长环形数组，写入不分配内存。
+ *
+ * 每个点只保存与该通道上一个点的差值（int），最新的值以 long 单独保存，读取时从最新的值往回累减；
+ * 差值超出 int 范围（例如计数器被重置）时更早的点读取为 MISSING。通道在第一次写入有效值时才分配，
+ * frpc 的代理没有流量数据，只占用一个通道。没有采样的时间点读取为 MISSING。
+ */
+class MetricSeries {
+
+    static final int FINE_SLOTS = 5 * 60;
+    static final int COARSE_SECONDS = 5 * 60;
+    static final int COARSE_SLOTS = 24 * 60 * 60 / COARSE_SECONDS;
+    static final long MISSING = Long.MIN_VALUE;
+
+    // 槽位中没有采样
+    private static final int GAP = Integer.MIN_VALUE;
+    // 有采样，但与上一个点的差值无法表示，更早的点无法还原
+    private static final int BREAK = Integer.MIN_VALUE + 1;
+
+    // 一级精度的环形数组
+    private static final class Tier {
+        final int slots;
+        final int seconds;
+        // deltas[通道][槽位]，未写入过的通道为 null
+        final int[][] deltas;
+        // 每个通道最新的值，以及当前时间点之前的最新值（当前点的差值以它为基准）
+        final long[] last;
+        final long[] base;
+        // 最新的时间点（秒或区间序号），-1 表示还没有采样
+        long stamp = -1;
+
+        Tier(int channels, int slots, int seconds) {
+            this.slots = slots;
+            this.seconds = seconds;
+            deltas = new int[channels][];
+            last = new long[channels];
+            base = new long[channels];
+        }
+
+        void record(long second, long[] values) {
+            long now = second / seconds;
+            if (now < stamp) {
+                // 时钟回拨，丢弃已有的点
+                for (int[] channel : deltas) {
+                    if (channel != null) {
+                        Arrays.fill(channel, GAP);
+                    }
+                }
+                stamp = -1;
+            }
+            if (now != stamp) {
+                // 清空跳过的时间点
+                long from = stamp < 0 ? now - slots + 1 : Math.max(stamp + 1, now - slots + 1);
+                for (int[] channel : deltas) {
+                    if (channel != null) {
+                        for (long s = from; s <= now; s++) {
+                            channel[(int) (s % slots)] = GAP;
+                        }
+                    }
+                }
+                stamp = now;
+            }
+            int slot = (int) (now % slots);
+            for (int c = 0; c < deltas.length; c++) {
+                long value = values[c];
+                if (value == MISSING) {
+                    continue;
+                }
+                int[] channel = deltas[c];
+                if (channel == null) {
+                    channel = deltas[c] = new int[slots];
+                    Arrays.fill(channel, GAP);
+                    channel[slot] = BREAK;
+                    last[c] = value;
+                    continue;
+                }
+                if (channel[slot] == GAP) {
+                    // 当前时间点的第一个采样，之前的最新值作为基准
+                    base[c] = last[c];
+                } else if (channel[slot] == BREAK) {
+                    last[c] = value;
+                    continue;
+                }
+                long delta = value - base[c];
+                channel[slot] = delta > Integer.MAX_VALUE || delta <= BREAK ? BREAK : (int) delta;
+                last[c] = value;
+            }
+        }
+
+        void read(int c, long nowSeconds, long[] out, int count) {
+            count = Math.min(count, slots);
+            long now = nowSeconds / seconds;
+            long oldest = now - count + 1;
+            int[] channel = deltas[c];
+            if (channel == null || stamp < 0) {
+                Arrays.fill(out, 0, count, MISSING);
+                return;
+            }
+            long value = last[c];
+            boolean valid = true;
+            // 从最新的点往回还原，now 早于最新点时（时钟回拨）先跳过更新的点
+            for (long s = stamp; s > stamp - slots && s >= oldest; s--) {
+                int delta = channel[(int) (s % slots)];
+                if (s <= now) {
+                    out[(int) (s - oldest)] = delta == GAP || !valid ? MISSING : value;
+                }
+                if (delta == BREAK) {
+                    valid = false;
+                } else if (delta != GAP) {
+                    value -= delta;
+                }
+            }
+            // 比最新点更新或超出保留范围的时间点
+            for (long s = Math.max(oldest, stamp + 1); s <= now; s++) {
+                out[(int) (s - oldest)] = MISSING;
+            }
+            for (long s = oldest; s <= Math.min(now, stamp - slots); s++) {
+                out[(int) (s - oldest)] = MISSING;
+            }
+        }
+    }
+
+    private final int channels;
+    private final Tier fine;
+    private final Tier coarse;
+
+    MetricSeries(int channels) {
+        this.channels = channels;
+        fine = new Tier(channels, FINE_SLOTS, 1);
+        coarse = new Tier(channels, COARSE_SLOTS, COARSE_SECONDS);
+    }
+
+    int getChannels() {
+        return channels;
+    }
+
+    // values 中为 MISSING 的通道在这个时间点没有采样
+    synchronized void record(long timeMillis, long[] values) {
+        long second = timeMillis / 1000;
+        fine.record(second, values);
+        coarse.record(second, values);
+    }
+
+    /**
+     * 把截至 nowMillis 的最近 count 秒（最多 FINE_SLOTS）复制到 out，out[0] 最旧。
+     */
+    synchronized void readSeconds(int channel, long nowMillis, long[] out, int count) {
+        fine.read(channel, nowMillis / 1000, out, count);
+    }
+
+    /**
+     * 把截至 nowMillis 的最近 count 个 COARSE_SECONDS 秒的区间（最多 COARSE_SLOTS）复制到 out，out[0] 最旧。
+     */
+    synchronized void readCoarse(int channel, long nowMillis, long[] out, int count) {
+        coarse.read(channel, nowMillis / 1000, out, count);
+    }
+}
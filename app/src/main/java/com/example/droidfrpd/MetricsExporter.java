@@ -0,0 +1,275 @@
+package com.example.droidfrpd;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 轻量的 OpenMetrics 导出端点，供 Prometheus 抓取 GET /metrics。
+ *
+ * GET /logs.gz 下载全部日志，没有认证，默认只响应本机的连接，remoteLogs 为 true 时才对网络开放。
+ *
+ * 单个后台线程依次处理请求，每个请求处理完即关闭连接。指标由 {@link Source}
+ * 写入复用的 {@link MetricsWriter}，请求头也读入复用的缓冲区，频繁抓取不会产生与指标数量相关的分配。
+ */
+class MetricsExporter {
+
+    private static final String TAG = "MetricsExporter";
+
+    static final String DEFAULT_ADDRESS = "127.0.0.1";
+    static final int DEFAULT_PORT = 9469;
+    private static final int SOCKET_TIMEOUT_MS = 2000;
+
+    private static final byte[] OK_HEADER = ascii("HTTP/1.1 200 OK\r\n"
+            + "Content-Type: application/openmetrics-text; version=1.0.0; charset=utf-8\r\n"
+            + "Connection: close\r\nContent-Length: ");
+    private static final byte[] NOT_FOUND = ascii("HTTP/1.1 404 Not Found\r\n"
+            + "Connection: close\r\nContent-Length: 0\r\n\r\n");
+    private static final byte[] GET_METRICS = ascii("GET /metrics");
+    private static final byte[] GET_LOGS = ascii("GET /logs.gz");
+    // 没有 Content-Length，关闭连接表示结束
+    private static final byte[] LOGS_HEADER = ascii("HTTP/1.1 200 OK\r\n"
+            + "Content-Type: application/gzip\r\n"
+            + "Content-Disposition: attachment; filename=\"frpd-logs.log.gz\"\r\n"
+            + "Connection: close\r\n\r\n");
+    private static final byte[] BUSY = ascii("HTTP/1.1 503 Service Unavailable\r\n"
+            + "Connection: close\r\nContent-Length: 0\r\n\r\n");
+
+    interface Source {
+        // 在导出线程上调用
+        void writeMetrics(MetricsWriter writer);
+
+        // 在日志下载线程上调用，写入 gzip 压缩的日志
+        void writeLogs(OutputStream out) throws IOException;
+    }
+
+    private final String address;
+    private final int port;
+    private final Source source;
+    private final boolean remoteLogs;
+    private final MetricsWriter writer = new MetricsWriter(16 * 1024);
+    private final byte[] request = new byte[4096];
+    private final byte[] digits = new byte[24];
+    private volatile ServerSocket serverSocket;
+    private Thread thread;
+    // 同时只处理一个日志下载
+    private final AtomicBoolean exportingLogs = new AtomicBoolean();
+
+    MetricsExporter(String address, int port, boolean remoteLogs, Source source) {
+        this.address = address;
+        this.port = port;
+        this.remoteLogs = remoteLogs;
+        this.source = source;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    String getEndpoint() {
+        return "http://" + address + ":" + port + "/metrics";
+    }
+
+    // 日志下载只对本机开放且端点没有绑定在回环地址上时，其他设备无法使用这个地址，返回 null
+    String getLogsEndpoint() {
+        if (!remoteLogs && !isLoopback(address)) {
+            return null;
+        }
+        return "http://" + address + ":" + port + "/logs.gz";
+    }
+
+    // 绑定和接受连接都在后台线程上完成
+    void start() {
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "frp-metrics");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        ServerSocket socket = serverSocket;
+        serverSocket = null;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing metrics socket", e);
+            }
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    private void serve() {
+        ServerSocket server;
+        try {
+            server = new ServerSocket();
+            server.setReuseAddress(true);
+            server.bind(new InetSocketAddress(InetAddress.getByName(address), port));
+        } catch (IOException e) {
+            Log.e(TAG, "Could not bind metrics endpoint " + address + ":" + port, e);
+            return;
+        }
+        serverSocket = server;
+        Log.i(TAG, "Serving metrics on " + getEndpoint());
+        while (serverSocket == server) {
+            final Socket client;
+            try {
+                client = server.accept();
+            } catch (SocketException e) {
+                // stop() 关闭了套接字
+                break;
+            } catch (IOException e) {
+                Log.w(TAG, "Error accepting metrics connection", e);
+                continue;
+            }
+            boolean handedOff = false;
+            try {
+                client.setSoTimeout(SOCKET_TIMEOUT_MS);
+                int length = readRequestHead(client.getInputStream());
+                if (isRequest(length, GET_LOGS) && (remoteLogs || client.getInetAddress().isLoopbackAddress())) {
+                    handedOff = serveLogs(client);
+                } else {
+                    handle(client, length);
+                }
+            } catch (IOException e) {
+                Log.d(TAG, "Metrics request failed: " + e.getMessage());
+            } finally {
+                if (!handedOff) {
+                    closeQuietly(client);
+                }
+            }
+        }
+        try {
+            server.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // 日志下载可能持续较久，在单独的线程上进行，不阻塞指标抓取；返回 true 表示连接已交给下载线程
+    private boolean serveLogs(final Socket client) throws IOException {
+        if (!exportingLogs.compareAndSet(false, true)) {
+            client.getOutputStream().write(BUSY);
+            return false;
+        }
+        Thread export = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    OutputStream out = client.getOutputStream();
+                    out.write(LOGS_HEADER);
+                    source.writeLogs(out);
+                    out.flush();
+                } catch (IOException e) {
+                    Log.d(TAG, "Log download failed: " + e.getMessage());
+                } finally {
+                    closeQuietly(client);
+                    exportingLogs.set(false);
+                }
+            }
+        }, "frp-log-download");
+        export.setDaemon(true);
+        export.setPriority(Thread.MIN_PRIORITY);
+        export.start();
+        return true;
+    }
+
+    private static boolean isLoopback(String address) {
+        return address.equals("localhost") || address.startsWith("127.") || address.equals("::1");
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private boolean isRequest(int length, byte[] prefix) {
+        return startsWith(request, length, prefix)
+                && (length == prefix.length || request[prefix.length] == ' ' || request[prefix.length] == '?');
+    }
+
+    private void handle(Socket client, int length) throws IOException {
+        OutputStream out = client.getOutputStream();
+        if (!isRequest(length, GET_METRICS)) {
+            out.write(NOT_FOUND);
+            out.flush();
+            return;
+        }
+        writer.reset();
+        source.writeMetrics(writer);
+        writer.eof();
+
+        out.write(OK_HEADER);
+        int n = formatLong(writer.length());
+        out.write(digits, 0, n);
+        out.write('\r');
+        out.write('\n');
+        out.write('\r');
+        out.write('\n');
+        out.write(writer.buffer(), 0, writer.length());
+        out.flush();
+    }
+
+    // 读取到空行为止，返回读取的字节数；超出缓冲区的部分被忽略
+    private int readRequestHead(InputStream in) throws IOException {
+        int length = 0;
+        while (true) {
+            int n = in.read(request, length, request.length - length);
+            if (n < 0) {
+                return length;
+            }
+            length += n;
+            for (int i = Math.max(3, length - n - 3); i < length; i++) {
+                if (request[i] == '\n' && request[i - 1] == '\r' && request[i - 2] == '\n' && request[i - 3] == '\r') {
+                    return length;
+                }
+            }
+            if (length == request.length) {
+                return length;
+            }
+        }
+    }
+
+    private static boolean startsWith(byte[] data, int length, byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int formatLong(long value) {
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        for (int i = 0, j = n - 1; i < j; i++, j--) {
+            byte t = digits[i];
+            digits[i] = digits[j];
+            digits[j] = t;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.droidfrpd;
+
+import java.util.Arrays;
+
+/**
+ * 把 OpenMetrics 文本直接写入复用的字节缓冲区。
+ *
+ * 名称、标签和数值逐字节写入，不生成中间字符串；缓冲区只在容量不足时扩大，
+ * 之后的每次抓取都复用同一块内存。
+ * <pre>
+ * writer.family("frp_instance_up", "gauge", "Whether the frp process is running");
+ * writer.sample("frp_instance_up").label("instance", name).value(1);
+ * </pre>
+ */
+final class MetricsWriter {
+
+    private byte[] buffer;
+    private int length;
+    private boolean inLabels;
+
+    MetricsWriter(int initialCapacity) {
+        buffer = new byte[initialCapacity];
+    }
+
+    void reset() {
+        length = 0;
+        inLabels = false;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int length() {
+        return length;
+    }
+
+    // 指标族的 TYPE 和 HELP 行
+    MetricsWriter family(String name, String type, String help) {
+        ascii("# TYPE ").ascii(name).put(' ').ascii(type).put('\n');
+        ascii("# HELP ").ascii(name).put(' ').ascii(help).put('\n');
+        return this;
+    }
+
+    MetricsWriter sample(String name) {
+        ascii(name);
+        inLabels = false;
+        return this;
+    }
+
+    // 计数器的样本名为 name_total
+    MetricsWriter counter(String name) {
+        ascii(name).ascii("_total");
+        inLabels = false;
+        return this;
+    }
+
+    MetricsWriter label(String key, String value) {
+        put(inLabels ? ',' : '{');
+        inLabels = true;
+        ascii(key).put('=').put('"');
+        escaped(value);
+        return put('"');
+    }
+
+    void value(long value) {
+        endLabels();
+        number(value);
+        put('\n');
+    }
+
+    // 毫秒值以秒为单位输出，保留三位小数
+    void millisAsSeconds(long millis) {
+        endLabels();
+        if (millis < 0) {
+            put('-');
+            millis = -millis;
+        }
+        number(millis / 1000);
+        put('.');
+        long fraction = millis % 1000;
+        put((char) ('0' + fraction / 100));
+        put((char) ('0' + fraction / 10 % 10));
+        put((char) ('0' + fraction % 10));
+        put('\n');
+    }
+
+    void eof() {
+        ascii("# EOF\n");
+    }
+
+    private void endLabels() {
+        if (inLabels) {
+            put('}');
+            inLabels = false;
+        }
+        put(' ');
+    }
+
+    private MetricsWriter put(char c) {
+        ensure(1);
+        buffer[length++] = (byte) c;
+        return this;
+    }
+
+    private MetricsWriter ascii(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            buffer[length++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    // 标签值按 UTF-8 写入，转义反斜杠、引号和换行
+    private void escaped(String s) {
+        int n = s.length();
+        ensure(n * 3 + 2);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c == '\\' || c == '"') {
+                buffer[length++] = '\\';
+                buffer[length++] = (byte) c;
+            } else if (c == '\n') {
+                buffer[length++] = '\\';
+                buffer[length++] = 'n';
+            } else if (c < 0x80) {
+                buffer[length++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[length++] = (byte) (0xC0 | (c >> 6));
+                buffer[length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // 代理对很少出现在代理名称中，用 '?' 代替
+                buffer[length++] = '?';
+            } else {
+                buffer[length++] = (byte) (0xE0 | (c >> 12));
+                buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void number(long value) {
+        ensure(20);
+        if (value == Long.MIN_VALUE) {
+            ascii("-9223372036854775808");
+            return;
+        }
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        int start = length;
+        do {
+            buffer[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        // 反转写入的数字
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte t = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = t;
+        }
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.droidfrpd;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.net.NetworkRequest;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+/**
+ * 等待网络可用：存在已验证（API 23 以下为已连接）的网络，且所有 frp 服务器地址都能解析。
+ * 不少电视盒子所在的网络无法访问 Google 的验证地址，网络永远不会被标记为已验证，
+ * 因此有互联网能力的已连接网络持续 UNVALIDATED_GRACE_MS 后也视为可用，由地址解析确认能否访问服务器。
+ *
+ * Android 5.0 以上通过 NetworkCallback 在网络变化时立即重新检查，
+ * 更早的版本按 POLL_INTERVAL_MS 轮询。
+ */
+final class NetworkReadiness {
+
+    private static final String TAG = "NetworkReadiness";
+
+    static final long DEFAULT_TIMEOUT_MS = 60 * 1000;
+    private static final long POLL_INTERVAL_MS = 500;
+    private static final long UNVALIDATED_GRACE_MS = 3000;
+
+    private static final int NETWORK_NONE = 0;
+    private static final int NETWORK_CONNECTED = 1;
+    private static final int NETWORK_VALIDATED = 2;
+
+    private final ConnectivityManager connectivity;
+    private final Object lock = new Object();
+    private boolean changed = false;
+
+    NetworkReadiness(Context context) {
+        connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    /**
+     * 阻塞直到网络就绪或超时，在后台线程调用。返回是否在超时前就绪。
+     */
+    boolean await(List<String> hosts, long timeoutMs) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+        Object callback = registerCallback();
+        // 第一次看到未验证的已连接网络的时间，0 表示当前没有
+        long connectedSince = 0;
+        try {
+            while (true) {
+                long now = SystemClock.elapsedRealtime();
+                int network = networkState();
+                if (network == NETWORK_CONNECTED) {
+                    if (connectedSince == 0) {
+                        connectedSince = now;
+                    }
+                } else {
+                    connectedSince = 0;
+                }
+                boolean usable = network == NETWORK_VALIDATED
+                        || (connectedSince != 0 && now - connectedSince >= UNVALIDATED_GRACE_MS);
+                if (usable && resolves(hosts)) {
+                    return true;
+                }
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                synchronized (lock) {
+                    if (!changed) {
+                        lock.wait(Math.min(remaining, POLL_INTERVAL_MS));
+                    }
+                    changed = false;
+                }
+            }
+        } finally {
+            unregisterCallback(callback);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private int networkState() {
+        if (connectivity == null) {
+            return NETWORK_VALIDATED;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            Network network = connectivity.getActiveNetwork();
+            NetworkCapabilities caps = network != null ? connectivity.getNetworkCapabilities(network) : null;
+            if (caps == null || !caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)) {
+                return NETWORK_NONE;
+            }
+            return caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED)
+                    ? NETWORK_VALIDATED : NETWORK_CONNECTED;
+        }
+        NetworkInfo info = connectivity.getActiveNetworkInfo();
+        return info != null && info.isConnected() ? NETWORK_VALIDATED : NETWORK_NONE;
+    }
+
+    private static boolean resolves(List<String> hosts) {
+        for (String host : hosts) {
+            try {
+                InetAddress.getByName(host);
+            } catch (UnknownHostException e) {
+                Log.d(TAG, "Cannot resolve " + host + " yet");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Object registerCallback() {
+        if (connectivity == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return null;
+        }
+        ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                signal();
+            }
+
+            @Override
+            public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+                signal();
+            }
+
+            @Override
+            public void onLinkPropertiesChanged(Network network, LinkProperties properties) {
+                signal();
+            }
+        };
+        try {
+            connectivity.registerNetworkCallback(new NetworkRequest.Builder()
+                    .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                    .build(), callback);
+            return callback;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Could not register network callback, polling instead", e);
+            return null;
+        }
+    }
+
+    private void unregisterCallback(Object callback) {
+        if (callback != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            try {
+                connectivity.unregisterNetworkCallback((ConnectivityManager.NetworkCallback) callback);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Could not unregister network callback", e);
+            }
+        }
+    }
+
+    private void signal() {
+        synchronized (lock) {
+            changed = true;
+            lock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.droidfrpd;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * frp 进程监督器。
+ *
+ * 每个进程由一个专用线程阻塞在 waitFor() 上，进程退出后立即在 handler 线程上得到通知，
+ * 然后按带抖动的指数退避安排重启。如果在 CRASH_LOOP_WINDOW_MS 内退出了 CRASH_LOOP_EXITS 次，
+ * 判定为崩溃循环，停止快速重启，等待 CRASH_LOOP_COOLDOWN_MS 后再尝试。
+ */
+class ProcessSupervisor {
+
+    private static final String TAG = "ProcessSupervisor";
+
+    static final long INITIAL_BACKOFF_MS = 1000;
+    static final long MAX_BACKOFF_MS = 60 * 1000;
+    // 进程运行超过该时间视为稳定，退避次数清零
+    static final long STABLE_UPTIME_MS = 60 * 1000;
+    static final int CRASH_LOOP_EXITS = 5;
+    static final long CRASH_LOOP_WINDOW_MS = 2 * 60 * 1000;
+    static final long CRASH_LOOP_COOLDOWN_MS = 5 * 60 * 1000;
+
+    enum State {
+        STOPPED,
+        RUNNING,
+        BACKOFF,
+        CRASH_LOOP
+    }
+
+    interface Listener {
+        // 进程意外退出，已安排好重启
+        void onProcessExit(int exitCode, long uptimeMillis);
+
+        // 进程未能启动，已安排好重试
+        void onStartFailed();
+
+        // 退避结束，需要重新启动进程
+        void onRestartDue();
+    }
+
+    private final Handler handler;
+    private final Listener listener;
+    private final Random random = new Random();
+
+    // 最近几次退出的时间（elapsedRealtime），用于检测崩溃循环
+    private final long[] recentExits = new long[CRASH_LOOP_EXITS];
+    private int recentExitIndex = 0;
+
+    private Process process;
+    private volatile boolean processAlive = false;
+    private volatile long startedAt;
+    private long exitedAt;
+    private int consecutiveFailures = 0;
+    // 指标导出线程也会读取
+    private volatile int restartCount = 0;
+    private volatile State state = State.STOPPED;
+    private long restartAt;
+
+    private final Runnable restartRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (state == State.BACKOFF || state == State.CRASH_LOOP) {
+                restartCount++;
+                listener.onRestartDue();
+            }
+        }
+    };
+
+    ProcessSupervisor(Handler handler, Listener listener) {
+        this.handler = handler;
+        this.listener = listener;
+    }
+
+    // 新进程已启动，开始监视其退出
+    void onStarted(final Process started) {
+        handler.removeCallbacks(restartRunnable);
+        process = started;
+        processAlive = true;
+        startedAt = SystemClock.elapsedRealtime();
+        if (exitedAt > 0) {
+            Log.i(TAG, "Process restarted " + (startedAt - exitedAt) + " ms after exit");
+            exitedAt = 0;
+        }
+        state = State.RUNNING;
+
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int exitCode;
+                try {
+                    exitCode = started.waitFor();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                final int code = exitCode;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onExit(started, code);
+                    }
+                });
+            }
+        }, "frp-waiter");
+        waiter.setDaemon(true);
+        waiter.start();
+    }
+
+    // 进程未能启动（二进制或配置缺失、exec 失败等）
+    void onStartFailed() {
+        process = null;
+        processAlive = false;
+        handleFailure(-1, 0, true);
+    }
+
+    // 主动停止：之后的退出不再触发重启
+    void stop() {
+        handler.removeCallbacks(restartRunnable);
+        process = null;
+        processAlive = false;
+        consecutiveFailures = 0;
+        state = State.STOPPED;
+    }
+
+    private void onExit(Process exited, int exitCode) {
+        if (exited != process) {
+            // 已被主动停止或替换的进程
+            return;
+        }
+        process = null;
+        processAlive = false;
+        long uptime = SystemClock.elapsedRealtime() - startedAt;
+        handleFailure(exitCode, uptime, false);
+    }
+
+    private void handleFailure(int exitCode, long uptime, boolean startFailed) {
+        long now = SystemClock.elapsedRealtime();
+        exitedAt = now;
+        if (uptime >= STABLE_UPTIME_MS) {
+            consecutiveFailures = 0;
+        }
+        consecutiveFailures++;
+        recentExits[recentExitIndex] = now;
+        recentExitIndex = (recentExitIndex + 1) % CRASH_LOOP_EXITS;
+
+        long delay;
+        // recentExitIndex 现在指向最早的一次退出
+        long oldest = recentExits[recentExitIndex];
+        if (oldest > 0 && now - oldest <= CRASH_LOOP_WINDOW_MS) {
+            state = State.CRASH_LOOP;
+            delay = CRASH_LOOP_COOLDOWN_MS;
+            // 冷却后重新计算窗口
+            for (int i = 0; i < recentExits.length; i++) {
+                recentExits[i] = 0;
+            }
+            Log.w(TAG, "Crash loop detected: " + CRASH_LOOP_EXITS + " exits within "
+                    + (CRASH_LOOP_WINDOW_MS / 1000) + "s");
+        } else {
+            state = State.BACKOFF;
+            delay = backoffDelay(consecutiveFailures);
+        }
+        restartAt = now + delay;
+        handler.removeCallbacks(restartRunnable);
+        handler.postDelayed(restartRunnable, delay);
+        // 回调时已处于 BACKOFF 或 CRASH_LOOP
+        if (startFailed) {
+            listener.onStartFailed();
+        } else {
+            listener.onProcessExit(exitCode, uptime);
+        }
+    }
+
+    // 指数退避，叠加 ±20% 抖动，避免多台设备同时重连
+    private long backoffDelay(int failures) {
+        long base = INITIAL_BACKOFF_MS << Math.min(failures - 1, 16);
+        base = Math.min(base, MAX_BACKOFF_MS);
+        double jitter = 0.8 + random.nextDouble() * 0.4;
+        return (long) (base * jitter);
+    }
+
+    State getState() {
+        return state;
+    }
+
+    boolean isProcessAlive() {
+        return processAlive;
+    }
+
+    int getRestartCount() {
+        return restartCount;
+    }
+
+    long getUptimeMillis() {
+        return processAlive ? SystemClock.elapsedRealtime() - startedAt : 0;
+    }
+
+    String getStatusText() {
+        switch (state) {
+            case RUNNING:
+                return "Running";
+            case BACKOFF:
+                return "Restarting in " + secondsUntilRestart() + "s (attempt " + consecutiveFailures + ")";
+            case CRASH_LOOP:
+                return "Crash loop: " + CRASH_LOOP_EXITS + " exits within " + (CRASH_LOOP_WINDOW_MS / 1000)
+                        + "s, retry in " + secondsUntilRestart() + "s";
+            default:
+                return "Stopped";
+        }
+    }
+
+    long getRestartDelayMillis() {
+        return state == State.BACKOFF || state == State.CRASH_LOOP
+                ? Math.max(0, restartAt - SystemClock.elapsedRealtime()) : 0;
+    }
+
+    private long secondsUntilRestart() {
+        return Math.max(0, (restartAt - SystemClock.elapsedRealtime() + 999) / 1000);
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.droidfrpd;
+
+/**
+ * 一个代理的最新状态和历史数据，由 {@link ProxyStatusPoller} 更新。
+ *
+ * frpc 的管理 API 只提供状态，流量和连接数只有 frps 提供，未知时为 -1。
+ */
+class ProxyStats {
+
+    // 时间序列通道
+    static final int CHANNEL_UP = 0;
+    static final int CHANNEL_TRAFFIC_IN = 1;
+    static final int CHANNEL_TRAFFIC_OUT = 2;
+    static final int CHANNEL_CONNECTIONS = 3;
+    static final int CHANNELS = 4;
+
+    final String instance;
+    final String name;
+    final MetricSeries series = new MetricSeries(CHANNELS);
+
+    volatile String type = "";
+    volatile String status = "";
+    volatile String error = "";
+    volatile String remoteAddr = "";
+    volatile boolean up;
+    volatile long trafficIn = -1;
+    volatile long trafficOut = -1;
+    volatile long connections = -1;
+    volatile long updatedAt;
+
+    ProxyStats(String instance, String name) {
+        this.instance = instance;
+        this.name = name;
+    }
+
+    boolean hasTraffic() {
+        return trafficIn >= 0;
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.droidfrpd;
+
+import android.app.Activity;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.support.v4.content.ContextCompat;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.Button;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 每个代理的状态、流量和历史折线，数据来自 FRPService 轮询的管理 API。
+ */
+public class ProxyStatusActivity extends Activity {
+    
+    private static final long REFRESH_INTERVAL_MS = 1000;
+    
+    private ListView proxyListView;
+    private TextView summaryText;
+    private TextView emptyText;
+    private Button rangeButton;
+    private ProxyAdapter adapter;
+    // false: 最近 5 分钟（每秒）；true: 最近 24 小时（每分钟）
+    private boolean showDay = false;
+    private FRPService frpService;
+    private boolean bound = false;
+    private boolean watching = false;
+    private Handler handler = new Handler();
+    
+    private ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName className, IBinder service) {
+            frpService = ((FRPService.LocalBinder) service).getService();
+            bound = true;
+            startWatching();
+        }
+        
+        @Override
+        public void onServiceDisconnected(ComponentName arg0) {
+            bound = false;
+            watching = false;
+            frpService = null;
+        }
+    };
+    
+    private final Runnable refresher = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+            handler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+    
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_proxy_status);
+        
+        proxyListView = findViewById(R.id.proxy_listview);
+        summaryText = findViewById(R.id.proxy_summary_text);
+        emptyText = findViewById(R.id.proxy_empty_text);
+        rangeButton = findViewById(R.id.proxy_range_button);
+        
+        adapter = new ProxyAdapter(this);
+        proxyListView.setAdapter(adapter);
+        proxyListView.setEmptyView(emptyText);
+        
+        rangeButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                showDay = !showDay;
+                rangeButton.setText(showDay ? "Last 24 hours" : "Last 5 minutes");
+                refresh();
+            }
+        });
+    }
+    
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // 服务未运行时没有可显示的数据，不主动启动服务
+        bindService(new Intent(this, FRPService.class), serviceConnection, 0);
+        handler.post(refresher);
+    }
+    
+    @Override
+    protected void onStop() {
+        super.onStop();
+        handler.removeCallbacks(refresher);
+        if (watching && frpService != null) {
+            frpService.removeStatusWatcher();
+        }
+        watching = false;
+        unbindService(serviceConnection);
+        bound = false;
+        frpService = null;
+    }
+    
+    private void startWatching() {
+        if (!watching && frpService != null) {
+            frpService.addStatusWatcher();
+            watching = true;
+        }
+        refresh();
+    }
+    
+    private void refresh() {
+        List<ProxyStats> stats = bound && frpService != null ? frpService.getProxyStats()
+                : new ArrayList<ProxyStats>();
+        int up = 0;
+        for (ProxyStats proxy : stats) {
+            if (proxy.up) {
+                up++;
+            }
+        }
+        StringBuilder summary = new StringBuilder(stats.isEmpty() ? "Proxy Status" : up + "/" + stats.size() + " proxies up");
+        // 各实例到服务器的连接延迟
+        List<String> instances = new ArrayList<>();
+        for (ProxyStats proxy : stats) {
+            if (!instances.contains(proxy.instance)) {
+                instances.add(proxy.instance);
+            }
+        }
+        for (String instance : instances) {
+            LatencyHistogram.Snapshot latency = frpService.getLatency(instance, null);
+            if (latency != null) {
+                summary.append('\n').append(instances.size() > 1 ? instance + " server " : "Server ")
+                        .append(latency.describe());
+            }
+        }
+        summaryText.setText(summary);
+        adapter.setStats(stats, showDay, bound ? frpService : null);
+    }
+    
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        if (bytes < 1024L * 1024 * 1024) {
+            return String.format("%.1f MB", bytes / (1024.0 * 1024));
+        }
+        return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
+    }
+    
+    private static class ProxyAdapter extends BaseAdapter {
+        
+        private final Context context;
+        private final LayoutInflater inflater;
+        private List<ProxyStats> stats = new ArrayList<>();
+        private boolean showDay;
+        private boolean multipleInstances;
+        private FRPService service;
+        // 复用的读取缓冲区
+        private static final int MAX_POINTS = Math.max(MetricSeries.FINE_SLOTS, MetricSeries.COARSE_SLOTS);
+        private final long[] in = new long[MAX_POINTS];
+        private final long[] out = new long[MAX_POINTS];
+        private final long[] points = new long[MAX_POINTS];
+        
+        ProxyAdapter(Context context) {
+            this.context = context;
+            this.inflater = LayoutInflater.from(context);
+        }
+        
+        void setStats(List<ProxyStats> stats, boolean showDay, FRPService service) {
+            this.stats = stats;
+            this.showDay = showDay;
+            this.service = service;
+            multipleInstances = false;
+            for (ProxyStats proxy : stats) {
+                if (!proxy.instance.equals(stats.get(0).instance)) {
+                    multipleInstances = true;
+                    break;
+                }
+            }
+            notifyDataSetChanged();
+        }
+        
+        @Override
+        public int getCount() {
+            return stats.size();
+        }
+        
+        @Override
+        public Object getItem(int position) {
+            return stats.get(position);
+        }
+        
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+        
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            View view = convertView;
+            if (view == null) {
+                view = inflater.inflate(R.layout.item_proxy_status, parent, false);
+                view.setFocusable(true);
+            }
+            ProxyStats proxy = stats.get(position);
+            TextView nameText = view.findViewById(R.id.proxy_name_text);
+            TextView detailText = view.findViewById(R.id.proxy_detail_text);
+            TextView trafficText = view.findViewById(R.id.proxy_traffic_text);
+            SparklineView sparkline = view.findViewById(R.id.proxy_sparkline);
+            
+            nameText.setText(multipleInstances ? proxy.instance + " / " + proxy.name : proxy.name);
+            nameText.setTextColor(ContextCompat.getColor(context, proxy.up ? R.color.proxy_up : R.color.proxy_down));
+            StringBuilder detail = new StringBuilder(proxy.type);
+            if (!proxy.remoteAddr.isEmpty()) {
+                detail.append("  ").append(proxy.remoteAddr);
+            }
+            detail.append("  ").append(proxy.status);
+            if (!proxy.error.isEmpty()) {
+                detail.append(": ").append(proxy.error);
+            }
+            LatencyHistogram.Snapshot latency = service != null ? service.getLatency(proxy.instance, proxy.name) : null;
+            if (latency != null) {
+                detail.append("\nLocal ").append(latency.describe());
+                if (!latency.hasData() && latency.lastError != null) {
+                    detail.append(": ").append(latency.lastError);
+                }
+            }
+            detailText.setText(detail);
+            
+            long now = System.currentTimeMillis();
+            int length = showDay ? MetricSeries.COARSE_SLOTS : MetricSeries.FINE_SLOTS;
+            if (proxy.hasTraffic()) {
+                trafficText.setText("In " + formatBytes(proxy.trafficIn) + "\nOut " + formatBytes(proxy.trafficOut)
+                        + "\n" + proxy.connections + " connections");
+                readRange(proxy, ProxyStats.CHANNEL_TRAFFIC_IN, now, in, length);
+                readRange(proxy, ProxyStats.CHANNEL_TRAFFIC_OUT, now, out, length);
+                // 累计流量转换为每个时间点的增量
+                points[0] = MetricSeries.MISSING;
+                for (int i = 1; i < length; i++) {
+                    points[i] = delta(in, i) == MetricSeries.MISSING || delta(out, i) == MetricSeries.MISSING
+                            ? MetricSeries.MISSING : delta(in, i) + delta(out, i);
+                }
+            } else {
+                trafficText.setText(proxy.up ? "Up" : "Down");
+                readRange(proxy, ProxyStats.CHANNEL_UP, now, points, length);
+            }
+            sparkline.setValues(points, length);
+            return view;
+        }
+        
+        private void readRange(ProxyStats proxy, int channel, long now, long[] target, int length) {
+            if (showDay) {
+                proxy.series.readCoarse(channel, now, target, length);
+            } else {
+                proxy.series.readSeconds(channel, now, target, length);
+            }
+        }
+        
+        private static long delta(long[] values, int i) {
+            if (values[i] == MetricSeries.MISSING || values[i - 1] == MetricSeries.MISSING
+                    || values[i] < values[i - 1]) {
+                return MetricSeries.MISSING;
+            }
+            return values[i] - values[i - 1];
+        }
+    }
+}
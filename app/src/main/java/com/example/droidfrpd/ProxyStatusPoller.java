@@ -0,0 +1,318 @@
+package com.example.droidfrpd;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 在后台线程上轮询 frpc 管理 API 的 /api/status 和 frps dashboard 的 /api/proxy/&lt;type&gt;，
+ * 把每个代理的状态、流量和连接数写入 {@link ProxyStats}。
+ *
+ * 轮询间隔自适应：有界面在查看时每秒一次；否则数据有变化时 IDLE_INTERVAL_MS 一次，
+ * 连续没有变化时逐步加倍到 MAX_INTERVAL_MS。
+ */
+class ProxyStatusPoller {
+
+    private static final String TAG = "ProxyStatusPoller";
+
+    static final long MIN_INTERVAL_MS = 1000;
+    static final long IDLE_INTERVAL_MS = 5000;
+    static final long MAX_INTERVAL_MS = 30 * 1000;
+
+    // 旧版 frps 没有 proxyTypeCount 时逐个查询
+    private static final String[] SERVER_PROXY_TYPES = {
+        "tcp", "udp", "http", "https", "stcp", "sudp", "xtcp", "tcpmux"
+    };
+
+    static final class Target {
+        final String instance;
+        final FrpAdminClient client;
+        final boolean server;
+
+        Target(String instance, FrpAdminClient client, boolean server) {
+            this.instance = instance;
+            this.client = client;
+            this.server = server;
+        }
+    }
+
+    private HandlerThread thread;
+    private Handler handler;
+    private volatile List<Target> targets = Collections.emptyList();
+    private volatile int watchers = 0;
+    private long interval = IDLE_INTERVAL_MS;
+    private boolean scheduled = false;
+
+    // 键为 "实例/代理"，只在轮询线程上修改，读取时加锁复制
+    private final Map<String, ProxyStats> stats = new LinkedHashMap<>();
+    // 代理集合变化时重建，读取方无需加锁或复制
+    private volatile ProxyStats[] snapshot = new ProxyStats[0];
+    private final Map<String, String> errors = new HashMap<>();
+    // 轮询线程复用
+    private final long[] sample = new long[ProxyStats.CHANNELS];
+    private final Set<String> seen = new HashSet<>();
+
+    private final Runnable pollRunnable = new Runnable() {
+        @Override
+        public void run() {
+            scheduled = false;
+            poll();
+        }
+    };
+
+    void start() {
+        thread = new HandlerThread("frp-status");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    void stop() {
+        if (thread != null) {
+            thread.quit();
+            thread = null;
+            handler = null;
+        }
+    }
+
+    // 实例启动、停止或重新加载后由服务更新
+    void setTargets(List<Target> newTargets) {
+        targets = newTargets;
+        pollSoon();
+    }
+
+    // 状态界面可见时调用，轮询加快到每秒一次
+    void addWatcher() {
+        watchers++;
+        pollSoon();
+    }
+
+    void removeWatcher() {
+        if (watchers > 0) {
+            watchers--;
+        }
+    }
+
+    List<ProxyStats> getStats() {
+        synchronized (stats) {
+            return new ArrayList<>(stats.values());
+        }
+    }
+
+    // 不分配对象的只读视图，供指标导出使用；数组本身不会被修改
+    ProxyStats[] getStatsSnapshot() {
+        return snapshot;
+    }
+
+    // 实例最近一次轮询的错误，成功时为 null
+    String getError(String instance) {
+        synchronized (stats) {
+            return errors.get(instance);
+        }
+    }
+
+    private void pollSoon() {
+        final Handler h = handler;
+        if (h == null) {
+            return;
+        }
+        h.post(new Runnable() {
+            @Override
+            public void run() {
+                h.removeCallbacks(pollRunnable);
+                scheduled = false;
+                interval = watchers > 0 ? MIN_INTERVAL_MS : IDLE_INTERVAL_MS;
+                poll();
+            }
+        });
+    }
+
+    private void poll() {
+        List<Target> current = targets;
+        long now = System.currentTimeMillis();
+        boolean changed = false;
+        seen.clear();
+        for (Target target : current) {
+            try {
+                if (target.server) {
+                    changed |= pollServer(target, now);
+                } else {
+                    changed |= pollClient(target, now);
+                }
+                setError(target.instance, null);
+            } catch (IOException | JSONException e) {
+                Log.d(TAG, "Status poll failed for " + target.instance + ": " + e.getMessage());
+                changed |= setError(target.instance, e.getMessage());
+                markInstance(target.instance);
+            }
+        }
+        changed |= removeUnseen();
+
+        if (current.isEmpty() || handler == null) {
+            return;
+        }
+        if (watchers > 0) {
+            interval = MIN_INTERVAL_MS;
+        } else if (changed) {
+            interval = IDLE_INTERVAL_MS;
+        } else {
+            interval = Math.min(interval * 2, MAX_INTERVAL_MS);
+        }
+        if (!scheduled) {
+            scheduled = true;
+            handler.postDelayed(pollRunnable, interval);
+        }
+    }
+
+    // frpc: {"tcp": [{"name": "...", "status": "running", "err": "", "remote_addr": ":6000"}], ...}
+    private boolean pollClient(Target target, long now) throws IOException, JSONException {
+        JSONObject root = new JSONObject(target.client.get("/api/status"));
+        boolean changed = false;
+        Iterator<String> types = root.keys();
+        while (types.hasNext()) {
+            String type = types.next();
+            JSONArray proxies = root.optJSONArray(type);
+            if (proxies == null) {
+                continue;
+            }
+            for (int i = 0; i < proxies.length(); i++) {
+                JSONObject proxy = proxies.getJSONObject(i);
+                String status = proxy.optString("status");
+                changed |= update(target.instance, proxy.optString("name"), type, status,
+                        proxy.optString("err"), proxy.optString("remote_addr"), "running".equals(status),
+                        -1, -1, -1, now);
+            }
+        }
+        return changed;
+    }
+
+    // frps: /api/serverinfo 中的 proxyTypeCount 决定要查询哪些类型
+    private boolean pollServer(Target target, long now) throws IOException, JSONException {
+        List<String> types = new ArrayList<>();
+        JSONObject info = new JSONObject(target.client.get("/api/serverinfo"));
+        JSONObject counts = info.optJSONObject("proxyTypeCount");
+        if (counts != null) {
+            Iterator<String> keys = counts.keys();
+            while (keys.hasNext()) {
+                String type = keys.next();
+                if (counts.optLong(type) > 0) {
+                    types.add(type);
+                }
+            }
+        } else {
+            Collections.addAll(types, SERVER_PROXY_TYPES);
+        }
+
+        boolean changed = false;
+        for (String type : types) {
+            JSONArray proxies = new JSONObject(target.client.get("/api/proxy/" + type)).optJSONArray("proxies");
+            if (proxies == null) {
+                continue;
+            }
+            for (int i = 0; i < proxies.length(); i++) {
+                JSONObject proxy = proxies.getJSONObject(i);
+                String status = proxy.optString("status");
+                JSONObject conf = proxy.optJSONObject("conf");
+                String remote = "";
+                if (conf != null) {
+                    long port = conf.optLong("remotePort", conf.optLong("remote_port", 0));
+                    remote = port > 0 ? ":" + port : "";
+                }
+                changed |= update(target.instance, proxy.optString("name"), type, status, "", remote,
+                        "online".equals(status), proxy.optLong("todayTrafficIn", proxy.optLong("today_traffic_in")),
+                        proxy.optLong("todayTrafficOut", proxy.optLong("today_traffic_out")),
+                        proxy.optLong("curConns", proxy.optLong("cur_conns")), now);
+            }
+        }
+        return changed;
+    }
+
+    private boolean update(String instance, String name, String type, String status, String error,
+                           String remoteAddr, boolean up, long in, long out, long connections, long now) {
+        String key = instance + "/" + name;
+        seen.add(key);
+        ProxyStats proxy;
+        boolean changed;
+        synchronized (stats) {
+            proxy = stats.get(key);
+            changed = proxy == null;
+            if (proxy == null) {
+                proxy = new ProxyStats(instance, name);
+                stats.put(key, proxy);
+                snapshot = stats.values().toArray(new ProxyStats[stats.size()]);
+            }
+        }
+        changed |= proxy.up != up || !status.equals(proxy.status) || !error.equals(proxy.error)
+                || proxy.trafficIn != in || proxy.trafficOut != out || proxy.connections != connections;
+        proxy.type = type;
+        proxy.status = status;
+        proxy.error = error;
+        proxy.remoteAddr = remoteAddr;
+        proxy.up = up;
+        proxy.trafficIn = in;
+        proxy.trafficOut = out;
+        proxy.connections = connections;
+        proxy.updatedAt = now;
+
+        sample[ProxyStats.CHANNEL_UP] = up ? 1 : 0;
+        // 未知的值不写入，frpc 的代理因此只占用一个通道
+        sample[ProxyStats.CHANNEL_TRAFFIC_IN] = in >= 0 ? in : MetricSeries.MISSING;
+        sample[ProxyStats.CHANNEL_TRAFFIC_OUT] = out >= 0 ? out : MetricSeries.MISSING;
+        sample[ProxyStats.CHANNEL_CONNECTIONS] = connections >= 0 ? connections : MetricSeries.MISSING;
+        proxy.series.record(now, sample);
+        return changed;
+    }
+
+    // 接口不可达时保留代理，但标记为不可用
+    private void markInstance(String instance) {
+        synchronized (stats) {
+            for (Map.Entry<String, ProxyStats> entry : stats.entrySet()) {
+                ProxyStats proxy = entry.getValue();
+                if (proxy.instance.equals(instance)) {
+                    seen.add(entry.getKey());
+                    proxy.up = false;
+                    proxy.status = "unknown";
+                }
+            }
+        }
+    }
+
+    // 删除已不存在的代理和已停止实例的代理
+    private boolean removeUnseen() {
+        boolean removed = false;
+        synchronized (stats) {
+            Iterator<String> it = stats.keySet().iterator();
+            while (it.hasNext()) {
+                if (!seen.contains(it.next())) {
+                    it.remove();
+                    removed = true;
+                }
+            }
+            if (removed) {
+                snapshot = stats.values().toArray(new ProxyStats[stats.size()]);
+            }
+        }
+        return removed;
+    }
+
+    private boolean setError(String instance, String error) {
+        synchronized (stats) {
+            String previous = error != null ? errors.put(instance, error) : errors.remove(instance);
+            return previous == null ? error != null : !previous.equals(error);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.droidfrpd;
+
+import android.os.SystemClock;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 根据 frpc 自身的日志判断实例是否就绪。
+ *
+ * "login to server success" 表示登录完成，"[代理] start proxy success" 表示该代理已启动；
+ * 登录完成且实际运行的配置中的所有代理（见 {@link FrpConfigFiles#proxyNames}）都已启动时进入 READY；
+ * frps 以 "frps started successfully" 为准。
+ * 记录每个代理从进程启动到就绪的耗时。
+ * 登录失败或代理启动失败时 frpc 会自行重试，这里只记录最近一次错误，超时后进入 TIMED_OUT，
+ * 之后仍可能变为 READY。
+ *
+ * onLogEvent 在日志收集线程上调用，其余方法可在任意线程调用。
+ */
+class ReadinessTracker {
+
+    static final long DEFAULT_TIMEOUT_MS = 30 * 1000;
+
+    enum Phase {
+        LOGGING_IN,
+        STARTING_PROXIES,
+        READY,
+        TIMED_OUT
+    }
+
+    private static final byte[] LOGIN_SUCCESS = bytes("login to server success");
+    private static final byte[] LOGIN_FAILED = bytes("login to the server failed");
+    private static final byte[] LOGIN_FAILED_OLD = bytes("login to server failed");
+    private static final byte[] PROXY_SUCCESS = bytes("start proxy success");
+    private static final byte[] PROXY_ERROR = bytes("start error");
+    private static final byte[] SERVER_STARTED = bytes("frps started successfully");
+
+    private final List<String> expectedProxies;
+    private final boolean server;
+    private final long startedAt;
+    // 已就绪的代理，按就绪顺序；只追加，方便无分配地按下标读取
+    private final List<String> readyProxies = new ArrayList<>();
+    private long[] readyProxyMillis = new long[8];
+    private Phase phase = Phase.LOGGING_IN;
+    private long loginMillis = -1;
+    private long readyMillis = -1;
+    private String lastError;
+
+    // startedAt 为进程启动时的 elapsedRealtime；server 表示跟踪的是 frps
+    ReadinessTracker(List<String> expectedProxies, long startedAt, boolean server) {
+        this.expectedProxies = expectedProxies;
+        this.server = server;
+        this.startedAt = startedAt;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 处理一行日志，只比较字节，不分配对象。返回状态是否发生了变化。
+     */
+    synchronized boolean onLogEvent(FrpLogEvent event) {
+        if (!event.structured || event.level < LogLevel.INFO) {
+            return false;
+        }
+        if (server) {
+            if (event.messageStartsWith(SERVER_STARTED)) {
+                loginMillis = elapsed();
+                return updatePhase();
+            }
+            return false;
+        }
+        String proxy = event.getProxy();
+        if (proxy != null) {
+            if (event.messageStartsWith(PROXY_SUCCESS)) {
+                boolean first = !readyProxies.contains(proxy);
+                if (first) {
+                    if (readyProxies.size() == readyProxyMillis.length) {
+                        readyProxyMillis = Arrays.copyOf(readyProxyMillis, readyProxyMillis.length * 2);
+                    }
+                    readyProxyMillis[readyProxies.size()] = elapsed();
+                    readyProxies.add(proxy);
+                }
+                return updatePhase() || first;
+            }
+            if (event.messageStartsWith(PROXY_ERROR)) {
+                lastError = proxy + ": " + event.messageString();
+            }
+            return false;
+        }
+        if (event.messageStartsWith(LOGIN_SUCCESS)) {
+            if (loginMillis < 0) {
+                loginMillis = elapsed();
+            }
+            return updatePhase();
+        }
+        if (event.messageStartsWith(LOGIN_FAILED) || event.messageStartsWith(LOGIN_FAILED_OLD)) {
+            lastError = event.messageString();
+        }
+        return false;
+    }
+
+    /**
+     * 超时检查。尚未就绪时进入 TIMED_OUT 并返回 true。
+     */
+    synchronized boolean onTimeout() {
+        if (phase == Phase.READY || phase == Phase.TIMED_OUT) {
+            return false;
+        }
+        phase = Phase.TIMED_OUT;
+        return true;
+    }
+
+    /**
+     * 日志级别高于 info 时 frpc 不输出就绪信息，只能假定进程存活即就绪。
+     */
+    synchronized boolean assumeReady() {
+        if (phase == Phase.READY) {
+            return false;
+        }
+        phase = Phase.READY;
+        readyMillis = elapsed();
+        return true;
+    }
+
+    private boolean updatePhase() {
+        Phase previous = phase;
+        if (loginMillis < 0) {
+            // 登录成功前不会出现代理启动成功，这里只是防御
+            return false;
+        }
+        if (pendingProxies() == 0) {
+            if (phase != Phase.READY) {
+                phase = Phase.READY;
+                readyMillis = elapsed();
+            }
+        } else if (phase == Phase.LOGGING_IN) {
+            phase = Phase.STARTING_PROXIES;
+        }
+        return phase != previous;
+    }
+
+    private int pendingProxies() {
+        int pending = 0;
+        for (String expected : expectedProxies) {
+            if (findReady(expected) == null) {
+                pending++;
+            }
+        }
+        return pending;
+    }
+
+    // 设置了 user 时日志中的代理名称带有 "user." 前缀
+    private Long findReady(String expected) {
+        for (int i = 0; i < readyProxies.size(); i++) {
+            String proxy = readyProxies.get(i);
+            if (proxy.equals(expected) || proxy.endsWith("." + expected)) {
+                return readyProxyMillis[i];
+            }
+        }
+        return null;
+    }
+
+    private long elapsed() {
+        return SystemClock.elapsedRealtime() - startedAt;
+    }
+
+    synchronized Phase getPhase() {
+        return phase;
+    }
+
+    synchronized boolean isReady() {
+        return phase == Phase.READY;
+    }
+
+    // 从进程启动到登录成功的毫秒数，尚未登录时为 -1
+    synchronized long getLoginMillis() {
+        return loginMillis;
+    }
+
+    // 从进程启动到就绪的毫秒数，尚未就绪时为 -1
+    synchronized long getReadyMillis() {
+        return readyMillis;
+    }
+
+    // 各代理从进程启动到就绪的毫秒数
+    synchronized Map<String, Long> getProxyReadyMillis() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < readyProxies.size(); i++) {
+            result.put(readyProxies.get(i), readyProxyMillis[i]);
+        }
+        return result;
+    }
+
+    // 按下标读取已就绪的代理，供指标导出使用，不分配对象
+    synchronized int getReadyProxyCount() {
+        return readyProxies.size();
+    }
+
+    synchronized String getReadyProxyName(int index) {
+        return readyProxies.get(index);
+    }
+
+    synchronized long getReadyProxyMillis(int index) {
+        return readyProxyMillis[index];
+    }
+
+    synchronized String getLastError() {
+        return lastError;
+    }
+
+    synchronized List<String> getPendingProxies() {
+        List<String> pending = new ArrayList<>();
+        for (String expected : expectedProxies) {
+            if (findReady(expected) == null) {
+                pending.add(expected);
+            }
+        }
+        return pending;
+    }
+
+    synchronized String getStatusText() {
+        switch (phase) {
+            case LOGGING_IN:
+                return lastError != null ? "Logging in (" + lastError + ")" : "Logging in";
+            case STARTING_PROXIES:
+                return "Starting proxies (" + (expectedProxies.size() - pendingProxies()) + "/"
+                        + expectedProxies.size() + ")";
+            case TIMED_OUT:
+                return "Not ready" + (lastError != null ? ": " + lastError : "");
+            default:
+                return "Ready";
+        }
+    }
+}
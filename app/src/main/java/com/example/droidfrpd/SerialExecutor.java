@@ -0,0 +1,54 @@
+package com.example.droidfrpd;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 按提交顺序逐个执行任务，任务在底层线程池上运行。
+ * 每个实例使用一个，同一实例的启动和停止不会交错，不同实例之间仍然并行。
+ */
+final class SerialExecutor implements Executor {
+
+    private final Executor executor;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private Runnable active;
+
+    SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized void execute(final Runnable task) {
+        tasks.offer(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    scheduleNext();
+                }
+            }
+        });
+        if (active == null) {
+            scheduleNext();
+        }
+    }
+
+    private void scheduleNext() {
+        Runnable next;
+        synchronized (this) {
+            next = active = tasks.poll();
+            if (next == null) {
+                return;
+            }
+            try {
+                executor.execute(next);
+                return;
+            } catch (RejectedExecutionException e) {
+                // 线程池已关闭（服务正在销毁），在当前线程上执行完剩下的任务，例如停止进程
+            }
+        }
+        next.run();
+    }
+}
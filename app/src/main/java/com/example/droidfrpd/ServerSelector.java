@@ -0,0 +1,365 @@
+package com.example.droidfrpd;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 在多个候选 frps 服务器中选择连接最快的一个。
+ *
+ * 候选来自配置中的 serverAddrs（新格式，字符串数组）或 [common] 中的 server_addrs（旧格式，逗号分隔），
+ * 每项为 "host" 或 "host:port"。选择时按 happy eyeballs 的方式竞速：按已知的延迟排序，
+ * 每隔 ATTEMPT_DELAY_MS 并行发起一个 TCP 连接，第一个连上的获胜；落后的连接在后台完成后
+ * 仍会记录延迟。所有候选都有 FRESH_MS 内的测量结果时直接选延迟最低的，不再测量。
+ */
+final class ServerSelector {
+
+    private static final String TAG = "ServerSelector";
+
+    // 测量结果在这段时间内视为有效，实例重启时不重新测量
+    static final long FRESH_MS = 10 * 60 * 1000;
+    // 相邻两个连接尝试之间的间隔，见 RFC 8305
+    static final long ATTEMPT_DELAY_MS = 250;
+    static final int CONNECT_TIMEOUT_MS = 3000;
+    // 当前服务器的中位延迟超过最佳候选的这一倍数且至少慢 DEGRADED_MIN_DELTA_MS 时切换
+    static final int DEGRADED_FACTOR = 2;
+    static final long DEGRADED_MIN_DELTA_MS = 50;
+
+    static final class Candidate {
+        final String host;
+        final int port;
+
+        Candidate(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        String address() {
+            return host.indexOf(':') >= 0 ? "[" + host + "]:" + port : host + ":" + port;
+        }
+
+        @Override
+        public String toString() {
+            return address();
+        }
+    }
+
+    // 一次测量，rttMicros 为 -1 表示连接失败
+    private static final class Measurement {
+        final long rttMicros;
+        final long measuredAt;
+
+        Measurement(long rttMicros, long measuredAt) {
+            this.rttMicros = rttMicros;
+            this.measuredAt = measuredAt;
+        }
+    }
+
+    // 地址 -> 最近一次测量，时间为 elapsedRealtime
+    private final Map<String, Measurement> measurements = new HashMap<>();
+    // 实例名 -> 当前选中的地址
+    private final Map<String, String> selected = new HashMap<>();
+
+    /**
+     * 配置中的候选服务器，没有配置 serverAddrs / server_addrs 时返回空列表。
+     * 没有写端口的候选使用 serverPort / server_port，默认 7000。
+     */
+    static List<Candidate> candidates(String config) {
+        List<String> items = new ArrayList<>();
+        String portValue;
+        if (FrpConfigFiles.isLegacy(config)) {
+            String list = FrpConfigFiles.findValue(config, "common", "server_addrs");
+            if (list != null) {
+                for (String item : list.split(",")) {
+                    items.add(item.trim());
+                }
+            }
+            portValue = FrpConfigFiles.findValue(config, "common", "server_port");
+        } else {
+            final List<String> values = items;
+            final String[] port = new String[1];
+            TomlParser.parse(config, new TomlParser.Handler() {
+                @Override
+                public void onTable(String path, boolean arrayTable, int line, int column) {
+                }
+
+                @Override
+                public void onValue(String key, int type, Object value, int line, int column) {
+                    if ("serverAddrs".equals(key) && value instanceof List) {
+                        for (Object item : (List<?>) value) {
+                            values.add(String.valueOf(item).trim());
+                        }
+                    } else if ("serverPort".equals(key)) {
+                        port[0] = String.valueOf(value);
+                    }
+                }
+
+                @Override
+                public void onError(int line, int column, String message) {
+                }
+            });
+            portValue = port[0];
+        }
+        int defaultPort = 7000;
+        try {
+            if (portValue != null) {
+                defaultPort = Integer.parseInt(portValue.trim());
+            }
+        } catch (NumberFormatException e) {
+            // 使用默认端口
+        }
+        List<Candidate> result = new ArrayList<>();
+        for (String item : items) {
+            Candidate candidate = item.isEmpty() ? null : parse(item, defaultPort);
+            if (candidate != null) {
+                result.add(candidate);
+            }
+        }
+        return result;
+    }
+
+    // "host"、"host:port"、"[v6]:port"，端口无效时返回 null
+    private static Candidate parse(String item, int defaultPort) {
+        String host = item;
+        String port = null;
+        if (item.startsWith("[")) {
+            int close = item.indexOf(']');
+            if (close < 0) {
+                return null;
+            }
+            host = item.substring(1, close);
+            if (item.length() > close + 1 && item.charAt(close + 1) == ':') {
+                port = item.substring(close + 2);
+            }
+        } else if (item.indexOf(':') == item.lastIndexOf(':') && item.indexOf(':') > 0) {
+            host = item.substring(0, item.indexOf(':'));
+            port = item.substring(item.indexOf(':') + 1);
+        }
+        try {
+            int value = port != null ? Integer.parseInt(port.trim()) : defaultPort;
+            return value > 0 && value <= 65535 && !host.isEmpty() ? new Candidate(host, value) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 为实例选择服务器，在后台线程上调用，可能阻塞到 CONNECT_TIMEOUT_MS。
+     * 全部连接失败时返回之前选中的或第一个候选，由 frpc 自己重试。
+     */
+    Candidate select(String instance, List<Candidate> candidates) {
+        Candidate best = bestFresh(candidates);
+        if (best == null) {
+            best = race(candidates);
+        }
+        if (best == null) {
+            String previous;
+            synchronized (this) {
+                previous = selected.get(instance);
+            }
+            best = candidates.get(0);
+            for (Candidate candidate : candidates) {
+                if (candidate.address().equals(previous)) {
+                    best = candidate;
+                }
+            }
+        }
+        synchronized (this) {
+            selected.put(instance, best.address());
+        }
+        return best;
+    }
+
+    // 当前选中的地址，没有时返回 null
+    synchronized String getSelected(String instance) {
+        return selected.get(instance);
+    }
+
+    /**
+     * 当前服务器的中位延迟（来自持续测量）明显高于其他候选时返回更好的候选，否则返回 null。
+     * 其他候选的测量过期时会先重新测量，在后台线程上调用。
+     */
+    Candidate findBetter(String instance, List<Candidate> candidates, long currentMedianMicros) {
+        String current;
+        synchronized (this) {
+            current = selected.get(instance);
+        }
+        if (current == null || candidates.size() < 2) {
+            return null;
+        }
+        List<Candidate> others = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (!candidate.address().equals(current)) {
+                others.add(candidate);
+            }
+        }
+        Candidate best = bestFresh(others);
+        if (best == null) {
+            probeAll(others);
+            best = bestFresh(others);
+        }
+        if (best == null) {
+            return null;
+        }
+        long bestMicros = rttOf(best);
+        boolean degraded = currentMedianMicros < 0
+                || (currentMedianMicros > bestMicros * DEGRADED_FACTOR
+                && currentMedianMicros - bestMicros > DEGRADED_MIN_DELTA_MS * 1000);
+        if (!degraded || bestMicros < 0) {
+            return null;
+        }
+        // 记下当前服务器的最新延迟，重启后的选择不会再选中它
+        record(current, currentMedianMicros);
+        return best;
+    }
+
+    // 所有候选都有有效测量时返回延迟最低且能连接的一个，否则返回 null
+    private Candidate bestFresh(List<Candidate> candidates) {
+        long now = SystemClock.elapsedRealtime();
+        Candidate best = null;
+        long bestMicros = Long.MAX_VALUE;
+        synchronized (this) {
+            for (Candidate candidate : candidates) {
+                Measurement measurement = measurements.get(candidate.address());
+                if (measurement == null || now - measurement.measuredAt > FRESH_MS) {
+                    return null;
+                }
+                if (measurement.rttMicros >= 0 && measurement.rttMicros < bestMicros) {
+                    best = candidate;
+                    bestMicros = measurement.rttMicros;
+                }
+            }
+        }
+        return best;
+    }
+
+    private synchronized long rttOf(Candidate candidate) {
+        Measurement measurement = measurements.get(candidate.address());
+        return measurement != null ? measurement.rttMicros : -1;
+    }
+
+    private synchronized void record(String address, long rttMicros) {
+        measurements.put(address, new Measurement(rttMicros, SystemClock.elapsedRealtime()));
+    }
+
+    // 已知延迟低的排在前面，没有测量过的按配置顺序排在最后
+    private List<Candidate> ordered(List<Candidate> candidates) {
+        List<Candidate> result = new ArrayList<>(candidates);
+        final Map<String, Long> rtts = new HashMap<>();
+        for (Candidate candidate : candidates) {
+            long rtt = rttOf(candidate);
+            rtts.put(candidate.address(), rtt >= 0 ? rtt : Long.MAX_VALUE);
+        }
+        Collections.sort(result, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate a, Candidate b) {
+                return Long.compare(rtts.get(a.address()), rtts.get(b.address()));
+            }
+        });
+        return result;
+    }
+
+    // 竞速：依次间隔 ATTEMPT_DELAY_MS 发起连接，返回第一个连上的候选，全部失败时返回 null
+    private Candidate race(List<Candidate> candidates) {
+        final List<Candidate> order = ordered(candidates);
+        final Object lock = new Object();
+        final Candidate[] winner = new Candidate[1];
+        final int[] finished = new int[1];
+        final int[] failed = new int[1];
+        for (int i = 0; i < order.size(); i++) {
+            final Candidate candidate = order.get(i);
+            final int index = i;
+            final long delay = i * ATTEMPT_DELAY_MS;
+            Thread attempt = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        synchronized (lock) {
+                            // 已经有结果时不再发起后面的连接；前面的连接都失败时不必等到间隔结束
+                            long deadline = SystemClock.elapsedRealtime() + delay;
+                            long remaining;
+                            while (winner[0] == null && failed[0] < index
+                                    && (remaining = deadline - SystemClock.elapsedRealtime()) > 0) {
+                                lock.wait(remaining);
+                            }
+                            if (winner[0] != null) {
+                                finished[0]++;
+                                lock.notifyAll();
+                                return;
+                            }
+                        }
+                        long micros = -1;
+                        try {
+                            micros = LatencyProber.connectMicros(candidate.host, candidate.port, CONNECT_TIMEOUT_MS);
+                        } catch (IOException e) {
+                            Log.d(TAG, "Candidate " + candidate + " failed: " + e.getMessage());
+                        }
+                        record(candidate.address(), micros);
+                        synchronized (lock) {
+                            if (micros >= 0 && winner[0] == null) {
+                                winner[0] = candidate;
+                            } else if (micros < 0) {
+                                failed[0]++;
+                            }
+                            finished[0]++;
+                            lock.notifyAll();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "frp-server-probe");
+            attempt.setDaemon(true);
+            attempt.start();
+        }
+        synchronized (lock) {
+            long deadline = SystemClock.elapsedRealtime() + CONNECT_TIMEOUT_MS + order.size() * ATTEMPT_DELAY_MS;
+            long remaining;
+            try {
+                while (winner[0] == null && finished[0] < order.size()
+                        && (remaining = deadline - SystemClock.elapsedRealtime()) > 0) {
+                    lock.wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return winner[0];
+        }
+    }
+
+    // 并行测量全部候选，等待全部完成或超时
+    private void probeAll(List<Candidate> candidates) {
+        List<Thread> threads = new ArrayList<>();
+        for (final Candidate candidate : candidates) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long micros = -1;
+                    try {
+                        micros = LatencyProber.connectMicros(candidate.host, candidate.port, CONNECT_TIMEOUT_MS);
+                    } catch (IOException e) {
+                        Log.d(TAG, "Candidate " + candidate + " failed: " + e.getMessage());
+                    }
+                    record(candidate.address(), micros);
+                }
+            }, "frp-server-probe");
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join(CONNECT_TIMEOUT_MS * 2);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
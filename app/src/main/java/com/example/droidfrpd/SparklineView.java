@@ -0,0 +1,81 @@
+package com.example.droidfrpd;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.support.v4.content.ContextCompat;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * 简单的折线图，用于在列表行中显示代理的流量或在线状态历史。
+ * 值为 {@link MetricSeries#MISSING} 的点断开折线。
+ */
+public class SparklineView extends View {
+
+    private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint basePaint = new Paint();
+    private final Path path = new Path();
+    private long[] values = new long[0];
+    private int count = 0;
+
+    public SparklineView(Context context) {
+        this(context, null);
+    }
+
+    public SparklineView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        float density = context.getResources().getDisplayMetrics().density;
+        linePaint.setStyle(Paint.Style.STROKE);
+        linePaint.setStrokeWidth(2 * density);
+        linePaint.setColor(ContextCompat.getColor(context, R.color.sparkline));
+        basePaint.setColor(ContextCompat.getColor(context, R.color.sparkline_base));
+        basePaint.setStrokeWidth(density);
+    }
+
+    // 复制数据并重绘；values 可以被调用方复用
+    public void setValues(long[] source, int length) {
+        if (values.length < length) {
+            values = new long[length];
+        }
+        System.arraycopy(source, 0, values, 0, length);
+        count = length;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        int height = getHeight() - getPaddingTop() - getPaddingBottom();
+        float bottom = getPaddingTop() + height;
+        canvas.drawLine(getPaddingLeft(), bottom, getPaddingLeft() + width, bottom, basePaint);
+        if (count < 2 || width <= 0 || height <= 0) {
+            return;
+        }
+        long max = 1;
+        for (int i = 0; i < count; i++) {
+            if (values[i] != MetricSeries.MISSING && values[i] > max) {
+                max = values[i];
+            }
+        }
+        path.reset();
+        boolean drawing = false;
+        float step = (float) width / (count - 1);
+        for (int i = 0; i < count; i++) {
+            if (values[i] == MetricSeries.MISSING) {
+                drawing = false;
+                continue;
+            }
+            float x = getPaddingLeft() + i * step;
+            float y = bottom - (float) values[i] / max * height;
+            if (drawing) {
+                path.lineTo(x, y);
+            } else {
+                path.moveTo(x, y);
+                drawing = true;
+            }
+        }
+        canvas.drawPath(path, linePaint);
+    }
+}
@@ -0,0 +1,254 @@
+package com.example.droidfrpd;
+
+import android.content.Context;
+import android.os.Handler;
+import android.support.v4.content.ContextCompat;
+import android.text.Editable;
+import android.text.Spanned;
+import android.text.TextWatcher;
+import android.text.style.ForegroundColorSpan;
+
+/**
+ * 编辑器中的 TOML 语法高亮。
+ *
+ * 按行着色：修改文本时只重新处理被修改的行；载入文件后的整篇着色分批在 handler 上执行，
+ * 每批处理有限的行数，大配置不会长时间占用 UI 线程。多行字符串不跨行着色。
+ */
+final class TomlHighlighter implements TextWatcher {
+
+    // 整篇着色时每批处理的行数
+    private static final int LINES_PER_BATCH = 150;
+
+    // 只移除自己添加的 span
+    private static final class TokenSpan extends ForegroundColorSpan {
+        TokenSpan(int color) {
+            super(color);
+        }
+    }
+
+    private final Handler handler;
+    private final int commentColor;
+    private final int tableColor;
+    private final int keyColor;
+    private final int stringColor;
+    private final int literalColor;
+
+    private Editable text;
+    // 整篇着色的进度，-1 表示没有待处理的部分
+    private int pendingFrom = -1;
+    // onTextChanged 记录的修改范围
+    private int dirtyStart = -1;
+    private int dirtyEnd = -1;
+
+    TomlHighlighter(Context context, Handler handler) {
+        this.handler = handler;
+        this.commentColor = ContextCompat.getColor(context, R.color.toml_comment);
+        this.tableColor = ContextCompat.getColor(context, R.color.toml_table);
+        this.keyColor = ContextCompat.getColor(context, R.color.toml_key);
+        this.stringColor = ContextCompat.getColor(context, R.color.toml_string);
+        this.literalColor = ContextCompat.getColor(context, R.color.toml_literal);
+    }
+
+    // 分批为整篇文本着色，替换之前未完成的任务
+    void highlightAll(Editable text) {
+        this.text = text;
+        pendingFrom = 0;
+        handler.removeCallbacks(batchRunnable);
+        handler.post(batchRunnable);
+    }
+
+    void cancel() {
+        pendingFrom = -1;
+        handler.removeCallbacks(batchRunnable);
+    }
+
+    private final Runnable batchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (pendingFrom < 0 || text == null) {
+                return;
+            }
+            // 编辑可能让进度落在行中间，从行首开始
+            int start = lineStart(text, Math.min(pendingFrom, text.length()));
+            int end = start;
+            for (int i = 0; i < LINES_PER_BATCH && end < text.length(); i++) {
+                end = lineEnd(text, end) + 1;
+            }
+            end = Math.min(end, text.length());
+            highlightRange(text, start, end);
+            if (end >= text.length()) {
+                pendingFrom = -1;
+            } else {
+                pendingFrom = end;
+                handler.post(this);
+            }
+        }
+    };
+
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+    }
+
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        dirtyStart = start;
+        dirtyEnd = start + count;
+        // 修改位置在尚未着色的部分之前时，进度随之移动
+        if (pendingFrom > start) {
+            pendingFrom = Math.max(start, pendingFrom + count - before);
+        }
+    }
+
+    @Override
+    public void afterTextChanged(Editable s) {
+        if (dirtyStart < 0) {
+            return;
+        }
+        text = s;
+        int start = Math.min(dirtyStart, s.length());
+        int end = Math.min(dirtyEnd, s.length());
+        dirtyStart = -1;
+        highlightRange(s, lineStart(s, start), Math.min(s.length(), lineEnd(s, end) + 1));
+    }
+
+    // 重新为 [start, end) 覆盖的整行着色
+    private void highlightRange(Editable s, int start, int end) {
+        for (TokenSpan span : s.getSpans(start, end, TokenSpan.class)) {
+            // span 不跨行，按起点判断是否属于范围内的行
+            int spanStart = s.getSpanStart(span);
+            if (spanStart >= start && spanStart < end) {
+                s.removeSpan(span);
+            }
+        }
+        int lineStart = start;
+        while (lineStart < end) {
+            int lineEnd = lineEnd(s, lineStart);
+            highlightLine(s, lineStart, Math.min(lineEnd, s.length()));
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    private void highlightLine(Editable s, int start, int end) {
+        int i = start;
+        while (i < end && (s.charAt(i) == ' ' || s.charAt(i) == '\t')) {
+            i++;
+        }
+        if (i >= end) {
+            return;
+        }
+        char first = s.charAt(i);
+        if (first == '#' || first == ';') {
+            span(s, commentColor, i, end);
+            return;
+        }
+        if (first == '[') {
+            int close = i;
+            while (close < end && s.charAt(close) != ']') {
+                close++;
+            }
+            while (close < end && s.charAt(close) == ']') {
+                close++;
+            }
+            span(s, tableColor, i, close);
+            highlightValue(s, close, end);
+            return;
+        }
+        int eq = i;
+        char quote = 0;
+        while (eq < end) {
+            char c = s.charAt(eq);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '=') {
+                break;
+            }
+            eq++;
+        }
+        if (eq >= end) {
+            return;
+        }
+        span(s, keyColor, i, eq);
+        highlightValue(s, eq + 1, end);
+    }
+
+    // 值部分：字符串、数字和布尔值、行尾注释
+    private void highlightValue(Editable s, int start, int end) {
+        int i = start;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c == '#') {
+                span(s, commentColor, i, end);
+                return;
+            }
+            if (c == '"' || c == '\'') {
+                int close = i + 1;
+                while (close < end && s.charAt(close) != c) {
+                    if (c == '"' && s.charAt(close) == '\\') {
+                        close++;
+                    }
+                    close++;
+                }
+                close = Math.min(close + 1, end);
+                span(s, stringColor, i, close);
+                i = close;
+                continue;
+            }
+            if ((c >= '0' && c <= '9') || c == '+' || c == '-' || c == 't' || c == 'f') {
+                int tokenEnd = i;
+                while (tokenEnd < end && isTokenChar(s.charAt(tokenEnd))) {
+                    tokenEnd++;
+                }
+                if (isLiteral(s, i, tokenEnd)) {
+                    span(s, literalColor, i, tokenEnd);
+                }
+                i = Math.max(tokenEnd, i + 1);
+                continue;
+            }
+            i++;
+        }
+    }
+
+    private static boolean isTokenChar(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+                || c == '_' || c == '.' || c == '+' || c == '-' || c == ':';
+    }
+
+    private static boolean isLiteral(CharSequence s, int start, int end) {
+        int length = end - start;
+        if (length == 4 && "true".contentEquals(s.subSequence(start, end))) {
+            return true;
+        }
+        if (length == 5 && "false".contentEquals(s.subSequence(start, end))) {
+            return true;
+        }
+        char c = s.charAt(start);
+        return (c >= '0' && c <= '9') || ((c == '+' || c == '-') && length > 1);
+    }
+
+    private static void span(Editable s, int color, int start, int end) {
+        if (end > start) {
+            s.setSpan(new TokenSpan(color), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+    }
+
+    private static int lineStart(CharSequence s, int offset) {
+        int i = offset;
+        while (i > 0 && s.charAt(i - 1) != '\n') {
+            i--;
+        }
+        return i;
+    }
+
+    // 行尾换行符的位置，最后一行返回文本长度
+    private static int lineEnd(CharSequence s, int offset) {
+        int i = offset;
+        while (i < s.length() && s.charAt(i) != '\n') {
+            i++;
+        }
+        return i;
+    }
+}
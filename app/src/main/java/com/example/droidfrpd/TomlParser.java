@@ -0,0 +1,760 @@
+package com.example.droidfrpd;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 流式 TOML 解析器：逐字符扫描，不构建文档树，按出现顺序回调表头和键值。
+ *
+ * 内联表展开为带前缀的键；语法错误报告行列号后跳到下一行继续，
+ * 一次解析可以报告多个错误。
+ */
+final class TomlParser {
+
+    static final int TYPE_STRING = 0;
+    static final int TYPE_INTEGER = 1;
+    static final int TYPE_FLOAT = 2;
+    static final int TYPE_BOOLEAN = 3;
+    static final int TYPE_DATETIME = 4;
+    static final int TYPE_ARRAY = 5;
+
+    static final String[] TYPE_NAMES = {"string", "integer", "float", "boolean", "datetime", "array"};
+
+    interface Handler {
+        // [table] 或 [[table]]，path 为点分隔的完整路径；行列号从 1 开始
+        void onTable(String path, boolean arrayTable, int line, int column);
+
+        // key 为包含表路径的完整点分隔路径；数组的值为 List，元素为 String/Long/Double/Boolean/List/Map
+        void onValue(String key, int type, Object value, int line, int column);
+
+        void onError(int line, int column, String message);
+    }
+
+    private final String src;
+    private final int length;
+    private final Handler handler;
+
+    private int pos = 0;
+    private int line = 1;
+    private int lineStart = 0;
+    // 最近一次读取的值的类型
+    private int valueType;
+
+    private String tablePath = "";
+    // 当前表的唯一标识，数组表带有元素序号，用于检查重复键
+    private String tableScope = "";
+    private final Set<String> definedKeys = new HashSet<>();
+    private final Set<String> definedTables = new HashSet<>();
+    private final Map<String, Integer> arrayTables = new HashMap<>();
+
+    private TomlParser(String src, Handler handler) {
+        this.src = src;
+        this.length = src.length();
+        this.handler = handler;
+    }
+
+    static void parse(String content, Handler handler) {
+        new TomlParser(content, handler).run();
+    }
+
+    // 类型检查时使用，内联表中的值
+    static int typeOf(Object value) {
+        if (value instanceof String) {
+            return TYPE_STRING;
+        } else if (value instanceof Long) {
+            return TYPE_INTEGER;
+        } else if (value instanceof Double) {
+            return TYPE_FLOAT;
+        } else if (value instanceof Boolean) {
+            return TYPE_BOOLEAN;
+        } else if (value instanceof List) {
+            return TYPE_ARRAY;
+        }
+        return TYPE_DATETIME;
+    }
+
+    private static final class SyntaxError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int line;
+        final int column;
+
+        SyntaxError(int line, int column, String message) {
+            super(message);
+            this.line = line;
+            this.column = column;
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            // 错误只用于报告位置，不需要堆栈
+            return this;
+        }
+    }
+
+    private void run() {
+        while (pos < length) {
+            skipSpaces();
+            if (pos >= length) {
+                break;
+            }
+            char c = src.charAt(pos);
+            if (c == '\n' || c == '\r') {
+                newline();
+                continue;
+            }
+            if (c == '#') {
+                skipComment();
+                continue;
+            }
+            try {
+                if (c == '[') {
+                    parseTable();
+                } else {
+                    parseKeyValue();
+                }
+                expectLineEnd();
+            } catch (SyntaxError e) {
+                handler.onError(e.line, e.column, e.getMessage());
+                skipLine();
+            }
+        }
+    }
+
+    private void parseTable() throws SyntaxError {
+        int startLine = line;
+        int startColumn = column();
+        pos++;
+        boolean array = pos < length && src.charAt(pos) == '[';
+        if (array) {
+            pos++;
+        }
+        skipSpaces();
+        String path = parseKey();
+        skipSpaces();
+        expect(']');
+        if (array) {
+            expect(']');
+        }
+
+        if (array) {
+            if (definedTables.contains(scopeOf(path))) {
+                throw new SyntaxError(startLine, startColumn, "[" + path + "] is already defined as a table");
+            }
+            Integer count = arrayTables.get(path);
+            arrayTables.put(path, count == null ? 1 : count + 1);
+        } else {
+            if (arrayTables.containsKey(path)) {
+                throw new SyntaxError(startLine, startColumn, "[" + path + "] is already defined as an array of tables");
+            }
+            if (!definedTables.add(scopeOf(path))) {
+                throw new SyntaxError(startLine, startColumn, "Duplicate table [" + path + "]");
+            }
+        }
+        tablePath = path;
+        tableScope = scopeOf(path);
+        handler.onTable(path, array, startLine, startColumn);
+    }
+
+    // 路径中每一级数组表都替换为当前元素，例如 proxies.plugin -> proxies#3.plugin
+    private String scopeOf(String path) {
+        if (arrayTables.isEmpty()) {
+            return path;
+        }
+        StringBuilder scope = new StringBuilder(path.length() + 8);
+        int start = 0;
+        while (start <= path.length()) {
+            int dot = path.indexOf('.', start);
+            int end = dot < 0 ? path.length() : dot;
+            Integer count = arrayTables.get(path.substring(0, end));
+            scope.append(path, start, end);
+            if (count != null) {
+                scope.append('#').append(count);
+            }
+            if (dot < 0) {
+                break;
+            }
+            scope.append('.');
+            start = dot + 1;
+        }
+        return scope.toString();
+    }
+
+    private void parseKeyValue() throws SyntaxError {
+        int startLine = line;
+        int startColumn = column();
+        String key = parseKey();
+        skipSpaces();
+        if (pos >= length || src.charAt(pos) != '=') {
+            throw new SyntaxError(line, column(), "Expected '=' after key '" + key + "'");
+        }
+        pos++;
+        skipSpaces();
+        parseValue(key, startLine, startColumn);
+    }
+
+    // key 为相对当前表的路径
+    private void parseValue(String key, int startLine, int startColumn) throws SyntaxError {
+        if (!definedKeys.add(tableScope + '\u0000' + key)) {
+            throw new SyntaxError(startLine, startColumn, "Duplicate key '" + key + "'");
+        }
+        if (pos < length && src.charAt(pos) == '{') {
+            parseInlineTable(key);
+            return;
+        }
+        Object value = readValue();
+        handler.onValue(tablePath.isEmpty() ? key : tablePath + "." + key, valueType, value, startLine, startColumn);
+    }
+
+    // 值位置上的内联表：逐个键展开回调
+    private void parseInlineTable(String prefix) throws SyntaxError {
+        pos++;
+        skipSpaces();
+        if (pos < length && src.charAt(pos) == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            int keyLine = line;
+            int keyColumn = column();
+            String key = parseKey();
+            skipSpaces();
+            expect('=');
+            skipSpaces();
+            parseValue(prefix + "." + key, keyLine, keyColumn);
+            skipSpaces();
+            if (pos < length && src.charAt(pos) == ',') {
+                pos++;
+                skipSpaces();
+                continue;
+            }
+            expect('}');
+            return;
+        }
+    }
+
+    private String parseKey() throws SyntaxError {
+        StringBuilder key = null;
+        String first = null;
+        while (true) {
+            String part = parseSimpleKey();
+            if (first == null) {
+                first = part;
+            } else {
+                if (key == null) {
+                    key = new StringBuilder(first);
+                }
+                key.append('.').append(part);
+            }
+            skipSpaces();
+            if (pos < length && src.charAt(pos) == '.') {
+                pos++;
+                skipSpaces();
+                continue;
+            }
+            return key == null ? first : key.toString();
+        }
+    }
+
+    private String parseSimpleKey() throws SyntaxError {
+        if (pos >= length) {
+            throw new SyntaxError(line, column(), "Expected a key");
+        }
+        char c = src.charAt(pos);
+        if (c == '"') {
+            return readBasicString();
+        }
+        if (c == '\'') {
+            return readLiteralString();
+        }
+        int start = pos;
+        while (pos < length && isBareKeyChar(src.charAt(pos))) {
+            pos++;
+        }
+        if (pos == start) {
+            throw new SyntaxError(line, column(), "Unexpected character '" + c + "', expected a key");
+        }
+        return src.substring(start, pos);
+    }
+
+    private static boolean isBareKeyChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-';
+    }
+
+    private Object readValue() throws SyntaxError {
+        if (pos >= length) {
+            throw new SyntaxError(line, column(), "Expected a value");
+        }
+        char c = src.charAt(pos);
+        switch (c) {
+            case '"':
+                valueType = TYPE_STRING;
+                return src.startsWith("\"\"\"", pos) ? readMultilineBasicString() : readBasicString();
+            case '\'':
+                valueType = TYPE_STRING;
+                return src.startsWith("'''", pos) ? readMultilineLiteralString() : readLiteralString();
+            case '[':
+                return readArray();
+            case '{':
+                return readInlineTableValue();
+            default:
+                return readScalar();
+        }
+    }
+
+    private List<Object> readArray() throws SyntaxError {
+        pos++;
+        List<Object> values = new ArrayList<>();
+        while (true) {
+            skipWhitespaceAndComments();
+            if (pos >= length) {
+                throw new SyntaxError(line, column(), "Unterminated array");
+            }
+            if (src.charAt(pos) == ']') {
+                pos++;
+                break;
+            }
+            values.add(readValue());
+            skipWhitespaceAndComments();
+            if (pos < length && src.charAt(pos) == ',') {
+                pos++;
+            } else if (pos < length && src.charAt(pos) == ']') {
+                pos++;
+                break;
+            } else {
+                throw new SyntaxError(line, column(), "Expected ',' or ']' in array");
+            }
+        }
+        valueType = TYPE_ARRAY;
+        return values;
+    }
+
+    // 数组中的内联表，例如 allowPorts = [{ start = 2000, end = 3000 }]
+    private Map<String, Object> readInlineTableValue() throws SyntaxError {
+        pos++;
+        Map<String, Object> table = new LinkedHashMap<>();
+        skipSpaces();
+        if (pos < length && src.charAt(pos) == '}') {
+            pos++;
+            return table;
+        }
+        while (true) {
+            int keyLine = line;
+            int keyColumn = column();
+            String key = parseKey();
+            skipSpaces();
+            expect('=');
+            skipSpaces();
+            if (table.put(key, readValue()) != null) {
+                throw new SyntaxError(keyLine, keyColumn, "Duplicate key '" + key + "'");
+            }
+            skipSpaces();
+            if (pos < length && src.charAt(pos) == ',') {
+                pos++;
+                skipSpaces();
+                continue;
+            }
+            expect('}');
+            return table;
+        }
+    }
+
+    private String readBasicString() throws SyntaxError {
+        int startColumn = column();
+        pos++;
+        int start = pos;
+        // 没有转义时直接截取
+        while (pos < length) {
+            char c = src.charAt(pos);
+            if (c == '"') {
+                return src.substring(start, pos++);
+            }
+            if (c == '\\') {
+                break;
+            }
+            if (c == '\n' || c == '\r') {
+                throw new SyntaxError(line, startColumn, "Unterminated string");
+            }
+            pos++;
+        }
+        StringBuilder sb = new StringBuilder(src.substring(start, pos));
+        while (pos < length) {
+            char c = src.charAt(pos);
+            if (c == '"') {
+                pos++;
+                return sb.toString();
+            }
+            if (c == '\n' || c == '\r') {
+                break;
+            }
+            if (c == '\\') {
+                readEscape(sb);
+            } else {
+                sb.append(c);
+                pos++;
+            }
+        }
+        throw new SyntaxError(line, startColumn, "Unterminated string");
+    }
+
+    private String readMultilineBasicString() throws SyntaxError {
+        int startLine = line;
+        int startColumn = column();
+        pos += 3;
+        skipFirstNewline();
+        StringBuilder sb = new StringBuilder();
+        while (pos < length) {
+            char c = src.charAt(pos);
+            if (c == '"' && src.startsWith("\"\"\"", pos)) {
+                pos += 3;
+                // 结束符前最多可以有两个引号
+                while (pos < length && src.charAt(pos) == '"') {
+                    sb.append('"');
+                    pos++;
+                }
+                return sb.toString();
+            }
+            if (c == '\\') {
+                int next = pos + 1;
+                while (next < length && (src.charAt(next) == ' ' || src.charAt(next) == '\t')) {
+                    next++;
+                }
+                if (next < length && (src.charAt(next) == '\n' || src.charAt(next) == '\r')) {
+                    // 行尾反斜杠：去掉换行和下一行开头的空白
+                    pos = next;
+                    skipWhitespaceAndNewlines();
+                    continue;
+                }
+                readEscape(sb);
+                continue;
+            }
+            if (c == '\n') {
+                sb.append('\n');
+                newline();
+                continue;
+            }
+            sb.append(c);
+            pos++;
+        }
+        throw new SyntaxError(startLine, startColumn, "Unterminated multi-line string");
+    }
+
+    private String readLiteralString() throws SyntaxError {
+        int startColumn = column();
+        int start = ++pos;
+        while (pos < length) {
+            char c = src.charAt(pos);
+            if (c == '\'') {
+                return src.substring(start, pos++);
+            }
+            if (c == '\n' || c == '\r') {
+                break;
+            }
+            pos++;
+        }
+        throw new SyntaxError(line, startColumn, "Unterminated string");
+    }
+
+    private String readMultilineLiteralString() throws SyntaxError {
+        int startLine = line;
+        int startColumn = column();
+        pos += 3;
+        skipFirstNewline();
+        StringBuilder sb = new StringBuilder();
+        while (pos < length) {
+            char c = src.charAt(pos);
+            if (c == '\'' && src.startsWith("'''", pos)) {
+                pos += 3;
+                while (pos < length && src.charAt(pos) == '\'') {
+                    sb.append('\'');
+                    pos++;
+                }
+                return sb.toString();
+            }
+            if (c == '\n') {
+                sb.append('\n');
+                newline();
+                continue;
+            }
+            sb.append(c);
+            pos++;
+        }
+        throw new SyntaxError(startLine, startColumn, "Unterminated multi-line string");
+    }
+
+    // 紧跟在开头引号后的换行不属于字符串内容
+    private void skipFirstNewline() {
+        if (src.startsWith("\r\n", pos) || (pos < length && src.charAt(pos) == '\n')) {
+            newline();
+        }
+    }
+
+    private void readEscape(StringBuilder sb) throws SyntaxError {
+        int escapeColumn = column();
+        pos++;
+        if (pos >= length) {
+            throw new SyntaxError(line, escapeColumn, "Invalid escape sequence");
+        }
+        char c = src.charAt(pos++);
+        switch (c) {
+            case 'b':
+                sb.append('\b');
+                return;
+            case 't':
+                sb.append('\t');
+                return;
+            case 'n':
+                sb.append('\n');
+                return;
+            case 'f':
+                sb.append('\f');
+                return;
+            case 'r':
+                sb.append('\r');
+                return;
+            case 'e':
+                sb.append('\u001b');
+                return;
+            case '"':
+                sb.append('"');
+                return;
+            case '\\':
+                sb.append('\\');
+                return;
+            case 'u':
+            case 'U':
+                int digits = c == 'u' ? 4 : 8;
+                if (pos + digits > length) {
+                    throw new SyntaxError(line, escapeColumn, "Invalid unicode escape");
+                }
+                try {
+                    int codePoint = Integer.parseInt(src.substring(pos, pos + digits), 16);
+                    sb.appendCodePoint(codePoint);
+                } catch (IllegalArgumentException e) {
+                    throw new SyntaxError(line, escapeColumn, "Invalid unicode escape");
+                }
+                pos += digits;
+                return;
+            default:
+                throw new SyntaxError(line, escapeColumn, "Invalid escape sequence '\\" + c + "'");
+        }
+    }
+
+    // 布尔、数字和日期时间
+    private Object readScalar() throws SyntaxError {
+        int startColumn = column();
+        int start = pos;
+        while (pos < length && !isValueEnd(src.charAt(pos))) {
+            pos++;
+        }
+        // 日期和时间之间可以用空格分隔，例如 1979-05-27 07:32:00
+        if (pos - start == 10 && src.charAt(start + 4) == '-' && pos + 2 < length && src.charAt(pos) == ' '
+                && isDigit(src.charAt(pos + 1)) && isDigit(src.charAt(pos + 2))) {
+            pos++;
+            while (pos < length && !isValueEnd(src.charAt(pos))) {
+                pos++;
+            }
+        }
+        String token = src.substring(start, pos);
+        if (token.isEmpty()) {
+            throw new SyntaxError(line, startColumn, "Expected a value");
+        }
+        if ("true".equals(token) || "false".equals(token)) {
+            valueType = TYPE_BOOLEAN;
+            return "true".equals(token);
+        }
+        if ("inf".equals(token) || "+inf".equals(token) || "-inf".equals(token)) {
+            valueType = TYPE_FLOAT;
+            return token.charAt(0) == '-' ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+        if ("nan".equals(token) || "+nan".equals(token) || "-nan".equals(token)) {
+            valueType = TYPE_FLOAT;
+            return Double.NaN;
+        }
+        if (isDateTime(token)) {
+            valueType = TYPE_DATETIME;
+            return token;
+        }
+        Object number = parseNumber(token);
+        if (number == null) {
+            throw new SyntaxError(line, startColumn, "Invalid value '" + token + "' (strings must be quoted)");
+        }
+        return number;
+    }
+
+    private Object parseNumber(String token) throws SyntaxError {
+        int startColumn = column() - token.length();
+        String digits = token;
+        if (digits.length() > 2 && digits.charAt(0) == '0' && "xob".indexOf(digits.charAt(1)) >= 0) {
+            int radix = digits.charAt(1) == 'x' ? 16 : digits.charAt(1) == 'o' ? 8 : 2;
+            String body = stripUnderscores(digits.substring(2));
+            if (body == null) {
+                return null;
+            }
+            try {
+                valueType = TYPE_INTEGER;
+                return Long.parseLong(body, radix);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        String body = stripUnderscores(digits);
+        if (body == null || body.isEmpty()) {
+            return null;
+        }
+        int first = body.charAt(0) == '+' || body.charAt(0) == '-' ? 1 : 0;
+        if (first >= body.length() || !isDigit(body.charAt(first))) {
+            return null;
+        }
+        boolean isFloat = body.indexOf('.') >= 0 || body.indexOf('e') >= 0 || body.indexOf('E') >= 0;
+        // 整数部分不能有前导零
+        if (body.length() > first + 1 && body.charAt(first) == '0' && isDigit(body.charAt(first + 1))) {
+            return null;
+        }
+        for (int i = first; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (!isDigit(c) && !(isFloat && (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-'))) {
+                return null;
+            }
+        }
+        try {
+            if (isFloat) {
+                if (body.endsWith(".") || body.contains(".e") || body.contains(".E")) {
+                    return null;
+                }
+                valueType = TYPE_FLOAT;
+                return Double.parseDouble(body);
+            }
+            valueType = TYPE_INTEGER;
+            return Long.parseLong(body.charAt(0) == '+' ? body.substring(1) : body);
+        } catch (NumberFormatException e) {
+            if (!isFloat) {
+                throw new SyntaxError(line, startColumn, "Integer out of range: " + token);
+            }
+            return null;
+        }
+    }
+
+    // 下划线只能出现在两个数字之间，不合法时返回 null
+    private static String stripUnderscores(String token) {
+        if (token.indexOf('_') < 0) {
+            return token;
+        }
+        StringBuilder sb = new StringBuilder(token.length());
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c == '_') {
+                if (i == 0 || i == token.length() - 1 || !Character.isLetterOrDigit(token.charAt(i - 1))
+                        || !Character.isLetterOrDigit(token.charAt(i + 1))) {
+                    return null;
+                }
+                continue;
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    // 粗略识别 RFC 3339 日期、时间或日期时间
+    private static boolean isDateTime(String token) {
+        if (token.length() >= 10 && isDigit(token.charAt(0)) && token.charAt(4) == '-' && token.charAt(7) == '-') {
+            return true;
+        }
+        return token.length() >= 8 && isDigit(token.charAt(0)) && token.charAt(2) == ':' && token.charAt(5) == ':';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isValueEnd(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == ',' || c == ']' || c == '}' || c == '#';
+    }
+
+    private void expect(char expected) throws SyntaxError {
+        if (pos >= length || src.charAt(pos) != expected) {
+            throw new SyntaxError(line, column(), "Expected '" + expected + "'");
+        }
+        pos++;
+    }
+
+    // 值之后只能是注释或换行
+    private void expectLineEnd() throws SyntaxError {
+        skipSpaces();
+        if (pos >= length) {
+            return;
+        }
+        char c = src.charAt(pos);
+        if (c == '#') {
+            skipComment();
+        } else if (c != '\n' && c != '\r') {
+            throw new SyntaxError(line, column(), "Unexpected '" + c + "' after value");
+        }
+    }
+
+    private int column() {
+        return pos - lineStart + 1;
+    }
+
+    private void newline() {
+        if (src.charAt(pos) == '\r' && pos + 1 < length && src.charAt(pos + 1) == '\n') {
+            pos++;
+        }
+        pos++;
+        line++;
+        lineStart = pos;
+    }
+
+    private void skipSpaces() {
+        while (pos < length) {
+            char c = src.charAt(pos);
+            if (c != ' ' && c != '\t') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private void skipComment() {
+        while (pos < length && src.charAt(pos) != '\n' && src.charAt(pos) != '\r') {
+            pos++;
+        }
+    }
+
+    private void skipLine() {
+        skipComment();
+        if (pos < length) {
+            newline();
+        }
+    }
+
+    private void skipWhitespaceAndNewlines() {
+        while (pos < length) {
+            char c = src.charAt(pos);
+            if (c == '\n' || c == '\r') {
+                newline();
+            } else if (c == ' ' || c == '\t') {
+                pos++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    // 数组内可以换行和注释
+    private void skipWhitespaceAndComments() {
+        while (true) {
+            skipWhitespaceAndNewlines();
+            if (pos < length && src.charAt(pos) == '#') {
+                skipComment();
+            } else {
+                return;
+            }
+        }
+    }
+}
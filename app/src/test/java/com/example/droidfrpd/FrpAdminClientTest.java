@@ -0,0 +1,123 @@
+package com.example.droidfrpd;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 用本地的 ServerSocket 代替 frpc 的管理 API。
+ */
+public class FrpAdminClientTest {
+
+    private ServerSocket server;
+    private Thread serverThread;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private volatile String response;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+        serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!server.isClosed()) {
+                    try (Socket socket = server.accept()) {
+                        BufferedReader in = new BufferedReader(
+                                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                        requests.add(in.readLine());
+                        String line;
+                        while ((line = in.readLine()) != null && !line.isEmpty()) {
+                            // 跳过请求头
+                        }
+                        OutputStream out = socket.getOutputStream();
+                        out.write(response.getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        serverThread.start();
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        server.close();
+        serverThread.join(5000);
+    }
+
+    private static String httpResponse(int code, String status, String body) {
+        return "HTTP/1.1 " + code + " " + status + "\r\nContent-Length: " + body.length()
+                + "\r\nConnection: close\r\n\r\n" + body;
+    }
+
+    private FrpAdminClient client() {
+        return new FrpAdminClient("http://127.0.0.1:" + server.getLocalPort() + "/", null, null);
+    }
+
+    @Test
+    public void reloadSuccess() throws IOException {
+        response = httpResponse(200, "OK", "");
+        client().reload();
+        assertEquals("GET /api/reload HTTP/1.1", requests.get(0));
+    }
+
+    @Test
+    public void reloadFailureReportsStatusAndBody() {
+        response = httpResponse(500, "Internal Server Error", "reload frpc proxy config error: bad type");
+        try {
+            client().reload();
+            fail("reload should fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("HTTP 500"));
+            assertTrue(e.getMessage(), e.getMessage().contains("bad type"));
+        }
+    }
+
+    @Test
+    public void getReturnsBody() throws IOException {
+        response = httpResponse(200, "OK", "{\"tcp\":[]}\n");
+        assertEquals("{\"tcp\":[]}", client().get("/api/status"));
+        assertEquals("GET /api/status HTTP/1.1", requests.get(0));
+    }
+
+    @Test
+    public void unreachableAdminApiFails() throws IOException {
+        int port;
+        try (ServerSocket closed = new ServerSocket(0)) {
+            port = closed.getLocalPort();
+        }
+        try {
+            new FrpAdminClient("http://127.0.0.1:" + port, null, null).reload();
+            fail("reload should fail");
+        } catch (IOException expected) {
+            // 连接被拒绝
+        }
+    }
+
+    @Test
+    public void fromConfig() {
+        assertNull(FrpAdminClient.fromConfig("serverAddr = \"x\"\n"));
+        assertNotNull(FrpAdminClient.fromConfig("webServer.port = 7400\n"));
+        assertNotNull(FrpAdminClient.fromConfig("[webServer]\naddr = \"0.0.0.0\"\nport = 7400\n"));
+        assertNotNull(FrpAdminClient.fromConfig("[common]\nadmin_port = 7400\n"));
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.droidfrpd;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrpConfigDiffTest {
+
+    private static final String CONFIG = "serverAddr = \"example.com\"\n"
+            + "serverPort = 7000\n"
+            + "webServer.port = 7400\n"
+            + "\n"
+            + "[[proxies]]\n"
+            + "name = \"ssh\"\n"
+            + "type = \"tcp\"\n"
+            + "localPort = 22\n"
+            + "remotePort = 6000\n";
+
+    @Test
+    public void commentsAndWhitespaceAreNoChange() {
+        String edited = "# my server\n" + CONFIG.replace("serverPort = 7000", "  serverPort = 7000   # default")
+                .replace("\n\n", "\n\n\n");
+        assertEquals(FrpConfigDiff.Change.NONE, FrpConfigDiff.classify(CONFIG, edited));
+    }
+
+    @Test
+    public void proxyChangesAreProxiesOnly() {
+        assertEquals(FrpConfigDiff.Change.PROXIES_ONLY,
+                FrpConfigDiff.classify(CONFIG, CONFIG.replace("remotePort = 6000", "remotePort = 6001")));
+        String added = CONFIG + "\n[[proxies]]\nname = \"web\"\ntype = \"http\"\nlocalPort = 80\n"
+                + "[proxies.plugin]\ntype = \"static_file\"\n";
+        assertEquals(FrpConfigDiff.Change.PROXIES_ONLY, FrpConfigDiff.classify(CONFIG, added));
+        String visitor = CONFIG + "\n[[visitors]]\nname = \"v\"\ntype = \"stcp\"\nserverName = \"ssh\"\n";
+        assertEquals(FrpConfigDiff.Change.PROXIES_ONLY, FrpConfigDiff.classify(CONFIG, visitor));
+    }
+
+    @Test
+    public void commonChangesAreFull() {
+        assertEquals(FrpConfigDiff.Change.FULL,
+                FrpConfigDiff.classify(CONFIG, CONFIG.replace("serverPort = 7000", "serverPort = 7001")));
+        // 公共部分和代理同时修改也需要重启
+        assertEquals(FrpConfigDiff.Change.FULL, FrpConfigDiff.classify(CONFIG,
+                CONFIG.replace("7400", "7500").replace("remotePort = 6000", "remotePort = 6001")));
+        assertEquals(FrpConfigDiff.Change.FULL,
+                FrpConfigDiff.classify(CONFIG, "log.level = \"debug\"\n" + CONFIG));
+    }
+
+    @Test
+    public void legacySectionsOtherThanCommonAreProxies() {
+        String legacy = "[common]\nserver_addr = example.com\nadmin_port = 7400\n\n[ssh]\ntype = tcp\nlocal_port = 22\n";
+        assertEquals(FrpConfigDiff.Change.PROXIES_ONLY,
+                FrpConfigDiff.classify(legacy, legacy.replace("local_port = 22", "local_port = 2222")));
+        assertEquals(FrpConfigDiff.Change.FULL,
+                FrpConfigDiff.classify(legacy, legacy.replace("7400", "7401")));
+        assertEquals(FrpConfigDiff.Change.NONE,
+                FrpConfigDiff.classify(legacy, legacy.replace("type = tcp", "type = tcp # ssh")));
+    }
+}
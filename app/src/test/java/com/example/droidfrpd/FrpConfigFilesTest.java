@@ -0,0 +1,100 @@
+package com.example.droidfrpd;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class FrpConfigFilesTest {
+
+    @Test
+    public void logLevelGoesAfterMultiLineArray() {
+        String config = "serverPort = 7000\n"
+                + "transport.heartbeatTimeout = 90\n"
+                + "serverAddrs = [\n"
+                + "  \"a.example.com:7000\",\n"
+                + "  \"b.example.com:7000\",\n"
+                + "]\n"
+                + "\n"
+                + "[[proxies]]\n"
+                + "name = \"ssh\"\n"
+                + "type = \"tcp\"\n"
+                + "localPort = 22\n";
+        String expected = "serverPort = 7000\n"
+                + "transport.heartbeatTimeout = 90\n"
+                + "serverAddrs = [\n"
+                + "  \"a.example.com:7000\",\n"
+                + "  \"b.example.com:7000\",\n"
+                + "]\n"
+                + "log.level = \"warn\"\n"
+                + "\n"
+                + "[[proxies]]\n"
+                + "name = \"ssh\"\n"
+                + "type = \"tcp\"\n"
+                + "localPort = 22\n";
+        String updated = FrpConfigFiles.withLogLevel(config, "warn");
+        assertEquals(expected, updated);
+        assertFalse(FrpConfigValidator.validate(updated, false).hasErrors());
+    }
+
+    @Test
+    public void logLevelAfterArrayWithoutTables() {
+        String config = "serverAddrs = [\n  \"a:7000\",\n  \"b:7000\"]\n";
+        assertEquals("serverAddrs = [\n  \"a:7000\",\n  \"b:7000\"]\nlog.level = \"debug\"\n",
+                FrpConfigFiles.withLogLevel(config, "debug"));
+    }
+
+    @Test
+    public void logLevelBeforeFirstTableWithoutTopLevelKeys() {
+        assertEquals("log.level = \"info\"\n[[proxies]]\nname = \"ssh\"",
+                FrpConfigFiles.withLogLevel("[[proxies]]\nname = \"ssh\"", "info"));
+    }
+
+    @Test
+    public void existingLogLevelIsReplaced() {
+        assertEquals("serverAddr = \"x\"\nlog.level = \"error\"\n",
+                FrpConfigFiles.withLogLevel("serverAddr = \"x\"\nlog.level = \"info\"\n", "error"));
+        assertEquals("[log]\nlevel = \"trace\"\n",
+                FrpConfigFiles.withLogLevel("[log]\nlevel = \"info\"\n", "trace"));
+    }
+
+    @Test
+    public void arrayContentIsNotMistakenForKeys() {
+        // 数组中的内联表不是顶层键
+        String config = "serverAddrs = [\n  { level = \"x\" },\n]\n";
+        assertEquals(config + "log.level = \"warn\"\n", FrpConfigFiles.withLogLevel(config, "warn"));
+    }
+
+    @Test
+    public void legacyLogLevelGoesIntoCommon() {
+        assertEquals("[common]\nlog_level = \"warn\"\nserver_addr = x\n",
+                FrpConfigFiles.withLogLevel("[common]\nserver_addr = x\n", "warn"));
+    }
+
+    @Test
+    public void proxyNamesExpandLegacyRangeSections() {
+        String config = "[common]\nserver_addr = x\n"
+                + "[ssh]\ntype = tcp\nlocal_port = 22\n"
+                + "[range:web]\ntype = tcp\nlocal_port = 8000-8002,8005\nremote_port = 9000-9002,9005\n"
+                + "[secret_visitor]\nrole = visitor\nserver_name = ssh\n";
+        assertEquals(Arrays.asList("ssh", "web_0", "web_1", "web_2", "web_3"), FrpConfigFiles.proxyNames(config));
+    }
+
+    @Test
+    public void proxyNamesOfCompiledTemplate() {
+        String template = "serverAddr = \"x\"\n[defaults]\ntype = \"tcp\"\n"
+                + "[[templates]]\nname = \"web-{port}\"\nports = \"8000-8001\"\nlocalPort = \"{port}\"\n";
+        FrpTemplateCompiler.Result compiled = FrpTemplateCompiler.compile(template);
+        assertEquals(Arrays.asList("web-8000", "web-8001"), FrpConfigFiles.proxyNames(compiled.output));
+    }
+
+    @Test
+    public void proxyNamesSkipGoTemplates() {
+        String config = "{{- range $_, $v := parseNumberRangePair \"6000-6001\" \"6000-6001\" }}\n"
+                + "[[proxies]]\nname = \"tcp-{{ $v.First }}\"\n{{- end }}\n";
+        assertEquals(Collections.<String>emptyList(), FrpConfigFiles.proxyNames(config));
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.droidfrpd;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FrpLogParserTest {
+
+    private static FrpLogParser parser(String text, int stream) {
+        return new FrpLogParser(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), stream);
+    }
+
+    @Test
+    public void parsesStructuredLine() throws IOException {
+        FrpLogParser parser = parser("2025-01-01 12:00:00.000 [W] [client/control.go:168] "
+                + "[4e0a3b9a2f1c8d7e] [ssh] start error: port unavailable\n", LogSegmentStore.STREAM_OUT);
+        FrpLogEvent event = new FrpLogEvent();
+        assertTrue(parser.next(event));
+        assertTrue(event.structured);
+        assertEquals(LogLevel.WARN, event.level);
+        assertEquals("client/control.go:168", event.sourceString());
+        assertEquals("ssh", event.getProxy());
+        assertEquals("start error: port unavailable", event.messageString());
+        assertFalse(parser.next(event));
+    }
+
+    @Test
+    public void timestampIsArrivalTimeAndFrpTimeStaysInText() throws IOException {
+        // frp 的时间与设备时区无关，不用于排序
+        String line = "2001-02-03 04:05:06.789 [I] [client/service.go:295] login to server success";
+        long before = System.currentTimeMillis();
+        FrpLogEvent event = new FrpLogEvent();
+        assertTrue(parser(line + "\n", LogSegmentStore.STREAM_OUT).next(event));
+        long after = System.currentTimeMillis();
+        assertTrue(event.timestamp >= before && event.timestamp <= after);
+        assertEquals(line, event.textString());
+        assertEquals("login to server success", event.messageString());
+    }
+
+    @Test
+    public void unstructuredStderrIsError() throws IOException {
+        FrpLogEvent event = new FrpLogEvent();
+        assertTrue(parser("panic: runtime error\r\n", LogSegmentStore.STREAM_ERR).next(event));
+        assertFalse(event.structured);
+        assertEquals(LogLevel.ERROR, event.level);
+        assertEquals("panic: runtime error", event.textString());
+        assertNull(event.getProxy());
+    }
+
+    @Test
+    public void stripsAnsiColorsAndReadsLastLineWithoutNewline() throws IOException {
+        FrpLogParser parser = parser("\u001b[1;34m2025/01/01 12:00:00 [I] [proxy/proxy.go:204] [web] "
+                + "get a user connection\u001b[0m", LogSegmentStore.STREAM_OUT);
+        FrpLogEvent event = new FrpLogEvent();
+        assertTrue(parser.next(event));
+        assertTrue(event.structured);
+        assertEquals("web", event.getProxy());
+        assertEquals("get a user connection", event.messageString());
+        assertFalse(parser.next(event));
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.droidfrpd;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FrpTemplateCompilerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String TEMPLATE = "serverAddr = \"example.com\"\n"
+            + "serverPort = 7000\n"
+            + "\n"
+            + "[defaults]\n"
+            + "type = \"tcp\"\n"
+            + "localIP = \"127.0.0.1\"\n"
+            + "\n"
+            + "[[templates]]\n"
+            + "name = \"cam-{host}-{port}\"\n"
+            + "hosts = [\"10.0.0.2\", \"10.0.0.3\"]\n"
+            + "ports = \"8000-8001\"\n"
+            + "localIP = \"{host}\"\n"
+            + "localPort = \"{port}\"\n"
+            + "remotePort = \"{index+9000}\"\n"
+            + "metadatas.slot = \"slot-{index}\"\n";
+
+    @Test
+    public void isTemplate() {
+        assertTrue(FrpTemplateCompiler.isTemplate(TEMPLATE));
+        assertFalse(FrpTemplateCompiler.isTemplate("serverAddr = \"x\"\n[[proxies]]\nname = \"templates\"\n"));
+    }
+
+    @Test
+    public void expandsHostsAndPorts() {
+        FrpTemplateCompiler.Result result = FrpTemplateCompiler.compile(TEMPLATE);
+        assertTrue(result.errors.toString(), result.errors.isEmpty());
+        assertEquals(4, result.proxyCount);
+        assertEquals(Arrays.asList("cam-10.0.0.2-8000", "cam-10.0.0.2-8001", "cam-10.0.0.3-8000", "cam-10.0.0.3-8001"),
+                FrpConfigFiles.proxyNames(result.output));
+        // {port} 单独出现时输出整数，与其他文本组合时输出字符串
+        assertTrue(result.output, result.output.contains("localPort = 8001\nremotePort = 9003\n"));
+        assertTrue(result.output, result.output.contains("localIP = \"10.0.0.3\"\n"));
+        assertTrue(result.output, result.output.contains("metadatas.slot = \"slot-3\"\n"));
+        assertFalse(result.output, result.output.contains("[defaults]"));
+        assertFalse(FrpConfigValidator.validate(result.output, false).hasErrors());
+    }
+
+    @Test
+    public void identicalProxiesAreMergedAndConflictsReported() {
+        String duplicate = "[[proxies]]\nname = \"ssh\"\ntype = \"tcp\"\nlocalPort = 22\n";
+        FrpTemplateCompiler.Result result = FrpTemplateCompiler.compile("[defaults]\n" + duplicate + duplicate);
+        assertEquals(1, result.proxyCount);
+
+        result = FrpTemplateCompiler.compile("[defaults]\n" + duplicate + duplicate.replace("22", "2222"));
+        assertNull(result.output);
+        assertEquals(6, result.errors.get(0).line);
+    }
+
+    @Test
+    public void reportsBadRangesAndPlaceholders() {
+        FrpTemplateCompiler.Result result = FrpTemplateCompiler.compile(
+                "[[templates]]\nname = \"x-{port}\"\nports = \"9-1\"\n");
+        assertNull(result.output);
+        assertEquals(3, result.errors.get(0).line);
+
+        result = FrpTemplateCompiler.compile("[[templates]]\nname = \"x-{host}\"\nports = \"1-2\"\n");
+        assertNull(result.output);
+        assertTrue(result.errors.get(0).message, result.errors.get(0).message.contains("no 'hosts' set"));
+
+        result = FrpTemplateCompiler.compile("[[templates]]\nname = \"x-{port}\"\nports = \"1-"
+                + (FrpTemplateCompiler.MAX_PROXIES + 1) + "\"\n");
+        assertNull(result.output);
+    }
+
+    @Test
+    public void compiledOutputIsCachedByTemplateHash() throws IOException {
+        File compiled = new File(folder.getRoot(), "compiled/frpc.toml");
+        FrpTemplateCompiler.Result first = FrpTemplateCompiler.compileCached(TEMPLATE, compiled);
+        assertFalse(first.cached);
+        FrpTemplateCompiler.Result second = FrpTemplateCompiler.compileCached(TEMPLATE, compiled);
+        assertTrue(second.cached);
+        assertEquals(first.output, second.output);
+        assertEquals(4, second.proxyCount);
+        FrpTemplateCompiler.Result changed = FrpTemplateCompiler.compileCached(TEMPLATE.replace("8001", "8002"), compiled);
+        assertFalse(changed.cached);
+        assertEquals(6, changed.proxyCount);
+    }
+}
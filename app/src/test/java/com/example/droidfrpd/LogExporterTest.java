@@ -0,0 +1,52 @@
+package com.example.droidfrpd;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class LogExporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void deduplicatesBySequenceAcrossClockStep() throws Exception {
+        LogSegmentStore store = new LogSegmentStore(folder.newFolder("logs"), LogSegmentStore.DEFAULT_MAX_BYTES);
+        store.open();
+        LogRingBuffer buffer = new LogRingBuffer(16);
+        // 存储打开前的日志只在环形缓冲区中
+        buffer.append(5000, LogLevel.INFO, LogSegmentStore.STREAM_SERVICE, null, null, "early");
+        long[] timestamps = {6000, 7000, 100};
+        for (int i = 0; i < timestamps.length; i++) {
+            long seq = buffer.append(timestamps[i], LogLevel.INFO, LogSegmentStore.STREAM_SERVICE, null, null,
+                    "stored " + i);
+            store.append(seq, timestamps[i], LogLevel.INFO, LogSegmentStore.STREAM_SERVICE, null, "stored " + i);
+        }
+        // 时钟回拨后只写入了环形缓冲区的日志
+        buffer.append(50, LogLevel.INFO, LogSegmentStore.STREAM_SERVICE, null, null, "late");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(5, new LogExporter(store, buffer).export(out, null));
+        store.close();
+
+        List<String> texts = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())), StandardCharsets.UTF_8));
+        for (String line; (line = reader.readLine()) != null; ) {
+            texts.add(line.substring(line.indexOf("] ") + 2));
+        }
+        assertEquals(Arrays.asList("early", "stored 0", "stored 1", "stored 2", "late"), texts);
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.droidfrpd;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class LogIndexTest {
+
+    private static void add(LogIndex index, int level, String proxy, String message) {
+        index.add(0, level, LogSegmentStore.STREAM_OUT, "frpc", proxy, message);
+    }
+
+    private static String[] search(LogIndex index, LogIndex.Query query) {
+        LogRingBuffer.Batch batch = new LogRingBuffer.Batch();
+        index.query(query, 100, batch);
+        return Arrays.copyOf(batch.messages, batch.count);
+    }
+
+    @Test
+    public void intersectsLevelProxyAndTerms() {
+        LogIndex index = new LogIndex(16);
+        add(index, LogLevel.INFO, "web", "start proxy success");
+        add(index, LogLevel.WARN, "web", "login failed, retry");
+        add(index, LogLevel.WARN, "ssh", "login failed, retry");
+        add(index, LogLevel.ERROR, "web", "connection refused");
+
+        assertEquals(Arrays.asList("login failed, retry", "connection refused"),
+                Arrays.asList(search(index, new LogIndex.Query("", LogLevel.WARN, LogIndex.ANY_STREAM, "web"))));
+        assertEquals(Arrays.asList("login failed, retry"),
+                Arrays.asList(search(index, new LogIndex.Query("LOGIN failed", LogLevel.WARN,
+                        LogIndex.ANY_STREAM, "web"))));
+        assertEquals(0, search(index, new LogIndex.Query("refused", LogLevel.INFO,
+                LogIndex.ANY_STREAM, "ssh")).length);
+    }
+
+    @Test
+    public void lastWordMatchesAsPrefix() {
+        LogIndex index = new LogIndex(16);
+        add(index, LogLevel.INFO, null, "dial tcp 192.168.1.20:7000");
+        add(index, LogLevel.INFO, null, "dial tcp 10.0.0.1:7000");
+        add(index, LogLevel.INFO, null, "login to server success");
+
+        assertEquals(Arrays.asList("dial tcp 192.168.1.20:7000"),
+                Arrays.asList(search(index, new LogIndex.Query("192.168.1", LogLevel.TRACE,
+                        LogIndex.ANY_STREAM, null))));
+        assertEquals(Arrays.asList("login to server success"),
+                Arrays.asList(search(index, new LogIndex.Query("log", LogLevel.TRACE, LogIndex.ANY_STREAM, null))));
+        // 词内只有最后一个词元按前缀匹配
+        assertEquals(0, search(index, new LogIndex.Query("192.16.1", LogLevel.TRACE,
+                LogIndex.ANY_STREAM, null)).length);
+    }
+
+    @Test
+    public void evictedLinesDropOutAfterWrapAround() {
+        LogIndex index = new LogIndex(4);
+        for (int i = 0; i < 10; i++) {
+            add(index, i % 2 == 0 ? LogLevel.WARN : LogLevel.INFO, "p" + i, "line" + i + " common");
+        }
+        assertEquals(Arrays.asList("line6 common", "line7 common", "line8 common", "line9 common"),
+                Arrays.asList(search(index, new LogIndex.Query("common", LogLevel.TRACE,
+                        LogIndex.ANY_STREAM, null))));
+        assertEquals(Arrays.asList("line6 common", "line8 common"),
+                Arrays.asList(search(index, new LogIndex.Query("", LogLevel.WARN, LogIndex.ANY_STREAM, null))));
+        assertEquals(0, search(index, new LogIndex.Query("line2", LogLevel.TRACE,
+                LogIndex.ANY_STREAM, null)).length);
+        assertEquals(Arrays.asList("p6", "p7", "p8", "p9"), index.getProxies());
+    }
+
+    @Test
+    public void returnsNewestMatchesAndTotalCount() {
+        LogIndex index = new LogIndex(32);
+        for (int i = 0; i < 20; i++) {
+            add(index, LogLevel.INFO, null, "tick " + i);
+        }
+        LogRingBuffer.Batch batch = new LogRingBuffer.Batch();
+        assertEquals(20, index.query(new LogIndex.Query("tick", LogLevel.TRACE, LogIndex.ANY_STREAM, null),
+                3, batch));
+        assertEquals(3, batch.count);
+        assertEquals("tick 17", batch.messages[0]);
+        assertEquals("tick 19", batch.messages[2]);
+    }
+
+    @Test
+    public void staleTokensAreDroppedAsTheWindowMoves() {
+        LogIndex index = new LogIndex(64);
+        for (int i = 0; i < 5000; i++) {
+            add(index, LogLevel.INFO, null, "Request id" + i + " served");
+        }
+        assertEquals(Arrays.asList("Request id4999 served"),
+                Arrays.asList(search(index, new LogIndex.Query("ID4999", LogLevel.TRACE, LogIndex.ANY_STREAM, null))));
+        assertEquals(0, search(index, new LogIndex.Query("id4000", LogLevel.TRACE,
+                LogIndex.ANY_STREAM, null)).length);
+        LogRingBuffer.Batch batch = new LogRingBuffer.Batch();
+        assertEquals(64, index.query(new LogIndex.Query("request served", LogLevel.TRACE,
+                LogIndex.ANY_STREAM, null), 100, batch));
+    }
+}
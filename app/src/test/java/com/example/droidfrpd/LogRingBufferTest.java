@@ -0,0 +1,87 @@
+package com.example.droidfrpd;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LogRingBufferTest {
+
+    private static void append(LogRingBuffer buffer, long seq) {
+        buffer.append(seq, LogLevel.INFO, LogSegmentStore.STREAM_OUT, "frpc", null, "line " + seq);
+    }
+
+    @Test
+    public void readsSinceCursor() {
+        LogRingBuffer buffer = new LogRingBuffer(8);
+        for (int i = 0; i < 5; i++) {
+            append(buffer, i);
+        }
+        LogRingBuffer.Batch batch = new LogRingBuffer.Batch();
+        assertEquals(5, buffer.readSince(2, batch));
+        assertEquals(2, batch.firstSequence);
+        assertEquals(3, batch.count);
+        assertEquals(0, batch.dropped);
+        assertEquals("line 2", batch.messages[0]);
+        assertEquals(4, batch.timestamps[2]);
+    }
+
+    @Test
+    public void cursorZeroOnWrappedBufferIsNotADrop() {
+        LogRingBuffer buffer = new LogRingBuffer(8);
+        for (int i = 0; i < 20; i++) {
+            append(buffer, i);
+        }
+        LogRingBuffer.Batch batch = new LogRingBuffer.Batch();
+        assertEquals(20, buffer.readSince(0, batch));
+        assertEquals(12, batch.firstSequence);
+        assertEquals(8, batch.count);
+        assertEquals(0, batch.dropped);
+    }
+
+    @Test
+    public void laggingReaderCountsDrops() {
+        LogRingBuffer buffer = new LogRingBuffer(8);
+        for (int i = 0; i < 20; i++) {
+            append(buffer, i);
+        }
+        LogRingBuffer.Batch batch = new LogRingBuffer.Batch();
+        buffer.readSince(5, batch);
+        assertEquals(12, batch.firstSequence);
+        assertEquals(7, batch.dropped);
+        batch.clear();
+        assertNull(batch.messages[0]);
+    }
+
+    @Test
+    public void concurrentReadsNeverSeeTornEntries() throws Exception {
+        final LogRingBuffer buffer = new LogRingBuffer(64);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final long lines = 200000;
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (long i = 0; i < lines; i++) {
+                    append(buffer, i);
+                }
+            }
+        });
+        writer.start();
+        LogRingBuffer.Batch batch = new LogRingBuffer.Batch();
+        long cursor = 0;
+        while (writer.isAlive() || cursor < lines) {
+            cursor = buffer.readSince(cursor, batch);
+            for (int k = 0; k < batch.count; k++) {
+                long seq = batch.firstSequence + k;
+                if (batch.timestamps[k] != seq || !("line " + seq).equals(batch.messages[k])) {
+                    failure.compareAndSet(null, "entry " + seq + " read as " + batch.timestamps[k]
+                            + " / " + batch.messages[k]);
+                }
+            }
+        }
+        writer.join();
+        assertNull(failure.get());
+    }
+}
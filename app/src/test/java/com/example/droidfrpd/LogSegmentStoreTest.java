@@ -0,0 +1,78 @@
+package com.example.droidfrpd;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class LogSegmentStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LogSegmentStore store;
+    private long sequence;
+
+    @Before
+    public void setUp() throws IOException {
+        store = new LogSegmentStore(folder.newFolder("logs"), LogSegmentStore.DEFAULT_MAX_BYTES);
+        store.open();
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    private void append(long timestamp, String message) {
+        store.append(sequence++, timestamp, LogLevel.INFO, LogSegmentStore.STREAM_SERVICE, null, message);
+    }
+
+    private String[] query(long from, long to) {
+        LogRingBuffer.Batch batch = new LogRingBuffer.Batch();
+        store.query(from, to, 100, batch);
+        return Arrays.copyOf(batch.messages, batch.count);
+    }
+
+    @Test
+    public void queriesTimeRange() {
+        for (int i = 1; i <= 5; i++) {
+            append(i * 1000L, "line " + i);
+        }
+        assertEquals(Arrays.asList("line 2", "line 3", "line 4"), Arrays.asList(query(2000, 4000)));
+        assertEquals(0, query(6000, 7000).length);
+    }
+
+    @Test
+    public void clockStepBackwardsKeepsBothSidesQueryable() {
+        append(1_000_000L, "before 1");
+        append(2_000_000L, "before 2");
+        // 时钟被调回到更早的时间
+        append(500L, "after 1");
+        append(600L, "after 2");
+
+        assertEquals(Arrays.asList("after 1", "after 2"), Arrays.asList(query(0, 1000)));
+        assertEquals(Arrays.asList("before 2"), Arrays.asList(query(1_500_000L, 2_500_000L)));
+        assertEquals(Arrays.asList("before 1", "before 2", "after 1", "after 2"),
+                Arrays.asList(query(0, Long.MAX_VALUE)));
+        assertEquals(2, store.snapshot().segments.size());
+    }
+
+    @Test
+    public void snapshotReportsStoredSequences() {
+        LogSegmentStore.Snapshot empty = store.snapshot();
+        assertEquals(-1, empty.firstSequence);
+        sequence = 7;
+        append(1000, "a");
+        append(900, "b");
+        LogSegmentStore.Snapshot snapshot = store.snapshot();
+        assertEquals(7, snapshot.firstSequence);
+        assertEquals(8, snapshot.lastSequence);
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.droidfrpd;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MetricSeriesTest {
+
+    private static final long M = MetricSeries.MISSING;
+    private static final long T0 = 1700000000000L;
+
+    private static long[] seconds(MetricSeries series, int channel, long nowMillis, int count) {
+        long[] out = new long[count];
+        series.readSeconds(channel, nowMillis, out, count);
+        return out;
+    }
+
+    @Test
+    public void readsBackRecordedValuesWithGaps() {
+        MetricSeries series = new MetricSeries(2);
+        series.record(T0, new long[]{5, 1});
+        series.record(T0 + 1000, new long[]{7, 0});
+        series.record(T0 + 3000, new long[]{12, 1});
+        assertArrayEquals(new long[]{M, 5, 7, M, 12}, seconds(series, 0, T0 + 3000, 5));
+        assertArrayEquals(new long[]{1, 0, M, 1, M}, seconds(series, 1, T0 + 4000, 5));
+    }
+
+    @Test
+    public void lastSampleInSecondWins() {
+        MetricSeries series = new MetricSeries(1);
+        series.record(T0, new long[]{1});
+        series.record(T0 + 1000, new long[]{2});
+        series.record(T0 + 1500, new long[]{9});
+        assertArrayEquals(new long[]{1, 9}, seconds(series, 0, T0 + 1999, 2));
+    }
+
+    @Test
+    public void largeCountersAndResets() {
+        MetricSeries series = new MetricSeries(1);
+        long big = 50L * 1024 * 1024 * 1024;
+        series.record(T0, new long[]{big});
+        series.record(T0 + 1000, new long[]{big + 100});
+        // 计数器重置：之前的点无法还原
+        series.record(T0 + 2000, new long[]{3});
+        series.record(T0 + 3000, new long[]{4});
+        assertArrayEquals(new long[]{M, M, 3, 4}, seconds(series, 0, T0 + 3000, 4));
+
+        series = new MetricSeries(1);
+        series.record(T0, new long[]{big});
+        series.record(T0 + 1000, new long[]{big + 100});
+        assertArrayEquals(new long[]{big, big + 100}, seconds(series, 0, T0 + 1000, 2));
+    }
+
+    @Test
+    public void missingChannelIsNotStored() {
+        MetricSeries series = new MetricSeries(2);
+        series.record(T0, new long[]{1, M});
+        series.record(T0 + 1000, new long[]{1, 40});
+        series.record(T0 + 2000, new long[]{1, M});
+        series.record(T0 + 3000, new long[]{1, 42});
+        assertArrayEquals(new long[]{M, 40, M, 42}, seconds(series, 1, T0 + 3000, 4));
+    }
+
+    @Test
+    public void oldPointsExpire() {
+        MetricSeries series = new MetricSeries(1);
+        series.record(T0, new long[]{1});
+        long later = T0 + MetricSeries.FINE_SLOTS * 1000L;
+        series.record(later, new long[]{2});
+        long[] out = seconds(series, 0, later, MetricSeries.FINE_SLOTS);
+        assertEquals(2, out[MetricSeries.FINE_SLOTS - 1]);
+        for (int i = 0; i < MetricSeries.FINE_SLOTS - 1; i++) {
+            assertEquals(M, out[i]);
+        }
+    }
+
+    @Test
+    public void coarseKeepsLastValuePerInterval() {
+        MetricSeries series = new MetricSeries(1);
+        long start = (T0 / 1000 / MetricSeries.COARSE_SECONDS) * MetricSeries.COARSE_SECONDS * 1000;
+        series.record(start, new long[]{10});
+        series.record(start + 1000, new long[]{11});
+        series.record(start + MetricSeries.COARSE_SECONDS * 1000L, new long[]{20});
+        series.record(start + MetricSeries.COARSE_SECONDS * 3000L, new long[]{30});
+        long[] out = new long[4];
+        series.readCoarse(0, start + MetricSeries.COARSE_SECONDS * 3000L, out, 4);
+        assertArrayEquals(new long[]{11, 20, M, 30}, out);
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.droidfrpd;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TomlParserTest {
+
+    // 把回调记录为 "table path"、"key=type:value"、"error line:column" 形式的字符串
+    private static List<String> parse(String content) {
+        final List<String> events = new ArrayList<>();
+        TomlParser.parse(content, new TomlParser.Handler() {
+            @Override
+            public void onTable(String path, boolean arrayTable, int line, int column) {
+                events.add((arrayTable ? "[[" + path + "]]" : "[" + path + "]") + "@" + line);
+            }
+
+            @Override
+            public void onValue(String key, int type, Object value, int line, int column) {
+                events.add(key + "=" + TomlParser.TYPE_NAMES[type] + ":" + value);
+            }
+
+            @Override
+            public void onError(int line, int column, String message) {
+                events.add("error " + line + ":" + column);
+            }
+        });
+        return events;
+    }
+
+    @Test
+    public void scalarsAndTables() {
+        assertEquals(Arrays.asList(
+                "serverAddr=string:example.com",
+                "serverPort=integer:7000",
+                "transport.tls.enable=boolean:true",
+                "ratio=float:0.5",
+                "[[proxies]]@5",
+                "proxies.name=string:ssh",
+                "proxies.localPort=integer:22"),
+                parse("serverAddr = \"example.com\" # comment\n"
+                        + "serverPort = 7_000\n"
+                        + "transport.tls.enable = true\n"
+                        + "ratio = 0.5\n"
+                        + "[[proxies]]\n"
+                        + "name = 'ssh'\n"
+                        + "localPort = 22\n"));
+    }
+
+    @Test
+    public void arraysInlineTablesAndMultilineStrings() {
+        assertEquals(Arrays.asList(
+                "serverAddrs=array:[a:7000, b:7000]",
+                "auth.method=string:token",
+                "auth.token=string:x",
+                "note=string:line1\nline2"),
+                parse("serverAddrs = [\n  \"a:7000\",\n  \"b:7000\", # second\n]\n"
+                        + "auth = { method = \"token\", token = \"x\" }\n"
+                        + "note = \"\"\"\nline1\nline2\"\"\"\n"));
+    }
+
+    @Test
+    public void escapes() {
+        assertEquals(Arrays.asList("s=string:a\"b\té"), parse("s = \"a\\\"b\\t\\u00E9\"\n"));
+    }
+
+    @Test
+    public void reportsErrorsAndContinues() {
+        List<String> events = parse("a = \nb = 1\nb = 2\nc = \"open\nd = true\n");
+        assertTrue(events.toString(), events.contains("error 1:5"));
+        assertTrue(events.toString(), events.contains("b=integer:1"));
+        assertTrue(events.toString(), events.contains("error 3:1"));
+        assertTrue(events.toString(), events.contains("d=boolean:true"));
+    }
+
+    @Test
+    public void duplicateTableIsAnErrorButArrayTablesRepeat() {
+        List<String> events = parse("[log]\nlevel = \"info\"\n[log]\n[[proxies]]\nname = \"a\"\n[[proxies]]\nname = \"a\"\n");
+        assertTrue(events.toString(), events.contains("error 3:1"));
+        assertEquals(2, countOf(events, "proxies.name=string:a"));
+    }
+
+    private static int countOf(List<String> events, String event) {
+        int count = 0;
+        for (String e : events) {
+            if (e.equals(event)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}